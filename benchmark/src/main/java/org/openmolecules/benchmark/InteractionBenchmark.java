@@ -0,0 +1,62 @@
+package org.openmolecules.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openmolecules.fx.viewer3d.V3DMolecule;
+import org.openmolecules.fx.viewer3d.interactions.V3DInteraction;
+import org.openmolecules.fx.viewer3d.interactions.V3DInteractionCalculator;
+import org.openmolecules.fx.viewer3d.interactions.V3DInteractionPoint;
+import org.openmolecules.fx.viewer3d.interactions.V3DInteractionSites;
+import org.openmolecules.fx.viewer3d.interactions.drugscore.DrugScoreInteractionCalculator;
+import org.openmolecules.fx.viewer3d.interactions.plip.PLIPInteractionCalculator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the classification of interaction sites and the determination of interactions
+ * between a ligand and a surrounding shell of molecules, which stands in for a binding pocket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw" })
+@State(Scope.Thread)
+public class InteractionBenchmark {
+	private static final double SHELL_RADIUS = 9.0;
+
+	@Param({ "drugscore", "plip" })
+	public String calculator;
+
+	@Param({ "16", "64" })
+	public int shellMolecules;
+
+	private V3DInteractionCalculator mCalculator;
+	private V3DMolecule mReceptor;
+	private V3DInteractionSites mLigandSites,mReceptorSites;
+	private TreeMap<Integer,ArrayList<V3DInteraction>> mInteractionMap;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		TestStructures.startFX();
+		mCalculator = calculator.equals("plip") ? new PLIPInteractionCalculator() : new DrugScoreInteractionCalculator();
+		V3DMolecule ligand = new V3DMolecule(TestStructures.getLigand(), 1, V3DMolecule.MoleculeRole.LIGAND);
+		mReceptor = new V3DMolecule(TestStructures.getShell(TestStructures.getLigand(), shellMolecules, SHELL_RADIUS), 2, V3DMolecule.MoleculeRole.MACROMOLECULE);
+		mLigandSites = new V3DInteractionSites(ligand, mCalculator);
+		mReceptorSites = new V3DInteractionSites(mReceptor, mCalculator);
+		mInteractionMap = new TreeMap<>();
+		}
+
+	@Benchmark
+	public List<V3DInteractionPoint> determineInteractionPoints() {
+		return mCalculator.determineInteractionPoints(mReceptor);
+		}
+
+	@Benchmark
+	public TreeMap<Integer,ArrayList<V3DInteraction>> determineInteractions() {
+		mCalculator.determineInteractions(mLigandSites, mReceptorSites, mInteractionMap);
+		return mInteractionMap;
+		}
+	}
@@ -0,0 +1,81 @@
+package org.openmolecules.benchmark;
+
+import com.actelion.research.chem.Coordinates;
+import com.actelion.research.chem.StereoMolecule;
+import org.openjdk.jmh.annotations.*;
+import org.openmolecules.render.CachingMoleculeBuilder;
+import org.openmolecules.render.MoleculeArchitect;
+import org.openmolecules.render.MoleculeBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a molecule into atom spheres, bond cylinders and cones by the
+ * MoleculeArchitect, passing the primitives through a CachingMoleculeBuilder as done for
+ * ray-tracing. The final builder only sums up the primitives' positions, such that neither
+ * JavaFX nor SunFlow costs are included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+@State(Scope.Thread)
+public class MoleculeArchitectBenchmark {
+	@Param({ "1", "64" })
+	public int molecules;
+
+	@Param({ "ballAndSticks", "sticks", "balls", "wires" })
+	public String constructionMode;
+
+	private StereoMolecule mMol;
+	private MoleculeArchitect mArchitect;
+	private ChecksumBuilder mBuilder;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		mMol = TestStructures.getMoleculeGrid(molecules);
+		mBuilder = new ChecksumBuilder();
+		mArchitect = new MoleculeArchitect(new CachingMoleculeBuilder(mBuilder));
+		for (int i=0; i<MoleculeArchitect.CONSTRUCTION_MODE_CODE.length; i++)
+			if (MoleculeArchitect.CONSTRUCTION_MODE_CODE[i].equals(constructionMode))
+				mArchitect.setConstructionMode(i);
+		}
+
+	@Benchmark
+	public double buildMolecule() {
+		mArchitect.buildMolecule(mMol);
+		return mBuilder.getChecksum();
+		}
+
+	private static class ChecksumBuilder implements MoleculeBuilder {
+		private double mChecksum;
+
+		public double getChecksum() {
+			return mChecksum;
+			}
+
+		@Override
+		public void init() {
+			mChecksum = 0;
+			}
+
+		@Override
+		public void done() {}
+
+		@Override
+		public void addAtomSphere(int role, Coordinates c, double radius, int argb) {
+			mChecksum += c.x + c.y + c.z + radius;
+			}
+
+		@Override
+		public void addBondCylinder(int role, double radius, double length, Coordinates c, double rotationY, double rotationZ, int argb) {
+			mChecksum += c.x + c.y + c.z + length;
+			}
+
+		@Override
+		public void addAtomCone(int role, double radius, double height, Coordinates c, double rotationY, double rotationZ, int argb) {
+			mChecksum += c.x + c.y + c.z + height;
+			}
+		}
+	}
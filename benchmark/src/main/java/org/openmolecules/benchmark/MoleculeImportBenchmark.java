@@ -0,0 +1,69 @@
+package org.openmolecules.benchmark;
+
+import com.actelion.research.chem.MolfileCreator;
+import com.actelion.research.chem.StereoMolecule;
+import org.openjdk.jmh.annotations.*;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculeParser;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculeStream;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the import of an SD-file with 3D-coordinates by V3DMoleculeParser, both loading
+ * all records at once and streaming them. The file is written from the bundled test molecules
+ * before the trial, repeating them as often as needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+@State(Scope.Thread)
+public class MoleculeImportBenchmark {
+	private static final int STREAM_WINDOW = 256;
+
+	@Param({ "64", "4096" })
+	public int records;
+
+	private File mFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		mFile = File.createTempFile("benchmark", ".sdf");
+		List<StereoMolecule> mols = TestStructures.getMolecules();
+		try (Writer writer = new BufferedWriter(new FileWriter(mFile))) {
+			for (int i=0; i<records; i++) {
+				StereoMolecule mol = mols.get(i % mols.size());
+				mol.setName("record"+i);
+				new MolfileCreator(mol).writeMolfile(writer);
+				writer.write("\n$$$$\n");
+				}
+			}
+		}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mFile.delete();
+		}
+
+	@Benchmark
+	public List<StereoMolecule> parseChemFile() {
+		return V3DMoleculeParser.parseChemFile(mFile.getPath());
+		}
+
+	@Benchmark
+	public int streamChemFile() {
+		int atoms = 0;
+		try (V3DMoleculeStream stream = V3DMoleculeParser.streamChemFile(mFile.getPath(), STREAM_WINDOW)) {
+			while (stream.hasNext())
+				atoms += stream.next().getAllAtoms();
+			}
+		return atoms;
+		}
+	}
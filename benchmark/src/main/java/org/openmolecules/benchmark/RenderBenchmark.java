@@ -0,0 +1,456 @@
+package org.openmolecules.benchmark;
+
+import com.actelion.research.chem.Molecule;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.conf.Conformer;
+import org.openmolecules.mesh.MeshBuilder;
+import org.openmolecules.mesh.MoleculeSurfaceAlgorithm;
+import org.openmolecules.render.MoleculeArchitect;
+import org.openmolecules.render.SunflowMoleculeBuilder;
+import org.sunflow.core.Statistics;
+import org.sunflow.core.display.FileDisplay;
+import org.sunflow.system.UI;
+
+import java.awt.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Renders representative molecule scenes with Sunflow under several acceleration structures
+ * and bucket orders and writes render times, ray throughput and peak heap usage into a
+ * tab-separated file. If a baseline file from an earlier run is given, every result is compared
+ * with its baseline counterpart and the exit code is 1, if any scene got slower than allowed.
+ * Unlike the JMH benchmarks this is a plain main class, because a single render takes seconds
+ * and rendering must be repeated for every scene configuration:
+ * <pre>
+ * java -cp target/benchmarks.jar org.openmolecules.benchmark.RenderBenchmark -out base.tsv
+ * java -cp target/benchmarks.jar org.openmolecules.benchmark.RenderBenchmark -baseline base.tsv
+ * </pre>
+ * Options: -out file, -baseline file, -tolerance percent (10), -size pixels (320), -runs n (3),
+ * -scenes a,b,..., -accels a,b,..., -orders a,b,...
+ */
+public class RenderBenchmark {
+	public static final String SCENE_BALL_AND_STICK = "ball-and-stick";
+	public static final String SCENE_PROTEIN_GLASS = "protein-glass";
+	public static final String SCENE_SUNSKY_AO = "sunsky-ao";
+	public static final String SCENE_PHOTON_GI = "photon-gi";
+	public static final String[] SCENES = { SCENE_BALL_AND_STICK, SCENE_PROTEIN_GLASS, SCENE_SUNSKY_AO, SCENE_PHOTON_GI };
+	public static final String[] ACCELERATORS = { "kdtree", "bih", "bvh" };
+	public static final String[] BUCKET_ORDERS = { "hilbert", "spiral", "row" };
+
+	private static final String DEFAULT_OUTPUT_FILE = "render-benchmark.tsv";
+	private static final String[] COLUMNS = { "scene", "accel", "order", "width", "height",
+			"buildMillis", "renderMillis", "minRenderMillis", "rays", "raysPerSecond", "peakHeapBytes" };
+
+	private final int mSize,mRuns;
+	private final Map<String,StereoMolecule> mMolecules;
+	private final Map<String,SurfaceCollector> mSurfaces;
+
+	public static void main(String[] args) {
+		String out = DEFAULT_OUTPUT_FILE;
+		String baseline = null;
+		double tolerance = 10.0;
+		int size = 320;
+		int runs = 3;
+		String[] scenes = SCENES;
+		String[] accels = ACCELERATORS;
+		String[] orders = BUCKET_ORDERS;
+		for (int i=0; i<args.length; i++) {
+			String value = (i+1 < args.length) ? args[i+1] : null;
+			switch (args[i]) {
+				case "-out": out = value; i++; break;
+				case "-baseline": baseline = value; i++; break;
+				case "-tolerance": tolerance = Double.parseDouble(value); i++; break;
+				case "-size": size = Integer.parseInt(value); i++; break;
+				case "-runs": runs = Integer.parseInt(value); i++; break;
+				case "-scenes": scenes = value.split(","); i++; break;
+				case "-accels": accels = value.split(","); i++; break;
+				case "-orders": orders = value.split(","); i++; break;
+				default:
+					System.err.println("Unknown option: "+args[i]);
+					System.exit(2);
+				}
+			}
+
+		UI.set(null);	// Sunflow logs every render
+		RenderBenchmark benchmark = new RenderBenchmark(size, runs);
+		List<Result> results = new ArrayList<>();
+		for (String scene:scenes) {
+			benchmark.run(scene, accels[0], orders[0]);	// warm-up, not recorded
+			for (String accel:accels) {
+				for (String order:orders) {
+					Result result = benchmark.run(scene, accel, order);
+					System.out.println(result);
+					results.add(result);
+					}
+				}
+			}
+
+		try {
+			writeResults(results, out);
+			System.out.println("Results written to "+out);
+			if (baseline != null && !compare(readResults(baseline), results, tolerance))
+				System.exit(1);
+			}
+		catch (IOException ioe) {
+			ioe.printStackTrace();
+			System.exit(2);
+			}
+		}
+
+	/**
+	 * @param size width and height of the rendered images in pixels
+	 * @param runs number of timed renders per configuration; the median is reported
+	 */
+	public RenderBenchmark(int size, int runs) {
+		mSize = size;
+		mRuns = Math.max(1, runs);
+		mMolecules = new HashMap<>();
+		mSurfaces = new HashMap<>();
+		}
+
+	/**
+	 * Builds and renders the given scene mRuns times with a fresh Sunflow instance each time,
+	 * such that the acceleration structures are built within the timed part of every run.
+	 * @param scene one of SCENES
+	 * @param accel Sunflow acceleration structure name
+	 * @param order Sunflow bucket order name
+	 * @return median build and render times, ray throughput and peak heap usage
+	 */
+	public Result run(String scene, String accel, String order) {
+		long[] buildNanos = new long[mRuns];
+		long[] renderNanos = new long[mRuns];
+		Result result = new Result(scene, accel, order, mSize, mSize);
+		for (int i=0; i<mRuns; i++) {
+			System.gc();
+			resetPeakHeapUsage();
+
+			long t0 = System.nanoTime();
+			SunflowMoleculeBuilder mr = buildScene(scene, accel, order);
+			long t1 = System.nanoTime();
+			Statistics.Snapshot[] last = new Statistics.Snapshot[1];
+			mr.getAPI().addStatisticsListener(snapshot -> {
+				if (snapshot.isFinished())
+					last[0] = snapshot;
+				} );
+			mr.render();
+			long t2 = System.nanoTime();
+
+			buildNanos[i] = t1 - t0;
+			renderNanos[i] = t2 - t1;
+			result.peakHeapBytes = Math.max(result.peakHeapBytes, getPeakHeapUsage());
+			if (last[0] != null)
+				result.rays = last[0].getRays(Statistics.RayType.TOTAL);
+			}
+
+		result.buildMillis = median(buildNanos) / 1e6;
+		result.renderMillis = median(renderNanos) / 1e6;
+		result.minRenderMillis = Arrays.stream(renderNanos).min().getAsLong() / 1e6;
+		result.raysPerSecond = result.rays / (result.renderMillis / 1000.0);
+		return result;
+		}
+
+	private SunflowMoleculeBuilder buildScene(String scene, String accel, String order) {
+		SunflowMoleculeBuilder mr = new SunflowMoleculeBuilder();
+		mr.setDisplay(new FileDisplay(false));
+		mr.setBucketOrder(order.intern());	// setBucketOrder() compares with the constant strings by identity
+		mr.setBackgroundColor(-1, -1, -1);
+		mr.setFloorColor(SunflowMoleculeBuilder.DEFAULT_FLOOR_COLOR);
+
+		StereoMolecule mol = getMolecule(scene);
+		SurfaceCollector surface = null;
+		switch (scene) {
+			case SCENE_BALL_AND_STICK:
+				// small molecule with default materials in front of a plain background
+				mr.setRenderMode(MoleculeArchitect.CONSTRUCTION_MODE_BALL_AND_STICKS);
+				mr.setFloorColor(-1, -1, -1);
+				mr.setBackgroundColor(SunflowMoleculeBuilder.DEFAULT_BACKGROUND);
+				mr.initializeScene(mSize, mSize);
+				break;
+			case SCENE_PROTEIN_GLASS:
+				// protein sized structure as sticks within a glass surface, dominated by refraction rays
+				mr.setRenderMode(MoleculeArchitect.CONSTRUCTION_MODE_STICKS);
+				mr.setAtomMaterial(SunflowMoleculeBuilder.MATERIAL_SHINY);
+				mr.initializeScene(mSize, mSize);
+				surface = getSurface(scene, mol);
+				break;
+			case SCENE_SUNSKY_AO:
+				// space filling molecules on a glossy floor, dominated by ambient occlusion and sun shadow rays
+				mr.setRenderMode(MoleculeArchitect.CONSTRUCTION_MODE_BALLS);
+				mr.setAtomMaterial(SunflowMoleculeBuilder.MATERIAL_MATT);
+				mr.setGlossyFloor(true);
+				mr.initializeScene(mSize, mSize);
+				mr.setAmbientOcclusionEngine(Color.LIGHT_GRAY, Color.DARK_GRAY, 128, 2f);
+				break;
+			case SCENE_PHOTON_GI:
+				// binding pocket stand-in lit by the sun and a mesh light, which emits the photons
+				mr.setRenderMode(MoleculeArchitect.CONSTRUCTION_MODE_BALL_AND_STICKS);
+				mr.setAtomMaterial(SunflowMoleculeBuilder.MATERIAL_MATT);
+				mr.setBondMaterial(SunflowMoleculeBuilder.MATERIAL_MATT);
+				mr.initializeScene(mSize, mSize);
+				mr.setIrradianceCacheGIEngine(64, 0.05f, 0.05f, 5.0f, "grid");
+				mr.getAPI().parameter("gi.irr-cache.gmap.emit", 200000);
+				mr.drawMeshLight("photonLight", Color.WHITE, 20f, 8,
+						new float[] { -4f, -4f, 12f, 4f, -4f, 12f, 4f, 4f, 12f, -4f, 4f, 12f },
+						new int[] { 0, 1, 2, 0, 2, 3 } );
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown scene: "+scene);
+			}
+
+		mr.drawMolecule(new Conformer(mol), false, true, -1);
+
+		if (surface != null) {
+			float[] points = surface.getPoints();
+			for (int i=0; i<points.length; i+=3)
+				mr.optimizeCoordinate(points, i);
+			int[] triangles = surface.getTriangles();
+			mr.createSurfaceShader(SunflowMoleculeBuilder.SURFACE_GLASS, null, null, 0f, 0);
+			mr.getAPI().parameter("accel", accel);	// meshes carry their own accelerator
+			mr.drawMesh("surface", points, triangles, createNormals(points, triangles));
+			}
+
+		mr.finalizeScene(-1);
+		mr.getAPI().parameter("accel", accel);	// picked up by the render options for the top level accelerator
+		return mr;
+		}
+
+	private StereoMolecule getMolecule(String scene) {
+		return mMolecules.computeIfAbsent(scene, s -> {
+			switch (s) {
+				case SCENE_BALL_AND_STICK:
+					return TestStructures.getLigand();
+				case SCENE_PROTEIN_GLASS:
+					return TestStructures.getMoleculeGrid(64);
+				case SCENE_SUNSKY_AO:
+					return TestStructures.getMoleculeGrid(16);
+				case SCENE_PHOTON_GI:
+					StereoMolecule ligand = TestStructures.getLigand();
+					StereoMolecule pocket = TestStructures.getShell(ligand, 24, 9.0);
+					pocket.addMolecule(ligand);
+					pocket.ensureHelperArrays(Molecule.cHelperRings);
+					return pocket;
+				default:
+					throw new IllegalArgumentException("Unknown scene: "+s);
+				}
+			} );
+		}
+
+	/**
+	 * The surface is calculated once per scene and not timed, because surface generation
+	 * is covered by SurfaceBenchmark.
+	 * @return points and triangle indexes of the molecule's Connolly surface
+	 */
+	private SurfaceCollector getSurface(String scene, StereoMolecule mol) {
+		return mSurfaces.computeIfAbsent(scene, s -> {
+			SurfaceCollector collector = new SurfaceCollector();
+			new MoleculeSurfaceAlgorithm(mol, MoleculeSurfaceAlgorithm.CONNOLLY, MoleculeSurfaceAlgorithm.DEFAULT_PROBE_SIZE,
+					MoleculeSurfaceAlgorithm.DEFAULT_VOXEL_SIZE, collector);
+			return collector;
+			} );
+		}
+
+	private static float[] createNormals(float[] points, int[] triangles) {
+		float[] normals = new float[points.length];
+		for (int i=0; i<triangles.length; i+=3) {
+			int v0 = 3*triangles[i];
+			int v1 = 3*triangles[i+1];
+			int v2 = 3*triangles[i+2];
+			float ux = points[v1]   - points[v0];
+			float uy = points[v1+1] - points[v0+1];
+			float uz = points[v1+2] - points[v0+2];
+			float vx = points[v2]   - points[v0];
+			float vy = points[v2+1] - points[v0+1];
+			float vz = points[v2+2] - points[v0+2];
+			float nx = uy*vz - uz*vy;
+			float ny = uz*vx - ux*vz;
+			float nz = ux*vy - uy*vx;
+			for (int v:new int[] { v0, v1, v2 }) {
+				normals[v] += nx;
+				normals[v+1] += ny;
+				normals[v+2] += nz;
+				}
+			}
+		for (int i=0; i<normals.length; i+=3) {
+			float l = (float)Math.sqrt(normals[i]*normals[i] + normals[i+1]*normals[i+1] + normals[i+2]*normals[i+2]);
+			if (l != 0f) {
+				normals[i] /= l;
+				normals[i+1] /= l;
+				normals[i+2] /= l;
+				}
+			}
+		return normals;
+		}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+		}
+
+	private static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+
+	/**
+	 * @return sum of the peak usages of all heap pools since the last reset, which may
+	 * slightly exceed the true peak, because the pools don't peak at the same time
+	 */
+	private static long getPeakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		return peak;
+		}
+
+	public static void writeResults(List<Result> results, String fileName) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
+			writer.println("# java "+System.getProperty("java.version")+", "+System.getProperty("os.name")+" "+System.getProperty("os.arch")
+					+", "+Runtime.getRuntime().availableProcessors()+" cores, "+new Date());
+			writer.println(String.join("\t", COLUMNS));
+			for (Result result:results)
+				writer.println(result.toTSV());
+			}
+		}
+
+	public static List<Result> readResults(String fileName) throws IOException {
+		List<Result> results = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#") || line.startsWith(COLUMNS[0]+"\t"))
+					continue;
+				results.add(Result.fromTSV(line));
+				}
+			}
+		return results;
+		}
+
+	/**
+	 * Prints the relative change of the median render time and ray throughput of every
+	 * result, which also exists in the baseline.
+	 * @param tolerance percentage by which a render may be slower than the baseline
+	 * @return false if any render time exceeds the baseline by more than the tolerance
+	 */
+	public static boolean compare(List<Result> baseline, List<Result> results, double tolerance) {
+		Map<String,Result> baselineMap = new HashMap<>();
+		for (Result result:baseline)
+			baselineMap.put(result.getKey(), result);
+
+		boolean passed = true;
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%-16s %-8s %-8s %12s %12s %8s %8s", "scene", "accel", "order", "baseline ms", "current ms", "time", "rays/s"));
+		for (Result result:results) {
+			Result base = baselineMap.get(result.getKey());
+			if (base == null) {
+				System.out.println(String.format(Locale.US, "%-16s %-8s %-8s %12s %12.1f", result.scene, result.accel, result.order, "-", result.renderMillis));
+				continue;
+				}
+			double timeChange = 100.0 * (result.renderMillis / base.renderMillis - 1.0);
+			double rateChange = base.raysPerSecond == 0 ? 0 : 100.0 * (result.raysPerSecond / base.raysPerSecond - 1.0);
+			boolean isRegression = timeChange > tolerance;
+			passed &= !isRegression;
+			System.out.println(String.format(Locale.US, "%-16s %-8s %-8s %12.1f %12.1f %+7.1f%% %+7.1f%%%s", result.scene, result.accel, result.order,
+					base.renderMillis, result.renderMillis, timeChange, rateChange, isRegression ? "  REGRESSION" : ""));
+			}
+		System.out.println(passed ? "No render got slower by more than "+tolerance+"%"
+								  : "Some renders got slower by more than "+tolerance+"%");
+		return passed;
+		}
+
+	public static class Result {
+		public final String scene,accel,order;
+		public final int width,height;
+		public double buildMillis,renderMillis,minRenderMillis,raysPerSecond;
+		public long rays,peakHeapBytes;
+
+		public Result(String scene, String accel, String order, int width, int height) {
+			this.scene = scene;
+			this.accel = accel;
+			this.order = order;
+			this.width = width;
+			this.height = height;
+			}
+
+		public String getKey() {
+			return scene+"/"+accel+"/"+order+"/"+width+"x"+height;
+			}
+
+		public String toTSV() {
+			return String.format(Locale.US, "%s\t%s\t%s\t%d\t%d\t%.1f\t%.1f\t%.1f\t%d\t%.0f\t%d",
+					scene, accel, order, width, height, buildMillis, renderMillis, minRenderMillis, rays, raysPerSecond, peakHeapBytes);
+			}
+
+		public static Result fromTSV(String line) {
+			String[] value = line.split("\t");
+			if (value.length != COLUMNS.length)
+				throw new IllegalArgumentException("Unexpected number of columns: "+line);
+			Result result = new Result(value[0], value[1], value[2], Integer.parseInt(value[3]), Integer.parseInt(value[4]));
+			result.buildMillis = Double.parseDouble(value[5]);
+			result.renderMillis = Double.parseDouble(value[6]);
+			result.minRenderMillis = Double.parseDouble(value[7]);
+			result.rays = Long.parseLong(value[8]);
+			result.raysPerSecond = Double.parseDouble(value[9]);
+			result.peakHeapBytes = Long.parseLong(value[10]);
+			return result;
+			}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%-16s %-8s %-8s build:%7.1fms render:%9.1fms (min %.1fms) %6.2f Mrays/s peak heap:%5dMB",
+					scene, accel, order, buildMillis, renderMillis, minRenderMillis, raysPerSecond / 1e6, peakHeapBytes >> 20);
+			}
+		}
+
+	private static class SurfaceCollector implements MeshBuilder {
+		private float[] mPoints = new float[3 * 4096];
+		private int[] mTriangles = new int[3 * 8192];
+		private int mPointCount,mTriangleCount;
+
+		/**
+		 * @return new copy of the points, which the caller may transform
+		 */
+		public float[] getPoints() {
+			return Arrays.copyOf(mPoints, 3 * mPointCount);
+			}
+
+		public int[] getTriangles() {
+			return Arrays.copyOf(mTriangles, 3 * mTriangleCount);
+			}
+
+		@Override
+		public int addPoint(float x, float y, float z) {
+			if (3 * mPointCount == mPoints.length)
+				mPoints = Arrays.copyOf(mPoints, 2 * mPoints.length);
+			mPoints[3 * mPointCount] = x;
+			mPoints[3 * mPointCount + 1] = y;
+			mPoints[3 * mPointCount + 2] = z;
+			return mPointCount++;
+			}
+
+		@Override
+		public void addTriangle(int i1, int i2, int i3) {
+			if (3 * mTriangleCount == mTriangles.length)
+				mTriangles = Arrays.copyOf(mTriangles, 2 * mTriangles.length);
+			mTriangles[3 * mTriangleCount] = i1;
+			mTriangles[3 * mTriangleCount + 1] = i2;
+			mTriangles[3 * mTriangleCount + 2] = i3;
+			mTriangleCount++;
+			}
+
+		@Override
+		public void getPoint(int index, float[] xyz) {
+			xyz[0] = mPoints[3 * index];
+			xyz[1] = mPoints[3 * index + 1];
+			xyz[2] = mPoints[3 * index + 2];
+			}
+		}
+	}
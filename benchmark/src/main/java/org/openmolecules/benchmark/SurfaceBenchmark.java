@@ -0,0 +1,92 @@
+package org.openmolecules.benchmark;
+
+import com.actelion.research.chem.StereoMolecule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openmolecules.mesh.MeshBuilder;
+import org.openmolecules.mesh.MoleculeSurfaceAlgorithm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the two steps of molecular surface generation separately: the calculation of the
+ * voxel grid and its triangulation with the improved marching cubes algorithm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw" })
+@State(Scope.Thread)
+public class SurfaceBenchmark {
+	@Param({ "1", "16", "64" })
+	public int molecules;
+
+	@Param({ "0", "1" })	// MoleculeSurfaceAlgorithm.CONNOLLY, LEE_RICHARDS
+	public int surfaceType;
+
+	private StereoMolecule mMol;
+	private MoleculeSurfaceAlgorithm mAlgorithm;
+	private CountingMeshBuilder mMeshBuilder;
+	private float[] mGrid;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		mMol = TestStructures.getMoleculeGrid(molecules);
+		mMeshBuilder = new CountingMeshBuilder();
+		mAlgorithm = new MoleculeSurfaceAlgorithm(MoleculeSurfaceAlgorithm.DEFAULT_VOXEL_SIZE, mMeshBuilder);
+		mGrid = mAlgorithm.calculateGrid(mMol, surfaceType, MoleculeSurfaceAlgorithm.DEFAULT_PROBE_SIZE);
+		}
+
+	@Benchmark
+	public float[] calculateGrid() {
+		return mAlgorithm.calculateGrid(mMol, surfaceType, MoleculeSurfaceAlgorithm.DEFAULT_PROBE_SIZE);
+		}
+
+	@Benchmark
+	public void polygonise(Blackhole bh) {
+		mMeshBuilder.reset();
+		// the grid size of mAlgorithm still matches mGrid, because every calculateGrid() call uses the same molecule
+		mAlgorithm.polygonise(mGrid);
+		bh.consume(mMeshBuilder.getTriangleCount());
+		}
+
+	/**
+	 * Keeps only the points, which polygonise() needs to read back, and counts triangles.
+	 */
+	private static class CountingMeshBuilder implements MeshBuilder {
+		private float[] mPoints = new float[3 * 4096];
+		private int mPointCount,mTriangleCount;
+
+		public void reset() {
+			mPointCount = 0;
+			mTriangleCount = 0;
+			}
+
+		public int getTriangleCount() {
+			return mTriangleCount;
+			}
+
+		@Override
+		public int addPoint(float x, float y, float z) {
+			if (3 * mPointCount == mPoints.length)
+				mPoints = java.util.Arrays.copyOf(mPoints, 2 * mPoints.length);
+			mPoints[3 * mPointCount] = x;
+			mPoints[3 * mPointCount + 1] = y;
+			mPoints[3 * mPointCount + 2] = z;
+			return mPointCount++;
+			}
+
+		@Override
+		public void addTriangle(int i1, int i2, int i3) {
+			mTriangleCount++;
+			}
+
+		@Override
+		public void getPoint(int index, float[] xyz) {
+			xyz[0] = mPoints[3 * index];
+			xyz[1] = mPoints[3 * index + 1];
+			xyz[2] = mPoints[3 * index + 2];
+			}
+		}
+	}
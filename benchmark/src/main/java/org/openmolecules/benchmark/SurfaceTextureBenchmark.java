@@ -0,0 +1,49 @@
+package org.openmolecules.benchmark;
+
+import com.actelion.research.chem.StereoMolecule;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.*;
+import org.openmolecules.fx.surface.SurfaceMesh;
+import org.openmolecules.fx.surface.SurfaceTexture;
+import org.openmolecules.mesh.MoleculeSurfaceAlgorithm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the assignment of property and atom type textures to an existing surface mesh,
+ * which is what happens whenever the user changes the surface coloring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw" })
+@State(Scope.Thread)
+public class SurfaceTextureBenchmark {
+	@Param({ "1", "64" })
+	public int molecules;
+
+	@Param({ "polarity", "donorsAcceptors", "partialCharges", "atomicNo" })
+	public String textureMode;
+
+	private StereoMolecule mMol;
+	private SurfaceMesh mMesh;
+	private int mTextureMode;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		TestStructures.startFX();
+		mMol = TestStructures.getMoleculeGrid(molecules);
+		mMesh = new SurfaceMesh(mMol, MoleculeSurfaceAlgorithm.CONNOLLY, SurfaceMesh.SURFACE_COLOR_PLAIN, Color.LIGHTGRAY, 1.0, null);
+		mTextureMode = -1;
+		for (int i=0; i<SurfaceMesh.SURFACE_COLOR_MODE_CODE.length; i++)
+			if (SurfaceMesh.SURFACE_COLOR_MODE_CODE[i].equals(textureMode))
+				mTextureMode = i;
+		}
+
+	@Benchmark
+	public SurfaceTexture updateTexture() {
+		mMesh.updateTexture(mMol, mTextureMode, Color.LIGHTGRAY, 1.0);
+		return mMesh.getTexture();
+		}
+	}
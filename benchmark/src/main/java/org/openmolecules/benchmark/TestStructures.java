@@ -0,0 +1,149 @@
+package org.openmolecules.benchmark;
+
+import com.actelion.research.chem.Coordinates;
+import com.actelion.research.chem.IDCodeParser;
+import com.actelion.research.chem.Molecule;
+import com.actelion.research.chem.StereoMolecule;
+import javafx.application.Platform;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Fixed 3D test structures bundled with the benchmarks, such that results of different
+ * runs and machines can be compared. The 64 molecules are the ones shown by the viewer's
+ * surface test mode; the ligand is capivasertib as found in PDB entry 4GV1.
+ */
+public class TestStructures {
+	private static final String MOLECULE_FILE = "molecules.txt";
+	private static final String LIGAND_FILE = "ligand.txt";
+	private static final double GRID_SPACING = 8.0;
+
+	private static boolean sFXStarted;
+
+	/**
+	 * @return new copies of all bundled molecules, each centered at the origin
+	 */
+	public static List<StereoMolecule> getMolecules() {
+		List<StereoMolecule> mols = new ArrayList<>();
+		for (String[] code:readCodes(MOLECULE_FILE)) {
+			StereoMolecule mol = new IDCodeParser(false).getCompactMolecule(code[0], code[1]);
+			mol.center();
+			mols.add(mol);
+			}
+		return mols;
+		}
+
+	/**
+	 * @return new copy of the bundled ligand in its original coordinates
+	 */
+	public static StereoMolecule getLigand() {
+		String[] code = readCodes(LIGAND_FILE).get(0);
+		StereoMolecule mol = new IDCodeParser(false).getCompactMolecule(code[0], code[1]);
+		mol.setName("capivasertib");
+		mol.ensureHelperArrays(Molecule.cHelperRings);
+		return mol;
+		}
+
+	/**
+	 * Combines count of the bundled molecules into one large structure, placed on a square
+	 * grid like in the viewer's surface test mode. With 64 molecules the result has roughly
+	 * the size of a small protein.
+	 * @param count number of molecules to combine, at most 64
+	 * @return new molecule
+	 */
+	public static StereoMolecule getMoleculeGrid(int count) {
+		List<StereoMolecule> mols = getMolecules();
+		count = Math.min(count, mols.size());
+		int size = (int)Math.ceil(Math.sqrt(count));
+		double shift = (size - 1) / 2.0;
+		StereoMolecule grid = new StereoMolecule();
+		for (int i=0; i<count; i++) {
+			StereoMolecule mol = mols.get(i);
+			mol.translate(GRID_SPACING * (i / size - shift), GRID_SPACING * (i % size - shift), 0.0);
+			grid.addMolecule(mol);
+			}
+		grid.setName("grid"+count);
+		grid.ensureHelperArrays(Molecule.cHelperRings);
+		return grid;
+		}
+
+	/**
+	 * Combines the bundled molecules into a shell around the given ligand, which serves as
+	 * a deterministic stand-in for a binding pocket.
+	 * @param ligand
+	 * @param count number of molecules forming the shell, at most 64
+	 * @param radius distance of the molecule centers from the ligand center in Angstrom
+	 * @return new molecule
+	 */
+	public static StereoMolecule getShell(StereoMolecule ligand, int count, double radius) {
+		Coordinates center = new Coordinates();
+		for (int atom=0; atom<ligand.getAllAtoms(); atom++)
+			center.add(ligand.getAtomCoordinates(atom));
+		center.scale(1.0 / ligand.getAllAtoms());
+
+		List<StereoMolecule> mols = getMolecules();
+		count = Math.min(count, mols.size());
+		StereoMolecule shell = new StereoMolecule();
+		double goldenAngle = Math.PI * (3.0 - Math.sqrt(5.0));
+		for (int i=0; i<count; i++) {
+			// evenly spread directions on a sphere
+			double y = 1.0 - 2.0 * (i + 0.5) / count;
+			double r = Math.sqrt(1.0 - y * y);
+			double phi = goldenAngle * i;
+			StereoMolecule mol = mols.get(i);
+			mol.translate(center.x + radius * r * Math.cos(phi), center.y + radius * y, center.z + radius * r * Math.sin(phi));
+			shell.addMolecule(mol);
+			}
+		shell.setName("shell"+count);
+		shell.ensureHelperArrays(Molecule.cHelperRings);
+		return shell;
+		}
+
+	/**
+	 * Starts the JavaFX platform once, which is needed for creating surface texture images.
+	 * The benchmark JVMs are forked with the Monocle headless glass platform, such that no
+	 * display is required.
+	 */
+	public static synchronized void startFX() {
+		if (sFXStarted)
+			return;
+		CountDownLatch latch = new CountDownLatch(1);
+		try {
+			Platform.startup(latch::countDown);
+			latch.await();
+			}
+		catch (IllegalStateException ise) {}	// already running
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			}
+		sFXStarted = true;
+		}
+
+	private static List<String[]> readCodes(String resource) {
+		List<String[]> codes = new ArrayList<>();
+		try (InputStream is = TestStructures.class.getResourceAsStream(resource)) {
+			if (is == null)
+				throw new IllegalStateException("Missing test structure resource: "+resource);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				int index = line.indexOf('\t');
+				codes.add(new String[] { line.substring(0, index), line.substring(index+1) });
+				}
+			}
+		catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+			}
+		return codes;
+		}
+	}
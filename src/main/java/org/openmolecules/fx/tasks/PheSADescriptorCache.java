@@ -0,0 +1,315 @@
+package org.openmolecules.fx.tasks;
+
+import com.actelion.research.chem.Canonizer;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.phesa.DescriptorHandlerShape;
+import com.actelion.research.chem.phesa.PheSAMolecule;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of PheSA descriptors, which avoids repeating the conformer enumeration when the
+ * same molecules are aligned again, e.g. when screening the same library against new queries.
+ * There is one cache file per set of descriptor parameters (conformer limit, pharmacophore weight
+ * and whether conformers are generated). Within a file descriptors are keyed by the idcode of the
+ * molecule; if no conformers are generated, the descriptor depends on the input conformation and
+ * the encoded coordinates are part of the key.<br>
+ * A cache file is a header followed by records of (key length, key, descriptor length, encoded
+ * descriptor). Records written by earlier sessions are read from a memory-mapped buffer, new
+ * descriptors are appended while holding a lock on the file, such that several viewer processes
+ * may share the cache. A cache, whose file can't be written, works in memory only.<br>
+ * Because keys of generated conformations differ with every input conformation, cache files
+ * are limited in size: no more records are appended once the limit is reached and, if more than
+ * three quarters of the limit are used when the file is opened, the oldest records are dropped
+ * until at most half of the limit is used. The remaining records are copied into a new file, which
+ * atomically replaces the cache file, such that other processes can keep reading their mapping of
+ * the old file. The old file is marked as replaced and its users switch to the new file with their
+ * next append. Where an open file can't be replaced, e.g. on Windows, the cache isn't compacted.
+ * The cache directory is ~/.fxmolviewer/phesa unless defined by the system property 'fxmolviewer.phesa.cache'.
+ * The size limit in bytes may be set with the system property 'fxmolviewer.phesa.cache.maxsize'.
+ */
+public class PheSADescriptorCache {
+	public static final String DIRECTORY_PROPERTY = "fxmolviewer.phesa.cache";
+	public static final String MAX_SIZE_PROPERTY = "fxmolviewer.phesa.cache.maxsize";
+	private static final long DEFAULT_MAX_SIZE = 256L << 20;
+	private static final int MAGIC = 0x50534443;	// "PSDC"
+	private static final int REPLACED_MAGIC = 0x50534452;	// "PSDR", file was replaced by a compacted copy
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private static final Map<String,PheSADescriptorCache> sCacheMap = new HashMap<>();
+
+	private final boolean mGenerateConfs;
+	private final int mMaxConfs;
+	private final double mPPWeight;
+	private final long mMaxSize;
+	private File mFile;
+	private ByteBuffer mBuffer;					// records of earlier sessions
+	private Map<String,Long> mMappedEntry;		// key -> descriptor offset (high int) and length (low int) in mBuffer
+	private final Map<String,String> mNewEntry;	// key -> encoded descriptor created in this session
+	private RandomAccessFile mOutput;
+
+	private PheSADescriptorCache(boolean generateConfs, int maxConfs, double ppWeight) {
+		mGenerateConfs = generateConfs;
+		mMaxConfs = maxConfs;
+		mPPWeight = ppWeight;
+		mMaxSize = Math.max(HEADER_SIZE, Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+		mMappedEntry = new HashMap<>();
+		mNewEntry = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param generateConfs false if descriptors are created from the given conformation only
+	 * @param maxConfs maximum number of conformers of the descriptor handler
+	 * @param ppWeight pharmacophore weight of the descriptor handler
+	 * @return the cache shared by all alignments using the given descriptor parameters
+	 */
+	public static synchronized PheSADescriptorCache getInstance(boolean generateConfs, int maxConfs, double ppWeight) {
+		String name = String.format(Locale.ROOT, "phesa_%s_%d_%.3f.cache", generateConfs ? "confs" : "oneconf", maxConfs, ppWeight);
+		PheSADescriptorCache cache = sCacheMap.get(name);
+		if (cache == null) {
+			cache = new PheSADescriptorCache(generateConfs, maxConfs, ppWeight);
+			String dir = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("user.home") + File.separator + ".fxmolviewer" + File.separator + "phesa");
+			cache.open(new File(dir, name));
+			sCacheMap.put(name, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the descriptor of the molecule from the cache or creates it with the given handler
+	 * and adds it to the cache. May be called concurrently from multiple threads.
+	 * @param dhs handler matching this cache's parameters
+	 * @param mol
+	 * @return a new descriptor object, which the caller may modify
+	 */
+	public PheSAMolecule getDescriptor(DescriptorHandlerShape dhs, StereoMolecule mol) {
+		Canonizer canonizer = new Canonizer(mol);
+		String key = mGenerateConfs ? canonizer.getIDCode() : canonizer.getIDCode() + " " + canonizer.getEncodedCoordinates();
+
+		String encoded = mNewEntry.get(key);
+		if (encoded == null) {
+			Long entry = mMappedEntry.get(key);
+			if (entry != null) {
+				byte[] bytes = new byte[(int)(long)entry];
+				((ByteBuffer)mBuffer.duplicate().position((int)(entry >>> 32))).get(bytes);
+				encoded = new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
+		if (encoded != null)
+			return dhs.decode(encoded);
+
+		PheSAMolecule descriptor = dhs.createDescriptor(mol);
+		if (descriptor != null && !dhs.calculationFailed(descriptor)) {
+			encoded = dhs.encode(descriptor);
+			if (mNewEntry.putIfAbsent(key, encoded) == null)
+				append(key, encoded);
+		}
+		return descriptor;
+	}
+
+	private void open(File file) {
+		mFile = file;
+		try {
+			file.getParentFile().mkdirs();
+			mOutput = new RandomAccessFile(file, "rw");
+			RandomAccessFile compacted = null;
+			long compactedLength = 0;
+			try (FileLock lock = lockOutput()) {
+				FileChannel channel = mOutput.getChannel();
+				long length = mOutput.length();
+				if (length < HEADER_SIZE || !isValidHeader()) {
+					mOutput.setLength(0);
+					mOutput.writeInt(MAGIC);
+					mOutput.writeInt(VERSION);
+					mOutput.writeInt(mMaxConfs);
+					mOutput.writeDouble(mPPWeight);
+					mOutput.writeInt(mGenerateConfs ? 1 : 0);
+					return;
+				}
+
+				// other processes map complete records only, thus an incomplete last record, e.g. after a crash while writing, can be dropped
+				long end = readEntries(channel, length);
+				if (end < length) {
+					mOutput.setLength(end);
+					length = end;
+				}
+				if (length > mMaxSize / 4 * 3) {
+					long keptStart = getCompactionStart(length);
+					compacted = compact(channel, keptStart, length);
+					if (compacted != null)
+						compactedLength = HEADER_SIZE + length - keptStart;
+				}
+
+				if (compacted == null && length > HEADER_SIZE)
+					mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			}
+
+			if (compacted != null) {
+				mOutput.close();
+				mOutput = compacted;
+				if (compactedLength > HEADER_SIZE)
+					mBuffer = mOutput.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, compactedLength);
+			}
+		}
+		catch (IOException ioe) {
+			mMappedEntry.clear();
+			mBuffer = null;
+			closeOutput();
+		}
+	}
+
+	/**
+	 * Reads keys and descriptor locations of all complete records.
+	 * @return end of the last complete record
+	 */
+	private long readEntries(FileChannel channel, long length) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(HEADER_SIZE))));
+		long position = HEADER_SIZE;
+		while (position + 4 <= length) {
+			int keyLength = in.readInt();
+			long descriptorStart = position + 4L + keyLength + 4;
+			if (keyLength < 0 || descriptorStart > length)
+				break;
+			byte[] key = new byte[keyLength];
+			in.readFully(key);
+			int descriptorLength = in.readInt();
+			if (descriptorLength < 0 || descriptorStart + descriptorLength > length)
+				break;
+
+			for (int skipped=0; skipped<descriptorLength; ) {
+				int n = in.skipBytes(descriptorLength - skipped);
+				if (n == 0)
+					throw new EOFException();
+				skipped += n;
+			}
+			mMappedEntry.put(new String(key, StandardCharsets.UTF_8), (descriptorStart << 32) | descriptorLength);
+			position = descriptorStart + descriptorLength;
+		}
+		return position;
+	}
+
+	/**
+	 * @return start of the oldest of the most recently appended records, which fit into half of the size limit
+	 */
+	private long getCompactionStart(long length) {
+		long keptStart = length;
+		for (Map.Entry<String,Long> e : mMappedEntry.entrySet()) {
+			long recordStart = (e.getValue() >>> 32) - 8 - e.getKey().getBytes(StandardCharsets.UTF_8).length;
+			if (HEADER_SIZE + length - recordStart <= mMaxSize / 2)
+				keptStart = Math.min(keptStart, recordStart);
+		}
+		return keptStart;
+	}
+
+	/**
+	 * Copies the header and all records from keptStart on into a new file, which atomically replaces
+	 * the cache file. The old file is never modified except for marking it as replaced, such that
+	 * other processes may continue to read their mapping of it. Must be called holding the file lock.
+	 * @return the new cache file or null, if the cache file couldn't be replaced
+	 */
+	private RandomAccessFile compact(FileChannel channel, long keptStart, long length) throws IOException {
+		File temp = File.createTempFile(mFile.getName(), ".tmp", mFile.getParentFile());
+		try {
+			try (FileOutputStream out = new FileOutputStream(temp)) {
+				copy(channel, 0, HEADER_SIZE, out.getChannel());
+				copy(channel, keptStart, length, out.getChannel());
+			}
+			Files.move(temp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ioe) {
+			temp.delete();
+			return null;
+		}
+
+		mOutput.seek(0);
+		mOutput.writeInt(REPLACED_MAGIC);
+
+		long shift = keptStart - HEADER_SIZE;
+		mMappedEntry.values().removeIf(entry -> (entry >>> 32) - shift < HEADER_SIZE);
+		mMappedEntry.replaceAll((key, entry) -> entry - (shift << 32));
+		return new RandomAccessFile(mFile, "rw");
+	}
+
+	private static void copy(FileChannel source, long start, long end, FileChannel target) throws IOException {
+		for (long position=start; position<end; )
+			position += source.transferTo(position, end - position, target);
+	}
+
+	/**
+	 * Locks the cache file. If another process has replaced it by a compacted copy in the meantime,
+	 * the new file is opened and locked instead.
+	 */
+	private FileLock lockOutput() throws IOException {
+		while (true) {
+			FileLock lock = mOutput.getChannel().lock();
+			if (mOutput.length() < 4)
+				return lock;
+			mOutput.seek(0);
+			if (mOutput.readInt() != REPLACED_MAGIC)
+				return lock;
+			lock.release();
+			mOutput.close();
+			mOutput = new RandomAccessFile(mFile, "rw");
+		}
+	}
+
+	private boolean isValidHeader() throws IOException {
+		mOutput.seek(0);
+		return mOutput.readInt() == MAGIC
+			&& mOutput.readInt() == VERSION
+			&& mOutput.readInt() == mMaxConfs
+			&& mOutput.readDouble() == mPPWeight
+			&& mOutput.readInt() == (mGenerateConfs ? 1 : 0);
+	}
+
+	private synchronized void append(String key, String encoded) {
+		if (mOutput == null)
+			return;
+
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		byte[] descriptorBytes = encoded.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(8 + keyBytes.length + descriptorBytes.length);
+		record.putInt(keyBytes.length).put(keyBytes).putInt(descriptorBytes.length).put(descriptorBytes);
+		record.flip();
+		try (FileLock lock = lockOutput()) {
+			// other processes may have appended records since this one was opened
+			FileChannel channel = mOutput.getChannel();
+			long length = channel.size();
+			if (length + record.remaining() > mMaxSize)
+				return;
+			while (record.hasRemaining())
+				length += channel.write(record, length);
+		}
+		catch (IOException ioe) {
+			closeOutput();
+		}
+	}
+
+	private void closeOutput() {
+		if (mOutput != null) {
+			try {
+				mOutput.close();
+			}
+			catch (IOException ioe) {}
+			mOutput = null;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.openmolecules.fx.tasks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * Thread-safe list of the best results of a screening run with bounded size. Besides the
+ * current top results it collects which results entered or dropped out of the list since
+ * the last call of drainChanges(), such that a scene showing the top list can be updated in batches.
+ * @param <T> result type; results are distinguished by identity
+ */
+class TopList<T> {
+	private final Comparator<T> mOrder;
+	private final int mMaxSize;
+	private final PriorityQueue<T> mQueue;	// worst result first
+	private List<T> mAdded,mRemoved;
+
+	/**
+	 * @param order sorts better results first
+	 * @param maxSize
+	 */
+	public TopList(Comparator<T> order, int maxSize) {
+		mOrder = order;
+		mMaxSize = Math.max(1, maxSize);
+		mQueue = new PriorityQueue<>(order.reversed());
+		mAdded = new ArrayList<>();
+		mRemoved = new ArrayList<>();
+	}
+
+	/**
+	 * @return the worst result, if the list is full, otherwise null; any new result must be better to enter
+	 */
+	public synchronized T getWorstIfFull() {
+		return mQueue.size() < mMaxSize ? null : mQueue.peek();
+	}
+
+	public synchronized void offer(T result) {
+		mQueue.add(result);
+		mAdded.add(result);
+		if (mQueue.size() > mMaxSize) {
+			T removed = mQueue.poll();
+			// results, which were never drained, don't need to be reported as removed
+			if (!mAdded.remove(removed))
+				mRemoved.add(removed);
+		}
+	}
+
+	/**
+	 * Passes the results, which entered and which dropped out of the list since the last call,
+	 * to the consumer. The consumer is called on the calling thread and only if there are changes.
+	 * @param consumer receives the lists of added and removed results
+	 */
+	public void drainChanges(BiConsumer<List<T>,List<T>> consumer) {
+		List<T> added,removed;
+		synchronized (this) {
+			if (mAdded.isEmpty() && mRemoved.isEmpty())
+				return;
+			added = mAdded;
+			removed = mRemoved;
+			mAdded = new ArrayList<>();
+			mRemoved = new ArrayList<>();
+		}
+		consumer.accept(added, removed);
+	}
+
+	/**
+	 * @return current results, best first
+	 */
+	public synchronized List<T> getSorted() {
+		List<T> list = new ArrayList<>(mQueue);
+		list.sort(mOrder);
+		return list;
+	}
+}
@@ -0,0 +1,102 @@
+package org.openmolecules.fx.tasks;
+
+import com.actelion.research.chem.Coordinates;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.alignment3d.transformation.Rotation;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.transform.Transform;
+import org.openmolecules.fx.viewer3d.CarbonAtomColorPalette;
+import org.openmolecules.fx.viewer3d.V3DMolecule;
+import org.openmolecules.fx.viewer3d.V3DMoleculeUpdater;
+import org.openmolecules.fx.viewer3d.V3DScene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves aligned hits of a V3DShapeAlignmentEngine from the reference's preprocessed frame back
+ * into the reference molecule's frame and keeps the scene in sync with the engine's top list.
+ */
+class V3DAlignmentHitPresenter implements V3DShapeAlignmentEngine.HitListener {
+	private final V3DScene mScene;
+	private final V3DMolecule mRefFXMol;
+	private final Rotation mRotation;
+	private final Coordinates mOrigCOM;
+	private final Transform mRefTransform;
+	private final Map<V3DShapeAlignmentEngine.Hit,V3DMolecule> mShownMols;	// accessed on FX thread only
+
+	/**
+	 * @param scene
+	 * @param refFXMol
+	 * @param rotation inverse of the rotation applied when preprocessing the reference volume
+	 * @param origCOM center of mass of the reference volume before preprocessing
+	 */
+	public V3DAlignmentHitPresenter(V3DScene scene, V3DMolecule refFXMol, Rotation rotation, Coordinates origCOM) {
+		mScene = scene;
+		mRefFXMol = refFXMol;
+		mRotation = rotation;
+		mOrigCOM = origCOM;
+		mShownMols = new HashMap<>();
+
+		ObservableList<Transform> refTransforms = refFXMol.getTransforms();
+		Transform refTransform = null;
+		int nrTransforms = refTransforms.size();
+		if(nrTransforms>0) {
+			refTransform = refTransforms.get(0);
+			for(int i=1;i<nrTransforms;i++) {
+				refTransform = refTransform.createConcatenation(refTransforms.get(i));
+			}
+		}
+		mRefTransform = refTransform;
+	}
+
+	@Override
+	public void hitsChanged(List<V3DShapeAlignmentEngine.Hit> added, List<V3DShapeAlignmentEngine.Hit> removed) {
+		double refX = mRefFXMol.getTranslateX();
+		double refY = mRefFXMol.getTranslateY();
+		double refZ = mRefFXMol.getTranslateZ();
+
+		Map<V3DShapeAlignmentEngine.Hit,V3DMolecule> addedFXMols = new HashMap<>();
+		for(V3DShapeAlignmentEngine.Hit hit : added) {
+			StereoMolecule mol = hit.getAlignedMolecule();
+			mRotation.apply(mol);
+			mol.translate(mOrigCOM.x,mOrigCOM.y,mOrigCOM.z);
+			try {
+				V3DMolecule fxmol = new V3DMolecule(mol, V3DMolecule.getNextID(),V3DMolecule.MoleculeRole.LIGAND, mScene.isOverrideHydrogenColor(), false);
+				if(mRefTransform!=null) {
+					fxmol.setTransform(mRefTransform);
+					fxmol.setTranslateX(refX);
+					fxmol.setTranslateY(refY);
+					fxmol.setTranslateZ(refZ);
+				}
+				addedFXMols.put(hit, fxmol);
+			}
+			catch(Exception e) {
+				continue;
+			}
+		}
+
+		Platform.runLater(() -> {
+			List<V3DMolecule> removedFXMols = new ArrayList<>();
+			for(V3DShapeAlignmentEngine.Hit hit : removed) {
+				V3DMolecule fxmol = mShownMols.remove(hit);
+				if(fxmol!=null)
+					removedFXMols.add(fxmol);
+			}
+			if(!removedFXMols.isEmpty())
+				mScene.delete(removedFXMols);
+
+			addedFXMols.forEach((hit, fxmol) -> {
+				mShownMols.put(hit, fxmol);
+				mScene.addMolecule(fxmol, true);
+				fxmol.setColor(CarbonAtomColorPalette.getColor(fxmol.getID()));
+				fxmol.fireCoordinatesChange();
+				V3DMoleculeUpdater fxMolUpdater = new V3DMoleculeUpdater(fxmol);
+				fxMolUpdater.update();
+			});
+		});
+	}
+}
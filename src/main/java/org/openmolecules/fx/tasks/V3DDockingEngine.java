@@ -9,12 +9,38 @@ import com.actelion.research.chem.docking.DockingFailedException;
 import javafx.application.Platform;
 import org.openmolecules.fx.viewer3d.*;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 public class V3DDockingEngine {
 	
+	public static final int DEFAULT_MAX_POSES = 50;
+	private static final long SCENE_UPDATE_INTERVAL_MILLIS = 500;
+
+	public interface DockingProgressListener {
+		/**
+		 * @param docked number of successfully docked molecules
+		 * @param failed number of molecules, for which docking failed
+		 * @param total number of molecules in the library; -1 if unknown
+		 * @param ligandsPerSecond throughput since the start of the run
+		 */
+		void dockingProgress(int docked, int failed, int total, double ligandsPerSecond);
+	}
+
 	private final V3DBindingSite bindingSite;
 	private final V3DScene scene3D;
+	private volatile boolean mIsCancelled;
+	private DockingProgressListener mProgressListener;
+	private int mMaxPoses = DEFAULT_MAX_POSES;
+	private int mThreadCount = Runtime.getRuntime().availableProcessors();
 
 	
 	public V3DDockingEngine(V3DScene scene, V3DBindingSite bindingSite) {
@@ -65,32 +91,163 @@ public class V3DDockingEngine {
 		}
 	}
 	
-	public void dockLibrary(List<StereoMolecule> library) throws DockingFailedException {
+	/**
+	 * Docks all molecules of the library into the binding site using one DockingEngine per thread.
+	 * Only the best poses by docking score are kept and the scene receives changes of this
+	 * leaderboard in batches. This method blocks until all molecules are docked or cancel() is called.
+	 * If the calling thread is interrupted, docking is cancelled and the poses found so far are
+	 * returned right away with the interrupt flag still set.
+	 * @param library
+	 * @return best poses sorted by increasing score
+	 * @throws DockingFailedException if the docking engine can't be set up for the binding site
+	 */
+	public List<DockingResult> dockLibrary(List<StereoMolecule> library) throws DockingFailedException {
+		return dockLibrary(library.iterator(), library.size());
+	}
+
+	/**
+	 * Docks all molecules delivered by the iterator like dockLibrary(List). The iterator is
+	 * accessed by one worker thread at a time only, such that it may stream the molecules from
+	 * a file, e.g. a V3DMoleculeStream, and the library never needs to be in memory completely.
+	 * @param library
+	 * @param total number of molecules in the library used for progress reporting; -1 if unknown
+	 * @return best poses sorted by increasing score
+	 * @throws DockingFailedException if the docking engine can't be set up for the binding site
+	 */
+	public List<DockingResult> dockLibrary(Iterator<StereoMolecule> library, int total) throws DockingFailedException {
 		StereoMolecule newReceptor = getMolWithSceneCoords(bindingSite.getReceptor());
 		StereoMolecule newLig = getMolWithSceneCoords(bindingSite.getNativeLigand());
-		
-		DockingEngine engine = new DockingEngine(newReceptor, newLig); 
-		StereoMolecule mol = new StereoMolecule(newLig);
-		mol.ensureHelperArrays(Molecule.cHelperCIP);
-		
+
+		// the first engine is created here to report setup problems before any thread is started
+		List<DockingEngine> engines = new ArrayList<>();
+		engines.add(new DockingEngine(new StereoMolecule(newReceptor), new StereoMolecule(newLig)));
+
+		TopList<DockingResult> leaderboard = new TopList<>(Comparator.comparingDouble(DockingResult::getScore), mMaxPoses);
+		AtomicInteger dockedCount = new AtomicInteger();
+		AtomicInteger failedCount = new AtomicInteger();
+		int threadCount = (total == -1) ? mThreadCount : Math.min(mThreadCount, Math.max(1, total));
+		CountDownLatch doneSignal = new CountDownLatch(threadCount);
+		long startMillis = System.currentTimeMillis();
+
+		for(int t=0;t<threadCount;t++) {
+			final int thread = t;
+			Thread worker = new Thread(() -> {
+				try {
+					DockingEngine engine = (thread == 0) ? engines.get(0)
+							: new DockingEngine(new StereoMolecule(newReceptor), new StereoMolecule(newLig));
+					StereoMolecule mol;
+					while(!mIsCancelled && (mol = nextMolecule(library)) != null) {
+						try {
+							DockingResult result = engine.dockMolecule(mol);
+							DockingResult worst = leaderboard.getWorstIfFull();
+							if(worst == null || result.getScore() < worst.getScore())
+								leaderboard.offer(result);
+							dockedCount.incrementAndGet();
+						}
+						catch (DockingFailedException e) {
+							failedCount.incrementAndGet();
+						}
+						catch (RuntimeException e) {
+							failedCount.incrementAndGet();
+							e.printStackTrace();
+						}
+					}
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+				finally {
+					doneSignal.countDown();
+				}
+			}, "V3DDockingEngine worker");
+			worker.setDaemon(true);
+			worker.start();
+		}
+
 		V3DRotatableGroup dockedGroup = new V3DRotatableGroup("DOCKED");
 		Platform.runLater(() -> {
 			scene3D.addGroup(dockedGroup);
 		});
-		for(StereoMolecule toDock : library) {
-			try {
-				DockingResult result = engine.dockMolecule(toDock);
-				StereoMolecule docked = result.getPose();
-				Platform.runLater(() -> {
-					V3DMolecule fxmol = new V3DMolecule(docked);
-					scene3D.addMolecule(fxmol, dockedGroup, true);
-				});
-				System.out.println(result.getScore());
-			} catch (DockingFailedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		Map<DockingResult,V3DMolecule> shownPoses = new HashMap<>();	// accessed on FX thread only
+		BiConsumer<List<DockingResult>,List<DockingResult>> sceneUpdater = (added, removed) -> {
+			List<V3DMolecule> addedFXMols = new ArrayList<>();
+			for(DockingResult result : added)
+				addedFXMols.add(new V3DMolecule(result.getPose()));
+			Platform.runLater(() -> {
+				List<V3DMolecule> removedFXMols = new ArrayList<>();
+				for(DockingResult result : removed) {
+					V3DMolecule fxmol = shownPoses.remove(result);
+					if(fxmol != null)
+						removedFXMols.add(fxmol);
+				}
+				if(!removedFXMols.isEmpty())
+					scene3D.delete(removedFXMols);
+				for(int i=0;i<added.size();i++) {
+					shownPoses.put(added.get(i), addedFXMols.get(i));
+					scene3D.addMolecule(addedFXMols.get(i), dockedGroup, true);
+				}
+			});
+		};
+
+		try {
+			while(!doneSignal.await(SCENE_UPDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				leaderboard.drainChanges(sceneUpdater);
+				reportProgress(dockedCount.get(), failedCount.get(), total, startMillis);
 			}
 		}
+		catch (InterruptedException ie) {
+			// workers stop taking molecules; the scene isn't updated anymore
+			mIsCancelled = true;
+			Thread.currentThread().interrupt();
+			return leaderboard.getSorted();
+		}
+		leaderboard.drainChanges(sceneUpdater);
+		reportProgress(dockedCount.get(), failedCount.get(), total, startMillis);
+
+		return leaderboard.getSorted();
+	}
+
+	private static StereoMolecule nextMolecule(Iterator<StereoMolecule> library) {
+		synchronized (library) {
+			return library.hasNext() ? library.next() : null;
+		}
+	}
+
+	/**
+	 * Stops a running dockLibrary() after the molecules currently being docked. If called before
+	 * dockLibrary(), e.g. while the library file is still being opened, no molecule is docked.
+	 */
+	public void cancel() {
+		mIsCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return mIsCancelled;
+	}
+
+	/**
+	 * @param listener receives the progress of dockLibrary() on the calling thread about twice a second; may be null
+	 */
+	public void setProgressListener(DockingProgressListener listener) {
+		mProgressListener = listener;
+	}
+
+	/**
+	 * @param maxPoses number of best poses, which dockLibrary() keeps and shows in the scene
+	 */
+	public void setMaxPoses(int maxPoses) {
+		mMaxPoses = maxPoses;
+	}
+
+	public void setThreadCount(int threadCount) {
+		mThreadCount = Math.max(1, threadCount);
+	}
+
+	private void reportProgress(int docked, int failed, int total, long startMillis) {
+		long millis = Math.max(1, System.currentTimeMillis() - startMillis);
+		double ligandsPerSecond = 1000.0 * (docked + failed) / millis;
+		if(mProgressListener != null)
+			mProgressListener.dockingProgress(docked, failed, total, ligandsPerSecond);
 	}
 	
 	private void updateCoords(V3DMolecule fxmol, double[] globalPos) {
@@ -5,9 +5,11 @@ import com.actelion.research.chem.forcefield.ForceField;
 import com.actelion.research.chem.forcefield.ForceFieldChangeListener;
 import com.actelion.research.chem.forcefield.mmff.ForceFieldMMFF94;
 import com.actelion.research.util.DoubleFormat;
-import javafx.application.Platform;
+import javafx.animation.AnimationTimer;
 import javafx.geometry.Point3D;
 import javafx.scene.Node;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
 
 import org.openmolecules.fx.viewer3d.V3DBindingSite;
 import org.openmolecules.fx.viewer3d.V3DMolecule;
@@ -20,6 +22,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class V3DMinimizer implements ForceFieldChangeListener {
 	private static V3DMinimizer sInstance;
@@ -30,6 +33,9 @@ public class V3DMinimizer implements ForceFieldChangeListener {
 	private volatile Thread mMinimizationThread;
 	private boolean mHydrogensOnly;
 	private List<Integer> mRigidAtoms;
+	private final AtomicReference<Frame> mPendingFrame = new AtomicReference<>();
+	private volatile boolean mIsFinished;
+	private AnimationTimer mFrameTimer;
 
 	/**
 	 *
@@ -151,7 +157,12 @@ public class V3DMinimizer implements ForceFieldChangeListener {
 			mForceField.setFixedAtoms(fixedAtomsMapped);
 		}
 
-		mMinimizationThread = new Thread(() -> mForceField.minimise());
+		startFrameTimer();
+		mMinimizationThread = new Thread(() -> {
+			mForceField.minimise();
+			stateChanged();	// make sure the final state is shown
+			mIsFinished = true;
+		});
 		mMinimizationThread.start();
 	}
 
@@ -163,33 +174,94 @@ public class V3DMinimizer implements ForceFieldChangeListener {
 		}
 	}
 
+	/**
+	 * Called by the force field after every iteration on the minimization thread. Only the latest
+	 * positions are kept; they are applied to the molecules with the next pulse of the FX thread.
+	 */
 	@Override
 	public void stateChanged() {
-		if (mMinimizationThread != null) {
-			final double[] pos = mForceField.getCurrentPositions();
-			final double energy = mForceField.getTotalEnergy();
-			Platform.runLater(() -> {
-				if (mMinimizationThread != null) {
-					int posIndex = 0;
-					for (int i=0; i<mFXMol.length; i++) {
-						StereoMolecule mol = mFXMol[i].getMolecule();
-						for (int atom=0; atom<mol.getAllAtoms(); atom++) {
-							Point3D p = mFXMol[i].parentToLocal(pos[posIndex], pos[posIndex+1], pos[posIndex+2]);
-							mol.setAtomX(atom, p.getX());
-							mol.setAtomY(atom, p.getY());
-							mol.setAtomZ(atom, p.getZ());
-							posIndex += 3;
-						}
-						mFXMol[i].fireCoordinatesChange();
-						mFXMolUpdater[i].update();
-					}
+		if (mMinimizationThread != null)
+			mPendingFrame.set(new Frame(mForceField.getCurrentPositions(), mForceField.getTotalEnergy()));
+	}
 
-					if (mEditor != null)
-						mEditor.createOutput("energy: " + Double.toString(energy) + " kcal/mol");
-					else
-						System.out.println("MMFF-Energy: "+ DoubleFormat.toString(energy) + " kcal/mol");
+	private void startFrameTimer() {
+		mFrameTimer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				if (mMinimizationThread == null) {
+					stop();
+					return;
 				}
-			});
+
+				boolean isFinished = mIsFinished;
+				Frame frame = mPendingFrame.getAndSet(null);
+				if (frame != null)
+					applyFrame(frame);
+				if (isFinished)
+					stop();
+			}
+		};
+		mFrameTimer.start();
+	}
+
+	/**
+	 * Converts the force field positions into each molecule's local coordinates using the molecule's
+	 * inverse parent transform, which is computed once per molecule and frame. Molecules whose
+	 * coordinates didn't change, e.g. a receptor without flexible atoms, are not updated.
+	 */
+	private void applyFrame(Frame frame) {
+		double[] pos = frame.pos;
+		int posIndex = 0;
+		for (int i=0; i<mFXMol.length; i++) {
+			StereoMolecule mol = mFXMol[i].getMolecule();
+			Transform t;
+			try {
+				t = mFXMol[i].getLocalToParentTransform().createInverse();
+			}
+			catch (NonInvertibleTransformException e) {
+				posIndex += 3 * mol.getAllAtoms();
+				continue;
+			}
+			double mxx = t.getMxx(), mxy = t.getMxy(), mxz = t.getMxz(), tx = t.getTx();
+			double myx = t.getMyx(), myy = t.getMyy(), myz = t.getMyz(), ty = t.getTy();
+			double mzx = t.getMzx(), mzy = t.getMzy(), mzz = t.getMzz(), tz = t.getTz();
+
+			boolean isChanged = false;
+			for (int atom=0; atom<mol.getAllAtoms(); atom++) {
+				double x = pos[posIndex];
+				double y = pos[posIndex+1];
+				double z = pos[posIndex+2];
+				double lx = mxx*x + mxy*y + mxz*z + tx;
+				double ly = myx*x + myy*y + myz*z + ty;
+				double lz = mzx*x + mzy*y + mzz*z + tz;
+				if (lx != mol.getAtomX(atom) || ly != mol.getAtomY(atom) || lz != mol.getAtomZ(atom)) {
+					mol.setAtomX(atom, lx);
+					mol.setAtomY(atom, ly);
+					mol.setAtomZ(atom, lz);
+					isChanged = true;
+				}
+				posIndex += 3;
+			}
+
+			if (isChanged) {
+				mFXMol[i].fireCoordinatesChange();
+				mFXMolUpdater[i].update();
+			}
+		}
+
+		if (mEditor != null)
+			mEditor.createOutput("energy: " + Double.toString(frame.energy) + " kcal/mol");
+		else
+			System.out.println("MMFF-Energy: "+ DoubleFormat.toString(frame.energy) + " kcal/mol");
+	}
+
+	private static class Frame {
+		final double[] pos;
+		final double energy;
+
+		Frame(double[] pos, double energy) {
+			this.pos = pos;
+			this.energy = energy;
 		}
 	}
 }
@@ -7,12 +7,8 @@ import com.actelion.research.chem.conf.Conformer;
 import com.actelion.research.chem.phesa.DescriptorHandlerShape;
 import com.actelion.research.chem.phesa.MolecularVolume;
 import com.actelion.research.chem.phesa.PheSAMolecule;
-import javafx.application.Platform;
-import javafx.collections.ObservableList;
-import javafx.scene.transform.Transform;
 import org.openmolecules.fx.viewer3d.*;
 
-import java.util.ArrayList;
 import java.util.List;
 
 
@@ -23,6 +19,7 @@ public class V3DShapeAlignerFromFile implements IAlignmentTask {
 	private V3DMolecule mRefFXMol;
 	private List<PheSAMolecule> mFitShapes;
 	private double ppWeight;
+	private int mMaxHits = V3DShapeAlignmentEngine.DEFAULT_MAX_HITS;
 	
 	
 	
@@ -42,67 +39,27 @@ public class V3DShapeAlignerFromFile implements IAlignmentTask {
 		this.ppWeight = ppWeight;
 	}
 	
+	/**
+	 * @param maxHits number of best alignments shown in the scene
+	 */
+	public void setMaxHits(int maxHits) {
+		mMaxHits = maxHits;
+	}
+
 	private void run() {
-		DescriptorHandlerShape dhs = new DescriptorHandlerShape(200,ppWeight);
-		List<V3DMolecule> fittedFXMols = new ArrayList<V3DMolecule>();
-		PheSAMolecule refShape;
-		StereoMolecule refMol;
-		Coordinates origCOM  = mRefVol.getCOM();
-		refMol = mRefFXMol.getMolecule();
+		StereoMolecule refMol = mRefFXMol.getMolecule();
+		Coordinates origCOM  = new Coordinates(mRefVol.getCOM());
 		Conformer refConf = new Conformer(refMol);
 		Rotation rot = mRefVol.preProcess(refConf);
 		rot = rot.getInvert();
-		refShape = new PheSAMolecule(refMol,mRefVol);
-		for(PheSAMolecule fitShape : mFitShapes) {
-			dhs.getSimilarity(refShape, fitShape);
-			try {
-				fittedFXMols.add(new V3DMolecule(dhs.getPreviousAlignment()[1], V3DMolecule.getNextID(),V3DMolecule.MoleculeRole.LIGAND, mScene.isOverrideHydrogenColor(), false));
-			}
-			catch(Exception e) {
-				continue;
-		}
-		}
-		
-		ObservableList<Transform> refTransforms = mRefFXMol.getTransforms();
-		Transform refTransform = null;
-		int nrTransforms = refTransforms.size();
-		if(nrTransforms>0) {
-			refTransform = refTransforms.get(0);
-			for(int i=1;i<nrTransforms;i++) {
-				refTransform = refTransform.createConcatenation(refTransforms.get(i));
-			}
-		}
-			
-		double refX = mRefFXMol.getTranslateX()	;
-		double refY = mRefFXMol.getTranslateY();
-		double refZ = mRefFXMol.getTranslateZ();
-		
 
-		for(int i=0;i<fittedFXMols.size();i++) {
-			rot.apply(fittedFXMols.get(i).getMolecule());
-			fittedFXMols.get(i).getMolecule().translate(origCOM.x,origCOM.y,origCOM.z);
-			if(refTransform!=null) {
-					fittedFXMols.get(i).setTransform(refTransform);
-					fittedFXMols.get(i).setTranslateX(refX);
-					fittedFXMols.get(i).setTranslateY(refY);
-					fittedFXMols.get(i).setTranslateZ(refZ);
-			}
-			
-		}
+		V3DShapeAlignmentEngine engine = new V3DShapeAlignmentEngine(() -> new PheSAMolecule(refMol,new MolecularVolume(mRefVol)),
+				() -> new DescriptorHandlerShape(200,ppWeight), Runtime.getRuntime().availableProcessors(), mMaxHits);
+		engine.align(mFitShapes.size(), (dhs, i) -> mFitShapes.get(i), new V3DAlignmentHitPresenter(mScene, mRefFXMol, rot, origCOM));
 
 		mRefFXMol.fireCoordinatesChange();
 		V3DMoleculeUpdater refMolUpdater = new V3DMoleculeUpdater(mRefFXMol);
 		refMolUpdater.update();
-		Platform.runLater(() -> {
-		for (int i=0; i<fittedFXMols.size(); i++) {
-			mScene.addMolecule(fittedFXMols.get(i), true);
-			fittedFXMols.get(i).setColor(CarbonAtomColorPalette.getColor(fittedFXMols.get(i).getID()));
-			fittedFXMols.get(i).fireCoordinatesChange();
-			V3DMoleculeUpdater fxMolUpdater = new V3DMoleculeUpdater(fittedFXMols.get(i));
-			fxMolUpdater.update();
-		}
-		
-		});
 	}
 		
 
@@ -68,6 +68,7 @@ public class V3DShapeAlignerInPlace implements IAlignmentTask {
 			dhs = new DescriptorHandlerShape(200,ppWeight);
 		else
 			dhs = new DescriptorHandlerShapeOneConf(200,ppWeight);
+		PheSADescriptorCache cache = PheSADescriptorCache.getInstance(generateConfs, 200, ppWeight);
 		mFitMols = new ArrayList<V3DMolecule>();
 
 		for (Node node : scene3D.getWorld().getChildren()) {
@@ -79,7 +80,7 @@ public class V3DShapeAlignerInPlace implements IAlignmentTask {
 				}
 				else if(fxmol.isSelected()) {
 					mFitMols.add(fxmol);
-					mPheSAMap.putIfAbsent(fxmol, dhs.createDescriptor(fxmol.getMolecule()));
+					mPheSAMap.putIfAbsent(fxmol, cache.getDescriptor(dhs, fxmol.getMolecule()));
 				}
 
 			}
@@ -8,14 +8,14 @@ import com.actelion.research.chem.phesa.DescriptorHandlerShape;
 import com.actelion.research.chem.phesa.MolecularVolume;
 import com.actelion.research.chem.phesa.PheSAMolecule;
 import javafx.application.Platform;
-import javafx.collections.ObservableList;
-import javafx.scene.transform.Transform;
-import org.openmolecules.fx.viewer3d.CarbonAtomColorPalette;
+import org.openmolecules.chem.conf.gen.ConformerGenerator;
 import org.openmolecules.fx.viewer3d.V3DMolecule;
 import org.openmolecules.fx.viewer3d.V3DMoleculeUpdater;
 import org.openmolecules.fx.viewer3d.V3DScene;
+import org.openmolecules.fx.viewer3d.io.CompoundRecordIndex;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculeParser;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 
 
@@ -25,6 +25,11 @@ public class V3DShapeAlignment {
 	private MolecularVolume mRefVol;
 	private V3DMolecule mRefFXMol;
 	private List<StereoMolecule> mFitMols;
+	private CompoundRecordIndex mFitIndex;
+	private int mMaxHits = V3DShapeAlignmentEngine.DEFAULT_MAX_HITS;
+	private V3DShapeAlignmentEngine.ProgressListener mProgressListener;
+	private V3DShapeAlignmentEngine mEngine;
+	private volatile boolean mIsCancelled;
 	
 
 
@@ -34,76 +39,105 @@ public class V3DShapeAlignment {
 		mFitMols = fitMols;
 		mRefVol = refVol;
 	}
+
+	/**
+	 * Aligns all records of a SD- or DataWarrior-file. Records are read from disk and prepared
+	 * one by one by the worker threads, such that the file may be of any size.
+	 * @param scene3D
+	 * @param refFXMol
+	 * @param refVol
+	 * @param fitIndex record index of the screening library, e.g. from CompoundRecordIndex.open()
+	 */
+	public V3DShapeAlignment(V3DScene scene3D,V3DMolecule refFXMol, MolecularVolume refVol, CompoundRecordIndex fitIndex)  {
+		mScene = scene3D;
+		mRefFXMol = refFXMol;
+		mFitIndex = fitIndex;
+		mRefVol = refVol;
+	}
 	
+	/**
+	 * @param maxHits number of best alignments shown in the scene
+	 */
+	public void setMaxHits(int maxHits) {
+		mMaxHits = maxHits;
+	}
+
+	/**
+	 * @param listener receives the number of processed fit molecules on the aligning thread; may be null
+	 */
+	public void setProgressListener(V3DShapeAlignmentEngine.ProgressListener listener) {
+		mProgressListener = listener;
+	}
+
+	/**
+	 * Stops the alignment. Hits found so far stay in the scene.
+	 */
+	public void cancel() {
+		mIsCancelled = true;
+		V3DShapeAlignmentEngine engine;
+		synchronized (this) {
+			engine = mEngine;
+		}
+		if (engine != null)
+			engine.cancel();
+	}
+
+	public boolean isCancelled() {
+		return mIsCancelled;
+	}
+
 	private void run() {
-		DescriptorHandlerShape dhs = new DescriptorHandlerShape(500,0.5);
-		dhs.setFlexible(true);
-		List<V3DMolecule> fittedFXMols = new ArrayList<V3DMolecule>();
-		PheSAMolecule refShape;
-		StereoMolecule refMol;
-		Coordinates origCOM  = mRefVol.getCOM();
-		refMol = mRefFXMol.getMolecule();
+		StereoMolecule refMol = mRefFXMol.getMolecule();
+		Coordinates origCOM  = new Coordinates(mRefVol.getCOM());
 		Conformer refConf = new Conformer(refMol);
 		Rotation rotation = mRefVol.preProcess(refConf);
 		rotation = rotation.getInvert();
-		refShape = new PheSAMolecule(refMol,mRefVol);
-		for(StereoMolecule mol : mFitMols) {
-			PheSAMolecule fitShape = dhs.createDescriptor(mol);
-			dhs.getSimilarity(refShape, fitShape);
-
-			try {
-				fittedFXMols.add(new V3DMolecule(dhs.getPreviousAlignment()[1], V3DMolecule.getNextID(),V3DMolecule.MoleculeRole.LIGAND, mScene.isOverrideHydrogenColor(), false));
-			}
-			catch(Exception e) {
-				continue;
+
+		PheSADescriptorCache cache = PheSADescriptorCache.getInstance(true, 500, 0.5);
+		V3DShapeAlignmentEngine engine = new V3DShapeAlignmentEngine(() -> new PheSAMolecule(refMol,new MolecularVolume(mRefVol)),
+				() -> {
+					DescriptorHandlerShape dhs = new DescriptorHandlerShape(500,0.5);
+					dhs.setFlexible(true);
+					return dhs;
+				}, Runtime.getRuntime().availableProcessors(), mMaxHits);
+		engine.setProgressListener(mProgressListener);
+		synchronized (this) {
+			mEngine = engine;
 		}
+		if (mIsCancelled)
+			engine.cancel();
+		V3DAlignmentHitPresenter presenter = new V3DAlignmentHitPresenter(mScene, mRefFXMol, rotation, origCOM);
+		if (mFitIndex != null) {
+			ThreadLocal<ConformerGenerator> confGen = ThreadLocal.withInitial(ConformerGenerator::new);
+			engine.align(mFitIndex.getRecordCount(), (dhs, i) -> {
+				try {
+					StereoMolecule fitMol = V3DMoleculeParser.parseChemFileRecord(mFitIndex, i, confGen.get());
+					return (fitMol == null) ? null : cache.getDescriptor(dhs, fitMol);
+				}
+				catch (IOException ioe) {
+					ioe.printStackTrace();
+					return null;
+				}
+			}, presenter);
 		}
-		
-		ObservableList<Transform> refTransforms = mRefFXMol.getTransforms();
-		Transform refTransform = null;
-		int nrTransforms = refTransforms.size();
-		if(nrTransforms>0) {
-			refTransform = refTransforms.get(0);
-			for(int i=1;i<nrTransforms;i++) {
-				refTransform = refTransform.createConcatenation(refTransforms.get(i));
-			}
+		else {
+			engine.align(mFitMols.size(), (dhs, i) -> cache.getDescriptor(dhs, mFitMols.get(i)), presenter);
 		}
-			
-		double refX = mRefFXMol.getTranslateX()	;
-		double refY = mRefFXMol.getTranslateY();
-		double refZ = mRefFXMol.getTranslateZ();
-		
 
-		for(int i=0;i<fittedFXMols.size();i++) {
-			rotation.apply(fittedFXMols.get(i).getMolecule());
-			fittedFXMols.get(i).getMolecule().translate(origCOM.x,origCOM.y,origCOM.z);
-			if(refTransform!=null) {
-					fittedFXMols.get(i).setTransform(refTransform);
-					fittedFXMols.get(i).setTranslateX(refX);
-					fittedFXMols.get(i).setTranslateY(refY);
-					fittedFXMols.get(i).setTranslateZ(refZ);
-			}
-			
-		}
-
-		mRefFXMol.fireCoordinatesChange();
-		V3DMoleculeUpdater refMolUpdater = new V3DMoleculeUpdater(mRefFXMol);
-		refMolUpdater.update();
 		Platform.runLater(() -> {
-		
-		for (int i=0; i<fittedFXMols.size(); i++) {
-			mScene.addMolecule(fittedFXMols.get(i), true);
-			fittedFXMols.get(i).setColor(CarbonAtomColorPalette.getColor(fittedFXMols.get(i).getID()));
-			fittedFXMols.get(i).fireCoordinatesChange();
-			V3DMoleculeUpdater fxMolUpdater = new V3DMoleculeUpdater(fittedFXMols.get(i));
-			fxMolUpdater.update();
-		}
-		
+			mRefFXMol.fireCoordinatesChange();
+			V3DMoleculeUpdater refMolUpdater = new V3DMoleculeUpdater(mRefFXMol);
+			refMolUpdater.update();
 		});
 	}
 		
 
 
+	/**
+	 * Aligns all fit molecules to the reference. Hits are added to the scene on the FX thread,
+	 * while the alignment is running, such that the non-async variant must not be called on the FX thread.
+	 * @param async whether to align on a new thread and return immediately
+	 */
 	public void align(boolean async) {
 		if(async) { 
 			Thread alignmentThread = new Thread(() -> run());
@@ -0,0 +1,179 @@
+package org.openmolecules.fx.tasks;
+
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.phesa.DescriptorHandlerShape;
+import com.actelion.research.chem.phesa.PheSAMolecule;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Aligns many fit molecules to one reference shape on multiple threads. Every worker thread uses
+ * its own DescriptorHandlerShape and its own copy of the reference shape, because both keep state
+ * during an alignment. Workers pull the index of the next fit molecule, such that fit descriptors are
+ * created lazily and never more than one per worker is in memory. Only the best maxHits alignments
+ * by similarity are kept. Changes of this top list are passed to a listener while the alignment
+ * is running, which allows showing hits as they are found without flooding the scene.
+ */
+public class V3DShapeAlignmentEngine {
+	public static final int DEFAULT_MAX_HITS = 100;
+	private static final long DELIVERY_INTERVAL_MILLIS = 250;
+
+	public static class Hit {
+		private final int mIndex;
+		private final double mSimilarity;
+		private final StereoMolecule mAlignedMol;
+
+		private Hit(int index, double similarity, StereoMolecule alignedMol) {
+			mIndex = index;
+			mSimilarity = similarity;
+			mAlignedMol = alignedMol;
+		}
+
+		/**
+		 * @return index of the fit molecule in the input
+		 */
+		public int getIndex() {
+			return mIndex;
+		}
+
+		public double getSimilarity() {
+			return mSimilarity;
+		}
+
+		/**
+		 * @return fit molecule in the aligned conformation, in the reference's preprocessed frame
+		 */
+		public StereoMolecule getAlignedMolecule() {
+			return mAlignedMol;
+		}
+	}
+
+	public interface HitListener {
+		/**
+		 * Called on the thread, which called align(), whenever the top list has changed.
+		 * @param added hits, which entered the top list
+		 * @param removed previously added hits, which were pushed out of the top list
+		 */
+		void hitsChanged(List<Hit> added, List<Hit> removed);
+	}
+
+	public interface ProgressListener {
+		/**
+		 * Called on the thread, which called align(), about four times a second and when done.
+		 * @param processed number of fit molecules aligned or skipped so far
+		 * @param total number of fit molecules
+		 */
+		void alignmentProgress(int processed, int total);
+	}
+
+	private static final Comparator<Hit> SIMILARITY_ORDER = Comparator.comparingDouble(Hit::getSimilarity);
+
+	private final Supplier<PheSAMolecule> mRefShapeFactory;
+	private final Supplier<DescriptorHandlerShape> mDHSFactory;
+	private final int mThreadCount;
+	private final TopList<Hit> mTopHits;
+	private final AtomicInteger mProcessedCount;
+	private ProgressListener mProgressListener;
+	private volatile boolean mIsCancelled;
+
+	/**
+	 * @param refShapeFactory creates independent copies of the reference shape
+	 * @param dhsFactory creates descriptor handlers with the desired parameters
+	 * @param threadCount
+	 * @param maxHits number of best alignments to keep
+	 */
+	public V3DShapeAlignmentEngine(Supplier<PheSAMolecule> refShapeFactory, Supplier<DescriptorHandlerShape> dhsFactory, int threadCount, int maxHits) {
+		mRefShapeFactory = refShapeFactory;
+		mDHSFactory = dhsFactory;
+		mThreadCount = Math.max(1, threadCount);
+		mTopHits = new TopList<>(SIMILARITY_ORDER.reversed(), maxHits);
+		mProcessedCount = new AtomicInteger();
+	}
+
+	/**
+	 * @param listener receives the progress of align(); may be null
+	 */
+	public void setProgressListener(ProgressListener listener) {
+		mProgressListener = listener;
+	}
+
+	public void cancel() {
+		mIsCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return mIsCancelled;
+	}
+
+	/**
+	 * Aligns all fit molecules and blocks until done or cancelled.
+	 * @param fitCount number of fit molecules
+	 * @param fitShape returns the shape of the fit molecule with the given index; it is called
+	 *                 on a worker thread with the worker's descriptor handler, e.g. to create the descriptor
+	 * @param listener may be null
+	 * @return top hits sorted by decreasing similarity
+	 */
+	public List<Hit> align(int fitCount, BiFunction<DescriptorHandlerShape,Integer,PheSAMolecule> fitShape, HitListener listener) {
+		AtomicInteger nextIndex = new AtomicInteger();
+		int threadCount = Math.min(mThreadCount, Math.max(1, fitCount));
+		CountDownLatch doneSignal = new CountDownLatch(threadCount);
+
+		for (int t=0; t<threadCount; t++) {
+			Thread worker = new Thread(() -> {
+				try {
+					DescriptorHandlerShape dhs = mDHSFactory.get();
+					PheSAMolecule refShape = mRefShapeFactory.get();
+					int index;
+					while (!mIsCancelled && (index = nextIndex.getAndIncrement()) < fitCount) {
+						try {
+							PheSAMolecule shape = fitShape.apply(dhs, index);
+							if (shape == null)
+								continue;
+							double similarity = dhs.getSimilarity(refShape, shape);
+							Hit worst = mTopHits.getWorstIfFull();
+							if (worst == null || similarity > worst.getSimilarity())
+								mTopHits.offer(new Hit(index, similarity, dhs.getPreviousAlignment()[1]));
+						}
+						catch (Exception e) {
+							e.printStackTrace();
+						}
+						finally {
+							mProcessedCount.incrementAndGet();
+						}
+					}
+				}
+				finally {
+					doneSignal.countDown();
+				}
+			}, "V3DShapeAlignmentEngine worker");
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		try {
+			while (!doneSignal.await(DELIVERY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS))
+				deliver(listener, fitCount);
+		}
+		catch (InterruptedException ie) {
+			mIsCancelled = true;
+		}
+		deliver(listener, fitCount);
+
+		return mTopHits.getSorted();
+	}
+
+	private void deliver(HitListener listener, int fitCount) {
+		mTopHits.drainChanges((added, removed) -> {
+			if (listener != null)
+				listener.hitsChanged(added, removed);
+		});
+		if (mProgressListener != null)
+			mProgressListener.alignmentProgress(mProcessedCount.get(), fitCount);
+	}
+}
@@ -1,6 +1,5 @@
 package org.openmolecules.fx.viewer3d;
 
-import javafx.animation.AnimationTimer;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.Group;
 import javafx.scene.PerspectiveCamera;
@@ -9,49 +8,48 @@ import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
 import javafx.stage.Screen;
 
+/**
+ * Shows the scene as seen by one eye's camera. The view doesn't redraw itself;
+ * the V3DStereoPane redraws both eyes whenever the scene has changed.
+ */
 public final class OneEyeView extends ImageView {
-	private final SnapshotParameters mParams = new SnapshotParameters();
-	private WritableImage mImage = null;
-	private final Group mWorldRoot;
-	private final AnimationTimer mTimer;
+	private final PerspectiveCamera mCamera;
 	private final Screen mTagetScreen;
+	private WritableImage mImage = null;
 
-
-	public OneEyeView(V3DScene sourceScene, PerspectiveCamera camera, Screen targetScreen) {
-		mWorldRoot = (Group)sourceScene.getRoot();
+	public OneEyeView(PerspectiveCamera camera, Screen targetScreen) {
+		mCamera = camera;
 		mTagetScreen = targetScreen;
-
-		mParams.setCamera(camera);
-		mParams.setDepthBuffer(true);
-		mParams.setFill(sourceScene.getFill());
-
-		mTimer = new AnimationTimer() {
-			@Override
-			public void handle(long now) {
-				redraw();
-			}
-		};
-	}
-
-	public void start() {
-		mTimer.start();
 	}
 
-	public void stop() {
-		mTimer.stop();
+	public PerspectiveCamera getCamera() {
+		return mCamera;
 	}
 
-	private void redraw() {
+	/**
+	 * Renders worldRoot with this eye's camera into this view's image.
+	 * @param worldRoot
+	 * @param params shared by both eyes; camera and viewport are set here
+	 */
+	public void redraw(Group worldRoot, SnapshotParameters params) {
 		int width = Math.round((float)mTagetScreen.getOutputScaleX() * (float)getFitWidth());
 		int height = Math.round((float)mTagetScreen.getOutputScaleY() * (float)getFitHeight());
+		if (width <= 0 || height <= 0)
+			return;
+
+		Rectangle2D viewport = params.getViewport();
+		if (viewport == null
+		 || viewport.getWidth() != width
+		 || viewport.getHeight() != height)
+			params.setViewport(new Rectangle2D(0, 0, width, height));
+		params.setCamera(mCamera);
 
-		mParams.setViewport(new Rectangle2D(0, 0, width, height));
 		if (mImage == null
 		 || mImage.getWidth() != width
 		 || mImage.getHeight() != height)
-			mImage = mWorldRoot.snapshot(mParams, null);
+			mImage = worldRoot.snapshot(params, null);
 		else
-			mWorldRoot.snapshot(mParams, mImage);
+			worldRoot.snapshot(params, mImage);
 
 		setImage(mImage);
 	}
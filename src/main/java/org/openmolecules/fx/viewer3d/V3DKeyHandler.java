@@ -44,6 +44,14 @@ public class V3DKeyHandler {
 					if (mAxis != null)
 						mAxis.setVisible(!mAxis.isVisible());
 					break;
+				case PAGE_DOWN:
+					if (scene.getMoleculePager() != null)
+						scene.getMoleculePager().nextPage();
+					break;
+				case PAGE_UP:
+					if (scene.getMoleculePager() != null)
+						scene.getMoleculePager().previousPage();
+					break;
 				case Y:
 					double fieldOfView = camera.getFieldOfView();
 					double screenSize = camera.isVerticalFieldOfView() ? scene.getHeight() : scene.getWidth();
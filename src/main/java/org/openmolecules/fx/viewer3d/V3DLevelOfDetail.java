@@ -0,0 +1,226 @@
+/*
+ * FXMolViewer, showing and manipulating molecules and protein structures in 3D.
+ * Copyright (C) 2019 Thomas Sander
+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * @author Thomas Sander
+ */
+
+package org.openmolecules.fx.viewer3d;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.PerspectiveCamera;
+import javafx.scene.shape.Cylinder;
+import javafx.scene.shape.Sphere;
+import javafx.util.Duration;
+import org.openmolecules.fx.viewer3d.nodes.Ribbons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses the tessellation of atom spheres, bond cylinders and ribbons for every molecule of a scene.
+ * A molecule's level is derived from the on-screen size of an atom at the molecule's nearest point
+ * to the camera. If the estimated triangle count of the whole scene at these levels exceeds a budget,
+ * the most distant molecules are coarsened further until the scene fits. Levels are re-evaluated
+ * after the camera or the scene content has changed and zooming has come to rest for a moment,
+ * because switching a level rebuilds the molecule's primitives. Thresholds use a hysteresis
+ * to avoid switching back and forth near a threshold.
+ */
+public class V3DLevelOfDetail {
+	public static final int LEVEL_HIGH = 0;
+	public static final int LEVEL_MEDIUM = 1;
+	public static final int LEVEL_LOW = 2;
+
+	private static final int[] DIVISION_SHIFT = { 0, 1, 2 };
+	private static final int[] RIBBON_POINTS_PER_SECTION = { Ribbons.POINTS_PER_SECTION, 8, 6 };
+
+	private static final double ATOM_DIAMETER = 1.5;		// typical atom size in Angstrom
+	private static final double[] MIN_PIXELS = { 24, 8 };	// minimum on-screen atom diameter for LEVEL_HIGH and LEVEL_MEDIUM
+	private static final double HYSTERESIS = 1.25;
+	private static final long DEFAULT_TRIANGLE_BUDGET = 4_000_000;
+	private static final Duration UPDATE_DELAY = Duration.millis(250);
+
+	private final V3DScene mScene;
+	private final PerspectiveCamera mCamera;
+	private final PauseTransition mUpdateDelay;
+	private long mTriangleBudget;
+	private boolean mIsEnabled;
+
+	/**
+	 * @param detailLevel
+	 * @return number of bits by which sphere and cylinder divisions are reduced
+	 */
+	public static int getDivisionShift(int detailLevel) {
+		return DIVISION_SHIFT[detailLevel];
+	}
+
+	public static int getRibbonPointsPerSection(int detailLevel) {
+		return RIBBON_POINTS_PER_SECTION[detailLevel];
+	}
+
+	public V3DLevelOfDetail(V3DScene scene, PerspectiveCamera camera) {
+		mScene = scene;
+		mCamera = camera;
+		mTriangleBudget = DEFAULT_TRIANGLE_BUDGET;
+		mIsEnabled = true;
+		mUpdateDelay = new PauseTransition(UPDATE_DELAY);
+		mUpdateDelay.setOnFinished(e -> updateLevels());
+
+		camera.translateZProperty().addListener((v, o, n) -> update());
+		camera.fieldOfViewProperty().addListener((v, o, n) -> update());
+		scene.heightProperty().addListener((v, o, n) -> update());
+		scene.widthProperty().addListener((v, o, n) -> update());
+	}
+
+	public boolean isEnabled() {
+		return mIsEnabled;
+	}
+
+	/**
+	 * If disabled, all molecules are shown with the highest detail level.
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		mIsEnabled = enabled;
+		update();
+	}
+
+	public long getTriangleBudget() {
+		return mTriangleBudget;
+	}
+
+	/**
+	 * @param budget number of triangles, which the scene's molecules should not exceed
+	 */
+	public void setTriangleBudget(long budget) {
+		mTriangleBudget = budget;
+		update();
+	}
+
+	/**
+	 * Schedules re-evaluation of all molecules' detail levels.
+	 * Repeated calls within a short time, e.g. while zooming, cause one evaluation only.
+	 */
+	public void update() {
+		if (Platform.isFxApplicationThread())
+			mUpdateDelay.playFromStart();
+		else
+			Platform.runLater(mUpdateDelay::playFromStart);
+	}
+
+	private void updateLevels() {
+		List<V3DMolecule> molList = new ArrayList<>();
+		for (V3DRotatableGroup group : mScene.getWorld().getAllAttachedRotatableGroups())
+			if (group instanceof V3DMolecule && group.isVisible())
+				molList.add((V3DMolecule)group);
+
+		if (!mIsEnabled) {
+			for (V3DMolecule fxmol : molList)
+				fxmol.setDetailLevel(LEVEL_HIGH);
+			return;
+		}
+
+		int count = molList.size();
+		double[] distance = new double[count];
+		int[] level = new int[count];
+		Primitives[] primitives = new Primitives[count];
+		double screenSize = mCamera.isVerticalFieldOfView() ? mScene.getHeight() : mScene.getWidth();
+		double pixelsPerAngstromAtUnitDistance = screenSize / (2.0 * Math.tan(Math.PI * mCamera.getFieldOfView() / 360.0));
+		long triangles = 0;
+		for (int i=0; i<count; i++) {
+			V3DMolecule fxmol = molList.get(i);
+			Bounds bounds = fxmol.localToScene(fxmol.getBoundsInLocal());
+			distance[i] = Math.max(1.0, bounds.getMinZ() - mCamera.getTranslateZ());
+			double pixels = ATOM_DIAMETER * pixelsPerAngstromAtUnitDistance / distance[i];
+			level[i] = getLevelForSize(pixels, fxmol.getDetailLevel());
+			primitives[i] = new Primitives(fxmol);
+			triangles += primitives[i].getTriangles(level[i]);
+		}
+
+		// coarsen most distant molecules first until the scene fits into the triangle budget
+		if (triangles > mTriangleBudget) {
+			Integer[] order = new Integer[count];
+			for (int i=0; i<count; i++)
+				order[i] = i;
+			Arrays.sort(order, Comparator.comparingDouble(i -> -distance[i]));
+			for (int pass=0; pass<LEVEL_LOW && triangles > mTriangleBudget; pass++) {
+				for (int i : order) {
+					if (level[i] < LEVEL_LOW) {
+						triangles += primitives[i].getTriangles(level[i]+1) - primitives[i].getTriangles(level[i]);
+						level[i]++;
+						if (triangles <= mTriangleBudget)
+							break;
+					}
+				}
+			}
+		}
+
+		for (int i=0; i<count; i++)
+			molList.get(i).setDetailLevel(level[i]);
+	}
+
+	/**
+	 * @param pixels on-screen diameter of an atom
+	 * @param currentLevel
+	 * @return detail level for the given atom size; moving to a finer level requires a larger size than moving back
+	 */
+	private int getLevelForSize(double pixels, int currentLevel) {
+		for (int level=LEVEL_HIGH; level<LEVEL_LOW; level++) {
+			double threshold = MIN_PIXELS[level];
+			if (level < currentLevel)
+				threshold *= HYSTERESIS;
+			else
+				threshold /= HYSTERESIS;
+			if (pixels >= threshold)
+				return level;
+		}
+		return LEVEL_LOW;
+	}
+
+	/**
+	 * Counts of currently shown primitives of a molecule, from which triangle counts are estimated for every level.
+	 */
+	private static class Primitives {
+		private final int mConstructionMode;
+		private int mSpheres,mCylinders,mRibbonSections;
+
+		Primitives(V3DMolecule fxmol) {
+			mConstructionMode = fxmol.getConstructionMode();
+			for (Node node : fxmol.getChildren()) {
+				if (node instanceof Sphere)
+					mSpheres++;
+				else if (node instanceof Cylinder)
+					mCylinders++;
+			}
+			Ribbons ribbons = fxmol.getRibbons();
+			if (ribbons != null)
+				mRibbonSections = ribbons.getTriangleCount() / (2 * ribbons.getPointsPerSection());
+		}
+
+		long getTriangles(int level) {
+			long sphereDivisions = V3DMoleculeBuilder.getSphereDivisions(mConstructionMode, level);
+			long cylinderDivisions = V3DMoleculeBuilder.getCylinderDivisions(mConstructionMode, level);
+			return mSpheres * sphereDivisions * sphereDivisions
+				 + mCylinders * 4 * cylinderDivisions
+				 + mRibbonSections * 2L * getRibbonPointsPerSection(level);
+		}
+	}
+}
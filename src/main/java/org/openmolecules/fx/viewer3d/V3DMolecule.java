@@ -53,6 +53,9 @@ import org.openmolecules.mesh.MoleculeSurfaceAlgorithm;
 import org.openmolecules.render.*;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import static org.openmolecules.fx.surface.SurfaceMesh.SURFACE_COLOR_PLAIN;
 
@@ -78,6 +81,7 @@ public class V3DMolecule extends V3DRotatableGroup {
 	private static final Color DEFAULT_SURFACE_COLOR = Color.ROYALBLUE;
 
 	private static PhongMaterial sSolidHighlightedMaterial,sTransparentHighlightedMaterial,sPickedMaterial,sSelectedMaterial;
+	private static Executor sConstructionExecutor;
 
 	private StereoMolecule mMol;
 	private final ArrayList<StereoMolecule> mLigands;
@@ -93,6 +97,7 @@ public class V3DMolecule extends V3DRotatableGroup {
 	private int mConstructionMode,mRibbonMode;
 	private int mHydrogenMode;
 	private int mSideChainMode;
+	private int mDetailLevel;
 	private final LinkedList<Sphere> mPickedAtomList;
 	private final ArrayList<Sphere> mTemporaryAtomSpheres;
 	private boolean mOverrideHydrogens;
@@ -287,17 +292,7 @@ public class V3DMolecule extends V3DRotatableGroup {
 		mSideChainMode = sideChainMode;
 
 		constructMaterials();
-		V3DMoleculeBuilder builder = new V3DMoleculeBuilder(this);
-		if (mSideChainMode == SIDECHAIN_MODE_ALL) {
-			builder.buildMolecule();
-		}
-		else if (mRibbons == null || sideChainMode != SIDECHAIN_MODE_NONE) {
-			boolean[] isBackboneAtom = mRibbons != null ? mRibbons.getBackboneMask() : Ribbons.determineBackboneAtoms(mMol);
-			AtomConstructionFilter filter = (mSideChainMode == SIDECHAIN_MODE_NEAR_LIGAND && mLigands != null) ?
-					  new NearLigandSideChainConstructionFilter(mMol, mLigands, isBackboneAtom, mRibbons == null)
-					: new BackboneAtomConstructionFilter(mMol, isBackboneAtom);
-			builder.buildMolecule(filter);
-		}
+		buildPrimitives(new V3DMoleculeBuilder(this), mSideChainMode);
 
 		if (surfaceMode != SURFACE_MODE_NONE) {
 			SurfaceCutter cutter = (role == MoleculeRole.MACROMOLECULE) ? createSurfaceCutter() : null;
@@ -306,6 +301,69 @@ public class V3DMolecule extends V3DRotatableGroup {
 		}
 	}
 
+	/**
+	 * Creates a V3DMolecule in stages, such that even large proteins don't block the FX thread.
+	 * First, ribbons and atom/bond primitives are constructed and the molecule is passed to the consumer, which
+	 * typically adds it to the scene. Then, if a surface is requested, the surface mesh is calculated and attached.
+	 * Each stage is attached to the live molecule with one FX thread update. Parameters are the same as for the
+	 * general constructor. All calculations are done on the calling thread, which must not be the FX thread,
+	 * typically one of the getConstructionExecutor() threads.
+	 * @param consumer called on the FX thread with the molecule as soon as ribbons and primitives are built
+	 */
+	public static void createStaged(StereoMolecule mol, int constructionMode, int  hydrogenMode, int ribbonMode, int sideChainMode,
+									int surfaceMode, int surfaceColorMode, Color surfaceColor, double surfaceTransparency,
+									int id, MoleculeRole role, boolean overrideHydrogens, boolean splitAllBonds, ArrayList<StereoMolecule> ligands,
+									Consumer<V3DMolecule> consumer) {
+		// the molecule is not yet part of a scene graph and therefore can be constructed off the FX thread
+		V3DMolecule fxmol = new V3DMolecule(mol, constructionMode, hydrogenMode, ribbonMode, sideChainMode,
+				SURFACE_MODE_NONE, surfaceColorMode, surfaceColor, surfaceTransparency,
+				id, role, overrideHydrogens, splitAllBonds, ligands);
+		// like with synchronous construction the surface is colored independently of a color assigned by the consumer
+		Color neutralColor = fxmol.getNeutralColor(0);
+		Platform.runLater(() -> consumer.accept(fxmol));
+
+		if (surfaceMode != SURFACE_MODE_NONE) {
+			SurfaceMesh mesh = fxmol.createSurfaceMesh(0, neutralColor);
+			Platform.runLater(() -> fxmol.attachSurfaceMesh(0, surfaceMode, mesh));
+		}
+	}
+
+	/**
+	 * @return shared pool of worker threads for constructing molecules concurrently, e.g. with createStaged()
+	 */
+	public static synchronized Executor getConstructionExecutor() {
+		if (sConstructionExecutor == null)
+			sConstructionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "V3DMolecule construction");
+				t.setDaemon(true);
+				return t;
+			});
+		return sConstructionExecutor;
+	}
+
+	/**
+	 * Calculates a surface mesh with the current color mode and transparency of the given surface type.
+	 * The molecule's nodes are not touched, which allows calling this method from any thread.
+	 */
+	private SurfaceMesh createSurfaceMesh(int surfaceType, Color neutralColor) {
+		SurfaceCutter cutter = (getRole() == MoleculeRole.MACROMOLECULE) ? createSurfaceCutter() : null;
+		return new SurfaceMesh(mMol, surfaceType, mSurfaceColorMode[surfaceType], neutralColor,
+				1.0 - mSurfaceTransparency[surfaceType], cutter);
+	}
+
+	/**
+	 * Shows a surface from an asynchronously created mesh, unless the surface was defined otherwise in the meantime.
+	 * Must be called on the FX thread.
+	 */
+	private void attachSurfaceMesh(int surfaceType, int surfaceMode, SurfaceMesh mesh) {
+		if (mSurfaceMode[surfaceType] != SURFACE_MODE_NONE)
+			return;
+
+		mSurfaceMode[surfaceType] = surfaceMode;
+		mSurfaceMesh[surfaceType] = mesh;
+		updateSurfaceFromMesh(surfaceType);
+	}
+
 	public void setInitialCoordinates() {
 		mInitialCoordinates = new Coordinates[mMol.getAllAtoms()];
 		for (int i=0; i<mMol.getAllAtoms(); i++)
@@ -527,6 +585,82 @@ public class V3DMolecule extends V3DRotatableGroup {
 		return mSideChainMode;
 	}
 
+	/**
+	 * @return one of V3DLevelOfDetail.LEVEL_...
+	 */
+	public int getDetailLevel() {
+		return mDetailLevel;
+	}
+
+	/**
+	 * Rebuilds atom, bond and ribbon primitives with the tessellation of the given detail level.
+	 * Must be called on the FX application thread.
+	 * @param level one of V3DLevelOfDetail.LEVEL_...
+	 */
+	public void setDetailLevel(int level) {
+		if (level == mDetailLevel)
+			return;
+
+		mDetailLevel = level;
+
+		if (mRibbons != null) {
+			mRibbons.removeRibbon();
+			mRibbons = new Ribbons(mMol, this);
+			mRibbons.draw(mRibbonMode);
+		}
+
+		// picked atoms and the highlighted shape are replaced by the new primitives of the same atom or bond
+		Set<Integer> pickedAtoms = new HashSet<>();
+		for (Sphere atomShape : mPickedAtomList)
+			pickedAtoms.add(((NodeDetail)atomShape.getUserData()).getAtom());
+		Shape3D highlightedShape = (mHighlightedShape != null && mHighlightedShape.getParent() == this
+								 && mHighlightedShape.getUserData() instanceof NodeDetail) ? mHighlightedShape : null;
+		mPickedAtomList.clear();
+		mTemporaryAtomSpheres.clear();
+		if (highlightedShape != null)
+			mHighlightedShape = null;
+
+		// surfaces are kept, but moved behind the primitives, because surface transparency depends on creation time of triangles
+		List<Node> surfaces = new ArrayList<>();
+		for (int i=getChildren().size()-1; i>=0; i--)
+			if (isSurface(getChildren().get(i)))
+				surfaces.add(0, getChildren().get(i));
+		getChildren().clear();
+
+		V3DMoleculeBuilder builder = new V3DMoleculeBuilder(this);
+		builder.setConstructionMode(mConstructionMode);
+		builder.setHydrogenMode(mHydrogenMode);
+		buildPrimitives(builder, mSideChainMode);
+
+		getChildren().addAll(surfaces);
+
+		for (Node node : getChildren()) {
+			if (node instanceof Shape3D && node.getUserData() instanceof NodeDetail) {
+				NodeDetail detail = (NodeDetail)node.getUserData();
+				if (node instanceof Sphere && detail.isAtom() && pickedAtoms.contains(detail.getAtom()))
+					mPickedAtomList.add((Sphere)node);
+				if (highlightedShape != null && mHighlightedShape == null
+				 && node.getClass() == highlightedShape.getClass()
+				 && detail.getRole() == ((NodeDetail)highlightedShape.getUserData()).getRole())
+					mHighlightedShape = (Shape3D)node;
+			}
+		}
+		for (Sphere atomShape : mPickedAtomList)
+			updateAppearance(atomShape);
+		if (mHighlightedShape != null)
+			updateAppearance(mHighlightedShape);
+		updateTemporaryAtomSpheres();
+
+		updateColor();
+	}
+
+	/**
+	 * @return ribbon or cartoon of this molecule or null
+	 */
+	public Ribbons getRibbons() {
+		return mRibbons;
+	}
+
 	public void setConstructionMode(int mode) {
 		setMode(mode, mHydrogenMode, mRibbonMode, mSideChainMode);
 	}
@@ -583,16 +717,7 @@ public class V3DMolecule extends V3DRotatableGroup {
 			V3DMoleculeBuilder builder = new V3DMoleculeBuilder(this);
 			builder.setConstructionMode(constructionMode);
 			builder.setHydrogenMode(hydrogenMode);
-			if (sideChainMode == SIDECHAIN_MODE_ALL) {
-				builder.buildMolecule();
-			}
-			else if (mRibbons == null || sideChainMode != SIDECHAIN_MODE_NONE) {
-				boolean[] isBackboneAtom = mRibbons != null ? mRibbons.getBackboneMask() : Ribbons.determineBackboneAtoms(mMol);
-				AtomConstructionFilter filter = (sideChainMode == SIDECHAIN_MODE_NEAR_LIGAND && mLigands != null) ?
-						new NearLigandSideChainConstructionFilter(mMol, mLigands, isBackboneAtom, mRibbons == null)
-						: new BackboneAtomConstructionFilter(mMol, isBackboneAtom);
-				builder.buildMolecule(filter);
-			}
+			buildPrimitives(builder, sideChainMode);
 		}
 
 		mConstructionMode = constructionMode;
@@ -608,6 +733,24 @@ public class V3DMolecule extends V3DRotatableGroup {
 		updateColor();
 		}
 	
+	/**
+	 * Builds atom and bond primitives considering which side chains are to be shown.
+	 * @param builder
+	 * @param sideChainMode
+	 */
+	private void buildPrimitives(V3DMoleculeBuilder builder, int sideChainMode) {
+		if (sideChainMode == SIDECHAIN_MODE_ALL) {
+			builder.buildMolecule();
+		}
+		else if (mRibbons == null || sideChainMode != SIDECHAIN_MODE_NONE) {
+			boolean[] isBackboneAtom = mRibbons != null ? mRibbons.getBackboneMask() : Ribbons.determineBackboneAtoms(mMol);
+			AtomConstructionFilter filter = (sideChainMode == SIDECHAIN_MODE_NEAR_LIGAND && mLigands != null) ?
+					new NearLigandSideChainConstructionFilter(mMol, mLigands, isBackboneAtom, mRibbons == null)
+					: new BackboneAtomConstructionFilter(mMol, isBackboneAtom);
+			builder.buildMolecule(filter);
+		}
+	}
+
 	public void reconstruct() {
 		for (int i=getChildren().size()-1; i>=0; i--)
 			if (!isSurface(getChildren().get(i)))
@@ -672,6 +815,8 @@ public class V3DMolecule extends V3DRotatableGroup {
 		}
 		for (Node node:getChildren())
 			updateAppearance(node);
+
+		V3DStereoPane.invalidateFullScreenView();
 		}
 
 	public Color getSurfaceColor(int surfaceType) {
@@ -742,7 +887,7 @@ public class V3DMolecule extends V3DRotatableGroup {
 		return mSurfaceMode[surfaceType];
 		}
 	
-	public static int getNextID() {
+	public static synchronized int getNextID() {
 		return MAX_ID++;
 	}
 	
@@ -872,6 +1017,8 @@ public class V3DMolecule extends V3DRotatableGroup {
 			mSurface[surfaceType].setDrawMode(DrawMode.LINE);
 
 		getChildren().add(mSurface[surfaceType]);
+
+		V3DStereoPane.invalidateFullScreenView();
 		}
 
 	private void showSurfaceNormals(int surfaceType) {
@@ -1206,21 +1353,21 @@ public class V3DMolecule extends V3DRotatableGroup {
 
 		if (mPickedAtomList.contains(shape)) {
 			if (shape.getMaterial() != sPickedMaterial)
-				shape.setMaterial(sPickedMaterial);
+				setShapeMaterial(shape, sPickedMaterial);
 			return;
 			}
 
 		if (shape == mHighlightedShape) {
 			Material hiliteMaterial = getHiliteMaterial(shape);
 			if (shape.getMaterial() != hiliteMaterial)
-				shape.setMaterial(hiliteMaterial);
+				setShapeMaterial(shape, hiliteMaterial);
 			return;
 			}
 
 		NodeDetail detail = (NodeDetail)shape.getUserData();
 		if (detail != null && detail.isSelected()) {
 			if (shape.getMaterial() != sSelectedMaterial)
-				shape.setMaterial(sSelectedMaterial);
+				setShapeMaterial(shape, sSelectedMaterial);
 			return;
 			}
 
@@ -1233,8 +1380,19 @@ public class V3DMolecule extends V3DRotatableGroup {
 			}
 ;
 		if (shape.getMaterial() != material) {
-			shape.setMaterial(material);
+			setShapeMaterial(shape, material);
+		}
 		}
+
+	/**
+	 * Changes the material of one of our shapes and lets a stereo view know, because
+	 * picking, highlighting, selecting or coloring doesn't change any bounds.
+	 * @param shape
+	 * @param material
+	 */
+	private void setShapeMaterial(Shape3D shape, Material material) {
+		shape.setMaterial(material);
+		V3DStereoPane.invalidateFullScreenView();
 		}
 
 	private Material getHiliteMaterial(Shape3D shape) {
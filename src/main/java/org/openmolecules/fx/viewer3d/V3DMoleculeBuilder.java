@@ -147,11 +147,31 @@ public class V3DMoleculeBuilder extends V3DPrimitiveBuilder implements MoleculeB
 	}
 
 	private void calculateDivisions() {
-		mSphereDivisions = (mArchitect.getConstructionMode() == MoleculeArchitect.CONSTRUCTION_MODE_BALLS) ? 64
-				   : (mArchitect.getConstructionMode() == MoleculeArchitect.CONSTRUCTION_MODE_BALL_AND_STICKS) ? 32
-				   : (mArchitect.getConstructionMode() == MoleculeArchitect.CONSTRUCTION_MODE_STICKS) ? 16 : 8;
-		mCylinderDivisions = (mArchitect.getConstructionMode() == MoleculeArchitect.CONSTRUCTION_MODE_BALLS) ? 10
-				: (mArchitect.getConstructionMode() == MoleculeArchitect.CONSTRUCTION_MODE_BALL_AND_STICKS) ? 10
-				: (mArchitect.getConstructionMode() == MoleculeArchitect.CONSTRUCTION_MODE_STICKS) ? 10 : 5;
+		mSphereDivisions = getSphereDivisions(mArchitect.getConstructionMode(), mV3DMolecule.getDetailLevel());
+		mCylinderDivisions = getCylinderDivisions(mArchitect.getConstructionMode(), mV3DMolecule.getDetailLevel());
+		}
+
+	/**
+	 * @param constructionMode
+	 * @param detailLevel one of V3DLevelOfDetail.LEVEL_...
+	 * @return divisions of atom spheres; at lower detail levels divisions are reduced, but stay a multiple of 4
+	 */
+	public static int getSphereDivisions(int constructionMode, int detailLevel) {
+		int divisions = (constructionMode == MoleculeArchitect.CONSTRUCTION_MODE_BALLS) ? 64
+					  : (constructionMode == MoleculeArchitect.CONSTRUCTION_MODE_BALL_AND_STICKS) ? 32
+					  : (constructionMode == MoleculeArchitect.CONSTRUCTION_MODE_STICKS) ? 16 : 8;
+		return Math.max(4, (divisions >> V3DLevelOfDetail.getDivisionShift(detailLevel)) & ~3);
+		}
+
+	/**
+	 * @param constructionMode
+	 * @param detailLevel one of V3DLevelOfDetail.LEVEL_...
+	 * @return divisions of bond cylinders
+	 */
+	public static int getCylinderDivisions(int constructionMode, int detailLevel) {
+		int divisions = (constructionMode == MoleculeArchitect.CONSTRUCTION_MODE_BALLS) ? 10
+					  : (constructionMode == MoleculeArchitect.CONSTRUCTION_MODE_BALL_AND_STICKS) ? 10
+					  : (constructionMode == MoleculeArchitect.CONSTRUCTION_MODE_STICKS) ? 10 : 5;
+		return Math.max(3, divisions >> V3DLevelOfDetail.getDivisionShift(detailLevel));
 		}
 	}
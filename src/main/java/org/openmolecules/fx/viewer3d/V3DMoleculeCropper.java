@@ -29,6 +29,7 @@ import javafx.scene.Node;
 import org.openmolecules.fx.surface.SurfaceCutter;
 import org.openmolecules.fx.viewer3d.nodes.NodeDetail;
 import org.openmolecules.fx.viewer3d.nodes.Ribbons;
+import org.openmolecules.mesh.NeighbourIndex;
 
 import java.util.ArrayList;
 
@@ -36,7 +37,7 @@ public class V3DMoleculeCropper extends SurfaceCutter {
 	private static final double CROP_ZONE_WIDTH = 1.6;
 
 	private final double mSquareInsideDistance,mOutsideDistance,mSquareOutsideDistance;
-	private final Point3D[] mRefPoints;
+	private final NeighbourIndex mRefIndex;
 	private final Bounds mRefBounds;
 	private final V3DMolecule mFXMol;
 	private final StereoMolecule mMol;
@@ -48,7 +49,7 @@ public class V3DMoleculeCropper extends SurfaceCutter {
 		mSquareInsideDistance = insideDistance * insideDistance;
 		mOutsideDistance = distance + CROP_ZONE_WIDTH / 2;
 		mSquareOutsideDistance = mOutsideDistance * mOutsideDistance;
-		mRefPoints = refPoints;
+		mRefIndex = createIndex(refPoints, mOutsideDistance);
 		mRefBounds = refBounds;
 	}
 
@@ -59,10 +60,20 @@ public class V3DMoleculeCropper extends SurfaceCutter {
 		mSquareInsideDistance = insideDistance * insideDistance;
 		mOutsideDistance = distance + CROP_ZONE_WIDTH / 2;
 		mSquareOutsideDistance = mOutsideDistance * mOutsideDistance;
-		mRefPoints = refPoints;
+		mRefIndex = createIndex(refPoints, mOutsideDistance);
 		mRefBounds = refBounds;
 	}
 
+	private static NeighbourIndex createIndex(Point3D[] refPoints, double cellSize) {
+		double[] coords = new double[3*refPoints.length];
+		for (int i=0; i<refPoints.length; i++) {
+			coords[3*i] = refPoints[i].getX();
+			coords[3*i+1] = refPoints[i].getY();
+			coords[3*i+2] = refPoints[i].getZ();
+		}
+		return new NeighbourIndex(coords, refPoints.length, cellSize);
+	}
+
 	/**
 	 * Crops the V3DMolecule or just the StereoMolecule depending on the Constructor used,
 	 * which means removes all atoms that are within the distance given to the constructor.
@@ -238,24 +249,7 @@ public class V3DMoleculeCropper extends SurfaceCutter {
 		 || z > mRefBounds.getMaxZ() + mOutsideDistance)
 			return 1;
 
-		int result = 1;
-		for (Point3D refP:mRefPoints) {
-			double dx = Math.abs(x - refP.getX());
-			if (dx < mOutsideDistance) {
-				double dy = Math.abs(y - refP.getY());
-				if (dy < mOutsideDistance) {
-					double dz = Math.abs(z - refP.getZ());
-					if (dz < mOutsideDistance) {
-						double squareDistance = dx*dx+dy*dy+dz*dz;
-						if (squareDistance < mSquareInsideDistance)
-							return -1;
-						if (squareDistance < mSquareOutsideDistance)
-							result = 0;
-					}
-				}
-			}
-		}
-
-		return result;
+		double squareDistance = mRefIndex.getSquareDistanceToNearest(x, y, z, mOutsideDistance);
+		return squareDistance < mSquareInsideDistance ? -1 : squareDistance < mSquareOutsideDistance ? 0 : 1;
 	}
 }
@@ -35,6 +35,8 @@ import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.Bounds;
@@ -58,6 +60,7 @@ import org.openmolecules.fx.viewer3d.interactions.drugscore.DrugScoreInteraction
 import org.openmolecules.fx.viewer3d.interactions.jw.JWInteractionHandler;
 import org.openmolecules.fx.viewer3d.interactions.plip.PLIPInteractionCalculator;
 import org.openmolecules.fx.viewer3d.interactions.rf.RFInteractionCalculator;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculePager;
 import org.openmolecules.fx.viewer3d.nodes.DashedRod;
 import org.openmolecules.fx.viewer3d.nodes.NodeDetail;
 import org.openmolecules.fx.viewer3d.nodes.NonRotatingLabel;
@@ -91,8 +94,10 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 	private V3DInteractionHandler mInteractionHandler;
 	private JWInteractionHandler mJWInteractionHandler;
 	private final ObjectProperty<XYChart<Number,Number>> mChartProperty; //for graphs and charts that are created by interaction with the scene (e.g. hovering over a torsion angle)
+	private final ReadOnlyObjectWrapper<V3DMoleculePager> mMoleculePagerProperty;
 	private PointLight mLight;
 	private PerspectiveCamera mCamera;
+	private V3DLevelOfDetail mLevelOfDetail;
 	private double mDepthCuingIntensity;
 	private volatile long mPreviousManualRotationMillis;
 	private volatile Thread mAnimationRevivalThread;
@@ -180,6 +185,7 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 		applySettings();
 		mSceneListeners = new ArrayList<>();
 		mChartProperty = new SimpleObjectProperty<XYChart<Number,Number>>();
+		mMoleculePagerProperty = new ReadOnlyObjectWrapper<V3DMoleculePager>();
 		setInteractionType(INTERACTION_TYPE_PLIP);
 		mInteractionsSuspended = false;
 		initializeDragAndDrop();
@@ -263,6 +269,10 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 	public void addSceneListener(V3DSceneListener sl) {
 		mSceneListeners.add(sl);
 		}
+
+	public void removeSceneListener(V3DSceneListener sl) {
+		mSceneListeners.remove(sl);
+		}
 	
 	
 	public boolean isOverrideHydrogenColor() {
@@ -379,6 +389,7 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 		mWorld.deleteGroup(group);
 		for(V3DSceneListener listener : mSceneListeners)
 			listener.removeGroup(group);
+		mLevelOfDetail.update();
 		}
 	
 	public void delete(List<? extends V3DRotatableGroup> groups) {
@@ -673,6 +684,7 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 			fxmol.setColor(color);
 		group.addGroup(fxmol);
 		updateDepthCueing();
+		mLevelOfDetail.update();
 		for(V3DSceneListener listener : mSceneListeners)
 			listener.addGroup(fxmol);
 	}
@@ -699,6 +711,13 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 		return 20;	// TODO calculate something reasonable
 		}*/
 
+	/**
+	 * @return the controller, which adapts the tessellation of molecules to their on-screen size
+	 */
+	public V3DLevelOfDetail getLevelOfDetail() {
+		return mLevelOfDetail;
+		}
+
 	public V3DRotatableGroup getWorld() {
 		return mWorld;
 		}
@@ -895,6 +914,7 @@ public class V3DScene extends SubScene implements LabelDeletionListener {
 		setCameraZ(CAMERA_INITIAL_Z);
 		setCamera(mCamera);
 		mRoot.getChildren().add(mCamera);
+		mLevelOfDetail = new V3DLevelOfDetail(this, mCamera);
 	}
 
 	public void setCameraXY(double x, double y) {
@@ -993,7 +1013,7 @@ System.out.println("Calculated q:"+DoubleFormat.toString(q)+" l:"+DoubleFormat.t
 		mCamera.nearClipProperty().addListener((observableValue, number, t1) -> camera.setNearClip(mCamera.getNearClip()));
 		mCamera.farClipProperty().addListener((observableValue, number, t1) -> camera.setFarClip(mCamera.getFarClip()));
 
-		return new OneEyeView(this, camera, targetScreen);
+		return new OneEyeView(camera, targetScreen);
 	}
 
 
@@ -1249,4 +1269,30 @@ System.out.println("Calculated q:"+DoubleFormat.toString(q)+" l:"+DoubleFormat.t
 	public void setBindingSiteHelper(V3DBindingSite mBindingSiteHelper) {
 		this.mBindingSiteHelper = mBindingSiteHelper;
 	}
+
+	/**
+	 * @return pager of a large molecule file, which is currently browsed page by page, or null
+	 */
+	public V3DMoleculePager getMoleculePager() {
+		return mMoleculePagerProperty.get();
+	}
+
+	/**
+	 * @return property of the current molecule file pager, e.g. for showing paging controls
+	 */
+	public ReadOnlyObjectProperty<V3DMoleculePager> moleculePagerProperty() {
+		return mMoleculePagerProperty.getReadOnlyProperty();
+	}
+
+	/**
+	 * Replaces the current molecule file pager, if any, and removes its page from the scene.
+	 * Must be called on the FX thread.
+	 * @param pager new pager or null
+	 */
+	public void setMoleculePager(V3DMoleculePager pager) {
+		V3DMoleculePager oldPager = mMoleculePagerProperty.get();
+		if (oldPager != null)
+			oldPager.close();
+		mMoleculePagerProperty.set(pager);
+	}
 }
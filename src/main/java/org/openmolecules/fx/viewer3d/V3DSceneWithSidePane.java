@@ -34,6 +34,7 @@ import com.actelion.research.jfx.gui.chem.MoleculeView;
 import com.actelion.research.jfx.gui.chem.MoleculeViewSkin;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.Orientation;
+import javafx.geometry.Pos;
 import javafx.scene.Group;
 import javafx.scene.control.*;
 import javafx.scene.control.Alert.AlertType;
@@ -47,19 +48,27 @@ import org.openmolecules.fx.tasks.V3DDockingEngine;
 import org.openmolecules.fx.tasks.V3DShapeAlignerInPlace;
 import org.openmolecules.fx.tasks.V3DShapeAlignment;
 import org.openmolecules.fx.viewer3d.V3DMolecule.MoleculeRole;
+import org.openmolecules.fx.viewer3d.io.CompoundRecordIndex;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculeImporter;
 import org.openmolecules.fx.viewer3d.io.V3DMoleculeParser;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculeStream;
 import org.openmolecules.fx.viewer3d.io.V3DMoleculeWriter;
 import org.openmolecules.fx.viewer3d.panel.DraggableHBox;
 import org.openmolecules.fx.viewer3d.panel.EditorPane;
 import org.openmolecules.fx.viewer3d.panel.MolGroupPane;
+import org.openmolecules.fx.viewer3d.panel.MoleculePagerBar;
+import org.openmolecules.fx.viewer3d.panel.TaskProgressPane;
 import org.openmolecules.render.TorsionStrainVisualization;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 
@@ -75,6 +84,7 @@ public class V3DSceneWithSidePane extends BorderPane {
 	public static final double TOOL_BUTTON_SIZE = 30.0;
 	public static final double SIDEPANEL_WIDTH = 400.0;
 	public static final double LOG_WIDTH = 400.0;
+	private static final int DOCKING_LIBRARY_WINDOW = 256;
 	public static Alert ONLY_ONE_PHESA_ALERT  = new Alert(AlertType.ERROR);
 	static {
 		ONLY_ONE_PHESA_ALERT.setTitle("Error");
@@ -103,6 +113,7 @@ public class V3DSceneWithSidePane extends BorderPane {
 	protected TextArea outputLog;
 	protected DraggableHBox slidingBox;
 	protected ToggleGroup rightPaneToggleGroup;
+	protected VBox statusBox;	// paging controls and progress of running tasks on top of the scene
 	
 	public V3DSceneWithSidePane(EnumSet<V3DScene.ViewerSettings> settings) {
 		this(1024, 768, settings);
@@ -135,6 +146,15 @@ public class V3DSceneWithSidePane extends BorderPane {
 		if(settings.contains(V3DScene.ViewerSettings.SIDEPANEL))
 			createSidePane(center,settings);
 		setCenter(stackPane);
+		statusBox = new VBox();
+		statusBox.setAlignment(Pos.BOTTOM_LEFT);
+		statusBox.setPickOnBounds(false);
+		center.setBottom(statusBox);
+		mScene3D.moleculePagerProperty().addListener((o,ov,nv) -> {
+			statusBox.getChildren().removeIf(node -> node instanceof MoleculePagerBar);
+			if(nv!=null)
+				statusBox.getChildren().add(0, new MoleculePagerBar(nv));
+		});
 		if(settings.contains(V3DScene.ViewerSettings.UPPERPANEL))
 			createUpperPanel();
 		mScene3D.chartProperty().addListener((o,ov,nv) -> {
@@ -463,19 +483,66 @@ public class V3DSceneWithSidePane extends BorderPane {
 		    }
 			File selectedFile = V3DPopupMenu.getMoleculeFileChooser().showOpenDialog(mScene3D.getScene().getWindow());
 			if (selectedFile != null) {
-			    List<StereoMolecule> fitMols = V3DMoleculeParser.parseChemFile(selectedFile.getAbsolutePath());
 		    	V3DMolecule refmol = selectedMols.get(0);
 		    	MolecularVolume refMolVol = new MolecularVolume(refmol.getMolecule());
-		    	V3DShapeAlignment alignment = new V3DShapeAlignment(mScene3D,refmol, refMolVol, fitMols)	;
-		    	alignment.align(false);
-			    	
-			    
+		    	alignLibrary(refmol, refMolVol, selectedFile);
 			}
 		});
 		alignmentButton.prefHeightProperty().bind(upperPanel.heightProperty());
 	}
 	
 	
+	/**
+	 * Reads the fit molecules and aligns them to the reference on a background thread.
+	 * Progress is shown in the status box, which also allows cancelling the alignment.
+	 */
+	private void alignLibrary(V3DMolecule refmol, MolecularVolume refMolVol, File fitFile) {
+		AtomicReference<V3DShapeAlignment> alignmentRef = new AtomicReference<>();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		TaskProgressPane progressPane = new TaskProgressPane("Alignment", () -> {
+			cancelled.set(true);
+			V3DShapeAlignment alignment = alignmentRef.get();
+			if (alignment != null)
+				alignment.cancel();
+		});
+		statusBox.getChildren().add(progressPane);
+
+		Thread alignmentThread = new Thread(() -> {
+			try {
+				V3DShapeAlignment alignment;
+				progressPane.setProgress("reading " + fitFile.getName(), -1);
+				if (V3DMoleculeImporter.isSupported(fitFile.getName())) {
+					// screening libraries are read record by record through their record index
+					alignment = new V3DShapeAlignment(mScene3D,refmol, refMolVol, CompoundRecordIndex.open(fitFile));
+				}
+				else {
+					List<StereoMolecule> fitMols = V3DMoleculeParser.parseChemFile(fitFile.getAbsolutePath());
+					alignment = new V3DShapeAlignment(mScene3D,refmol, refMolVol, fitMols);
+				}
+				alignment.setProgressListener((processed, total) ->
+						progressPane.setProgress(processed + " of " + total + " molecules", total == 0 ? 1.0 : (double)processed / total));
+				alignmentRef.set(alignment);
+				if (cancelled.get())
+					return;
+				alignment.align(false);
+			}
+			catch (IOException ioe) {
+				Platform.runLater(() -> {
+					Alert alert = new Alert(AlertType.ERROR);
+					alert.setTitle("exception");
+					alert.setHeaderText("Alignment Failed");
+					alert.setContentText(ioe.toString());
+					alert.showAndWait();
+				});
+			}
+			finally {
+				progressPane.close();
+			}
+		}, "V3DShapeAlignment");
+		alignmentThread.setDaemon(true);
+		alignmentThread.start();
+	}
+
 	protected void constructFileSaveButton(int i, int j) {
 		//Image save= new Image(EditorPane.class.getResource("/resources/save.png").toString(), TOOL_BUTTON_SIZE,
 		//		TOOL_BUTTON_SIZE, true, true);
@@ -652,15 +719,33 @@ public class V3DSceneWithSidePane extends BorderPane {
 			ExecutorService executor = Executors.newSingleThreadExecutor();
 			File selectedFile = V3DPopupMenu.getMoleculeFileChooser().showOpenDialog(mScene3D.getScene().getWindow());
 			if (selectedFile != null) {
-				List<StereoMolecule> lib = V3DMoleculeParser.parseChemFile(selectedFile.getAbsolutePath());
+				String path = selectedFile.getAbsolutePath();
+				TaskProgressPane progressPane = new TaskProgressPane("Docking", dEngine::cancel);
+				statusBox.getChildren().add(progressPane);
+				dEngine.setProgressListener((docked, failed, total, ligandsPerSecond) ->
+						progressPane.setProgress("docked "+docked+(total == -1 ? "" : " of "+total)+" ("+failed+" failed, "
+								+String.format("%.2f", ligandsPerSecond)+" ligands/s)", total <= 0 ? -1 : (double)(docked+failed) / total));
 				executor.execute(() -> {
 					try {
-						dEngine.dockLibrary(lib);
+						progressPane.setProgress("reading "+selectedFile.getName(), -1);
+						// SD- and DataWarrior-files are streamed, such that large libraries don't need to fit into memory
+						if(V3DMoleculeImporter.isSupported(path)) {
+							int total = CompoundRecordIndex.open(selectedFile).getRecordCount();
+							try (V3DMoleculeStream lib = V3DMoleculeParser.streamChemFile(path, DOCKING_LIBRARY_WINDOW)) {
+								dEngine.dockLibrary(lib, total);
+							}
+						}
+						else {
+							dEngine.dockLibrary(V3DMoleculeParser.parseChemFile(path));
+						}
 					}
 					catch(Exception exc) {
 						displayException(exc);
 					}
-					
+					finally {
+						progressPane.close();
+						executor.shutdown();
+					}
 				}	);
 				//executor.execute(() -> dEngine.dockLibrary(lib));	
 			}
@@ -892,10 +977,13 @@ public class V3DSceneWithSidePane extends BorderPane {
 	}
 	
 	private void displayException(Exception e) {
-		Alert alert  = new Alert(AlertType.ERROR);
-		alert.setTitle("exception");
-		alert.setHeaderText("Docking Failed");
-		alert.setContentText(e.toString());
+		Platform.runLater(() -> {
+			Alert alert  = new Alert(AlertType.ERROR);
+			alert.setTitle("exception");
+			alert.setHeaderText("Docking Failed");
+			alert.setContentText(e.toString());
+			alert.showAndWait();
+		});
 	}
 }
  
\ No newline at end of file
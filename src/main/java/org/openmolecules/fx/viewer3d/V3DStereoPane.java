@@ -1,8 +1,14 @@
 package org.openmolecules.fx.viewer3d;
 
+import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.PerspectiveCamera;
 import javafx.scene.Scene;
 import javafx.scene.SceneAntialiasing;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.RowConstraints;
@@ -10,25 +16,60 @@ import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 
-public class V3DStereoPane extends GridPane {
+/**
+ * Shows a V3DScene as two images rendered from slightly shifted cameras for the left and right eye.
+ * Both images are only rendered again after the eye cameras, the view size, the world's bounds,
+ * i.e. any transformation or geometry within the world, the background or the scene's molecules
+ * have changed, and not more often than the maximum frame rate. Other changes, e.g. of colors,
+ * need to be announced by calling invalidate() or invalidateFullScreenView().
+ */
+public class V3DStereoPane extends GridPane implements InvalidationListener,V3DSceneListener {
 	public static final int MODE_NONE = 0;
 	public static final int MODE_SBS = 1;
 	public static final int MODE_HSBS = 2;
 	public static final int MODE_OU = 3;
 	public static final int MODE_HOU = 4;
 	private static final double EYE_DISTANCE = 0.5;
+	private static final double DEFAULT_MAX_FRAME_RATE = 60;
 
+	private final V3DScene mSourceScene;
+	private final Group mWorldRoot;
+	private final SnapshotParameters mSnapshotParams;
+	private final AnimationTimer mTimer;
 	private final OneEyeView mLeftEyeView,mRightEyeView;
 	private final int mStereoMode;
+	private long mLastRedrawNanos;
+	private boolean mIsDirty,mIsTimerRunning;
 	private static Stage sFullScreenView;
+	private static double sMaxFrameRate = DEFAULT_MAX_FRAME_RATE;
 
 	public static Stage getFullScreenView() {
 		return sFullScreenView;
 	}
 
+	/**
+	 * Causes the stereo view, if one is shown, to be redrawn. Call this after changes of the
+	 * source scene, which don't change the world's bounds, e.g. of materials or surfaces.
+	 */
+	public static void invalidateFullScreenView() {
+		if (sFullScreenView != null)
+			((V3DStereoPane)sFullScreenView.getScene().getRoot()).invalidate();
+	}
+
+	public static double getMaxFrameRate() {
+		return sMaxFrameRate;
+	}
+
+	/**
+	 * @param fps maximum number of stereo frames per second; changes are collected in between
+	 */
+	public static void setMaxFrameRate(double fps) {
+		sMaxFrameRate = Math.max(1.0, fps);
+	}
+
 	public static void closeFullScreenView() {
 		if (sFullScreenView != null) {
-			((V3DStereoPane)sFullScreenView.getScene().getRoot()).stopTimers();
+			((V3DStereoPane)sFullScreenView.getScene().getRoot()).stopRendering();
 			sFullScreenView.close();
 			sFullScreenView = null;
 		}
@@ -132,8 +173,95 @@ public class V3DStereoPane extends GridPane {
 			add(mRightEyeView, 0, 1);
 
 		mStereoMode = stereoMode;
-		mLeftEyeView.start();
-		mRightEyeView.start();
+
+		mSourceScene = sourceScene3D;
+		mWorldRoot = (Group)sourceScene3D.getRoot();
+		mSnapshotParams = new SnapshotParameters();
+		mSnapshotParams.setDepthBuffer(true);
+		mSnapshotParams.setFill(sourceScene3D.getFill());
+
+		mTimer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				if (now - mLastRedrawNanos >= (long)(1e9 / sMaxFrameRate))
+					redraw(now);
+			}
+		};
+
+		setChangeListening(true);
+		invalidate();
+	}
+
+	private void setChangeListening(boolean listen) {
+		for (OneEyeView view : new OneEyeView[] { mLeftEyeView, mRightEyeView }) {
+			PerspectiveCamera camera = view.getCamera();
+			for (Observable o : new Observable[] { camera.translateXProperty(), camera.translateYProperty(), camera.translateZProperty(),
+					camera.nearClipProperty(), camera.farClipProperty(), view.fitWidthProperty(), view.fitHeightProperty() }) {
+				if (listen)
+					o.addListener(this);
+				else
+					o.removeListener(this);
+			}
+		}
+		if (listen) {
+			mWorldRoot.boundsInLocalProperty().addListener(this);
+			mSourceScene.fillProperty().addListener(this);
+			mSourceScene.addSceneListener(this);
+		}
+		else {
+			mWorldRoot.boundsInLocalProperty().removeListener(this);
+			mSourceScene.fillProperty().removeListener(this);
+			mSourceScene.removeSceneListener(this);
+		}
+	}
+
+	/**
+	 * Causes both eyes to be redrawn with the next pulse that respects the maximum frame rate.
+	 * Call this after changes that are not detected automatically, e.g. of material colors.
+	 */
+	public void invalidate() {
+		mIsDirty = true;
+		if (!mIsTimerRunning) {
+			mIsTimerRunning = true;
+			mTimer.start();
+		}
+	}
+
+	@Override
+	public void invalidated(Observable observable) {
+		invalidate();
+	}
+
+	@Override
+	public void addGroup(V3DRotatableGroup group) {
+		invalidate();
+	}
+
+	@Override
+	public void removeGroup(V3DRotatableGroup group) {
+		invalidate();
+	}
+
+	@Override
+	public void initialize() {
+		invalidate();
+	}
+
+	private void redraw(long now) {
+		mLastRedrawNanos = now;
+		mIsDirty = false;
+		mSnapshotParams.setFill(mSourceScene.getFill());
+		mLeftEyeView.redraw(mWorldRoot, mSnapshotParams);
+		mRightEyeView.redraw(mWorldRoot, mSnapshotParams);
+
+		// validate the bounds again, such that the next change within the world is reported
+		mWorldRoot.getBoundsInLocal();
+
+		// nothing to do until the next change
+		if (!mIsDirty) {
+			mTimer.stop();
+			mIsTimerRunning = false;
+		}
 	}
 
 	private static void setMouseEventHandling(V3DScene sourceScene, Scene scene) {
@@ -145,8 +273,9 @@ public class V3DStereoPane extends GridPane {
 		scene.setOnMouseDragged(me -> sourceScene.fireEvent(me));
 	}
 
-	public void stopTimers() {
-		mLeftEyeView.stop();
-		mRightEyeView.stop();
+	public void stopRendering() {
+		mTimer.stop();
+		mIsTimerRunning = false;
+		setChangeListening(false);
 	}
 }
@@ -0,0 +1,529 @@
+package org.openmolecules.fx.viewer3d.io;
+
+import com.actelion.research.chem.io.CompoundFileParser;
+import com.actelion.research.chem.io.DWARFileParser;
+import com.actelion.research.chem.io.SDFileParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Byte offsets and names of all records of a SD- or DataWarrior-file. The index is built by one
+ * sequential scan over the raw bytes without parsing any molecule. It allows to parse any
+ * record range without reading the file from the top, which is what paged browsing of large
+ * files and record-wise processing of screening libraries need.<br>
+ * For files of at least 1 MB, unless defined in bytes by the system property 'fxmolviewer.index.minsize',
+ * open() keeps the index in a sidecar file, which is memory-mapped on later use. Sidecars are stored
+ * in the directory ~/.fxmolviewer/index unless defined by the system property 'fxmolviewer.index.cache',
+ * such that no files are created next to the user's data. A sidecar is identified by the canonical
+ * path of the data file and is rebuilt, if size or modification time of the data file don't match
+ * the values stored in the sidecar. The size of the directory is limited to 256 MB unless defined
+ * in bytes by the system property 'fxmolviewer.index.cache.maxsize'.
+ */
+public class CompoundRecordIndex {
+	public static final String DIRECTORY_PROPERTY = "fxmolviewer.index.cache";
+	public static final String MAX_SIZE_PROPERTY = "fxmolviewer.index.cache.maxsize";
+	public static final String MIN_FILE_SIZE_PROPERTY = "fxmolviewer.index.minsize";
+	private static final long DEFAULT_MAX_SIZE = 1L << 28;
+	private static final long DEFAULT_MIN_FILE_SIZE = 1L << 20;
+
+	private static final String SIDECAR_EXTENSION = ".idx";
+	private static final int SIDECAR_MAGIC = 0x43524958;	// "CRIX"
+	private static final int SIDECAR_VERSION = 2;
+	private static final int SIDECAR_HEADER_SIZE = 48;
+	private static final int NAME_ENTRY_SIZE = 12;			// long hash, int record
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_PREFIX = 24;
+	private static final int MAX_NAME_LENGTH = 256;
+	private static final byte[] SDF_DELIMITER = "$$$$".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[][] DWAR_TRAILER = {
+			"<datawarrior properties>".getBytes(StandardCharsets.US_ASCII),
+			"<hitlist data>".getBytes(StandardCharsets.US_ASCII),
+			"<detail data>".getBytes(StandardCharsets.US_ASCII) };
+	private static final String[] DWAR_NAME_COLUMN = { "name", "molecule name", "compound name", "id", "compound id", "idnumber" };
+
+	private final File mFile;
+	private final boolean mIsDWAR;
+	private long mHeaderEnd;		// DWAR: end of file info, column properties and column title line
+	private int mRecordCount;
+	private int mNameColumn;		// DWAR: column containing the molecule name; -1 if there is none
+	private LongBuffer mOffset;		// start of every record, the entry at mRecordCount is the end of the last record
+	private ByteBuffer mNameTable;	// entries of name hash and record number sorted by hash; null if unavailable
+
+	// state while scanning
+	private long[] mScanOffset;
+	private long[] mScanNameHash;
+	private long mScanRecordStart,mScanPendingNameHash;
+	private boolean mScanInHeader,mScanInTrailer,mScanRecordHasContent;
+	private byte[] mScanCapture;
+	private int mScanCaptureLength,mScanTabCount;
+
+	private CompoundRecordIndex(File file) {
+		mFile = file;
+		mIsDWAR = file.getName().endsWith(".dwar");
+		mNameColumn = -1;
+	}
+
+	/**
+	 * Scans the given SD- or DataWarrior-file and collects the byte offsets of its records.
+	 * The index is kept in memory only.
+	 * @param file
+	 * @return index of all records
+	 * @throws IOException
+	 */
+	public static CompoundRecordIndex create(File file) throws IOException {
+		CompoundRecordIndex index = new CompoundRecordIndex(file);
+		index.scan();
+		return index;
+	}
+
+	/**
+	 * @param file
+	 * @return whether the file is large enough for open() to keep its index in a sidecar file
+	 */
+	public static boolean isLargeFile(File file) {
+		return file.length() >= Long.getLong(MIN_FILE_SIZE_PROPERTY, DEFAULT_MIN_FILE_SIZE);
+	}
+
+	/**
+	 * Returns the index of the given SD- or DataWarrior-file from its sidecar file, if the sidecar
+	 * exists and is up-to-date. Otherwise the data file is scanned and, if it is a large file,
+	 * the sidecar is written. If the sidecar cannot be written, e.g. because of a write protected
+	 * cache directory, the index is kept in memory only.
+	 * @param file
+	 * @return index of all records
+	 * @throws IOException if the data file cannot be read
+	 */
+	public static CompoundRecordIndex open(File file) throws IOException {
+		if (!isLargeFile(file))
+			return create(file);
+
+		String path = file.getCanonicalPath();
+		File sidecar = getSidecarFile(file.getName(), path);
+		if (sidecar.exists()) {
+			CompoundRecordIndex index = new CompoundRecordIndex(file);
+			if (index.readSidecar(sidecar, path))
+				return index;
+		}
+
+		CompoundRecordIndex index = create(file);
+		index.writeSidecar(sidecar, path);
+		return index;
+	}
+
+	private static File getSidecarFile(String name, String path) {
+		String dir = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("user.home") + File.separator + ".fxmolviewer" + File.separator + "index");
+		return new File(dir, name + "_" + Integer.toHexString(path.hashCode()) + SIDECAR_EXTENSION);
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	public int getRecordCount() {
+		return mRecordCount;
+	}
+
+	/**
+	 * @param record
+	 * @return byte offset of the first line of the record
+	 */
+	public long getRecordOffset(int record) {
+		return mOffset.get(record);
+	}
+
+	/**
+	 * @param record
+	 * @return the molecule name of the record as found in the file or null, if no name is defined
+	 * @throws IOException
+	 */
+	public String getRecordName(int record) throws IOException {
+		if (mIsDWAR && mNameColumn == -1)
+			return null;
+
+		byte[] bytes = readBytes(mOffset.get(record), mOffset.get(record+1));
+		int lineEnd = 0;
+		while (lineEnd < bytes.length && bytes[lineEnd] != '\n')
+			lineEnd++;
+		String line = new String(bytes, 0, lineEnd, StandardCharsets.UTF_8);
+		if (mIsDWAR) {
+			String[] cell = line.split("\t", -1);
+			line = (mNameColumn < cell.length) ? cell[mNameColumn] : "";
+		}
+		return line.trim();
+	}
+
+	/**
+	 * @param name molecule name
+	 * @return number of the first record with the given name or -1
+	 * @throws IOException
+	 */
+	public int findRecord(String name) throws IOException {
+		if (mNameTable == null)
+			return -1;
+
+		long hash = getNameHash(name);
+		int low = 0;
+		int high = mRecordCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mNameTable.getLong(mid * NAME_ENTRY_SIZE) < hash)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		// entries with the same hash are sorted by record number
+		for (int i=low; i<mRecordCount && mNameTable.getLong(i * NAME_ENTRY_SIZE) == hash; i++) {
+			int record = mNameTable.getInt(i * NAME_ENTRY_SIZE + 8);
+			if (name.trim().equals(getRecordName(record)))
+				return record;
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates a parser, which delivers the records firstRecord to firstRecord+count-1 only.
+	 * Just these records (and the header in case of DataWarrior-files) are read from disk.
+	 * @param firstRecord
+	 * @param count
+	 * @return parser of the given record range
+	 * @throws IOException
+	 */
+	public CompoundFileParser createParser(int firstRecord, int count) throws IOException {
+		int lastRecord = Math.min(mRecordCount, firstRecord + count);
+		byte[] header = readBytes(0, mHeaderEnd);
+		byte[] records = readBytes(mOffset.get(firstRecord), mOffset.get(lastRecord));
+		return createParser(concat(header, records));
+	}
+
+	private CompoundFileParser createParser(byte[] bytes) {
+		Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+		return mIsDWAR ? new DWARFileParser(reader, DWARFileParser.MODE_COORDINATES_PREFER_3D) : new SDFileParser(reader);
+	}
+
+	private byte[] readBytes(long start, long end) throws IOException {
+		byte[] bytes = new byte[(int)(end - start)];
+		try (RandomAccessFile raf = new RandomAccessFile(mFile, "r")) {
+			raf.seek(start);
+			raf.readFully(bytes);
+		}
+		return bytes;
+	}
+
+	private static byte[] concat(byte[] b1, byte[] b2) {
+		byte[] b = Arrays.copyOf(b1, b1.length + b2.length);
+		System.arraycopy(b2, 0, b, b1.length, b2.length);
+		return b;
+	}
+
+	/**
+	 * Maps the sidecar and marks it as recently used.
+	 * @param path canonical path of the data file
+	 * @return false if the sidecar is invalid or belongs to another file or to another version of the file
+	 */
+	private boolean readSidecar(File sidecar, String path) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		try (FileInputStream stream = new FileInputStream(sidecar)) {
+			if (sidecar.length() < SIDECAR_HEADER_SIZE)
+				return false;
+
+			// the mapping stays valid after the channel has been closed
+			ByteBuffer buffer = stream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, sidecar.length());
+			if (buffer.getInt(0) != SIDECAR_MAGIC
+			 || buffer.getInt(4) != SIDECAR_VERSION
+			 || buffer.getLong(8) != mFile.length()
+			 || buffer.getLong(16) != mFile.lastModified()
+			 || buffer.getInt(44) != pathBytes.length
+			 || sidecar.length() < SIDECAR_HEADER_SIZE + pathBytes.length)
+				return false;
+
+			for (int i=0; i<pathBytes.length; i++)
+				if (buffer.get(SIDECAR_HEADER_SIZE + i) != pathBytes[i])
+					return false;
+
+			mHeaderEnd = buffer.getLong(24);
+			mRecordCount = buffer.getInt(32);
+			boolean hasNames = (buffer.getInt(36) & 1) != 0;
+			mNameColumn = buffer.getInt(40);
+
+			long offsetTableStart = SIDECAR_HEADER_SIZE + pathBytes.length;
+			long offsetTableEnd = offsetTableStart + 8L * (mRecordCount + 1);
+			long nameTableEnd = offsetTableEnd + (hasNames ? (long)NAME_ENTRY_SIZE * mRecordCount : 0);
+			if (sidecar.length() != nameTableEnd)
+				return false;
+
+			buffer.position((int)offsetTableStart);
+			buffer.limit((int)offsetTableEnd);
+			mOffset = buffer.slice().asLongBuffer();
+			if (hasNames) {
+				buffer.limit((int)nameTableEnd);
+				buffer.position((int)offsetTableEnd);
+				mNameTable = buffer.slice();
+			}
+			sidecar.setLastModified(System.currentTimeMillis());
+			return true;
+		}
+		catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes into a temporary file first, which is renamed when complete, such that concurrent
+	 * readers never see partially written sidecars. Failures are ignored, because the sidecar is optional.
+	 * @param path canonical path of the data file
+	 */
+	private void writeSidecar(File sidecar, String path) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		File tempFile = null;
+		try {
+			sidecar.getParentFile().mkdirs();
+			tempFile = File.createTempFile(sidecar.getName(), ".tmp", sidecar.getParentFile());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(SIDECAR_MAGIC);
+				out.writeInt(SIDECAR_VERSION);
+				out.writeLong(mFile.length());
+				out.writeLong(mFile.lastModified());
+				out.writeLong(mHeaderEnd);
+				out.writeInt(mRecordCount);
+				out.writeInt(mNameTable != null ? 1 : 0);
+				out.writeInt(mNameColumn);
+				out.writeInt(pathBytes.length);
+				out.write(pathBytes);
+				for (int i=0; i<=mRecordCount; i++)
+					out.writeLong(mOffset.get(i));
+				if (mNameTable != null)
+					out.write(mNameTable.array(), 0, mRecordCount * NAME_ENTRY_SIZE);
+			}
+			Files.move(tempFile.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			evict(sidecar);
+		}
+		catch (IOException | RuntimeException e) {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used sidecars until the cache directory doesn't exceed its size limit.
+	 * @param newFile just written sidecar, which is kept
+	 */
+	private static void evict(File newFile) {
+		File[] files = newFile.getParentFile().listFiles((dir, name) -> name.endsWith(SIDECAR_EXTENSION));
+		if (files == null)
+			return;
+
+		long maxSize = Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+		long size = 0;
+		for (File file : files)
+			size += file.length();
+		if (size <= maxSize)
+			return;
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (size <= maxSize)
+				break;
+			long length = file.length();
+			// files still mapped by a reader can't be deleted on all platforms
+			if (!file.equals(newFile) && file.delete())
+				size -= length;
+		}
+	}
+
+	private void scan() throws IOException {
+		byte[] prefix = new byte[MAX_PREFIX];
+		int prefixLength = 0;
+		long lineStart = 0;
+		long position = 0;
+		mScanOffset = new long[1024];
+		mScanNameHash = new long[1024];
+		mScanInHeader = mIsDWAR;
+		mScanInTrailer = false;
+		mScanRecordStart = 0;
+		mScanRecordHasContent = false;
+		mScanCapture = new byte[MAX_NAME_LENGTH];
+		mScanCaptureLength = 0;
+		mScanTabCount = 0;
+
+		try (InputStream is = new FileInputStream(mFile)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				for (int i=0; i<n; i++) {
+					byte b = buffer[i];
+					position++;
+					if (b == '\n') {
+						handleLine(prefix, prefixLength, lineStart, position);
+						lineStart = position;
+						prefixLength = 0;
+						mScanCaptureLength = 0;
+						mScanTabCount = 0;
+						continue;
+					}
+
+					if (prefixLength < MAX_PREFIX)
+						prefix[prefixLength++] = b;
+					if (b > ' ')
+						mScanRecordHasContent = true;
+
+					// capture complete DWAR header lines, the name cell of DWAR rows and the first line of SDF records
+					if (mIsDWAR) {
+						if (mScanInHeader)
+							capture(b, true);
+						else if (b == '\t')
+							mScanTabCount++;
+						else if (mScanTabCount == mNameColumn)
+							capture(b, false);
+					}
+					else if (lineStart == mScanRecordStart) {
+						capture(b, false);
+					}
+				}
+			}
+		}
+
+		// last line without line feed
+		if (position > lineStart)
+			handleLine(prefix, prefixLength, lineStart, position);
+
+		// SD-files may lack the final delimiter
+		if (!mIsDWAR && mScanRecordHasContent) {
+			addRecord(mScanRecordStart, mScanPendingNameHash);
+			mScanOffset[mRecordCount] = position;
+		}
+
+		mOffset = LongBuffer.wrap(Arrays.copyOf(mScanOffset, mRecordCount + 1));
+		if (!mIsDWAR || mNameColumn != -1)
+			mNameTable = createNameTable(mScanNameHash, mRecordCount);
+
+		mScanOffset = null;
+		mScanNameHash = null;
+		mScanCapture = null;
+	}
+
+	private void capture(byte b, boolean isUnlimited) {
+		if (mScanCaptureLength == mScanCapture.length) {
+			if (!isUnlimited)
+				return;
+			mScanCapture = Arrays.copyOf(mScanCapture, 2 * mScanCapture.length);
+		}
+		mScanCapture[mScanCaptureLength++] = b;
+	}
+
+	private void handleLine(byte[] prefix, int prefixLength, long lineStart, long lineEnd) {
+		if (prefixLength != 0 && prefix[prefixLength-1] == '\r')
+			prefixLength--;
+
+		if (!mIsDWAR) {
+			if (lineStart == mScanRecordStart)
+				mScanPendingNameHash = getNameHash(mScanCapture, mScanCaptureLength);
+			if (startsWith(prefix, prefixLength, SDF_DELIMITER)) {
+				addRecord(mScanRecordStart, mScanPendingNameHash);
+				mScanOffset[mRecordCount] = lineEnd;
+				mScanRecordStart = lineEnd;
+				mScanRecordHasContent = false;
+			}
+			return;
+		}
+
+		if (mScanInHeader) {
+			// file info and column properties consist of tag lines, the column title line follows
+			if (prefixLength != 0 && prefix[0] != '<') {
+				mScanInHeader = false;
+				mHeaderEnd = lineEnd;
+				mNameColumn = findNameColumn(new String(mScanCapture, 0, mScanCaptureLength, StandardCharsets.UTF_8));
+			}
+		}
+		else if (!mScanInTrailer) {
+			if (startsWithAny(prefix, prefixLength, DWAR_TRAILER)) {
+				mScanInTrailer = true;
+			}
+			else if (prefixLength != 0) {
+				addRecord(lineStart, getNameHash(mScanCapture, mScanCaptureLength));
+				mScanOffset[mRecordCount] = lineEnd;
+			}
+		}
+	}
+
+	private static int findNameColumn(String titleLine) {
+		String[] title = titleLine.trim().split("\t");
+		for (String name : DWAR_NAME_COLUMN)
+			for (int i=0; i<title.length; i++)
+				if (title[i].trim().equalsIgnoreCase(name))
+					return i;
+		return -1;
+	}
+
+	private void addRecord(long offset, long nameHash) {
+		if (mRecordCount + 1 >= mScanOffset.length) {
+			mScanOffset = Arrays.copyOf(mScanOffset, 2 * mScanOffset.length);
+			mScanNameHash = Arrays.copyOf(mScanNameHash, 2 * mScanNameHash.length);
+		}
+		mScanNameHash[mRecordCount] = nameHash;
+		mScanOffset[mRecordCount++] = offset;
+	}
+
+	private static ByteBuffer createNameTable(long[] nameHash, int count) {
+		Integer[] order = new Integer[count];
+		for (int i=0; i<count; i++)
+			order[i] = i;
+		Arrays.sort(order, (i1, i2) -> nameHash[i1] != nameHash[i2] ? Long.compare(nameHash[i1], nameHash[i2]) : Integer.compare(i1, i2));
+		ByteBuffer table = ByteBuffer.allocate(count * NAME_ENTRY_SIZE);
+		for (int i=0; i<count; i++) {
+			table.putLong(nameHash[order[i]]);
+			table.putInt(order[i]);
+		}
+		return table;
+	}
+
+	/**
+	 * Hashes the name like scan() does, i.e. limited to the first MAX_NAME_LENGTH bytes
+	 */
+	private static long getNameHash(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		return getNameHash(bytes, Math.min(bytes.length, MAX_NAME_LENGTH));
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the name bytes without leading and trailing white space
+	 */
+	private static long getNameHash(byte[] bytes, int length) {
+		int start = 0;
+		while (start < length && (bytes[start] & 0xFF) <= ' ')
+			start++;
+		while (length > start && (bytes[length-1] & 0xFF) <= ' ')
+			length--;
+		long hash = 0xcbf29ce484222325L;
+		for (int i=start; i<length; i++) {
+			hash ^= (bytes[i] & 0xFF);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static boolean startsWith(byte[] prefix, int prefixLength, byte[] s) {
+		if (prefixLength < s.length)
+			return false;
+		for (int i=0; i<s.length; i++)
+			if (prefix[i] != s[i])
+				return false;
+		return true;
+	}
+
+	private static boolean startsWithAny(byte[] prefix, int prefixLength, byte[][] s) {
+		for (byte[] t : s)
+			if (startsWith(prefix, prefixLength, t))
+				return true;
+		return false;
+	}
+}
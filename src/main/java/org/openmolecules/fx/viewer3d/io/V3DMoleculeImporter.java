@@ -0,0 +1,178 @@
+package org.openmolecules.fx.viewer3d.io;
+
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.io.CompoundFileParser;
+import org.openmolecules.chem.conf.gen.ConformerGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Pipelined import of multi-molecule SD- and DataWarrior-files.
+ * One reader thread parses the file records and hands them over to a pool of worker threads,
+ * which generate 3D-coordinates for 2D-records and add implicit hydrogens. Prepared molecules
+ * are passed to a consumer in file order and in batches. A batch is delivered when it is full
+ * or when the next molecule in file order is not finished yet, such that molecules show up
+ * as soon as they are ready. The number of records in flight is bounded, which keeps memory
+ * consumption independent of the file size.
+ */
+public class V3DMoleculeImporter {
+	private static final int DEFAULT_BATCH_SIZE = 64;
+	private static final int RECORDS_IN_FLIGHT_PER_THREAD = 16;
+
+	// marks the end of the record stream in the queue
+	private static final Future<StereoMolecule> END_OF_FILE = CompletableFuture.completedFuture(null);
+
+	private final String mFile;
+	private final CompoundFileParser mParser;
+	private final int mThreadCount;
+	private final int mBatchSize;
+	private volatile boolean mIsCancelled;
+
+	public V3DMoleculeImporter(String file) {
+		this(file, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param file SD- or DataWarrior-file
+	 * @param threadCount number of worker threads for conformer generation and hydrogen addition
+	 * @param batchSize maximum number of molecules passed to the consumer at once
+	 */
+	public V3DMoleculeImporter(String file, int threadCount, int batchSize) {
+		this(file, null, threadCount, batchSize);
+	}
+
+	/**
+	 * @param parser an already opened parser, e.g. one that covers a record range of a CompoundRecordIndex
+	 * @param threadCount number of worker threads for conformer generation and hydrogen addition
+	 * @param batchSize maximum number of molecules passed to the consumer at once
+	 */
+	public V3DMoleculeImporter(CompoundFileParser parser, int threadCount, int batchSize) {
+		this(null, parser, threadCount, batchSize);
+	}
+
+	private V3DMoleculeImporter(String file, CompoundFileParser parser, int threadCount, int batchSize) {
+		mFile = file;
+		mParser = parser;
+		mThreadCount = Math.max(1, threadCount);
+		mBatchSize = Math.max(1, batchSize);
+	}
+
+	public static boolean isSupported(String file) {
+		return file.endsWith(".sdf") || file.endsWith(".dwar");
+	}
+
+	/**
+	 * Stops reading further records. Molecules, which are already being prepared, are discarded.
+	 */
+	public void cancel() {
+		mIsCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return mIsCancelled;
+	}
+
+	/**
+	 * Reads and prepares all molecules of the file. This method blocks until the file is
+	 * completely processed or the import is cancelled. The consumer is called on the calling thread.
+	 * @param consumer receives batches of prepared molecules in file order
+	 */
+	public void run(Consumer<List<StereoMolecule>> consumer) {
+		CompoundFileParser parser = (mParser != null) ? mParser : V3DMoleculeParser.createCompoundFileParser(mFile);
+		if (parser == null)
+			return;
+
+		ExecutorService workers = Executors.newFixedThreadPool(mThreadCount, r -> {
+			Thread t = new Thread(r, "V3DMoleculeImporter worker");
+			t.setDaemon(true);
+			return t;
+		});
+		ThreadLocal<ConformerGenerator> confGen = ThreadLocal.withInitial(ConformerGenerator::new);
+		BlockingQueue<Future<StereoMolecule>> queue = new ArrayBlockingQueue<>(RECORDS_IN_FLIGHT_PER_THREAD * mThreadCount);
+
+		Thread reader = new Thread(() -> {
+			try {
+				while (!mIsCancelled) {
+					try {
+						if (!parser.next())
+							break;
+					}
+					catch (Exception e) {	// the parser can't continue after a failure in next()
+						e.printStackTrace();
+						break;
+					}
+
+					StereoMolecule mol = null;
+					try {
+						mol = parser.getMolecule();
+					}
+					catch (Exception e) {	// skip the defective record
+						e.printStackTrace();
+					}
+					if (mol != null) {
+						StereoMolecule recordMol = mol;
+						queue.put(workers.submit(() -> V3DMoleculeParser.prepareMolecule(recordMol, confGen.get())));
+					}
+				}
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				// the consumer waits for the end marker, unless it has stopped and interrupted us
+				try {
+					if (!Thread.currentThread().isInterrupted())
+						queue.put(END_OF_FILE);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "V3DMoleculeImporter reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		List<StereoMolecule> batch = new ArrayList<>();
+		try {
+			while (!mIsCancelled) {
+				Future<StereoMolecule> future = queue.take();
+				if (future == END_OF_FILE)
+					break;
+
+				try {
+					StereoMolecule mol = future.get();
+					if (mol != null)
+						batch.add(mol);
+				}
+				catch (ExecutionException ee) {
+					ee.getCause().printStackTrace();
+				}
+
+				Future<StereoMolecule> next = queue.peek();
+				if (batch.size() >= mBatchSize || (!batch.isEmpty() && (next == null || !next.isDone()))) {
+					consumer.accept(batch);
+					batch = new ArrayList<>();
+				}
+			}
+			if (!mIsCancelled && !batch.isEmpty())
+				consumer.accept(batch);
+		}
+		catch (InterruptedException ie) {
+			mIsCancelled = true;
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			reader.interrupt();
+			workers.shutdownNow();
+		}
+	}
+}
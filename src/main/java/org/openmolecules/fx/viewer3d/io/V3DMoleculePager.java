@@ -0,0 +1,186 @@
+package org.openmolecules.fx.viewer3d.io;
+
+import com.actelion.research.chem.StereoMolecule;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import org.openmolecules.fx.viewer3d.V3DMolecule;
+import org.openmolecules.fx.viewer3d.V3DRotatableGroup;
+import org.openmolecules.fx.viewer3d.V3DScene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows a large SD- or DataWarrior-file page by page in a V3DScene. Only the molecules of the
+ * current page exist as StereoMolecules and V3DMolecules; all other records stay on disk and are
+ * located through a CompoundRecordIndex, when their page is shown. Switching pages replaces the
+ * page's group in the scene and may be triggered from any thread; the records are read from disk
+ * and prepared in the background. pageProperty() and loadingProperty() are updated on the FX thread
+ * and allow showing the paging state, e.g. in a MoleculePagerBar.
+ */
+public class V3DMoleculePager {
+	public static final int DEFAULT_PAGE_SIZE = 250;
+
+	private final V3DScene mScene;
+	private final CompoundRecordIndex mIndex;
+	private final int mPageSize;
+	private final String mName;
+	private final ReadOnlyIntegerWrapper mPageProperty;
+	private final ReadOnlyBooleanWrapper mLoadingProperty;
+	private int mPage;
+	private V3DRotatableGroup mPageGroup;	// accessed on FX thread only
+	private V3DRotatableGroup mLoadingGroup;
+	private V3DMoleculeImporter mImporter;
+
+	public V3DMoleculePager(V3DScene scene, CompoundRecordIndex index, int pageSize) {
+		mScene = scene;
+		mIndex = index;
+		mPageSize = Math.max(1, pageSize);
+		mName = index.getFile().getName().split("\\.")[0];
+		mPage = -1;
+		mPageProperty = new ReadOnlyIntegerWrapper(-1);
+		mLoadingProperty = new ReadOnlyBooleanWrapper(false);
+	}
+
+	public CompoundRecordIndex getIndex() {
+		return mIndex;
+	}
+
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	public int getPageCount() {
+		return (mIndex.getRecordCount() + mPageSize - 1) / mPageSize;
+	}
+
+	public int getPage() {
+		return mPage;
+	}
+
+	/**
+	 * @return the page currently shown in the scene; -1 before the first page is shown
+	 */
+	public ReadOnlyIntegerProperty pageProperty() {
+		return mPageProperty.getReadOnlyProperty();
+	}
+
+	/**
+	 * @return true while the records of the current page are read and prepared
+	 */
+	public ReadOnlyBooleanProperty loadingProperty() {
+		return mLoadingProperty.getReadOnlyProperty();
+	}
+
+	public void nextPage() {
+		if (mPage < getPageCount() - 1)
+			showPage(mPage + 1);
+	}
+
+	public void previousPage() {
+		if (mPage > 0)
+			showPage(mPage - 1);
+	}
+
+	/**
+	 * Shows the page, which contains the given record.
+	 * @param record
+	 */
+	public void showRecord(int record) {
+		if (record >= 0 && record < mIndex.getRecordCount())
+			showPage(record / mPageSize);
+	}
+
+	/**
+	 * Removes the molecules of the current page from the scene and loads the given page
+	 * in the background. Molecules are added to the scene batch-wise as soon as they are ready.
+	 * @param page
+	 */
+	public synchronized void showPage(int page) {
+		if (page < 0 || page >= getPageCount() || page == mPage)
+			return;
+
+		if (mImporter != null)
+			mImporter.cancel();
+		mImporter = null;
+
+		mPage = page;
+		int firstRecord = page * mPageSize;
+		int count = Math.min(mPageSize, mIndex.getRecordCount() - firstRecord);
+		V3DRotatableGroup group = new V3DRotatableGroup(mName + " " + (firstRecord+1) + "-" + (firstRecord+count)
+				+ " of " + mIndex.getRecordCount());
+		mLoadingGroup = group;
+
+		Platform.runLater(() -> {
+			removeCurrentPage();
+			mPageGroup = group;
+			mScene.addGroup(group);
+			mPageProperty.set(page);
+			mLoadingProperty.set(true);
+		});
+
+		Thread importThread = new Thread(() -> {
+			try {
+				V3DMoleculeImporter importer = new V3DMoleculeImporter(mIndex.createParser(firstRecord, count),
+						Runtime.getRuntime().availableProcessors(), 32);
+				synchronized (this) {
+					// another page was requested, while the records were read
+					if (group != mLoadingGroup)
+						return;
+					mImporter = importer;
+				}
+				importer.run(batch -> {
+					List<V3DMolecule> fxmols = new ArrayList<>();
+					for (StereoMolecule mol : batch)
+						fxmols.add(new V3DMolecule(mol, V3DMolecule.getNextID(),V3DMolecule.MoleculeRole.LIGAND,false, false));
+					Platform.runLater(() -> {
+						// a batch of a page, which was replaced in the meantime, is dropped
+						if (group == mPageGroup)
+							fxmols.forEach(fxmol -> mScene.addMolecule(fxmol, group, true));
+					});
+				});
+			}
+			catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			finally {
+				Platform.runLater(() -> {
+					if (group == mPageGroup)
+						mLoadingProperty.set(false);
+				});
+			}
+		}, "V3DMoleculePager");
+		importThread.setDaemon(true);
+		importThread.start();
+	}
+
+	/**
+	 * Cancels loading and removes the current page from the scene. Must be called on the FX thread.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (mImporter != null)
+				mImporter.cancel();
+			mImporter = null;
+			mLoadingGroup = null;
+		}
+		removeCurrentPage();
+		mLoadingProperty.set(false);
+	}
+
+	private void removeCurrentPage() {
+		if (mPageGroup != null) {
+			List<V3DRotatableGroup> molecules = new ArrayList<>();
+			for (V3DRotatableGroup g : mPageGroup.getAllAttachedRotatableGroups())
+				if (g instanceof V3DMolecule)
+					molecules.add(g);
+			mScene.delete(molecules);
+			mScene.delete(mPageGroup);
+			mPageGroup = null;
+		}
+	}
+}
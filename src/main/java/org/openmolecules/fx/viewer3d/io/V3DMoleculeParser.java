@@ -12,9 +12,6 @@ import com.actelion.research.chem.io.DWARFileParser;
 import com.actelion.research.chem.io.DWARFileParser.SpecialField;
 import com.actelion.research.chem.io.Mol2FileParser;
 import com.actelion.research.chem.io.SDFileParser;
-import com.actelion.research.chem.io.pdb.mmcif.MMCIFParser;
-import com.actelion.research.chem.io.pdb.parser.PDBFileEntry;
-import com.actelion.research.chem.io.pdb.parser.PDBFileParser;
 import com.actelion.research.chem.io.pdb.parser.StructureAssembler;
 import com.actelion.research.chem.phesa.DescriptorHandlerShape;
 import com.actelion.research.chem.phesa.MolecularVolume;
@@ -25,6 +22,7 @@ import org.openmolecules.chem.conf.gen.ConformerGenerator;
 import org.openmolecules.fx.viewer3d.V3DMolecule;
 import org.openmolecules.fx.viewer3d.V3DRotatableGroup;
 import org.openmolecules.fx.viewer3d.V3DScene;
+import org.openmolecules.pdb.PDBEntryCache;
 
 import java.io.*;
 import java.text.ParseException;
@@ -86,42 +84,39 @@ public class V3DMoleculeParser {
 				e.printStackTrace();
 			}
 		}
-		else {
-			CompoundFileParser parser = null;
-	
-			if(file.endsWith(".sdf"))
-				parser = new SDFileParser(file);
-			else if(file.endsWith(".dwar"))
-				parser = new DWARFileParser(file,DWARFileParser.MODE_COORDINATES_PREFER_3D);
-	
-			if(parser!=null) {
-				StereoMolecule mol;
-				ConformerGenerator confGen = new ConformerGenerator();
-				while(parser.next()) {
-					try {
-						mol = parser.getMolecule();
-						if (mol != null) {
-							mol.ensureHelperArrays(Molecule.cHelperRings);
+		else if(V3DMoleculeImporter.isSupported(file)) {
+			new V3DMoleculeImporter(file).run(mols::addAll);
+		}
+		return mols;
+		
+	}
 
-							if(mol.getName()==null || mol.getName().isEmpty())
-								mol.setName("Molecule");
+	static CompoundFileParser createCompoundFileParser(String file) {
+		if(file.endsWith(".sdf"))
+			return new SDFileParser(file);
+		if(file.endsWith(".dwar"))
+			return new DWARFileParser(file,DWARFileParser.MODE_COORDINATES_PREFER_3D);
+		return null;
+	}
 
-							if(!mol.is3D())
-								confGen.getOneConformerAsMolecule(mol);
+	/**
+	 * Prepares a molecule read from a SD- or DataWarrior-file for display:
+	 * 3D-coordinates are generated for 2D-records and implicit hydrogens are added.
+	 * @param mol
+	 * @param confGen conformer generator, which must not be used by another thread concurrently
+	 * @return the prepared molecule
+	 */
+	static StereoMolecule prepareMolecule(StereoMolecule mol, ConformerGenerator confGen) {
+		mol.ensureHelperArrays(Molecule.cHelperRings);
 
-							new HydrogenAssembler(mol).addImplicitHydrogens();
+		if(mol.getName()==null || mol.getName().isEmpty())
+			mol.setName("Molecule");
 
-							mols.add(mol);
-						}
-					}
-					catch(Exception e) {
-						e.printStackTrace();
-					}
-				}
-			}
-		}
-		return mols;
-		
+		if(!mol.is3D())
+			confGen.getOneConformerAsMolecule(mol);
+
+		new HydrogenAssembler(mol).addImplicitHydrogens();
+		return mol;
 	}
 	
 
@@ -129,7 +124,38 @@ public class V3DMoleculeParser {
 	private static void parseFile(V3DScene scene,String file) {
 		List<V3DRotatableGroup> molGroups = new ArrayList<V3DRotatableGroup>();
 
-		if(file.endsWith(".mol") || file.endsWith(".mol2") || file.endsWith(".sdf") || file.endsWith(".dwar")) {
+		if(V3DMoleculeImporter.isSupported(file)) {
+			// molecules are added batch-wise as soon as they are ready, without blocking the caller;
+			// large files with more records than fit on one page are browsed page by page
+			Thread importThread = new Thread(() -> {
+				if (CompoundRecordIndex.isLargeFile(new File(file))) {
+					try {
+						CompoundRecordIndex index = CompoundRecordIndex.open(new File(file));
+						if (index.getRecordCount() > V3DMoleculePager.DEFAULT_PAGE_SIZE) {
+							V3DMoleculePager pager = new V3DMoleculePager(scene, index, V3DMoleculePager.DEFAULT_PAGE_SIZE);
+							Platform.runLater(() -> {
+								scene.setMoleculePager(pager);
+								pager.showPage(0);
+							});
+							return;
+						}
+					}
+					catch (IOException ioe) {
+						ioe.printStackTrace();
+						return;
+					}
+				}
+				new V3DMoleculeImporter(file).run(batch -> {
+					List<V3DMolecule> fxmols = new ArrayList<>();
+					for (StereoMolecule mol : batch)
+						fxmols.add(new V3DMolecule(mol, V3DMolecule.getNextID(),V3DMolecule.MoleculeRole.LIGAND,false, false));
+					Platform.runLater(() -> fxmols.forEach(fxmol -> scene.addMolecule(fxmol, true)));
+				});
+			});
+			importThread.setDaemon(true);
+			importThread.start();
+		}
+		else if(file.endsWith(".mol") || file.endsWith(".mol2")) {
 			List<StereoMolecule> mols = parseChemFile(file);
 
 			mols.stream().forEach(e -> scene.addMolecule(new V3DMolecule(e, V3DMolecule.getNextID(),V3DMolecule.MoleculeRole.LIGAND,false, false), true));
@@ -138,8 +164,7 @@ public class V3DMoleculeParser {
 			try {
 				V3DRotatableGroup pdbGroup = new V3DRotatableGroup(new File(file).getName().split("\\.")[0]);
 				scene.addGroup(pdbGroup);
-				PDBFileEntry pdbEntry = file.endsWith(".pdb") ? new PDBFileParser().parse(new File(file)) : MMCIFParser.parse(new File(file));
-				pdbEntry.extractMols().forEach((k,v) -> {
+				PDBEntryCache.extractMols(new File(file), false).forEach((k,v) -> {
 					List<V3DMolecule> groupMols = new ArrayList<V3DMolecule>();
 					V3DMolecule.MoleculeRole role;
 					boolean isProtein = false;
@@ -188,6 +213,37 @@ public class V3DMoleculeParser {
 	public static void readMoleculeFile(V3DScene scene, String filename) {
 		parseFile(scene,filename);
 	}
+
+	/**
+	 * Streams the molecules of a SD- or DataWarrior-file with bounded memory consumption.
+	 * Molecules are prepared like by parseChemFile(), but on multiple threads and only up to
+	 * 'window' molecules ahead of the consumer. The returned stream must be closed, if it is
+	 * not read to the end.
+	 * @param file
+	 * @param window maximum number of prepared molecules kept in memory
+	 * @return iterator over the prepared molecules in file order
+	 */
+	public static V3DMoleculeStream streamChemFile(String file, int window) {
+		return new V3DMoleculeStream(file, window);
+	}
+
+	/**
+	 * Parses and prepares one record of a SD- or DataWarrior-file like parseChemFile() does.
+	 * Only the record itself (and the header of a DataWarrior-file) is read from disk, which allows
+	 * processing screening libraries of any size record by record, e.g. on multiple threads.
+	 * @param index record index of the file, e.g. from CompoundRecordIndex.open()
+	 * @param record
+	 * @param confGen used for 2D-records; must not be shared between threads
+	 * @return prepared molecule or null, if the record doesn't contain a valid molecule
+	 * @throws IOException
+	 */
+	public static StereoMolecule parseChemFileRecord(CompoundRecordIndex index, int record, ConformerGenerator confGen) throws IOException {
+		CompoundFileParser parser = index.createParser(record, 1);
+		if (!parser.next())
+			return null;
+		StereoMolecule mol = parser.getMolecule();
+		return (mol == null) ? null : prepareMolecule(mol, confGen);
+	}
 	
 	
 	public static List<V3DMolecule> readPheSAQuery(V3DScene scene, File pheSAFile, int group) {
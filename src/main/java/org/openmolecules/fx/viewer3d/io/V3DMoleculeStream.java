@@ -0,0 +1,107 @@
+package org.openmolecules.fx.viewer3d.io;
+
+import com.actelion.research.chem.StereoMolecule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Iterates over the prepared molecules of a SD- or DataWarrior-file, while the file is being read
+ * and the molecules are prepared in the background by a V3DMoleculeImporter. At most about 'window'
+ * molecules are kept in memory ahead of the consumer; the importer is blocked, when the consumer
+ * falls behind. Thus, files of any size can be processed with bounded memory.
+ * The stream must be closed, if it is not iterated to the end.
+ */
+public class V3DMoleculeStream implements Iterator<StereoMolecule>, AutoCloseable {
+	private static final int MAX_BATCH_SIZE = 64;
+	private static final List<StereoMolecule> END_OF_FILE = Collections.emptyList();
+
+	private final V3DMoleculeImporter mImporter;
+	private final BlockingQueue<List<StereoMolecule>> mQueue;
+	private final Thread mImportThread;
+	private Iterator<StereoMolecule> mBatchIterator;
+	private volatile boolean mIsClosed;
+	private boolean mIsAtEnd;
+
+	/**
+	 * @param file SD- or DataWarrior-file
+	 * @param window maximum number of prepared molecules waiting to be consumed
+	 */
+	public V3DMoleculeStream(String file, int window) {
+		int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, window / 4));
+		mImporter = new V3DMoleculeImporter(file, Runtime.getRuntime().availableProcessors(), batchSize);
+		mQueue = new ArrayBlockingQueue<>(Math.max(1, window / batchSize));
+		mBatchIterator = Collections.emptyIterator();
+
+		mImportThread = new Thread(() -> {
+			try {
+				mImporter.run(batch -> {
+					try {
+						mQueue.put(new ArrayList<>(batch));
+					}
+					catch (InterruptedException ie) {
+						mImporter.cancel();
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			finally {
+				if (!mIsClosed) {
+					try {
+						mQueue.put(END_OF_FILE);
+					}
+					catch (InterruptedException ie) {}
+				}
+			}
+		}, "V3DMoleculeStream");
+		mImportThread.setDaemon(true);
+		mImportThread.start();
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!mBatchIterator.hasNext()) {
+			if (mIsAtEnd || mIsClosed)
+				return false;
+			try {
+				List<StereoMolecule> batch = mQueue.take();
+				if (batch == END_OF_FILE)
+					mIsAtEnd = true;
+				else
+					mBatchIterator = batch.iterator();
+			}
+			catch (InterruptedException ie) {
+				close();
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public StereoMolecule next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return mBatchIterator.next();
+	}
+
+	/**
+	 * Stops the import and releases all buffered molecules.
+	 */
+	@Override
+	public void close() {
+		if (!mIsClosed) {
+			mIsClosed = true;
+			mImporter.cancel();
+			mImportThread.interrupt();
+			mQueue.clear();
+			mBatchIterator = Collections.emptyIterator();
+		}
+	}
+}
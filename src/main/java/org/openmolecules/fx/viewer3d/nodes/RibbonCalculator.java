@@ -2,7 +2,6 @@ package org.openmolecules.fx.viewer3d.nodes;
 
 import com.actelion.research.chem.Coordinates;
 
-import static org.openmolecules.fx.viewer3d.nodes.Ribbons.POINTS_PER_SECTION;
 import static org.openmolecules.fx.viewer3d.nodes.Ribbons.SECTIONS_PER_RESIDUE;
 
 public class RibbonCalculator {
@@ -274,18 +273,19 @@ private static final float SPLINE_FACTOR = 0.8f;
         if (sections < 2)
             return;
 
-        int pointCount = sections * POINTS_PER_SECTION;
+        int pointsPerSection = mRibbons.getPointsPerSection();
+        int pointCount = sections * pointsPerSection;
 
         Coordinates[] points = new Coordinates[pointCount];
         Coordinates[] normals = new Coordinates[pointCount];
 
         // cross-section buffer
-        float[] sectionPoint = new float[POINTS_PER_SECTION * 2];
-        float[] sectionNormal = new float[POINTS_PER_SECTION * 2];
-        float[] sectionTemplate = new float[POINTS_PER_SECTION * 2];
+        float[] sectionPoint = new float[pointsPerSection * 2];
+        float[] sectionNormal = new float[pointsPerSection * 2];
+        float[] sectionTemplate = new float[pointsPerSection * 2];
 
-        float angle = 2f * (float)Math.PI / POINTS_PER_SECTION;
-        for (int p = 0; p< POINTS_PER_SECTION; p++) {
+        float angle = 2f * (float)Math.PI / pointsPerSection;
+        for (int p = 0; p< pointsPerSection; p++) {
             sectionTemplate[2*p] = (float)Math.sin(p * angle);
             sectionTemplate[2*p+1] = (float)Math.cos(p * angle);
         }
@@ -315,16 +315,16 @@ private static final float SPLINE_FACTOR = 0.8f;
                 float invWidth = 1.0f / width;
                 float invHeight = 1.0f / height;
 
-                for (int p = 0; p<(POINTS_PER_SECTION /2); p++) {
+                for (int p = 0; p<(pointsPerSection /2); p++) {
                     sectionPoint[2*p] = width - height + height * sectionTemplate[2*p];
                     sectionPoint[2*p+1] = height * sectionTemplate[2*p+1];
                 }
-                for (int p = (POINTS_PER_SECTION /2); p< POINTS_PER_SECTION; p++) {
+                for (int p = (pointsPerSection /2); p< pointsPerSection; p++) {
                     sectionPoint[2*p] = height - width + height * sectionTemplate[2*p];
                     sectionPoint[2*p+1] = height * sectionTemplate[2*p+1];
                 }
 
-                for (int p = 0; p< POINTS_PER_SECTION; p++) {
+                for (int p = 0; p< pointsPerSection; p++) {
                     float x = invWidth  * sectionTemplate[2*p];
                     float y = invHeight * sectionTemplate[2*p+1];
                     float invLen = 1.0f / (float)Math.sqrt(x*x + y*y);
@@ -346,19 +346,19 @@ private static final float SPLINE_FACTOR = 0.8f;
 
             Coordinates upDirection = coordDirection.cross(offsetDirection).unit();
 
-            for (int p=0; p<POINTS_PER_SECTION; p++) {
+            for (int p=0; p<pointsPerSection; p++) {
                 float x = sectionPoint[2*p];
                 float y = sectionPoint[2*p+1];
-                int index = (section * POINTS_PER_SECTION + p);
+                int index = (section * pointsPerSection + p);
                 points[index] = new Coordinates(point[section]);
                 points[index].add(x * offsetDirection.x, x * offsetDirection.y, x * offsetDirection.z);
                 points[index].add(y * upDirection.x, y * upDirection.y, y * upDirection.z);
             }
 
-            for (int p = 0; p< POINTS_PER_SECTION; p++) {
+            for (int p = 0; p< pointsPerSection; p++) {
                 float x = sectionNormal[2*p];
                 float y = sectionNormal[2*p+1];
-                normals[section * POINTS_PER_SECTION + p] = new Coordinates(
+                normals[section * pointsPerSection + p] = new Coordinates(
                         x * offsetDirection.x + y * upDirection.x,
                         x * offsetDirection.y + y * upDirection.y,
                         x * offsetDirection.z + y * upDirection.z);
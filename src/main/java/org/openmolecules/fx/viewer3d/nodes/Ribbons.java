@@ -31,6 +31,7 @@ import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.PhongMaterial;
 import javafx.scene.shape.*;
+import org.openmolecules.fx.viewer3d.V3DLevelOfDetail;
 import org.openmolecules.fx.viewer3d.V3DMolecule;
 
 import java.util.ArrayList;
@@ -46,7 +47,7 @@ public class Ribbons {
     public static final int ATOM_TYPE_CA = 1;
     public static final int ATOM_TYPE_C = 2;
     public static final int ATOM_TYPE_O = 3;
-    public static final int POINTS_PER_SECTION = 16;
+    public static final int POINTS_PER_SECTION = 16;    // at highest detail level
     public static final int SECTIONS_PER_RESIDUE = 9;
     private static final int SS_OTHER = 0;
     private static final int SS_HELIX = 1;
@@ -66,6 +67,7 @@ public class Ribbons {
     private MeshView[] mRibbonMesh;
     private Color mColor;   // ribbon color; if null, then mesh colors are according to COLOR_MODE
     private boolean[] mIsBackboneAtom;
+    private final int mPointsPerSection;
 
     /**
      * Calculates and adds a ribbon or cartoon visualization of the protein backbone
@@ -79,6 +81,7 @@ public class Ribbons {
         mMol3D = mol3D;
         mMol = mol;
         mColor = mMol3D.getColor();
+        mPointsPerSection = V3DLevelOfDetail.getRibbonPointsPerSection(mol3D.getDetailLevel());
 
         mResidueAtom = readBackbone();  // works, if mMol is Molecule3D from PDB entry
         if (mResidueAtom == null)
@@ -89,6 +92,7 @@ public class Ribbons {
 
     private Ribbons(StereoMolecule mol) {
         mMol = mol;
+        mPointsPerSection = POINTS_PER_SECTION;
     }
 
     /**
@@ -426,6 +430,27 @@ public class Ribbons {
         return mIsBackboneAtom;
     }
 
+    /**
+     * @return number of points of every ribbon cross-section, which depends on the molecule's detail level
+     */
+    public int getPointsPerSection() {
+        return mPointsPerSection;
+    }
+
+    /**
+     * @return number of triangles of all ribbon meshes
+     */
+    public int getTriangleCount() {
+        int count = 0;
+        for (MeshView meshView : mRibbonMesh) {
+            if (meshView != null) {
+                TriangleMesh mesh = (TriangleMesh)meshView.getMesh();
+                count += mesh.getFaces().size() / mesh.getFaceElementSize();
+            }
+        }
+        return count;
+    }
+
     public void draw(int mode) {
         if (mode == MODE_RIBBON) {
             if (mColor == null) {
@@ -458,20 +483,20 @@ public class Ribbons {
 
         int[] col = new int[2];
 
-        // The ribbon is built by interconnected cycles of n points (n = POINTS_PER_SECTION)
+        // The ribbon is built by interconnected cycles of n points (n = mPointsPerSection)
         // |  /  |  /  |  /  |     |
         // p2 -- p4 -- p --- p ... pn -> (p2)   cycle of n points
         // |  /  |  /  |  /  |     |
         // p1 -- p3 -- p --- p ... pn -> (p1)   cycle of n points
         // |  /  |  /  |  /  |     |
-        for (int i=POINTS_PER_SECTION; i<points.length; i+=POINTS_PER_SECTION) {
+        for (int i=mPointsPerSection; i<points.length; i+=mPointsPerSection) {
             if (mColor == null)
-                setColorIndexes(col, fragment, i/POINTS_PER_SECTION-1);
-            for (int j=0; j<POINTS_PER_SECTION; j++) {
-                int d = (j == 0) ? POINTS_PER_SECTION -1 : -1;
-                int p1 = i+j-POINTS_PER_SECTION+d;
+                setColorIndexes(col, fragment, i/mPointsPerSection-1);
+            for (int j=0; j<mPointsPerSection; j++) {
+                int d = (j == 0) ? mPointsPerSection -1 : -1;
+                int p1 = i+j-mPointsPerSection+d;
                 int p2 = i+j+d;
-                int p3 = i+j-POINTS_PER_SECTION;
+                int p3 = i+j-mPointsPerSection;
                 int p4 = i+j;
                 mesh.getFaces().addAll(p3, p3, col[0], p4, p4, col[1], p1, p1, col[0]);  // anti-clockwise and alternating between sections
                 mesh.getFaces().addAll(p2, p2, col[1], p1, p1, col[0], p4, p4, col[1]);  // to easy color assignment
@@ -516,10 +541,10 @@ public class Ribbons {
                     // update texCoord indexes in faces
                     int points = mesh.getPoints().size() / 3;
                     int index = 2;
-                    for (int i=POINTS_PER_SECTION; i<points; i+=POINTS_PER_SECTION) {
+                    for (int i=mPointsPerSection; i<points; i+=mPointsPerSection) {
                         if (molColor == null)
-                            setColorIndexes(col, fragment, i/POINTS_PER_SECTION-1);
-                        for (int j=0; j<POINTS_PER_SECTION; j++) {
+                            setColorIndexes(col, fragment, i/mPointsPerSection-1);
+                        for (int j=0; j<mPointsPerSection; j++) {
                             for (int k=0; k<6; k++) { // two triangle, 6 corners altogether
                                 mesh.getFaces().set(index, (k & 1) == 0 ? col[0] : col[1]);
                                 index += 3;
@@ -0,0 +1,114 @@
+package org.openmolecules.fx.viewer3d.panel;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.HBox;
+import org.openmolecules.fx.viewer3d.GUIColorPalette;
+import org.openmolecules.fx.viewer3d.io.V3DMoleculePager;
+
+import java.io.IOException;
+
+/**
+ * Paging controls of a large molecule file shown by a V3DMoleculePager: buttons for the previous
+ * and next page, which do the same as the PAGE_UP and PAGE_DOWN keys, the record range of the
+ * current page, a field to jump to a record by number or molecule name and an indicator, while
+ * the page's records are loaded.
+ */
+public class MoleculePagerBar extends HBox {
+	private final V3DMoleculePager mPager;
+	private final Button mPreviousButton,mNextButton;
+	private final Label mLabel;
+	private final TextField mGotoField;
+	private final ProgressIndicator mLoadingIndicator;
+
+	public MoleculePagerBar(V3DMoleculePager pager) {
+		super(8);
+		mPager = pager;
+		setAlignment(Pos.CENTER_LEFT);
+		setPadding(new Insets(2, 8, 2, 8));
+		setMaxHeight(USE_PREF_SIZE);
+		setStyle("-fx-background-color:" + GUIColorPalette.BLUE3 + "; -fx-opacity: 0.9;");
+
+		mPreviousButton = new Button("<");
+		mPreviousButton.setTooltip(new Tooltip("Previous page (Page Up)"));
+		mPreviousButton.setOnAction(e -> mPager.previousPage());
+		mNextButton = new Button(">");
+		mNextButton.setTooltip(new Tooltip("Next page (Page Down)"));
+		mNextButton.setOnAction(e -> mPager.nextPage());
+
+		mLabel = new Label();
+		mLabel.setStyle("-fx-text-fill:white;");
+		mGotoField = new TextField();
+		mGotoField.setPromptText("record # or name");
+		mGotoField.setPrefColumnCount(10);
+		mGotoField.setOnAction(e -> gotoRecord(mGotoField.getText().trim()));
+		mGotoField.textProperty().addListener((o, ov, nv) -> mGotoField.setStyle(""));
+		mLoadingIndicator = new ProgressIndicator();
+		mLoadingIndicator.setPrefSize(16, 16);
+
+		getChildren().addAll(mPreviousButton, mLabel, mNextButton, mGotoField, mLoadingIndicator);
+
+		mPager.pageProperty().addListener((o, ov, nv) -> update());
+		mPager.loadingProperty().addListener((o, ov, nv) -> update());
+		update();
+	}
+
+	public V3DMoleculePager getPager() {
+		return mPager;
+	}
+
+	/**
+	 * Shows the page containing the record with the given 1-based number or, if the text is
+	 * not a number, with the given molecule name. Names are looked up in the background.
+	 * @param text
+	 */
+	private void gotoRecord(String text) {
+		if (text.isEmpty())
+			return;
+
+		try {
+			mPager.showRecord(Integer.parseInt(text) - 1);
+			return;
+		}
+		catch (NumberFormatException nfe) {}
+
+		Thread lookupThread = new Thread(() -> {
+			int record = -1;
+			try {
+				record = mPager.getIndex().findRecord(text);
+			}
+			catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			boolean found = (record != -1);
+			if (found)
+				mPager.showRecord(record);
+			Platform.runLater(() -> mGotoField.setStyle(found ? "" : "-fx-text-fill:red;"));
+		}, "MoleculePagerBar lookup");
+		lookupThread.setDaemon(true);
+		lookupThread.start();
+	}
+
+	private void update() {
+		int page = mPager.pageProperty().get();
+		int recordCount = mPager.getIndex().getRecordCount();
+		if (page == -1) {
+			mLabel.setText(mPager.getIndex().getFile().getName()+": "+recordCount+" records");
+		}
+		else {
+			int firstRecord = page * mPager.getPageSize();
+			int lastRecord = Math.min(recordCount, firstRecord + mPager.getPageSize());
+			mLabel.setText(mPager.getIndex().getFile().getName()+": records "+(firstRecord+1)+"-"+lastRecord
+					+" of "+recordCount+" (page "+(page+1)+" of "+mPager.getPageCount()+")");
+		}
+		mPreviousButton.setDisable(page <= 0);
+		mNextButton.setDisable(page >= mPager.getPageCount() - 1);
+		mLoadingIndicator.setVisible(mPager.loadingProperty().get());
+	}
+}
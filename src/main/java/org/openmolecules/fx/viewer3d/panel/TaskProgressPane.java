@@ -0,0 +1,70 @@
+package org.openmolecules.fx.viewer3d.panel;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import org.openmolecules.fx.viewer3d.GUIColorPalette;
+
+/**
+ * Shows the progress of a long running background task, e.g. a shape alignment or a library docking,
+ * and allows cancelling it. setProgress() and close() may be called from any thread.
+ */
+public class TaskProgressPane extends HBox {
+	private final String mTitle;
+	private final Label mLabel;
+	private final ProgressBar mProgressBar;
+	private final Button mCancelButton;
+
+	/**
+	 * @param title name of the task
+	 * @param cancelAction called on the FX thread, when the user cancels the task
+	 */
+	public TaskProgressPane(String title, Runnable cancelAction) {
+		super(8);
+		mTitle = title;
+		setAlignment(Pos.CENTER_LEFT);
+		setPadding(new Insets(2, 8, 2, 8));
+		setMaxHeight(USE_PREF_SIZE);
+		setStyle("-fx-background-color:" + GUIColorPalette.BLUE3 + "; -fx-opacity: 0.9;");
+
+		mLabel = new Label(title);
+		mLabel.setStyle("-fx-text-fill:white;");
+		mProgressBar = new ProgressBar(ProgressBar.INDETERMINATE_PROGRESS);
+		mProgressBar.setPrefWidth(160);
+		mCancelButton = new Button("Cancel");
+		mCancelButton.setOnAction(e -> {
+			mCancelButton.setDisable(true);
+			mLabel.setText(mTitle + ": cancelling...");
+			cancelAction.run();
+		});
+
+		getChildren().addAll(mLabel, mProgressBar, mCancelButton);
+	}
+
+	/**
+	 * @param text current state of the task shown after the title
+	 * @param progress between 0.0 and 1.0; negative if unknown
+	 */
+	public void setProgress(String text, double progress) {
+		Platform.runLater(() -> {
+			if (!mCancelButton.isDisabled())
+				mLabel.setText(mTitle + ": " + text);
+			mProgressBar.setProgress(progress < 0 ? ProgressBar.INDETERMINATE_PROGRESS : progress);
+		});
+	}
+
+	/**
+	 * Removes this pane from its parent, when the task has finished.
+	 */
+	public void close() {
+		Platform.runLater(() -> {
+			if (getParent() instanceof Pane)
+				((Pane)getParent()).getChildren().remove(this);
+		});
+	}
+}
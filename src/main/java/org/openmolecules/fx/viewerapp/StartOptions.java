@@ -22,9 +22,6 @@ package org.openmolecules.fx.viewerapp;
 
 import com.actelion.research.chem.*;
 import com.actelion.research.chem.conf.Conformer;
-import com.actelion.research.chem.io.pdb.mmcif.MMCIFParser;
-import com.actelion.research.chem.io.pdb.parser.PDBFileEntry;
-import com.actelion.research.chem.io.pdb.parser.PDBFileParser;
 import com.actelion.research.chem.io.pdb.parser.StructureAssembler;
 import com.actelion.research.util.Platform;
 import javafx.geometry.BoundingBox;
@@ -44,6 +41,7 @@ import org.openmolecules.fx.viewer3d.V3DRotatableGroup;
 import org.openmolecules.fx.viewer3d.V3DScene;
 import org.openmolecules.fx.viewer3d.nodes.Ribbons;
 import org.openmolecules.pdb.MMTFParser;
+import org.openmolecules.pdb.PDBEntryCache;
 import org.openmolecules.render.MoleculeArchitect;
 
 import java.io.File;
@@ -51,6 +49,9 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StartOptions {
 	// home path used when loading pdb file from disk assuming OS is either Linux or MacOSX
@@ -373,19 +374,37 @@ public class StartOptions {
 			testVoxelData(scene);
 	}
 
+	/**
+	 * Downloads or parses the PDB entry on a background thread and continues with showPDBEntry() on the FX thread.
+	 */
 	private void loadPDBEntry(V3DScene scene) {
-		try {
-			PDBFileEntry entryFile = (mPDBFile != null) ?
-					(mPDBFile.toLowerCase().endsWith(".pdb") ? new PDBFileParser().parse(new File(mPDBFile))
-							: MMCIFParser.parse(mPDBFile))
-					: (!mPDBEntryCode.isEmpty()) ? MMCIFParser.getFromPDB(mPDBEntryCode) : null;
+		Thread loadThread = new Thread(() -> {
+			try {
+				Map<String, List<Molecule3D>> map = (mPDBFile != null) ? PDBEntryCache.extractMols(new File(mPDBFile), true)
+						: (!mPDBEntryCode.isEmpty()) ? PDBEntryCache.extractMols(mPDBEntryCode, true) : null;
+				javafx.application.Platform.runLater(() -> showPDBEntry(scene, map));
+			} catch (FileNotFoundException fnfe) {
+				javafx.application.Platform.runLater(() -> scene.showMessage("File not found: "+fnfe.getMessage()));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}, "PDB entry loading");
+		loadThread.setDaemon(true);
+		loadThread.start();
+	}
 
-			if (entryFile == null) {
+	/**
+	 * Lets the user select the ligand, if needed, and adds all molecules of the entry to the scene.
+	 * Molecules are constructed on background threads and added as soon as they are ready.
+	 * If the protein is cropped around the ligand, the view is optimized when all molecules have been added.
+	 */
+	private void showPDBEntry(V3DScene scene, Map<String, List<Molecule3D>> map) {
+		try {
+			if (map == null) {
 				scene.showMessage("Unexpectedly didn't get PDB entry.");
 				return;
 			}
 
-			Map<String, List<Molecule3D>> map = entryFile.extractMols(true);
 			List<Molecule3D> ligands = map.get(StructureAssembler.LIGAND_GROUP);
 
 			int covalentCount = 0;
@@ -456,68 +475,111 @@ public class StartOptions {
 			System.out.println(mPDBEntryCode);
 			scene.addGroup(complex);
 
+			// chains are cropped and constructed concurrently; ribbons appear first, surfaces follow when ready.
+			// Ligands and solvent molecules are constructed on the same threads in one more task.
+			final Bounds cropBounds = ligandBounds;
+			final StereoMolecule cropLigand = (cropBounds == null) ? null : ligands.getFirst();
+			final ArrayList<StereoMolecule> ligandList = (ligands == null) ? null : new ArrayList<>(ligands);
+			AtomicInteger pendingTasks = new AtomicInteger(proteins.size() + 1);
+			Runnable taskDone = () -> {
+				if (pendingTasks.decrementAndGet() == 0 && cropBounds != null)
+					javafx.application.Platform.runLater(scene::optimizeView);
+			};
+			Executor executor = V3DMolecule.getConstructionExecutor();
 			for (int i=0; i<proteins.size(); i++) {
 				Molecule3D protein = proteins.get(i);
-				if (ligandBounds != null && crop(protein, CROP_DISTANCE, ligands.getFirst(), ligandBounds))
-					continue;
-
-				ArrayList<StereoMolecule> ligandList = new ArrayList<>(ligands);
-				V3DMolecule vm = new V3DMolecule(proteins.get(i),
-						mCropLigand ? MoleculeArchitect.CONSTRUCTION_MODE_WIRES : MoleculeArchitect.CONSTRUCTION_MODE_NONE,
-						MoleculeArchitect.HYDROGEN_MODE_DEFAULT,
-						Ribbons.MODE_CARTOON,
-						mCropLigand ? V3DMolecule.SIDECHAIN_MODE_NEAR_LIGAND : V3DMolecule.SIDECHAIN_MODE_NONE,
-						mCropLigand ? V3DMolecule.SURFACE_MODE_FILLED : V3DMolecule.SURFACE_MODE_NONE,
-						SurfaceMesh.SURFACE_COLOR_DONORS_ACCEPTORS,
-						surfaceColor[i], 0.5,
-						V3DMolecule.getNextID(),
-						V3DMolecule.MoleculeRole.MACROMOLECULE,
-						true, false, ligandList);
-				vm.getMolecule().setName("Protein");
-				scene.addMolecule(vm, complex, true);
-			}
+				Color chainSurfaceColor = surfaceColor[i];
+				// the task may fail after the chain was passed to the consumer, i.e. while calculating the surface
+				AtomicBoolean isDone = new AtomicBoolean();
+				Runnable chainDone = () -> {
+					if (!isDone.getAndSet(true))
+						taskDone.run();
+				};
+				executor.execute(() -> {
+					try {
+						if (cropBounds != null && crop(protein, CROP_DISTANCE, cropLigand, cropBounds)) {
+							chainDone.run();
+							return;
+						}
 
-			V3DMolecule v3dligand = null;
-			if (ligands != null) {
-				for (Molecule3D ligand : ligands) {
-					v3dligand = new V3DMolecule(ligand,
-							MoleculeArchitect.CONSTRUCTION_MODE_STICKS,
-							MoleculeArchitect.HYDROGEN_MODE_ALL,
-							V3DMolecule.getNextID(),
-							V3DMolecule.MoleculeRole.LIGAND,
-							true, false);
-//					v3dligand.getMolecule().setName("Ligand");
-					scene.addMolecule(v3dligand, complex, true);
-				}
+						V3DMolecule.createStaged(protein,
+								mCropLigand ? MoleculeArchitect.CONSTRUCTION_MODE_WIRES : MoleculeArchitect.CONSTRUCTION_MODE_NONE,
+								MoleculeArchitect.HYDROGEN_MODE_DEFAULT,
+								Ribbons.MODE_CARTOON,
+								mCropLigand ? V3DMolecule.SIDECHAIN_MODE_NEAR_LIGAND : V3DMolecule.SIDECHAIN_MODE_NONE,
+								mCropLigand ? V3DMolecule.SURFACE_MODE_FILLED : V3DMolecule.SURFACE_MODE_NONE,
+								SurfaceMesh.SURFACE_COLOR_DONORS_ACCEPTORS,
+								chainSurfaceColor, 0.5,
+								V3DMolecule.getNextID(),
+								V3DMolecule.MoleculeRole.MACROMOLECULE,
+								true, false, ligandList,
+								vm -> {
+									vm.getMolecule().setName("Protein");
+									scene.addMolecule(vm, complex, true);
+									chainDone.run();
+								});
+					}
+					catch (Exception e) {
+						reportFailure(scene, "Preparation of a protein chain", e);
+						chainDone.run();
+					}
+				});
 			}
 
 			List<Molecule3D> solvents = map.get(StructureAssembler.SOLVENT_GROUP);
-			for (Molecule3D mol : solvents) {
-				if (ligandBounds != null && crop(mol, CROP_DISTANCE, ligands.getFirst(), ligandBounds))
-					continue;
-				V3DMolecule vm = new V3DMolecule(mol,
-						MoleculeArchitect.CONSTRUCTION_MODE_STICKS,
-						MoleculeArchitect.HYDROGEN_MODE_ALL,
-						V3DMolecule.getNextID(),
-						V3DMolecule.MoleculeRole.SOLVENT,
-						true, false);
-				mol.setName((mol.getAllAtoms()==1 && mol.getAtomicNo(0)==8 ? "Water " : "Solvent ")+mol.getAtomChainId(0));
-				scene.addMolecule(vm, complex, true);
-			}
+			executor.execute(() -> {
+				try {
+					List<V3DMolecule> fxmols = new ArrayList<>();
+					if (ligandList != null) {
+						for (StereoMolecule ligand : ligandList) {
+							V3DMolecule v3dligand = new V3DMolecule(ligand,
+									MoleculeArchitect.CONSTRUCTION_MODE_STICKS,
+									MoleculeArchitect.HYDROGEN_MODE_ALL,
+									V3DMolecule.getNextID(),
+									V3DMolecule.MoleculeRole.LIGAND,
+									true, false);
+//							v3dligand.getMolecule().setName("Ligand");
+							fxmols.add(v3dligand);
+						}
+					}
+
+					for (Molecule3D mol : solvents) {
+						if (cropBounds != null && crop(mol, CROP_DISTANCE, cropLigand, cropBounds))
+							continue;
+						V3DMolecule vm = new V3DMolecule(mol,
+								MoleculeArchitect.CONSTRUCTION_MODE_STICKS,
+								MoleculeArchitect.HYDROGEN_MODE_ALL,
+								V3DMolecule.getNextID(),
+								V3DMolecule.MoleculeRole.SOLVENT,
+								true, false);
+						mol.setName((mol.getAllAtoms()==1 && mol.getAtomicNo(0)==8 ? "Water " : "Solvent ")+mol.getAtomChainId(0));
+						fxmols.add(vm);
+					}
+
+					javafx.application.Platform.runLater(() -> fxmols.forEach(vm -> scene.addMolecule(vm, complex, true)));
+				}
+				catch (Exception e) {
+					reportFailure(scene, "Preparation of ligands and solvent molecules", e);
+				}
+				taskDone.run();
+			});
 
 			if (!mCropLigand)
 				scene.setInteractionType(V3DScene.INTERACTION_TYPE_NONE);
 
-			if (ligandBounds != null)
-				scene.optimizeView();
-
-		} catch (FileNotFoundException fnfe) {
-			scene.showMessage("File not found: "+fnfe.getMessage());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Prints the stack trace and tells the user on the FX thread that a background task failed.
+	 */
+	private static void reportFailure(V3DScene scene, String task, Exception e) {
+		e.printStackTrace();
+		javafx.application.Platform.runLater(() -> scene.showMessage(task+" failed: "+e));
+	}
+
 	private Bounds calculateBounds(StereoMolecule mol) {
 		double x1 = 999999999;
 		double y1 = 999999999;
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Thomas Sander, Therwilerstrasse 41, CH-4153 Reinach, Switzerland
+ *
+ * This file is part of openmolecules.org's 3D-Molecule-Viewer.
+ *
+ * 3D-Molecule-Viewer is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * 3D-Molecule-Viewer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with 3D-Molecule-Viewer.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package org.openmolecules.mesh;
+
+/**
+ * Cell list over a fixed set of reference points, e.g. ligand atoms, that answers distance queries
+ * by looking at the few grid cells around the query point only. The cell edge length equals the
+ * typical query distance, such that a query touches at most 27 cells. Building the index and
+ * querying n points are both linear in the number of points.
+ */
+public class NeighbourIndex {
+	private static final int MAX_CELL_COUNT = 1 << 21;
+
+	private final double mMinX,mMinY,mMinZ;
+	private final double mCellSize;
+	private final int mCellsX,mCellsY,mCellsZ;
+	private final int[] mCellStart;		// index into mPoint of the first point of each cell; entry at cellCount is the end
+	private final double[] mPoint;		// x,y,z of all points sorted by cell
+
+	/**
+	 * @param coords x,y,z of all reference points
+	 * @param pointCount
+	 * @param cellSize edge length of grid cells; should be about the distance used in queries
+	 */
+	public NeighbourIndex(double[] coords, int pointCount, double cellSize) {
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double minZ = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		double maxZ = -Double.MAX_VALUE;
+		for (int i=0; i<pointCount; i++) {
+			minX = Math.min(minX, coords[3*i]);
+			minY = Math.min(minY, coords[3*i+1]);
+			minZ = Math.min(minZ, coords[3*i+2]);
+			maxX = Math.max(maxX, coords[3*i]);
+			maxY = Math.max(maxY, coords[3*i+1]);
+			maxZ = Math.max(maxZ, coords[3*i+2]);
+		}
+		if (pointCount == 0) {
+			minX = minY = minZ = 0;
+			maxX = maxY = maxZ = 0;
+		}
+
+		// sparse point sets spanning a large volume get coarser cells to limit memory
+		double size = Math.max(cellSize, 0.01);
+		while ((long)cellCount(maxX-minX, size) * cellCount(maxY-minY, size) * cellCount(maxZ-minZ, size) > MAX_CELL_COUNT)
+			size *= 2;
+
+		mMinX = minX;
+		mMinY = minY;
+		mMinZ = minZ;
+		mCellSize = size;
+		mCellsX = cellCount(maxX-minX, size);
+		mCellsY = cellCount(maxY-minY, size);
+		mCellsZ = cellCount(maxZ-minZ, size);
+
+		// counting sort of points by cell
+		int[] pointCell = new int[pointCount];
+		mCellStart = new int[mCellsX*mCellsY*mCellsZ+1];
+		for (int i=0; i<pointCount; i++) {
+			pointCell[i] = getCell(cellIndex(coords[3*i], mMinX), cellIndex(coords[3*i+1], mMinY), cellIndex(coords[3*i+2], mMinZ));
+			mCellStart[pointCell[i]+1]++;
+		}
+		for (int c=0; c<mCellStart.length-1; c++)
+			mCellStart[c+1] += mCellStart[c];
+		int[] next = new int[mCellStart.length-1];
+		System.arraycopy(mCellStart, 0, next, 0, next.length);
+		mPoint = new double[3*pointCount];
+		for (int i=0; i<pointCount; i++) {
+			int p = 3*next[pointCell[i]]++;
+			mPoint[p] = coords[3*i];
+			mPoint[p+1] = coords[3*i+1];
+			mPoint[p+2] = coords[3*i+2];
+		}
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param maxDistance
+	 * @return square distance to the nearest reference point closer than maxDistance, or Double.MAX_VALUE if there is none
+	 */
+	public double getSquareDistanceToNearest(double x, double y, double z, double maxDistance) {
+		int x1 = Math.max(0, cellIndex(x - maxDistance, mMinX));
+		int x2 = Math.min(mCellsX-1, cellIndex(x + maxDistance, mMinX));
+		int y1 = Math.max(0, cellIndex(y - maxDistance, mMinY));
+		int y2 = Math.min(mCellsY-1, cellIndex(y + maxDistance, mMinY));
+		int z1 = Math.max(0, cellIndex(z - maxDistance, mMinZ));
+		int z2 = Math.min(mCellsZ-1, cellIndex(z + maxDistance, mMinZ));
+
+		double squareMaxDistance = maxDistance * maxDistance;
+		double nearest = Double.MAX_VALUE;
+		for (int cx=x1; cx<=x2; cx++) {
+			for (int cy=y1; cy<=y2; cy++) {
+				for (int cz=z1; cz<=z2; cz++) {
+					int cell = getCell(cx, cy, cz);
+					for (int p=3*mCellStart[cell]; p<3*mCellStart[cell+1]; p+=3) {
+						double dx = x - mPoint[p];
+						double dy = y - mPoint[p+1];
+						double dz = z - mPoint[p+2];
+						double squareDistance = dx*dx+dy*dy+dz*dz;
+						if (squareDistance < squareMaxDistance && squareDistance < nearest)
+							nearest = squareDistance;
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return whether any reference point is closer than maxDistance
+	 */
+	public boolean hasNeighbour(double x, double y, double z, double maxDistance) {
+		return getSquareDistanceToNearest(x, y, z, maxDistance) != Double.MAX_VALUE;
+	}
+
+	private static int cellCount(double range, double cellSize) {
+		return 1 + (int)(range / cellSize);
+	}
+
+	private int cellIndex(double v, double min) {
+		// clamp before the int conversion to avoid overflows for far away query points
+		double d = Math.floor((v - min) / mCellSize);
+		return d < -1 ? -1 : d > Integer.MAX_VALUE - 1 ? Integer.MAX_VALUE - 1 : (int)d;
+	}
+
+	private int getCell(int cx, int cy, int cz) {
+		return (cx * mCellsY + cy) * mCellsZ + cz;
+	}
+}
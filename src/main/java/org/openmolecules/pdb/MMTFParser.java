@@ -28,7 +28,6 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.TreeMap;
 
 @Deprecated     // MMTF is not supported anymore by the PDB database from July 2nd, 2024 (a pity, because for us,
 				// it is much more useful than its more bulky replacement binaryCIF, because it included bonds!
@@ -38,7 +37,7 @@ public class MMTFParser {
 	public static final int MODE_SPLIT_CHAINS = 2;
 
 	private static final int[] BOND_TYPE = { 0, 1, 2, 4, 4 };   // quadruple bond is not supported and generates a triple bond
-	private static TreeMap<String,Integer> sAtomicNoMap;
+	private static final int[] ATOMIC_NO_TABLE = createAtomicNoTable();
 
 	public static File saveMMTF(String name, String filepath) {
 		File file = new File(filepath);
@@ -76,162 +75,115 @@ public class MMTFParser {
 		}
 	}
 
+	/**
+	 * Decodes the flat MMTF arrays column by column. Atom and bond counts of all target molecules
+	 * are determined first, such that every molecule is allocated once with its final size.
+	 * Element symbols, charges and bonds are resolved once per group type rather than once per atom.
+	 */
 	private static Molecule3D[] getStructure(MmtfStructure mmtfData, String name, int mode) {
 		// Decode message pack byte array as flat arrays holding the structural data
 		StructureDataInterface sdi = new GenericDecoder(mmtfData);
 
 		int[] modelChainCount = sdi.getChainsPerModel();
+		int[] groupsPerChain = sdi.getGroupsPerChain();
+		int[] groupTypeIndex = sdi.getGroupTypeIndices();
+		String[] chainName = sdi.getChainNames();
+
+		int groupTypeCount = 0;
+		for (int groupType:groupTypeIndex)
+			groupTypeCount = Math.max(groupTypeCount, groupType+1);
+		GroupType[] groupTypes = new GroupType[groupTypeCount];
+		for (int groupType:groupTypeIndex)
+			if (groupTypes[groupType] == null)
+				groupTypes[groupType] = new GroupType(sdi, groupType);
+
+		int chainCount = 0;
+		for (int count:modelChainCount)
+			chainCount += count;
+
+		int moleculeCount = (mode == MODE_SPLIT_MODELS) ? modelChainCount.length
+						  : (mode == MODE_SPLIT_CHAINS) ? chainCount : 1;
+
+		// first pass: target molecule of every chain and final atom and bond counts of all molecules
+		int[] chainMol = new int[chainCount];
+		int[] molAtomCount = new int[moleculeCount];
+		int[] molBondCount = new int[moleculeCount];
+		String[] molName = new String[moleculeCount];
+		int chainIndex = 0;
+		int groupIndex = 0;
+		for (int model=0; model<modelChainCount.length; model++) {
+			String modelName = name+(sdi.getNumModels() == 1 ? "" : " " + Integer.toString(model));
+			if (mode == MODE_SPLIT_MODELS)
+				molName[model] = modelName;
 
-		int moleculeCount = 0;
-		if (mode == MODE_DONT_SPLIT) {
-			moleculeCount = 1;
-		}
-		else if (mode == MODE_SPLIT_MODELS) {
-			moleculeCount = modelChainCount.length;
-		}
-		else if (mode == MODE_SPLIT_CHAINS) {
-			for (int chainCount:modelChainCount)
-				moleculeCount += chainCount;
+			for (int chain=0; chain<modelChainCount[model]; chain++) {
+				int destMol = (mode == MODE_SPLIT_MODELS) ? model : (mode == MODE_SPLIT_CHAINS) ? chainIndex : 0;
+				if (mode == MODE_SPLIT_CHAINS)
+					molName[destMol] = modelName + " " + chainName[chainIndex];
+				chainMol[chainIndex] = destMol;
+				for (int group=0; group<groupsPerChain[chainIndex]; group++) {
+					GroupType groupType = groupTypes[groupTypeIndex[groupIndex++]];
+					molAtomCount[destMol] += groupType.atomicNo.length;
+					molBondCount[destMol] += groupType.bondType.length;
+				}
+				chainIndex++;
+			}
 		}
 
-//		int atoms = sdi.getNumAtoms();
-//		int bonds = sdi.getNumBonds();
+		int[] interGroupBondIndex = sdi.getInterGroupBondIndices();
+		int[] interGroupBondOrder = sdi.getInterGroupBondOrders();
 
-		Molecule3D[] molecule = new Molecule3D[moleculeCount];
 		int[] molAtomOffset = new int[moleculeCount];
+		for (int m=1; m<moleculeCount; m++)
+			molAtomOffset[m] = molAtomOffset[m-1] + molAtomCount[m-1];
+
+		// inter-group bonds are added to the molecule of their first atom
+		int[] interGroupBondMol = new int[interGroupBondOrder.length];
+		int destMol = 0;
+		for (int i=0; i<interGroupBondOrder.length; i++) {
+			int atom1 = interGroupBondIndex[i*2];
+			while (destMol<molAtomOffset.length-1 && molAtomOffset[destMol+1] <= atom1)
+				destMol++;
+			interGroupBondMol[i] = destMol;
+			molBondCount[destMol]++;
+		}
 
-		int destMol = -1;
-		int destAtom = 0;
-
-		int sourceAtom = 0;
-
-		int chainIndex = 0;
-		int groupIndex = 0;
-
-		// traverse models
+		Molecule3D[] molecule = new Molecule3D[moleculeCount];
+		for (int m=0; m<moleculeCount; m++) {
+			molecule[m] = new Molecule3D(molAtomCount[m], molBondCount[m]);
+			molecule[m].setName(molName[m]);
+		}
 
+		// second pass: fill atoms from the flat coordinate arrays and add intra-group bonds
 		float[] x = sdi.getxCoords();
 		float[] y = sdi.getyCoords();
 		float[] z = sdi.getzCoords();
 
-		for (int model=0; model<modelChainCount.length; model++) {
-			String modelName = name+(sdi.getNumModels() == 1 ? "" : " " + Integer.toString(model));
-
-			if (mode == MODE_SPLIT_MODELS) {
-				destMol++;
-				destAtom = 0;
-
-				int atomCount = 0;
-				int bondCount = 0;
-				int localChainIndex = chainIndex;
-				int localGroupIndex = groupIndex;
-				for (int chain=0; chain<modelChainCount[model]; chain++) {
-					int groupCount = sdi.getGroupsPerChain()[localChainIndex];
-					for (int group=0; group<groupCount; group++) {
-						int groupType = sdi.getGroupTypeIndices()[localGroupIndex];
-						atomCount += sdi.getNumAtomsInGroup(groupType);
-						bondCount += sdi.getGroupBondOrders(groupType).length;
-						localGroupIndex++;
-					}
-					localChainIndex++;
+		int sourceAtom = 0;
+		groupIndex = 0;
+		for (chainIndex=0; chainIndex<chainCount; chainIndex++) {
+			Molecule3D mol = molecule[chainMol[chainIndex]];
+			for (int group=0; group<groupsPerChain[chainIndex]; group++) {
+				GroupType groupType = groupTypes[groupTypeIndex[groupIndex++]];
+				int groupAtomOffset = mol.getAllAtoms();
+				for (int i=0; i<groupType.atomicNo.length; i++) {
+					int destAtom = mol.addAtom(x[sourceAtom], y[sourceAtom], z[sourceAtom]);
+					mol.setAtomicNo(destAtom, groupType.atomicNo[i]);
+					mol.setAtomCharge(destAtom, groupType.charge[i]);
+					mol.setAtomMarker(destAtom, groupType.isLigand);
+					sourceAtom++;
 				}
 
-				molecule[destMol] = new Molecule3D(atomCount, bondCount);
-				molecule[destMol].setName(modelName);
-				molAtomOffset[destMol] = sourceAtom;
-			}
-
-			for (int chain=0; chain<modelChainCount[model]; chain++) {
-				int groupCount = sdi.getGroupsPerChain()[ chainIndex ];
-
-				if (mode == MODE_SPLIT_CHAINS) {
-					destMol++;
-					destAtom = 0;
-
-					int atomCount = 0;
-					int bondCount = 0;
-					int localGroupIndex = groupIndex;
-					for (int group=0; group<groupCount; group++) {
-						int groupType = sdi.getGroupTypeIndices()[localGroupIndex];
-						atomCount += sdi.getNumAtomsInGroup(groupType);
-						bondCount += sdi.getGroupBondOrders(groupType).length;
-						localGroupIndex++;
-					}
-
-					molecule[destMol] = new Molecule3D(atomCount, bondCount);
-					molecule[destMol].setName(modelName + " " + sdi.getChainNames()[chainIndex]);
-					molAtomOffset[destMol] = sourceAtom;
-				}
-
-/*				System.out.println("  Chain:"+chainIndex);
-				System.out.println(sdi.getChainIds()[chainIndex]);
-				System.out.println(sdi.getChainNames()[chainIndex]);
-*/
-				// traverse groups
-				for (int group=0; group<groupCount; group++) {
-					int groupType = sdi.getGroupTypeIndices()[ groupIndex ];
-
-					boolean isLigand = "NON-POLYMER".equals(sdi.getGroupChemCompType(groupType));
-
-/*					if (!set.contains(gt)) {
-						set.add(gt);
-						System.out.println(gt);
-						System.out.println("  Group:" + g);
-						System.out.println(sdi.getGroupIds()[g]);
-						System.out.println(sdi.getInsCodes()[g]);
-						System.out.println(sdi.getSecStructList()[g]);
-						System.out.println(sdi.getGroupSequenceIndices()[g]);
-						System.out.println(sdi.getGroupTypeIndices()[g]);
-						System.out.println(sdi.getGroupName(groupType));
-						System.out.println(sdi.getGroupSingleLetterCode(groupType));
-						System.out.println(sdi.getGroupChemCompType(groupType));
-						}*/
-
-					int atomOffset = destAtom;
-
-					int atomCount = sdi.getNumAtomsInGroup(groupType);
-
-					for (int i=0; i<atomCount; i++) {
-						molecule[destMol].addAtom(x[sourceAtom], y[sourceAtom], z[sourceAtom]);
-//  		            System.out.println(sdi.getbFactors()[sourceAtom]);
-//	                	System.out.println(sdi.getAtomIds()[sourceAtom]);
-//		                System.out.println(sdi.getAltLocIds()[sourceAtom]);
-//		                System.out.println(sdi.getOccupancies()[sourceAtom]);
-						molecule[destMol].setAtomCharge(destAtom, sdi.getGroupAtomCharges(groupType)[i]);
-						molecule[destMol].setAtomicNo(destAtom, getAtomicNoFromLabel(sdi.getGroupElementNames(groupType)[i]));
-						molecule[destMol].setAtomMarker(destAtom, isLigand);
-//						System.out.println(sdi.getGroupAtomNames(groupType)[i]);    // k+1?
-						sourceAtom++;
-						destAtom++;
-					}
-
-					int[] gbi = sdi.getGroupBondIndices(groupType);
-					int[] gbo = sdi.getGroupBondOrders(groupType);
-					int bondCount = gbo.length;
-					for (int i=0; i<bondCount; i++) {
-						int atom1 = atomOffset + gbi[i*2];
-						int atom2 = atomOffset + gbi[i*2+1];
-						int order = BOND_TYPE[gbo[i]];
-						molecule[destMol].addBond(atom1, atom2, order);
-					}
-
-					groupIndex++;
-				}
-				chainIndex++;
+				for (int i=0; i<groupType.bondType.length; i++)
+					mol.addBond(groupAtomOffset + groupType.bondAtom[i*2], groupAtomOffset + groupType.bondAtom[i*2+1], groupType.bondType[i]);
 			}
 		}
 
 		// traverse inter-group bonds
-		destMol = 0;
-		int[] igbi = sdi.getInterGroupBondIndices();
-		int[] igbo = sdi.getInterGroupBondOrders();
-		for (int i=0; i<igbo.length; i++) {
-			int atom1 = igbi[i*2];
-			int atom2 = igbi[i*2+1];
-			while (destMol<molAtomOffset.length-1 && molAtomOffset[destMol+1] <= atom1)
-				destMol++;
-			int order = BOND_TYPE[igbo[i]];
-			molecule[destMol].addBond(atom1-molAtomOffset[destMol], atom2-molAtomOffset[destMol], order);
+		for (int i=0; i<interGroupBondOrder.length; i++) {
+			int m = interGroupBondMol[i];
+			int order = BOND_TYPE[interGroupBondOrder[i]];
+			molecule[m].addBond(interGroupBondIndex[i*2]-molAtomOffset[m], interGroupBondIndex[i*2+1]-molAtomOffset[m], order);
 		}
 
 		for (StereoMolecule mol:molecule)
@@ -243,6 +195,31 @@ public class MMTFParser {
 		return molecule;
 	}
 
+	/**
+	 * Atom and bond properties shared by all groups of the same type, e.g. all alanine residues.
+	 */
+	private static class GroupType {
+		final int[] atomicNo;
+		final int[] charge;
+		final int[] bondAtom;
+		final int[] bondType;
+		final boolean isLigand;
+
+		GroupType(StructureDataInterface sdi, int groupType) {
+			String[] elementName = sdi.getGroupElementNames(groupType);
+			atomicNo = new int[elementName.length];
+			for (int i=0; i<elementName.length; i++)
+				atomicNo[i] = getAtomicNoFromLabel(elementName[i]);
+			charge = sdi.getGroupAtomCharges(groupType);
+			bondAtom = sdi.getGroupBondIndices(groupType);
+			int[] bondOrder = sdi.getGroupBondOrders(groupType);
+			bondType = new int[bondOrder.length];
+			for (int i=0; i<bondOrder.length; i++)
+				bondType[i] = BOND_TYPE[bondOrder[i]];
+			isLigand = "NON-POLYMER".equals(sdi.getGroupChemCompType(groupType));
+		}
+	}
+
 	private static void addMissingCharges(StereoMolecule mol) {
 		mol.ensureHelperArrays(Molecule.cHelperNeighbours);
 		for (int atom=0; atom<mol.getAtoms(); atom++)
@@ -266,12 +243,35 @@ public class MMTFParser {
 				mol.getAtomCoordinates(atom).sub(cog);
 	}
 
+	/**
+	 * @param label element symbol, which is matched case-insensitively, e.g. 'Fe' or 'FE'
+	 * @return atomic number or 0, if the symbol is unknown
+	 */
 	private static int getAtomicNoFromLabel(String label) {
-		if (sAtomicNoMap == null) {
-			sAtomicNoMap = new TreeMap<>();
-			for (int i=1; i<104; i++)
-				sAtomicNoMap.put(Molecule.cAtomLabel[i], i);
+		int key = getLabelKey(label);
+		return key == -1 ? 0 : ATOMIC_NO_TABLE[key];
+	}
+
+	private static int[] createAtomicNoTable() {
+		int[] table = new int[26*27];
+		for (int i=1; i<104; i++) {
+			int key = getLabelKey(Molecule.cAtomLabel[i]);
+			if (key != -1)
+				table[key] = i;
 		}
-		return sAtomicNoMap.get(label);
+		return table;
+	}
+
+	/**
+	 * @return index into ATOMIC_NO_TABLE of a one or two letter element symbol; -1 if it is no element symbol
+	 */
+	private static int getLabelKey(String label) {
+		if (label == null || label.isEmpty() || label.length() > 2)
+			return -1;
+		int c1 = Character.toUpperCase(label.charAt(0)) - 'A';
+		int c2 = label.length() == 1 ? 0 : Character.toUpperCase(label.charAt(1)) - 'A' + 1;
+		if (c1 < 0 || c1 >= 26 || c2 < 0 || c2 > 26)
+			return -1;
+		return c1*27 + c2;
 	}
 }
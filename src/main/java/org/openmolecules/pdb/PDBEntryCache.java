@@ -0,0 +1,371 @@
+/*
+ * Copyright 2017 Thomas Sander, Therwilerstrasse 41, CH-4153 Reinach, Switzerland
+ *
+ * This file is part of openmolecules.org's 3D-Molecule-Viewer.
+ *
+ * 3D-Molecule-Viewer is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * 3D-Molecule-Viewer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with 3D-Molecule-Viewer.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package org.openmolecules.pdb;
+
+import com.actelion.research.chem.Molecule3D;
+import com.actelion.research.chem.io.pdb.mmcif.MMCIFParser;
+import com.actelion.research.chem.io.pdb.parser.PDBFileEntry;
+import com.actelion.research.chem.io.pdb.parser.PDBFileParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Local binary cache of the molecules extracted from PDB entries and from PDB or mmCIF files.
+ * Parsing an mmCIF file and assembling its structures, i.e. deriving bonds and splitting ligands,
+ * takes seconds for large entries. The result is written once into a compact columnar file,
+ * which on later requests is read from a memory-mapped buffer without any text parsing.
+ * Entries downloaded from the PDB database are thus available offline.<br>
+ * A cache file contains a header identifying the source, followed by the molecule groups
+ * (protein, ligand, solvent, ...) with their molecules. For every molecule atom properties are stored
+ * as columns: coordinates as floats, atomic numbers, charges, masses, residue numbers and string
+ * columns (atom names, residue names, chain IDs) as indexes into a per-molecule string table.
+ * Bonds are stored as columns of first atom, second atom and bond type.<br>
+ * Files are invalidated when their length or modification date changes. Entries from the PDB
+ * database may be revised and are downloaded again, when their cache file is older than a maximum
+ * age, 28 days unless defined in days by the system property 'fxmolviewer.pdb.cache.maxage'.
+ * If the download fails, e.g. when offline, the outdated cache file is used.<br>
+ * The cache directory is ~/.fxmolviewer/pdb unless defined by the system property 'fxmolviewer.pdb.cache'.
+ * Its size is limited to 1 GB unless defined in bytes by the system property 'fxmolviewer.pdb.cache.maxsize'.
+ * When a new cache file exceeds the limit, the least recently used cache files are deleted.
+ */
+public class PDBEntryCache {
+	public static final String DIRECTORY_PROPERTY = "fxmolviewer.pdb.cache";
+	public static final String MAX_SIZE_PROPERTY = "fxmolviewer.pdb.cache.maxsize";
+	public static final String MAX_AGE_PROPERTY = "fxmolviewer.pdb.cache.maxage";
+	private static final long DEFAULT_MAX_SIZE = 1L << 30;
+	private static final long DEFAULT_MAX_AGE_DAYS = 28;
+	private static final String EXTENSION = ".pdbc";
+	private static final int MAGIC = 0x50444243;	// "PDBC"
+	private static final int VERSION = 1;
+
+	private static final int FLAG_COVALENT_LIGAND = 1;
+
+	/**
+	 * Downloads the entry from the PDB database unless it is cached.
+	 * @param pdbCode
+	 * @param detachCovalentLigands passed to PDBFileEntry.extractMols()
+	 * @return molecules by group, e.g. StructureAssembler.PROTEIN_GROUP; null if the entry couldn't be retrieved
+	 */
+	public static Map<String,List<Molecule3D>> extractMols(String pdbCode, boolean detachCovalentLigands) throws Exception {
+		String source = "pdb:" + pdbCode.toUpperCase();
+		File cacheFile = getCacheFile(pdbCode.toUpperCase(), detachCovalentLigands);
+		long now = System.currentTimeMillis();
+		long maxAge = Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE_DAYS) * 24 * 3600 * 1000;
+		// instead of a modification date the header of PDB entries contains the download time
+		Map<String,List<Molecule3D>> map = read(cacheFile, source, 0L, now - maxAge, Long.MAX_VALUE);
+		if (map != null)
+			return map;
+
+		PDBFileEntry entry;
+		try {
+			entry = MMCIFParser.getFromPDB(pdbCode);
+		}
+		catch (Exception e) {
+			map = read(cacheFile, source, 0L, Long.MIN_VALUE, Long.MAX_VALUE);
+			if (map != null)
+				return map;
+			throw e;
+		}
+		if (entry == null)
+			return read(cacheFile, source, 0L, Long.MIN_VALUE, Long.MAX_VALUE);
+
+		map = entry.extractMols(detachCovalentLigands);
+		write(cacheFile, source, 0L, now, map);
+		return map;
+	}
+
+	/**
+	 * Parses a PDB or mmCIF file unless an up-to-date cache file exists.
+	 * @param file file with extension '.pdb' or mmCIF file
+	 * @param detachCovalentLigands passed to PDBFileEntry.extractMols()
+	 * @return molecules by group, e.g. StructureAssembler.PROTEIN_GROUP
+	 */
+	public static Map<String,List<Molecule3D>> extractMols(File file, boolean detachCovalentLigands) throws IOException, ParseException {
+		String source = "file:" + file.getCanonicalPath();
+		File cacheFile = getCacheFile(file.getName() + "_" + Integer.toHexString(source.hashCode()), detachCovalentLigands);
+		long length = file.length();
+		long modified = file.lastModified();
+		Map<String,List<Molecule3D>> map = read(cacheFile, source, length, modified, modified);
+		if (map != null)
+			return map;
+
+		PDBFileEntry entry = file.getName().toLowerCase().endsWith(".pdb") ?
+				new PDBFileParser().parse(file) : MMCIFParser.parse(file);
+		map = entry.extractMols(detachCovalentLigands);
+		write(cacheFile, source, length, modified, map);
+		return map;
+	}
+
+	private static File getCacheFile(String name, boolean detachCovalentLigands) {
+		String dir = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("user.home") + File.separator + ".fxmolviewer" + File.separator + "pdb");
+		return new File(dir, name + (detachCovalentLigands ? "_d" : "") + EXTENSION);
+	}
+
+	/**
+	 * Reads a cache file and marks it as recently used.
+	 * @param length length of the source file
+	 * @param minModified minimum modification date of the source file stored in the cache file
+	 * @param maxModified maximum modification date of the source file stored in the cache file
+	 * @return cached molecules or null, if there is no valid cache file for the source
+	 */
+	private static Map<String,List<Molecule3D>> read(File cacheFile, String source, long length, long minModified, long maxModified) {
+		if (!cacheFile.exists())
+			return null;
+
+		try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+			ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.remaining() < 24
+			 || buffer.getInt() != MAGIC
+			 || buffer.getInt() != VERSION
+			 || buffer.getLong() != length)
+				return null;
+			long modified = buffer.getLong();
+			if (modified < minModified
+			 || modified > maxModified
+			 || !source.equals(readString(buffer)))
+				return null;
+
+			Map<String,List<Molecule3D>> map = new TreeMap<>();
+			int groupCount = buffer.getInt();
+			for (int g=0; g<groupCount; g++) {
+				String group = readString(buffer);
+				int molCount = buffer.getInt();
+				List<Molecule3D> molList = new ArrayList<>(molCount);
+				for (int m=0; m<molCount; m++)
+					molList.add(readMolecule(buffer));
+				map.put(group, molList);
+			}
+			cacheFile.setLastModified(System.currentTimeMillis());
+			return map;
+		}
+		catch (IOException | RuntimeException e) {
+			// unreadable or truncated cache files are rewritten
+			return null;
+		}
+	}
+
+	private static Molecule3D readMolecule(ByteBuffer buffer) {
+		String name = readString(buffer);
+		int flags = buffer.getInt();
+		int atoms = buffer.getInt();
+		int bonds = buffer.getInt();
+
+		float[] x = readFloats(buffer, atoms);
+		float[] y = readFloats(buffer, atoms);
+		float[] z = readFloats(buffer, atoms);
+		short[] atomicNo = readShorts(buffer, atoms);
+		byte[] charge = new byte[atoms];
+		buffer.get(charge);
+		short[] mass = readShorts(buffer, atoms);
+		int[] resSequence = readInts(buffer, atoms);
+
+		String[] stringTable = new String[buffer.getInt()];
+		for (int i=0; i<stringTable.length; i++)
+			stringTable[i] = readString(buffer);
+		int[] atomName = readInts(buffer, atoms);
+		int[] amino = readInts(buffer, atoms);
+		int[] chainId = readInts(buffer, atoms);
+
+		int[] bondAtom1 = readInts(buffer, bonds);
+		int[] bondAtom2 = readInts(buffer, bonds);
+		short[] bondType = readShorts(buffer, bonds);
+
+		Molecule3D mol = new Molecule3D(atoms, bonds);
+		mol.setName(name);
+		mol.setCovalentLigand((flags & FLAG_COVALENT_LIGAND) != 0);
+		for (int atom=0; atom<atoms; atom++) {
+			mol.addAtom(x[atom], y[atom], z[atom]);
+			mol.setAtomicNo(atom, atomicNo[atom]);
+			mol.setAtomCharge(atom, charge[atom]);
+			mol.setAtomMass(atom, mass[atom]);
+			mol.setResSequence(atom, resSequence[atom]);
+			mol.setAtomName(atom, stringTable[atomName[atom]]);
+			mol.setAtomAmino(atom, stringTable[amino[atom]]);
+			mol.setAtomChainId(atom, stringTable[chainId[atom]]);
+		}
+		for (int bond=0; bond<bonds; bond++)
+			mol.addBond(bondAtom1[bond], bondAtom2[bond], bondType[bond]);
+
+		return mol;
+	}
+
+	/**
+	 * Writes into a temporary file first, which is renamed when complete, such that concurrent
+	 * readers never see partially written cache files. Failures are ignored, because the cache is optional.
+	 */
+	private static void write(File cacheFile, String source, long length, long modified, Map<String,List<Molecule3D>> map) {
+		File tempFile = null;
+		try {
+			cacheFile.getParentFile().mkdirs();
+			tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(length);
+				out.writeLong(modified);
+				writeString(out, source);
+				out.writeInt(map.size());
+				for (Map.Entry<String,List<Molecule3D>> entry : map.entrySet()) {
+					writeString(out, entry.getKey());
+					out.writeInt(entry.getValue().size());
+					for (Molecule3D mol : entry.getValue())
+						writeMolecule(out, mol);
+				}
+			}
+			Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			evict(cacheFile);
+		}
+		catch (IOException | RuntimeException e) {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used cache files until the cache directory doesn't exceed its size limit.
+	 * The modification date of cache files is updated whenever they are read.
+	 * @param newFile just written cache file, which is kept
+	 */
+	private static void evict(File newFile) {
+		File[] files = newFile.getParentFile().listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if (files == null)
+			return;
+
+		long maxSize = Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+		long size = 0;
+		for (File file : files)
+			size += file.length();
+		if (size <= maxSize)
+			return;
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (size <= maxSize)
+				break;
+			long length = file.length();
+			// files still mapped by a reader can't be deleted on all platforms
+			if (!file.equals(newFile) && file.delete())
+				size -= length;
+		}
+	}
+
+	private static void writeMolecule(DataOutputStream out, Molecule3D mol) throws IOException {
+		int atoms = mol.getAllAtoms();
+		int bonds = mol.getAllBonds();
+		writeString(out, mol.getName());
+		out.writeInt(mol.isCovalentLigand() ? FLAG_COVALENT_LIGAND : 0);
+		out.writeInt(atoms);
+		out.writeInt(bonds);
+
+		for (int atom=0; atom<atoms; atom++)
+			out.writeFloat((float)mol.getAtomX(atom));
+		for (int atom=0; atom<atoms; atom++)
+			out.writeFloat((float)mol.getAtomY(atom));
+		for (int atom=0; atom<atoms; atom++)
+			out.writeFloat((float)mol.getAtomZ(atom));
+		for (int atom=0; atom<atoms; atom++)
+			out.writeShort(mol.getAtomicNo(atom));
+		for (int atom=0; atom<atoms; atom++)
+			out.writeByte(mol.getAtomCharge(atom));
+		for (int atom=0; atom<atoms; atom++)
+			out.writeShort(mol.getAtomMass(atom));
+		for (int atom=0; atom<atoms; atom++)
+			out.writeInt(mol.getResSequence(atom));
+
+		Map<String,Integer> stringIndex = new LinkedHashMap<>();
+		int[] atomName = new int[atoms];
+		int[] amino = new int[atoms];
+		int[] chainId = new int[atoms];
+		for (int atom=0; atom<atoms; atom++) {
+			atomName[atom] = getStringIndex(stringIndex, mol.getAtomName(atom));
+			amino[atom] = getStringIndex(stringIndex, mol.getAtomAmino(atom));
+			chainId[atom] = getStringIndex(stringIndex, mol.getAtomChainId(atom));
+		}
+		out.writeInt(stringIndex.size());
+		for (String s : stringIndex.keySet())
+			writeString(out, s);
+		for (int i : atomName)
+			out.writeInt(i);
+		for (int i : amino)
+			out.writeInt(i);
+		for (int i : chainId)
+			out.writeInt(i);
+
+		for (int bond=0; bond<bonds; bond++)
+			out.writeInt(mol.getBondAtom(0, bond));
+		for (int bond=0; bond<bonds; bond++)
+			out.writeInt(mol.getBondAtom(1, bond));
+		for (int bond=0; bond<bonds; bond++)
+			out.writeShort(mol.getBondType(bond));
+	}
+
+	private static int getStringIndex(Map<String,Integer> stringIndex, String s) {
+		return stringIndex.computeIfAbsent(s, k -> stringIndex.size());
+	}
+
+	/**
+	 * Strings are stored as length and UTF-8 bytes; a length of -1 encodes null.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == -1)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static float[] readFloats(ByteBuffer buffer, int count) {
+		float[] values = new float[count];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + 4*count);
+		return values;
+	}
+
+	private static short[] readShorts(ByteBuffer buffer, int count) {
+		short[] values = new short[count];
+		buffer.asShortBuffer().get(values);
+		buffer.position(buffer.position() + 2*count);
+		return values;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4*count);
+		return values;
+	}
+}
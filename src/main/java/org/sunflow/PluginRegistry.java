@@ -2,6 +2,7 @@ package org.sunflow;
 
 import org.sunflow.core.*;
 import org.sunflow.core.accel.BoundingIntervalHierarchy;
+import org.sunflow.core.accel.BoundingVolumeHierarchy;
 import org.sunflow.core.accel.KDTree;
 import org.sunflow.core.accel.NullAccelerator;
 import org.sunflow.core.accel.UniformGrid;
@@ -155,6 +156,7 @@ public final class PluginRegistry {
     static {
         // accels
         accelPlugins.registerPlugin("bih", BoundingIntervalHierarchy.class);
+        accelPlugins.registerPlugin("bvh", BoundingVolumeHierarchy.class);
         accelPlugins.registerPlugin("kdtree", KDTree.class);
         accelPlugins.registerPlugin("null", NullAccelerator.class);
         accelPlugins.registerPlugin("uniformgrid", UniformGrid.class);
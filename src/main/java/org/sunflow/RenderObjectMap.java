@@ -100,6 +100,9 @@ final class RenderObjectMap {
         } else {
             UI.printDetailed(Module.API, "Updating %s object \"%s\"", obj.typeName(), name);
             success = obj.update(pl, api);
+            // incremental updates only pass the changed parameters, so
+            // every update is chained into the hash
+            obj.hash = 31 * obj.hash + pl.getHash();
             if (!success) {
                 UI.printError(Module.API, "Unable to update \"%s\" - removing", name);
                 remove(name);
@@ -120,7 +123,25 @@ final class RenderObjectMap {
         return success;
     }
 
+    /**
+     * Get a hash of the parameters given to all shaders, modifiers, geometry,
+     * instances and lights. Cameras and options are not included, so the value
+     * only changes when something view independent was modified.
+     * 
+     * @return hash of the view independent scene description
+     */
+    final long getSceneHash() {
+        long hash = 0;
+        for (FastHashMap.Entry<String, RenderObjectHandle> e : renderObjects) {
+            RenderObjectHandle obj = e.getValue();
+            if (obj.type != RenderObjectType.CAMERA && obj.type != RenderObjectType.OPTIONS)
+                hash += (31L * e.getKey().hashCode() + obj.obj.getClass().getName().hashCode()) * 0x9E3779B97F4A7C15L + obj.hash;
+        }
+        return hash;
+    }
+
     final void updateScene(Scene scene) {
+        scene.setSceneHash(getSceneHash());
         if (rebuildInstanceList) {
             UI.printInfo(Module.API, "Building scene instance list for rendering ...");
             int numInfinite = 0, numInstance = 0;
@@ -252,6 +273,7 @@ final class RenderObjectMap {
     private static final class RenderObjectHandle {
         private final RenderObject obj;
         private final RenderObjectType type;
+        private long hash;
 
         private RenderObjectHandle(Shader shader) {
             obj = shader;
@@ -473,6 +473,25 @@ public class SunflowAPI implements SunflowAPIInterface {
         return renderObjects.lookupLight(name);
     }
 
+    /**
+     * Register a listener which receives the render statistics while the
+     * scene is being rendered.
+     * 
+     * @param listener statistics listener
+     */
+    public final void addStatisticsListener(StatisticsListener listener) {
+        scene.addStatisticsListener(listener);
+    }
+
+    /**
+     * Unregister a statistics listener.
+     * 
+     * @param listener statistics listener
+     */
+    public final void removeStatisticsListener(StatisticsListener listener) {
+        scene.removeStatisticsListener(listener);
+    }
+
     public final void render(String optionsName, Display display) {
         renderObjects.updateScene(scene);
         Options opt = lookupOptions(optionsName);
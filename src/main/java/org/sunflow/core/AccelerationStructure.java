@@ -16,4 +16,14 @@ public interface AccelerationStructure {
      * @param istate state to store the intersection into
      */
     public void intersect(Ray r, IntersectionState istate);
+
+    /**
+     * Intersect the active rays of a packet with the geometry in local space.
+     * Structures which can't traverse the packet as a whole may use
+     * {@link RayPacket#intersectEach(AccelerationStructure, IntersectionState)}.
+     * 
+     * @param packet rays in local space
+     * @param istate intersection state used by primitives tested ray by ray
+     */
+    public void intersect(RayPacket packet, IntersectionState istate);
 }
\ No newline at end of file
@@ -11,7 +11,7 @@ class AccelerationStructureFactory {
                 if (n > 20000000)
                     name = "uniformgrid";
                 else if (n > 2000000)
-                    name = "bih";
+                    name = "bvh";
                 else if (n > 2)
                     name = "kdtree";
                 else
@@ -93,6 +93,14 @@ public class Geometry implements RenderObject {
         accel.intersect(r, state);
     }
 
+    void intersect(RayPacket packet, IntersectionState state) {
+        if (builtTess == 0)
+            tesselate();
+        if (builtAccel == 0)
+            build();
+        accel.intersect(packet, state);
+    }
+
     private synchronized void tesselate() {
         // double check flag
         if (builtTess != 0)
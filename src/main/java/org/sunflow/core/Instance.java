@@ -155,6 +155,13 @@ public class Instance implements RenderObject {
         r.setMax(localRay.getMax());
     }
 
+    void intersect(RayPacket packet, int mask, IntersectionState state) {
+        RayPacket localPacket = packet.transform(this, w2o, mask);
+        state.current = this;
+        geometry.intersect(localPacket, state);
+        packet.updateMax(localPacket, mask);
+    }
+
     /**
      * Prepare the shading state for shader invocation. This also runs the
      * currently attached surface modifier.
@@ -4,7 +4,7 @@ import org.sunflow.SunflowAPI;
 import org.sunflow.math.BoundingBox;
 import org.sunflow.math.Matrix4;
 
-final class InstanceList implements PrimitiveList {
+final class InstanceList implements PacketPrimitiveList {
     private Instance[] instances;
     private Instance[] lights;
 
@@ -49,6 +49,13 @@ final class InstanceList implements PrimitiveList {
             lights[primID - instances.length].intersect(r, state);
     }
 
+    public final void intersectPrimitive(RayPacket packet, int primID, int mask, IntersectionState state) {
+        if (primID < instances.length)
+            instances[primID].intersect(packet, mask, state);
+        else
+            lights[primID - instances.length].intersect(packet, mask, state);
+    }
+
     public final int getNumPrimitives() {
         return instances.length + lights.length;
     }
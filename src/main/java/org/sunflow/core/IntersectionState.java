@@ -19,6 +19,16 @@ public final class IntersectionState {
     long numGlossyRays;
     long numRefractionRays;
     long numRays;
+    long numIntersectionTests;
+    long numNodeVisits;
+    long numGICacheHits;
+    long numGICacheMisses;
+    // recycled light samples of this thread
+    LightSample freeLightSamples;
+    private RayPacket eyePacket;
+    private RayPacket shadowPacket;
+    // texel buffer of texture lookups of this thread
+    final float[] texel = new float[3];
 
     /**
      * Traversal stack node, helps with tree-based {@link AccelerationStructure}
@@ -50,6 +60,45 @@ public final class IntersectionState {
         return time;
     }
 
+    /**
+     * Counts primitive intersection tests made by an
+     * {@link AccelerationStructure}, for the render statistics.
+     * 
+     * @param n number of primitives tested
+     */
+    public final void countIntersectionTests(int n) {
+        numIntersectionTests += n;
+    }
+
+    /**
+     * Counts nodes visited by an {@link AccelerationStructure} during
+     * traversal, for the render statistics.
+     * 
+     * @param n number of rays which visited the node
+     */
+    public final void countNodeVisits(int n) {
+        numNodeVisits += n;
+    }
+
+    /**
+     * Get a ray packet of this thread, for tracing coherent rays together.
+     * Shadow rays get their own packet, as they are traced while the hits of
+     * a packet of eye rays are being shaded.
+     * 
+     * @param shadow <code>true</code> for the shadow ray packet
+     * @return ray packet
+     */
+    final RayPacket getPacket(boolean shadow) {
+        if (shadow) {
+            if (shadowPacket == null)
+                shadowPacket = new RayPacket();
+            return shadowPacket;
+        }
+        if (eyePacket == null)
+            eyePacket = new RayPacket();
+        return eyePacket;
+    }
+
     /**
      * Get stack object for tree based {@link AccelerationStructure}s.
      * 
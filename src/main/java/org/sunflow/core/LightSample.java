@@ -1,17 +1,21 @@
 package org.sunflow.core;
 
 import org.sunflow.image.Color;
+import org.sunflow.math.Point3;
 import org.sunflow.math.Vector3;
 
 /**
  * Represents a sample taken from a light source that faces a point being
- * shaded.
+ * shaded. Samples obtained from {@link ShadingState#createLightSample()} are
+ * recycled once the shading state has been shaded, together with their shadow
+ * ray and colors.
  */
 public class LightSample {
     private Ray shadowRay; // ray to be used to evaluate if the point is in
     // shadow
     private Color ldiff;
     private Color lspec;
+    private boolean ownsShadowRay; // shadow ray may be reinitialized
     LightSample next; // pointer to next item in a linked list of samples
 
     /**
@@ -35,6 +39,39 @@ public class LightSample {
      */
     public void setShadowRay(Ray shadowRay) {
         this.shadowRay = shadowRay;
+        ownsShadowRay = false;
+    }
+
+    /**
+     * Set the shadow ray to an infinite ray from the point being shaded in the
+     * given direction, reusing the sample's previous ray if possible.
+     * 
+     * @param p point being shaded
+     * @param dir direction towards the light
+     */
+    public void setShadowRay(Point3 p, Vector3 dir) {
+        if (ownsShadowRay)
+            shadowRay.set(p, dir);
+        else {
+            shadowRay = new Ray(p, dir);
+            ownsShadowRay = true;
+        }
+    }
+
+    /**
+     * Set the shadow ray to the segment from the point being shaded to a point
+     * on the light, reusing the sample's previous ray if possible.
+     * 
+     * @param p point being shaded
+     * @param lightPoint point on the light source
+     */
+    public void setShadowRay(Point3 p, Point3 lightPoint) {
+        if (ownsShadowRay)
+            shadowRay.set(p, lightPoint);
+        else {
+            shadowRay = new Ray(p, lightPoint);
+            ownsShadowRay = true;
+        }
     }
 
     /**
@@ -86,8 +123,8 @@ public class LightSample {
      * @param s specular radiance
      */
     public void setRadiance(Color d, Color s) {
-        ldiff = d.copy();
-        lspec = s.copy();
+        ldiff = ldiff == null ? d.copy() : ldiff.set(d);
+        lspec = lspec == null ? s.copy() : lspec.set(s);
     }
 
     /**
@@ -2,6 +2,7 @@ package org.sunflow.core;
 
 import org.sunflow.PluginRegistry;
 import org.sunflow.image.Color;
+import org.sunflow.math.AliasTable;
 import org.sunflow.math.Point3;
 import org.sunflow.math.QMC;
 import org.sunflow.math.Vector3;
@@ -54,6 +55,12 @@ class LightServer {
         return scene;
     }
 
+    int getShaderOverrideHash() {
+        if (shaderOverride == null)
+            return 0;
+        return 31 * shaderOverride.getClass().getName().hashCode() + (shaderOverridePhotons ? 1 : 2);
+    }
+
     void setShaderOverride(Shader shader, boolean photonOverride) {
         shaderOverride = shader;
         shaderOverridePhotons = photonOverride;
@@ -104,6 +111,11 @@ class LightServer {
         return true;
     }
 
+    void finish() {
+        if (giEngine instanceof PersistentGIEngine)
+            ((PersistentGIEngine) giEngine).saveCache();
+    }
+
     void showStats() {
     }
 
@@ -114,14 +126,15 @@ class LightServer {
             UI.printError(Module.LIGHT, "Unable to trace %s photons, no lights in scene", type);
             return false;
         }
-        final float[] histogram = new float[lights.length];
-        histogram[0] = lights[0].getPower();
-        for (int i = 1; i < lights.length; i++)
-            histogram[i] = histogram[i - 1] + lights[i].getPower();
+        float totalPower = 0;
+        final float[] power = new float[lights.length];
+        for (int i = 0; i < lights.length; i++)
+            totalPower += power[i] = lights[i].getPower();
+        final AliasTable lightTable = new AliasTable(power);
         UI.printInfo(Module.LIGHT, "Tracing %s photons ...", type);
         map.prepare(options, scene.getBounds());
         int numEmittedPhotons = map.numEmit();
-        if (numEmittedPhotons <= 0 || histogram[histogram.length - 1] <= 0) {
+        if (numEmittedPhotons <= 0 || totalPower <= 0) {
             UI.printError(Module.LIGHT, "Photon mapping enabled, but no %s photons to emit", type);
             return false;
         }
@@ -149,15 +162,11 @@ class LightServer {
 
                         int qmcI = i + seed;
 
-                        double rand = QMC.halton(0, qmcI) * histogram[histogram.length - 1];
-                        int j = 0;
-                        while (rand >= histogram[j] && j < histogram.length)
-                            j++;
-                        // make sure we didn't pick a zero-probability light
-                        if (j == histogram.length)
-                            continue;
+                        // pick a light proportional to its power
+                        double rand = QMC.halton(0, qmcI);
+                        int j = lightTable.sample(rand);
 
-                        double randX1 = (j == 0) ? rand / histogram[0] : (rand - histogram[j]) / (histogram[j] - histogram[j - 1]);
+                        double randX1 = lightTable.remap(rand);
                         double randY1 = QMC.halton(1, qmcI);
                         double randX2 = QMC.halton(2, qmcI);
                         double randY2 = QMC.halton(3, qmcI);
@@ -252,8 +261,16 @@ class LightServer {
         // set this value once - will stay constant for the entire ray-tree
         istate.time = time;
         scene.trace(r, istate);
+        return shadeRadiance(rx, ry, time, i, d, r, istate, cache);
+    }
+
+    /**
+     * Shades the intersection of a primary ray which has already been traced
+     * into <code>istate</code>.
+     */
+    ShadingState shadeRadiance(float rx, float ry, float time, int i, int d, Ray r, IntersectionState istate, ShadingCache cache) {
         if (istate.hit()) {
-            ShadingState state = ShadingState.createState(istate, rx, ry, time, r, i, d, this);
+            ShadingState state = ShadingState.createState(istate, rx, ry, time, r, i, d, this, scene.getPixelSpread());
             state.getInstance().prepareShadingState(state);
             Shader shader = getShader(state);
             if (shader == null) {
@@ -268,6 +285,7 @@ class LightServer {
                 }
             }
             state.setResult(shader.getRadiance(state));
+            state.releaseLightSamples();
             if (cache != null)
                 cache.add(state, shader, state.getResult());
 //          checkNanInf(state.getResult()); // in case of NaN or INF return BLACK instead; TLS 1-Mar-2016
@@ -301,7 +319,11 @@ class LightServer {
     Color shadeHit(ShadingState state) {
         state.getInstance().prepareShadingState(state);
         Shader shader = getShader(state);
-        return (shader != null) ? shader.getRadiance(state) : Color.BLACK;
+        if (shader == null)
+            return Color.BLACK;
+        Color c = shader.getRadiance(state);
+        state.releaseLightSamples();
+        return c;
     }
 
     Color traceGlossy(ShadingState previous, Ray r, int i) {
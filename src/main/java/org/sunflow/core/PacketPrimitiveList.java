@@ -0,0 +1,21 @@
+package org.sunflow.core;
+
+/**
+ * A {@link PrimitiveList} which can intersect a primitive with several rays at
+ * once. The primitive data only needs to be fetched once for the whole
+ * {@link RayPacket}.
+ */
+public interface PacketPrimitiveList extends PrimitiveList {
+    /**
+     * Intersect the specified primitive in local space with some rays of a
+     * packet. Hits are recorded with
+     * {@link RayPacket#setIntersection(int, int, float, float)}.
+     * 
+     * @param packet rays in the object's local space
+     * @param primID primitive index to intersect
+     * @param mask rays to test, bit <code>i</code> stands for ray
+     *            <code>i</code>
+     * @param state intersection state
+     */
+    public void intersectPrimitive(RayPacket packet, int primID, int mask, IntersectionState state);
+}
\ No newline at end of file
@@ -1,5 +1,6 @@
 package org.sunflow.core;
 
+import java.util.Arrays;
 import java.util.Locale;
 
 import org.sunflow.image.Color;
@@ -247,6 +248,21 @@ public class ParameterList {
         add(name, new Parameter(ParameterType.MATRIX, interp, data));
     }
 
+    /**
+     * Get a hash value of all parameters currently in the list. The value
+     * covers parameter names, types and the complete data, but it does not
+     * depend on the order in which the parameters were declared. Parameters
+     * are not marked as used by this call.
+     * 
+     * @return hash of the list content
+     */
+    public long getHash() {
+        long hash = 0;
+        for (FastHashMap.Entry<String, Parameter> e : list)
+            hash += (31L * e.getKey().hashCode() + e.getValue().hash()) * 0x9E3779B97F4A7C15L;
+        return hash;
+    }
+
     private void add(String name, Parameter param) {
         if (name == null)
             UI.printError(Module.API, "Cannot declare parameter with null name");
@@ -669,6 +685,22 @@ public class ParameterList {
             checked = true;
         }
 
+        private long hash() {
+            long hash = 31L * type.ordinal() + interp.ordinal();
+            switch (type) {
+                case STRING:
+                    return 31 * hash + Arrays.hashCode((String[]) obj);
+                case INT:
+                    return 31 * hash + Arrays.hashCode((int[]) obj);
+                case BOOL:
+                    return 31 * hash + obj.hashCode();
+                case COLOR:
+                    return 31 * hash + Arrays.hashCode(((Color) obj).getRGB());
+                default:
+                    return 31 * hash + Arrays.hashCode((float[]) obj);
+            }
+        }
+
         @Override
         public String toString() {
             return String.format("%s%s[%d]", interp == InterpolationType.NONE ? "" : interp.name().toLowerCase() + " ", type.name().toLowerCase(), size());
@@ -0,0 +1,14 @@
+package org.sunflow.core;
+
+/**
+ * A {@link GIEngine} that can keep its precomputed data on disk. Such engines
+ * are told when rendering has finished, so they can write out everything that
+ * was computed during the render for use by the next render of the same scene.
+ */
+public interface PersistentGIEngine extends GIEngine {
+    /**
+     * Write the cached data to disk, if this was requested by the options
+     * given to {@link #init(Options, Scene)}.
+     */
+    public void saveCache();
+}
\ No newline at end of file
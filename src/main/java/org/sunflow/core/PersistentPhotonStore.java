@@ -0,0 +1,32 @@
+package org.sunflow.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Describes a photon store whose balanced content can be written to disk and
+ * restored later, so that photons don't have to be traced again when the same
+ * scene is rendered a second time.
+ */
+public interface PersistentPhotonStore extends PhotonStore {
+    /**
+     * Write the photons of this map to the specified stream. This is called
+     * after {@link #init()} has completed.
+     * 
+     * @param out stream to write to
+     * @throws IOException if the data could not be written
+     */
+    void write(DataOutputStream out) throws IOException;
+
+    /**
+     * Restore the photons of this map from the specified buffer, which is
+     * positioned at the data written by {@link #write(DataOutputStream)}. No
+     * call to {@link #prepare(Options, org.sunflow.math.BoundingBox)} or
+     * {@link #init()} is made when a map is restored.
+     * 
+     * @param buffer buffer to read from
+     * @return <code>true</code> if the photons could be restored
+     */
+    boolean read(ByteBuffer buffer);
+}
\ No newline at end of file
@@ -94,6 +94,50 @@ public final class Ray {
         tMax = n - EPSILON;
     }
 
+    /**
+     * Reinitializes this ray like {@link #Ray(Point3, Vector3)} does.
+     * 
+     * @param o ray origin
+     * @param d ray direction (need not be normalized)
+     * @return this ray for convenience
+     */
+    public Ray set(Point3 o, Vector3 d) {
+        ox = o.x;
+        oy = o.y;
+        oz = o.z;
+        dx = d.x;
+        dy = d.y;
+        dz = d.z;
+        normalize();
+        tMin = EPSILON;
+        tMax = Float.POSITIVE_INFINITY;
+        return this;
+    }
+
+    /**
+     * Reinitializes this ray like {@link #Ray(Point3, Point3)} does.
+     * 
+     * @param a start point
+     * @param b end point
+     * @return this ray for convenience
+     */
+    public Ray set(Point3 a, Point3 b) {
+        ox = a.x;
+        oy = a.y;
+        oz = a.z;
+        dx = b.x - ox;
+        dy = b.y - oy;
+        dz = b.z - oz;
+        tMin = EPSILON;
+        float n = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        float in = 1.0f / n;
+        dx *= in;
+        dy *= in;
+        dz *= in;
+        tMax = n - EPSILON;
+        return this;
+    }
+
     /**
      * Create a new ray by transforming the supplied one by the given matrix. If
      * the matrix is <code>null</code>, the original ray is returned.
@@ -115,6 +159,36 @@ public final class Ray {
         return r;
     }
 
+    /**
+     * Transforms this ray by the given matrix and stores the result in
+     * <code>dest</code>, to avoid creating a new ray. If the matrix is
+     * <code>null</code>, the ray is copied unchanged.
+     * 
+     * @param m matrix to transform the ray by
+     * @param dest ray to store the result in
+     * @return reference to <code>dest</code>
+     */
+    public Ray transform(Matrix4 m, Ray dest) {
+        if (m == null) {
+            dest.ox = ox;
+            dest.oy = oy;
+            dest.oz = oz;
+            dest.dx = dx;
+            dest.dy = dy;
+            dest.dz = dz;
+        } else {
+            dest.ox = m.transformPX(ox, oy, oz);
+            dest.oy = m.transformPY(ox, oy, oz);
+            dest.oz = m.transformPZ(ox, oy, oz);
+            dest.dx = m.transformVX(dx, dy, dz);
+            dest.dy = m.transformVY(dx, dy, dz);
+            dest.dz = m.transformVZ(dx, dy, dz);
+        }
+        dest.tMin = tMin;
+        dest.tMax = tMax;
+        return dest;
+    }
+
     /**
      * Normalize the direction component of the ray.
      */
@@ -0,0 +1,433 @@
+package org.sunflow.core;
+
+import org.sunflow.math.MovingMatrix4;
+
+/**
+ * A small group of rays which are traced together. Coherent rays, like
+ * neighbouring primary rays or shadow rays leaving the same point in similar
+ * directions, visit mostly the same nodes of an {@link AccelerationStructure}.
+ * Traversing them as a packet loads every node and primitive once for all of
+ * them, and keeps the per ray work in tight loops over arrays. The origins and
+ * inverse directions are kept in struct-of-arrays form for this purpose.
+ * <p>
+ * Accelerators can only traverse a packet as a whole if all of its rays have
+ * the same direction signs, see {@link #getDirectionSigns()}. Otherwise they
+ * should fall back to {@link #intersectEach(AccelerationStructure, IntersectionState)}.
+ */
+public final class RayPacket {
+    /**
+     * Maximum number of rays in a packet.
+     */
+    public static final int SIZE = 8;
+    private static final int MAX_STACK_SIZE = 64;
+    private static boolean enabled = true;
+
+    public final float[] ox, oy, oz;
+    public final float[] invDx, invDy, invDz;
+    /**
+     * Per ray traversal interval, for use by {@link AccelerationStructure}s.
+     */
+    public final float[] near, far;
+    private final Ray[] rays;
+    private final float[] time;
+    private final Instance[] instance;
+    private final int[] id;
+    private final float[] u, v, w;
+    private final StackNode[] stack;
+    private int n;
+    private int mask;
+    private int signs;
+    private boolean shadow;
+    private Instance current;
+    private RayPacket local;
+
+    /**
+     * Traversal stack node, with an interval for each ray of the packet.
+     */
+    public static final class StackNode {
+        public int node;
+        public int mask;
+        public final float[] near = new float[SIZE];
+        public final float[] far = new float[SIZE];
+    }
+
+    RayPacket() {
+        ox = new float[SIZE];
+        oy = new float[SIZE];
+        oz = new float[SIZE];
+        invDx = new float[SIZE];
+        invDy = new float[SIZE];
+        invDz = new float[SIZE];
+        near = new float[SIZE];
+        far = new float[SIZE];
+        rays = new Ray[SIZE];
+        time = new float[SIZE];
+        instance = new Instance[SIZE];
+        id = new int[SIZE];
+        u = new float[SIZE];
+        v = new float[SIZE];
+        w = new float[SIZE];
+        stack = new StackNode[MAX_STACK_SIZE];
+        for (int i = 0; i < stack.length; i++)
+            stack[i] = new StackNode();
+    }
+
+    /**
+     * Creates a packet holding the rays of <code>parent</code> in the local
+     * space of an instance. Intersections are shared with the parent.
+     */
+    private RayPacket(RayPacket parent) {
+        ox = new float[SIZE];
+        oy = new float[SIZE];
+        oz = new float[SIZE];
+        invDx = new float[SIZE];
+        invDy = new float[SIZE];
+        invDz = new float[SIZE];
+        near = new float[SIZE];
+        far = new float[SIZE];
+        rays = new Ray[SIZE];
+        for (int i = 0; i < SIZE; i++)
+            rays[i] = new Ray(0, 0, 0, 0, 0, 1);
+        time = parent.time;
+        instance = parent.instance;
+        id = parent.id;
+        u = parent.u;
+        v = parent.v;
+        w = parent.w;
+        stack = new StackNode[MAX_STACK_SIZE];
+        for (int i = 0; i < stack.length; i++)
+            stack[i] = new StackNode();
+    }
+
+    /**
+     * Enables or disables tracing coherent rays in packets. This is enabled by
+     * default, disabling it traces every ray on its own.
+     *
+     * @param enabled <code>true</code> to trace rays in packets
+     */
+    public static void setEnabled(boolean enabled) {
+        RayPacket.enabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the octant a ray points into, as a combination of the sign bits of
+     * its direction. Rays from the same octant can be traced in one packet.
+     *
+     * @param r ray
+     * @return octant index between 0 and 7
+     */
+    static int getOctant(Ray r) {
+        return (Float.floatToRawIntBits(r.dx) >>> 31) | ((Float.floatToRawIntBits(r.dy) >>> 31) << 1) | ((Float.floatToRawIntBits(r.dz) >>> 31) << 2);
+    }
+
+    /**
+     * Empties the packet.
+     *
+     * @param shadow <code>true</code> if only the presence of a hit matters,
+     *            which lets rays stop at the first hit found
+     */
+    void clear(boolean shadow) {
+        n = 0;
+        this.shadow = shadow;
+    }
+
+    /**
+     * Adds a ray to the packet. The ray object is referenced, not copied, and
+     * receives the distance to the closest hit once the packet is traced.
+     *
+     * @param r ray to add
+     * @param t time of the ray
+     * @return index of the ray in the packet
+     */
+    int add(Ray r, float t) {
+        rays[n] = r;
+        time[n] = t;
+        return n++;
+    }
+
+    int size() {
+        return n;
+    }
+
+    boolean isFull() {
+        return n == SIZE;
+    }
+
+    /**
+     * Forgets previous intersections and prepares the packet for traversal in
+     * world space.
+     */
+    void reset() {
+        for (int i = 0; i < n; i++)
+            instance[i] = null;
+        current = null;
+        prepare((1 << n) - 1);
+    }
+
+    /**
+     * Updates the struct-of-arrays copy of the rays selected by the mask, and
+     * their common direction signs.
+     */
+    private void prepare(int mask) {
+        this.mask = mask;
+        signs = -1;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            Ray r = rays[i];
+            ox[i] = r.ox;
+            oy[i] = r.oy;
+            oz[i] = r.oz;
+            invDx[i] = 1 / r.dx;
+            invDy[i] = 1 / r.dy;
+            invDz[i] = 1 / r.dz;
+            int octant = getOctant(r);
+            if (signs == -1)
+                signs = octant;
+            else if (signs != octant)
+                signs = -2;
+        }
+        if (signs < 0)
+            signs = -1;
+    }
+
+    /**
+     * Get the packet holding these rays in the local space of an instance.
+     *
+     * @param inst instance to transform the rays into
+     * @param w2o world to object transformation
+     * @param mask rays to transform
+     * @return packet in instance space
+     */
+    RayPacket transform(Instance inst, MovingMatrix4 w2o, int mask) {
+        if (local == null)
+            local = new RayPacket(this);
+        local.n = n;
+        local.shadow = shadow;
+        local.current = inst;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            rays[i].transform(w2o.sample(time[i]), local.rays[i]);
+        }
+        local.prepare(mask);
+        return local;
+    }
+
+    /**
+     * Transfers the distances to the closest hits found in instance space back
+     * to the rays of this packet.
+     */
+    void updateMax(RayPacket local, int mask) {
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            rays[i].setMax(local.rays[i].getMax());
+        }
+    }
+
+    /**
+     * Checks to see if a ray has hit something.
+     *
+     * @param i ray index
+     * @return <code>true</code> if an intersection was recorded
+     */
+    boolean hit(int i) {
+        return instance[i] != null;
+    }
+
+    /**
+     * Copies the intersection of a ray into the given state, to shade it.
+     *
+     * @param i ray index
+     * @param state intersection state to fill in
+     */
+    void getIntersection(int i, IntersectionState state) {
+        state.time = time[i];
+        state.instance = instance[i];
+        state.id = id[i];
+        state.u = u[i];
+        state.v = v[i];
+        state.w = w[i];
+    }
+
+    /**
+     * Get the mask of the rays to be traversed: bit <code>i</code> is set if
+     * ray <code>i</code> takes part.
+     *
+     * @return mask of active rays
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    /**
+     * Get the direction sign bits shared by all active rays, bit 0 for x, bit 1
+     * for y and bit 2 for z. A set bit means negative.
+     *
+     * @return common direction signs, or -1 if the rays point into different
+     *         octants
+     */
+    public int getDirectionSigns() {
+        return signs;
+    }
+
+    /**
+     * Get one of the rays of the packet, in the space of the structure being
+     * traversed.
+     *
+     * @param i ray index
+     * @return ray object
+     */
+    public Ray getRay(int i) {
+        return rays[i];
+    }
+
+    /**
+     * Get the traversal stack of this packet.
+     *
+     * @return array of stack nodes
+     */
+    public StackNode[] getStack() {
+        return stack;
+    }
+
+    /**
+     * Clips the intervals of the active rays against a box and stores the
+     * result in {@link #near} and {@link #far}.
+     *
+     * @return mask of rays which cross the box
+     */
+    public int clip(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int hits = 0;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            Ray r = rays[i];
+            float intervalMin = r.getMin();
+            float intervalMax = r.getMax();
+            float t1, t2;
+            // comparisons are arranged such that NaNs from 0 * inf are ignored
+            t1 = (minX - ox[i]) * invDx[i];
+            t2 = (maxX - ox[i]) * invDx[i];
+            if (invDx[i] > 0) {
+                if (t1 > intervalMin)
+                    intervalMin = t1;
+                if (t2 < intervalMax)
+                    intervalMax = t2;
+            } else {
+                if (t2 > intervalMin)
+                    intervalMin = t2;
+                if (t1 < intervalMax)
+                    intervalMax = t1;
+            }
+            t1 = (minY - oy[i]) * invDy[i];
+            t2 = (maxY - oy[i]) * invDy[i];
+            if (invDy[i] > 0) {
+                if (t1 > intervalMin)
+                    intervalMin = t1;
+                if (t2 < intervalMax)
+                    intervalMax = t2;
+            } else {
+                if (t2 > intervalMin)
+                    intervalMin = t2;
+                if (t1 < intervalMax)
+                    intervalMax = t1;
+            }
+            t1 = (minZ - oz[i]) * invDz[i];
+            t2 = (maxZ - oz[i]) * invDz[i];
+            if (invDz[i] > 0) {
+                if (t1 > intervalMin)
+                    intervalMin = t1;
+                if (t2 < intervalMax)
+                    intervalMax = t2;
+            } else {
+                if (t2 > intervalMin)
+                    intervalMin = t2;
+                if (t1 < intervalMax)
+                    intervalMax = t1;
+            }
+            near[i] = intervalMin;
+            far[i] = intervalMax;
+            if (intervalMin <= intervalMax)
+                hits |= 1 << i;
+        }
+        return hits;
+    }
+
+    /**
+     * Intersects a primitive with some of the rays. Lists which implement
+     * {@link PacketPrimitiveList} test all rays at once, others are tested ray
+     * by ray.
+     *
+     * @param list primitive list
+     * @param primID primitive index to intersect
+     * @param mask rays to test
+     * @param state intersection state
+     */
+    public void intersectPrimitive(PrimitiveList list, int primID, int mask, IntersectionState state) {
+        if (list instanceof PacketPrimitiveList) {
+            ((PacketPrimitiveList) list).intersectPrimitive(this, primID, mask, state);
+            return;
+        }
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            state.time = time[i];
+            state.current = current;
+            state.instance = null;
+            list.intersectPrimitive(rays[i], primID, state);
+            if (state.instance != null)
+                setIntersection(i, state);
+        }
+    }
+
+    /**
+     * Intersects the active rays one by one with the given structure. This is
+     * the fallback for incoherent packets and for structures without a packet
+     * traversal.
+     *
+     * @param accel acceleration structure
+     * @param state intersection state
+     */
+    public void intersectEach(AccelerationStructure accel, IntersectionState state) {
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            state.time = time[i];
+            state.current = current;
+            state.instance = null;
+            accel.intersect(rays[i], state);
+            if (state.instance != null)
+                setIntersection(i, state);
+        }
+    }
+
+    private void setIntersection(int i, IntersectionState state) {
+        instance[i] = state.instance;
+        id[i] = state.id;
+        u[i] = state.u;
+        v[i] = state.v;
+        w[i] = state.w;
+        if (shadow)
+            rays[i].setMax(Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Record an intersection of a ray with the specified primitive of the
+     * instance being traversed. The distance should have been recorded with
+     * {@link Ray#setMax(float)} already.
+     *
+     * @param i ray index
+     * @param primID primitive id of the intersected object
+     * @param u u surface paramater of the intersection point
+     * @param v v surface parameter of the intersection point
+     */
+    public void setIntersection(int i, int primID, float u, float v) {
+        instance[i] = current;
+        id[i] = primID;
+        this.u[i] = u;
+        this.v[i] = v;
+        // a shadow ray is done once it hits anything
+        if (shadow)
+            rays[i].setMax(Float.NEGATIVE_INFINITY);
+    }
+}
\ No newline at end of file
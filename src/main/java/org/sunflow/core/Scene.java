@@ -32,10 +32,13 @@ public class Scene {
     private AccelerationStructure bakingAccel;
 
     private boolean rebuildAccel;
+    private long sceneHash;
 
     // image size
     private int imageWidth;
     private int imageHeight;
+    // angle between the camera rays of neighbouring pixels
+    private float pixelSpread;
 
     // global options
     private int threads;
@@ -108,6 +111,16 @@ public class Scene {
         rebuildAccel = true;
     }
 
+    /**
+     * Set the hash of all parameters that were used to define the geometry,
+     * instances, shaders, modifiers and lights of this scene.
+     * 
+     * @param hash hash of the view independent scene description
+     */
+    public void setSceneHash(long hash) {
+        sceneHash = hash;
+    }
+
     /**
      * Update the light list for this scene.
      * 
@@ -142,6 +155,36 @@ public class Scene {
         bakingInstance = instance;
     }
 
+    /**
+     * Estimates the angle between camera rays through neighbouring pixels at
+     * the image center. This is used to approximate the footprint of a pixel
+     * for texture filtering.
+     *
+     * @return spread angle in radians, or 0 if it can't be determined
+     */
+    private float computePixelSpread() {
+        if (camera == null || bakingInstance != null)
+            return 0;
+        float cx = 0.5f * imageWidth;
+        float cy = 0.5f * imageHeight;
+        Ray r0 = camera.getRay(cx, cy, imageWidth, imageHeight, 0.5, 0.5, 0);
+        Ray r1 = camera.getRay(cx + 1, cy, imageWidth, imageHeight, 0.5, 0.5, 0);
+        if (r0 == null || r1 == null)
+            return 0;
+        float cos = r0.dx * r1.dx + r0.dy * r1.dy + r0.dz * r1.dz;
+        return (float) Math.acos(MathUtils.clamp(cos, -1.0f, 1.0f));
+    }
+
+    /**
+     * Get the angle between camera rays through neighbouring pixels of the
+     * current render.
+     *
+     * @return spread angle in radians
+     */
+    float getPixelSpread() {
+        return pixelSpread;
+    }
+
     /**
      * Get the radiance seen through a particular pixel
      * 
@@ -185,6 +228,57 @@ public class Scene {
         }
     }
 
+    /**
+     * Get the radiance seen through several points of the image at once. The
+     * primary rays are traced together in packets of {@link RayPacket#SIZE}
+     * rays, so nearby points should be passed next to each other. Each entry
+     * of the arrays corresponds to one call of
+     * {@link #getRadiance(IntersectionState, float, float, double, double, double, int, int, ShadingCache)}.
+     * 
+     * @param istate intersection state for ray tracing
+     * @param n number of points to compute
+     * @param rx pixel x coordinates
+     * @param ry pixel y coordinates
+     * @param lensU DOF sampling variables
+     * @param lensV DOF sampling variables
+     * @param time motion blur sampling variables
+     * @param instance QMC instance seeds
+     * @param results receives a shading state for each point, or
+     *            <code>null</code> if nothing is seen through it
+     */
+    public void getRadiance(IntersectionState istate, int n, float[] rx, float[] ry, double[] lensU, double[] lensV, double[] time, int[] instance, int dim, ShadingCache cache, ShadingState[] results) {
+        if (bakingPrimitives != null || !RayPacket.isEnabled() || n == 1) {
+            for (int k = 0; k < n; k++)
+                results[k] = getRadiance(istate, rx[k], ry[k], lensU[k], lensV[k], time[k], instance[k], dim, cache);
+            return;
+        }
+        RayPacket packet = istate.getPacket(false);
+        for (int start = 0; start < n; start += RayPacket.SIZE) {
+            int end = Math.min(n, start + RayPacket.SIZE);
+            packet.clear(false);
+            int missed = 0;
+            for (int k = start; k < end; k++) {
+                istate.numEyeRays++;
+                float sceneTime = camera.getTime((float) time[k]);
+                Ray r = camera.getRay(rx[k], ry[k], imageWidth, imageHeight, lensU[k], lensV[k], sceneTime);
+                if (r != null)
+                    packet.add(r, sceneTime);
+                else
+                    missed |= 1 << (k - start);
+            }
+            trace(packet, istate);
+            for (int k = start, i = 0; k < end; k++) {
+                if ((missed & (1 << (k - start))) != 0) {
+                    results[k] = null;
+                    continue;
+                }
+                packet.getIntersection(i, istate);
+                results[k] = lightServer.shadeRadiance(rx[k], ry[k], istate.time, instance[k], dim, packet.getRay(i), istate, cache);
+                i++;
+            }
+        }
+    }
+
     /**
      * Get scene world space bounding box.
      * 
@@ -194,6 +288,30 @@ public class Scene {
         return instanceList.getWorldBounds(null);
     }
 
+    /**
+     * Get a hash value describing everything but the camera that influences
+     * the lighting of the scene. The value changes whenever geometry,
+     * instances, shaders, modifiers or lights are added, removed or given new
+     * parameters, e.g. when a light is moved or recolored or an instance gets
+     * a new transform or material. It is independent of camera and image
+     * resolution and is used to validate view independent data cached between
+     * renders.
+     *
+     * @return hash of the view independent scene description
+     */
+    public long getCacheKey() {
+        long key = 1125899906842597L;
+        key = 31 * key + sceneHash;
+        for (int i = 0; i < instanceList.getNumPrimitives(); i++) {
+            key = 31 * key + instanceList.getNumPrimitives(i);
+            for (int j = 0; j < 6; j++)
+                key = 31 * key + Float.floatToIntBits(instanceList.getPrimitiveBound(i, j));
+        }
+        key = 31 * key + lightServer.lights.length;
+        key = 31 * key + lightServer.getShaderOverrideHash();
+        return key;
+    }
+
     public void accumulateStats(IntersectionState state) {
         stats.accumulate(state);
     }
@@ -202,6 +320,42 @@ public class Scene {
         stats.accumulate(cache);
     }
 
+    /**
+     * Report the statistics of a finished bucket. This is called by the
+     * render threads after each bucket, so the statistics can be observed
+     * while rendering.
+     * 
+     * @param state intersection state of the render thread
+     * @param cache shading cache of the render thread, may be
+     *            <code>null</code>
+     * @param nanos time taken by the bucket in nanoseconds
+     */
+    public void accumulateBucketStats(IntersectionState state, ShadingCache cache, long nanos) {
+        stats.accumulate(state);
+        if (cache != null)
+            stats.accumulate(cache);
+        stats.accumulateBucket(nanos);
+        stats.update();
+    }
+
+    /**
+     * Register a listener for the render statistics of this scene.
+     * 
+     * @param listener listener to add
+     */
+    public void addStatisticsListener(StatisticsListener listener) {
+        stats.addListener(listener);
+    }
+
+    /**
+     * Unregister a listener for the render statistics of this scene.
+     * 
+     * @param listener listener to remove
+     */
+    public void removeStatisticsListener(StatisticsListener listener) {
+        stats.removeListener(listener);
+    }
+
     void trace(Ray r, IntersectionState state) {
         // stats
         state.numRays++;
@@ -215,6 +369,66 @@ public class Scene {
         intAccel.intersect(r, state);
     }
 
+    void trace(RayPacket packet, IntersectionState state) {
+        // stats
+        state.numRays += packet.size();
+        // reset objects
+        packet.reset();
+        int mask = packet.getMask();
+        for (int i = 0; i < infiniteInstanceList.getNumPrimitives(); i++)
+            packet.intersectPrimitive(infiniteInstanceList, i, mask, state);
+        intAccel.intersect(packet, state);
+    }
+
+    /**
+     * Traces a number of shadow rays which all start at the same point. The
+     * rays are grouped by direction and traced in packets.
+     * 
+     * @param rays shadow rays, their maximum distance is lost
+     * @param n number of rays
+     * @param state intersection state
+     * @return number of rays which hit something
+     */
+    int traceShadows(Ray[] rays, int n, IntersectionState state) {
+        if (!RayPacket.isEnabled()) {
+            int blocked = 0;
+            for (int i = 0; i < n; i++) {
+                traceShadow(rays[i], state);
+                if (state.hit())
+                    blocked++;
+            }
+            return blocked;
+        }
+        state.numShadowRays += n;
+        RayPacket packet = state.getPacket(true);
+        int blocked = 0;
+        // only rays pointing into the same octant share a traversal order
+        for (int octant = 0; octant < 8; octant++) {
+            packet.clear(true);
+            for (int i = 0; i < n; i++) {
+                if (RayPacket.getOctant(rays[i]) != octant)
+                    continue;
+                packet.add(rays[i], state.time);
+                if (packet.isFull()) {
+                    blocked += traceShadows(packet, state);
+                    packet.clear(true);
+                }
+            }
+            if (packet.size() > 0)
+                blocked += traceShadows(packet, state);
+        }
+        return blocked;
+    }
+
+    private int traceShadows(RayPacket packet, IntersectionState state) {
+        trace(packet, state);
+        int blocked = 0;
+        for (int i = 0; i < packet.size(); i++)
+            if (packet.hit(i))
+                blocked++;
+        return blocked;
+    }
+
     Color traceShadow(Ray r, IntersectionState state) {
         state.numShadowRays++;
         trace(r, state);
@@ -344,9 +558,13 @@ public class Scene {
         // render
         UI.printInfo(Module.SCENE, "Rendering ...");
         stats.setResolution(imageWidth, imageHeight);
+        stats.init(options);
+        pixelSpread = computePixelSpread();
         sampler.prepare(options, this, imageWidth, imageHeight);
         sampler.render(display);
+        lightServer.finish();
         // show statistics
+        stats.finish();
         stats.displayStats();
         lightServer.showStats();
         // discard area lights
@@ -41,6 +41,15 @@ public final class ShadingState implements Iterable<LightSample> {
     private boolean includeSpecular;
     private LightSample lightSample;
     private PhotonStore map;
+    // ray cone approximating the ray differentials, for texture filtering
+    private float coneWidth, coneSpread;
+    private float uvScale;
+    // result of texture lookups of the shader, see getTextureColor()
+    private Color textureColor;
+
+    // additional cone spread of rays leaving glossy and diffuse surfaces
+    private static final float GLOSSY_SPREAD = 0.05f;
+    private static final float DIFFUSE_SPREAD = 0.25f;
 
     static ShadingState createPhotonState(Ray r, IntersectionState istate, int i, PhotonStore map, LightServer server) {
         ShadingState s = new ShadingState(null, istate, r, i, 4);
@@ -59,9 +68,16 @@ public final class ShadingState implements Iterable<LightSample> {
         return s;
     }
 
+    static ShadingState createState(IntersectionState istate, float rx, float ry, float time, Ray r, int i, int d, LightServer server, float pixelSpread) {
+        ShadingState s = createState(istate, rx, ry, time, r, i, d, server);
+        s.coneSpread = pixelSpread;
+        return s;
+    }
+
     static ShadingState createDiffuseBounceState(ShadingState previous, Ray r, int i) {
         ShadingState s = new ShadingState(previous, previous.istate, r, i, 2);
         s.diffuseDepth++;
+        s.coneSpread += DIFFUSE_SPREAD;
         return s;
     }
 
@@ -70,6 +86,7 @@ public final class ShadingState implements Iterable<LightSample> {
         s.includeLights = false;
         s.includeSpecular = false;
         s.reflectionDepth++;
+        s.coneSpread += GLOSSY_SPREAD;
         return s;
     }
 
@@ -88,6 +105,7 @@ public final class ShadingState implements Iterable<LightSample> {
     static ShadingState createFinalGatherState(ShadingState state, Ray r, int i) {
         ShadingState finalGatherState = new ShadingState(state, state.istate, r, i, 2);
         finalGatherState.diffuseDepth++;
+        finalGatherState.coneSpread += DIFFUSE_SPREAD;
         finalGatherState.includeLights = false;
         finalGatherState.includeSpecular = false;
         return finalGatherState;
@@ -120,6 +138,8 @@ public final class ShadingState implements Iterable<LightSample> {
             map = previous.map;
             rx = previous.rx;
             ry = previous.ry;
+            coneWidth = previous.getConeWidth();
+            coneSpread = previous.coneSpread;
             this.i += previous.i;
             this.d += previous.d;
         }
@@ -376,6 +396,38 @@ public final class ShadingState implements Iterable<LightSample> {
         lightSample = sample;
     }
 
+    /**
+     * Get an unused light sample, which is recycled from previously shaded
+     * points if possible. Light sources should prefer this to creating new
+     * samples.
+     * 
+     * @return a light sample to be filled and added with
+     *         {@link #addSample(LightSample)}
+     */
+    public final LightSample createLightSample() {
+        LightSample sample = istate.freeLightSamples;
+        if (sample == null)
+            return new LightSample();
+        istate.freeLightSamples = sample.next;
+        sample.next = null;
+        return sample;
+    }
+
+    /**
+     * Hand the light samples of this state back for reuse. This must only be
+     * called once shading of this state is complete.
+     */
+    final void releaseLightSamples() {
+        if (lightSample == null)
+            return;
+        LightSample last = lightSample;
+        while (last.next != null)
+            last = last.next;
+        last.next = istate.freeLightSamples;
+        istate.freeLightSamples = lightSample;
+        lightSample = null;
+    }
+
     /**
      * Get a QMC sample from an infinite sequence.
      * 
@@ -535,6 +587,63 @@ public final class ShadingState implements Iterable<LightSample> {
         return tex;
     }
 
+    /**
+     * Set the ratio of texture space to world space lengths around the hit
+     * point. This is set by primitives with texture coordinates and enables
+     * filtered texture lookups.
+     *
+     * @param uvScale texture coordinate change per world space unit
+     */
+    public final void setUVScale(float uvScale) {
+        this.uvScale = uvScale;
+    }
+
+    /**
+     * Get the width of the ray cone around the current ray at the hit point,
+     * which approximates the area covered by the pixel.
+     *
+     * @return cone width in world space units
+     */
+    final float getConeWidth() {
+        return coneWidth + coneSpread * r.getMax();
+    }
+
+    /**
+     * Get the width of the area covered by the current pixel in texture space,
+     * for choosing a mip-map level in texture lookups. This is 0 if the
+     * primitive doesn't provide a texture scale.
+     *
+     * @return footprint in texture coordinate units
+     */
+    public final float getTextureFootprint() {
+        if (uvScale == 0 || ng == null)
+            return 0;
+        float cos = Math.max(Math.abs(r.dot(ng)), 0.05f);
+        return getConeWidth() * uvScale / cos;
+    }
+
+    /**
+     * Get a color owned by this shading state, which shaders pass to texture
+     * lookups instead of allocating a new color. It is overwritten by the next
+     * lookup through this state, but not by lookups of bounced rays, which
+     * have their own states.
+     *
+     * @return texture result color of this state
+     */
+    public final Color getTextureColor() {
+        if (textureColor == null)
+            textureColor = new Color();
+        return textureColor;
+    }
+
+    /**
+     * @return per thread buffer for the red, green and blue values of a
+     *         texture sample
+     */
+    final float[] getTexelBuffer() {
+        return istate.texel;
+    }
+
     /**
      * Gets the geometric normal of the current hit point.
      * 
@@ -689,6 +798,33 @@ public final class ShadingState implements Iterable<LightSample> {
         return server.getScene().traceShadow(r, istate);
     }
 
+    /**
+     * Counts a lookup into the cache of a {@link GIEngine}, for the render
+     * statistics.
+     * 
+     * @param hit <code>true</code> if the result could be taken from the
+     *            cache
+     */
+    public final void countGICacheLookup(boolean hit) {
+        if (hit)
+            istate.numGICacheHits++;
+        else
+            istate.numGICacheMisses++;
+    }
+
+    /**
+     * Traces a group of shadow rays leaving the current point. This is faster
+     * than tracing them one by one, as rays pointing into similar directions
+     * are traced together.
+     * 
+     * @param rays rays to trace, their maximum distance is lost
+     * @param n number of rays
+     * @return number of rays which hit something
+     */
+    public final int traceShadows(Ray[] rays, int n) {
+        return server.getScene().traceShadows(rays, n, istate);
+    }
+
     /**
      * Records a photon at the specified location.
      * 
@@ -805,7 +941,7 @@ public final class ShadingState implements Iterable<LightSample> {
         faceforward();
         OrthoNormalBasis onb = getBasis();
         Vector3 w = new Vector3();
-        Color result = Color.black();
+        Ray[] rays = new Ray[samples];
         for (int i = 0; i < samples; i++) {
             float xi = (float) getRandom(i, 0, samples);
             float xj = (float) getRandom(i, 1, samples);
@@ -818,11 +954,10 @@ public final class ShadingState implements Iterable<LightSample> {
             w.y = sinPhi * sinTheta;
             w.z = cosTheta;
             onb.transform(w);
-            Ray r = new Ray(p, w);
-            r.setMax(maxDist);
-            result.add(Color.blend(bright, dark, traceShadow(r)));
+            rays[i] = new Ray(p, w);
+            rays[i].setMax(maxDist);
         }
-        return result.mul(1.0f / samples);
+        return Color.blend(bright, dark, (float) traceShadows(rays, samples) / samples);
     }
 
     /**
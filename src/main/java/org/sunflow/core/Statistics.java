@@ -1,83 +1,496 @@
 package org.sunflow.core;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.sunflow.system.UI;
 import org.sunflow.system.UI.Module;
 
+/**
+ * Render statistics of a scene. The counters are striped, so the render
+ * threads can report their progress after every bucket without contending
+ * with each other. Snapshots of the counters are handed to the registered
+ * {@link StatisticsListener listeners} and optionally written to a JSON file
+ * while the render is running.
+ */
 public class Statistics {
+    /**
+     * Types of rays counted separately.
+     */
+    public enum RayType {
+        EYE, SHADOW, REFLECTION, GLOSSY, REFRACTION, OTHER, TOTAL
+    }
+
+    /**
+     * Number of bins of the bucket time histogram. Bin 0 counts the buckets
+     * rendered in less than a millisecond, bin <code>i</code> the buckets
+     * which took from 2<sup>i-1</sup> up to 2<sup>i</sup> milliseconds. The
+     * last bin counts all slower buckets as well.
+     */
+    public static final int NUM_BUCKET_TIME_BINS = 16;
+
     // raytracing
-    private long numEyeRays;
-    private long numShadowRays;
-    private long numReflectionRays;
-    private long numGlossyRays;
-    private long numRefractionRays;
-    private long numRays;
+    private final LongAdder numEyeRays = new LongAdder();
+    private final LongAdder numShadowRays = new LongAdder();
+    private final LongAdder numReflectionRays = new LongAdder();
+    private final LongAdder numGlossyRays = new LongAdder();
+    private final LongAdder numRefractionRays = new LongAdder();
+    private final LongAdder numRays = new LongAdder();
+    private final LongAdder numIntersectionTests = new LongAdder();
+    private final LongAdder numNodeVisits = new LongAdder();
     private long numPixels;
     // shading cache
-    private long cacheHits;
-    private long cacheMisses;
-    private long cacheSumDepth;
-    private long cacheNumCaches;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheSumDepth = new LongAdder();
+    private final LongAdder cacheNumCaches = new LongAdder();
+    // global illumination cache
+    private final LongAdder giCacheHits = new LongAdder();
+    private final LongAdder giCacheMisses = new LongAdder();
+    // buckets
+    private final LongAdder numBuckets = new LongAdder();
+    private final LongAdder bucketTime = new LongAdder();
+    private final AtomicLong maxBucketTime = new AtomicLong();
+    private final LongAdder[] bucketTimeBins = new LongAdder[NUM_BUCKET_TIME_BINS];
+    // live updates
+    private final CopyOnWriteArrayList<StatisticsListener> listeners = new CopyOnWriteArrayList<StatisticsListener>();
+    private final AtomicLong lastUpdate = new AtomicLong();
+    private volatile long startTime;
+    private volatile long updateInterval;
+    private volatile String file;
 
     Statistics() {
+        for (int i = 0; i < bucketTimeBins.length; i++)
+            bucketTimeBins[i] = new LongAdder();
         reset();
     }
 
     void reset() {
-        numEyeRays = 0;
-        numShadowRays = 0;
-        numReflectionRays = 0;
-        numGlossyRays = 0;
-        numRefractionRays = 0;
-        numRays = 0;
+        numEyeRays.reset();
+        numShadowRays.reset();
+        numReflectionRays.reset();
+        numGlossyRays.reset();
+        numRefractionRays.reset();
+        numRays.reset();
+        numIntersectionTests.reset();
+        numNodeVisits.reset();
         numPixels = 0;
-        cacheHits = 0;
-        cacheMisses = 0;
-        cacheSumDepth = 0;
-        cacheNumCaches = 0;
+        cacheHits.reset();
+        cacheMisses.reset();
+        cacheSumDepth.reset();
+        cacheNumCaches.reset();
+        giCacheHits.reset();
+        giCacheMisses.reset();
+        numBuckets.reset();
+        bucketTime.reset();
+        maxBucketTime.set(0);
+        for (LongAdder bin : bucketTimeBins)
+            bin.reset();
+    }
+
+    /**
+     * Read the reporting options and start timing the next render.
+     *
+     * @param options render options
+     */
+    void init(Options options) {
+        updateInterval = Math.max(0, options.getInt("stats.interval", 1000));
+        file = options.getString("stats.file", null);
+        startTime = System.nanoTime();
+        lastUpdate.set(startTime);
+    }
+
+    void addListener(StatisticsListener listener) {
+        if (listener != null)
+            listeners.addIfAbsent(listener);
     }
 
+    void removeListener(StatisticsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Move the counters of the given state into the statistics. The counters
+     * of the state are cleared, so this may be called repeatedly while
+     * rendering.
+     *
+     * @param state intersection state of a render thread
+     */
     void accumulate(IntersectionState state) {
-        numEyeRays += state.numEyeRays;
-        numShadowRays += state.numShadowRays;
-        numReflectionRays += state.numReflectionRays;
-        numGlossyRays += state.numGlossyRays;
-        numRefractionRays += state.numRefractionRays;
-        numRays += state.numRays;
+        numEyeRays.add(state.numEyeRays);
+        numShadowRays.add(state.numShadowRays);
+        numReflectionRays.add(state.numReflectionRays);
+        numGlossyRays.add(state.numGlossyRays);
+        numRefractionRays.add(state.numRefractionRays);
+        numRays.add(state.numRays);
+        numIntersectionTests.add(state.numIntersectionTests);
+        numNodeVisits.add(state.numNodeVisits);
+        giCacheHits.add(state.numGICacheHits);
+        giCacheMisses.add(state.numGICacheMisses);
+        state.numEyeRays = 0;
+        state.numShadowRays = 0;
+        state.numReflectionRays = 0;
+        state.numGlossyRays = 0;
+        state.numRefractionRays = 0;
+        state.numRays = 0;
+        state.numIntersectionTests = 0;
+        state.numNodeVisits = 0;
+        state.numGICacheHits = 0;
+        state.numGICacheMisses = 0;
     }
 
+    /**
+     * Move the counters of the given shading cache into the statistics. The
+     * counters of the cache are cleared.
+     *
+     * @param cache shading cache of a render thread
+     */
     void accumulate(ShadingCache cache) {
-        cacheHits += cache.hits;
-        cacheMisses += cache.misses;
-        cacheSumDepth += cache.sumDepth;
-        cacheNumCaches += cache.numCaches;
+        cacheHits.add(cache.hits);
+        cacheMisses.add(cache.misses);
+        cacheSumDepth.add(cache.sumDepth);
+        cacheNumCaches.add(cache.numCaches);
+        cache.hits = 0;
+        cache.misses = 0;
+        cache.sumDepth = 0;
+        cache.numCaches = 0;
+    }
+
+    /**
+     * Record the time taken by a single bucket.
+     *
+     * @param nanos render time of the bucket in nanoseconds
+     */
+    void accumulateBucket(long nanos) {
+        numBuckets.increment();
+        bucketTime.add(nanos);
+        maxBucketTime.accumulateAndGet(nanos, Math::max);
+        long ms = nanos / 1000000;
+        bucketTimeBins[Math.min(NUM_BUCKET_TIME_BINS - 1, 64 - Long.numberOfLeadingZeros(ms))].increment();
     }
 
     void setResolution(int w, int h) {
         numPixels = w * h;
     }
 
+    /**
+     * Report the current counters if the update interval has passed since
+     * the last report. This is cheap enough to be called by the render
+     * threads after every bucket, only one of them does the actual work.
+     */
+    void update() {
+        if (listeners.isEmpty() && file == null)
+            return;
+        long now = System.nanoTime();
+        long last = lastUpdate.get();
+        if (now - last < updateInterval * 1000000L || !lastUpdate.compareAndSet(last, now))
+            return;
+        publish(getSnapshot(false));
+    }
+
+    /**
+     * Report the final counters of a render.
+     */
+    void finish() {
+        if (listeners.isEmpty() && file == null)
+            return;
+        publish(getSnapshot(true));
+    }
+
+    private void publish(Snapshot snapshot) {
+        for (StatisticsListener listener : listeners)
+            listener.statisticsUpdated(snapshot);
+        if (file != null) {
+            try {
+                Writer writer = new FileWriter(file);
+                try {
+                    writer.write(snapshot.toJSON());
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                UI.printError(Module.SCENE, "Unable to write statistics to \"%s\": %s", file, e.getMessage());
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot of the current counters.
+     *
+     * @param finished <code>true</code> if the render is complete
+     * @return the current statistics
+     */
+    Snapshot getSnapshot(boolean finished) {
+        Snapshot s = new Snapshot();
+        s.finished = finished;
+        s.elapsedTime = System.nanoTime() - startTime;
+        s.numPixels = numPixels;
+        s.rays[RayType.EYE.ordinal()] = numEyeRays.sum();
+        s.rays[RayType.SHADOW.ordinal()] = numShadowRays.sum();
+        s.rays[RayType.REFLECTION.ordinal()] = numReflectionRays.sum();
+        s.rays[RayType.GLOSSY.ordinal()] = numGlossyRays.sum();
+        s.rays[RayType.REFRACTION.ordinal()] = numRefractionRays.sum();
+        s.rays[RayType.TOTAL.ordinal()] = numRays.sum();
+        long other = s.rays[RayType.TOTAL.ordinal()];
+        for (int i = 0; i < RayType.OTHER.ordinal(); i++)
+            other -= s.rays[i];
+        s.rays[RayType.OTHER.ordinal()] = Math.max(0, other);
+        s.intersectionTests = numIntersectionTests.sum();
+        s.nodeVisits = numNodeVisits.sum();
+        s.cacheHits = cacheHits.sum();
+        s.cacheMisses = cacheMisses.sum();
+        s.cacheSumDepth = cacheSumDepth.sum();
+        s.cacheNumCaches = cacheNumCaches.sum();
+        s.giCacheHits = giCacheHits.sum();
+        s.giCacheMisses = giCacheMisses.sum();
+        s.buckets = numBuckets.sum();
+        s.bucketTime = bucketTime.sum();
+        s.maxBucketTime = maxBucketTime.get();
+        for (int i = 0; i < NUM_BUCKET_TIME_BINS; i++)
+            s.bucketTimeBins[i] = bucketTimeBins[i].sum();
+        Runtime runtime = Runtime.getRuntime();
+        s.memoryUsed = runtime.totalMemory() - runtime.freeMemory();
+        s.memoryMax = runtime.maxMemory();
+        return s;
+    }
+
     void displayStats() {
+        Snapshot s = getSnapshot(true);
+        long numRays = s.getRays(RayType.TOTAL);
         // display raytracing stats
         UI.printInfo(Module.SCENE, "Raytracing stats:");
         UI.printInfo(Module.SCENE, "  * Rays traced:              (per pixel) (per eye ray) (percentage)", numRays);
-        printRayTypeStats("eye", numEyeRays);
-        printRayTypeStats("shadow", numShadowRays);
-        printRayTypeStats("reflection", numReflectionRays);
-        printRayTypeStats("glossy", numGlossyRays);
-        printRayTypeStats("refraction", numRefractionRays);
-        printRayTypeStats("other", numRays - numEyeRays - numShadowRays - numReflectionRays - numGlossyRays - numRefractionRays);
-        printRayTypeStats("total", numRays);
-        if (cacheHits + cacheMisses > 0) {
+        printRayTypeStats(s, "eye", RayType.EYE);
+        printRayTypeStats(s, "shadow", RayType.SHADOW);
+        printRayTypeStats(s, "reflection", RayType.REFLECTION);
+        printRayTypeStats(s, "glossy", RayType.GLOSSY);
+        printRayTypeStats(s, "refraction", RayType.REFRACTION);
+        printRayTypeStats(s, "other", RayType.OTHER);
+        printRayTypeStats(s, "total", RayType.TOTAL);
+        if (numRays > 0 && s.elapsedTime > 0)
+            UI.printInfo(Module.SCENE, "  * Rays per second:          %.0f", s.getRaysPerSecond(RayType.TOTAL));
+        if (s.intersectionTests > 0 && numRays > 0)
+            UI.printInfo(Module.SCENE, "  * Intersection tests:       %.2f per ray", (double) s.intersectionTests / (double) numRays);
+        if (s.nodeVisits > 0 && numRays > 0)
+            UI.printInfo(Module.SCENE, "  * Node visits:              %.2f per ray", (double) s.nodeVisits / (double) numRays);
+        if (s.buckets > 0) {
+            UI.printInfo(Module.SCENE, "  * Buckets:                  %d", s.buckets);
+            UI.printInfo(Module.SCENE, "  * Bucket time:              %.2f ms average, %.2f ms max", s.getAverageBucketTime() * 1000, s.getMaxBucketTime() * 1000);
+        }
+        if (s.cacheHits + s.cacheMisses > 0) {
             UI.printInfo(Module.LIGHT, "Shading cache stats:");
-            UI.printInfo(Module.LIGHT, "  * Lookups:             %d", cacheHits + cacheMisses);
-            UI.printInfo(Module.LIGHT, "  * Hits:                %d", cacheHits);
-            UI.printInfo(Module.LIGHT, "  * Hit rate:            %d%%", (100 * cacheHits) / (cacheHits + cacheMisses));
-            UI.printInfo(Module.LIGHT, "  * Average cache depth: %.2f", (double) cacheSumDepth / (double) cacheNumCaches);
+            UI.printInfo(Module.LIGHT, "  * Lookups:             %d", s.cacheHits + s.cacheMisses);
+            UI.printInfo(Module.LIGHT, "  * Hits:                %d", s.cacheHits);
+            UI.printInfo(Module.LIGHT, "  * Hit rate:            %d%%", (100 * s.cacheHits) / (s.cacheHits + s.cacheMisses));
+            UI.printInfo(Module.LIGHT, "  * Average cache depth: %.2f", (double) s.cacheSumDepth / (double) s.cacheNumCaches);
+        }
+        if (s.giCacheHits + s.giCacheMisses > 0) {
+            UI.printInfo(Module.LIGHT, "GI cache stats:");
+            UI.printInfo(Module.LIGHT, "  * Lookups:             %d", s.giCacheHits + s.giCacheMisses);
+            UI.printInfo(Module.LIGHT, "  * Hit rate:            %.1f%%", 100 * s.getGICacheHitRate());
+        }
+        TextureCache.Stats textureStats = TextureCache.getStats();
+        if (textureStats.getHits() + textureStats.getMisses() > 0) {
+            UI.printInfo(Module.TEX, "Texture cache stats:");
+            UI.printInfo(Module.TEX, "  * Textures:            %d", textureStats.getTextureCount());
+            UI.printInfo(Module.TEX, "  * Memory:              %.1f MB", textureStats.getBytesResident() / 1048576.0);
+            UI.printInfo(Module.TEX, "  * Hits:                %d", textureStats.getHits());
+            UI.printInfo(Module.TEX, "  * Misses:              %d", textureStats.getMisses());
+            UI.printInfo(Module.TEX, "  * Evictions:           %d", textureStats.getEvictions());
         }
     }
 
-    private void printRayTypeStats(String name, long n) {
+    private void printRayTypeStats(Snapshot s, String name, RayType type) {
+        long n = s.getRays(type);
         if (n > 0)
-            UI.printInfo(Module.SCENE, "      %-10s  %11d   %7.2f      %7.2f      %6.2f%%", name, n, (double) n / (double) numPixels, (double) n / (double) numEyeRays, (double) (n * 100) / (double) numRays);
+            UI.printInfo(Module.SCENE, "      %-10s  %11d   %7.2f      %7.2f      %6.2f%%", name, n, (double) n / (double) numPixels, (double) n / (double) s.getRays(RayType.EYE), (double) (n * 100) / (double) s.getRays(RayType.TOTAL));
+    }
+
+    /**
+     * Snapshot of the render statistics.
+     */
+    public static final class Snapshot {
+        private boolean finished;
+        private long elapsedTime;
+        private long numPixels;
+        private final long[] rays = new long[RayType.values().length];
+        private long intersectionTests;
+        private long nodeVisits;
+        private long cacheHits;
+        private long cacheMisses;
+        private long cacheSumDepth;
+        private long cacheNumCaches;
+        private long giCacheHits;
+        private long giCacheMisses;
+        private long buckets;
+        private long bucketTime;
+        private long maxBucketTime;
+        private final long[] bucketTimeBins = new long[NUM_BUCKET_TIME_BINS];
+        private long memoryUsed;
+        private long memoryMax;
+
+        private Snapshot() {
+        }
+
+        /**
+         * @return <code>true</code> if this is the final report of a render
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * @return time since the render started in seconds
+         */
+        public double getElapsedTime() {
+            return elapsedTime * 1e-9;
+        }
+
+        /**
+         * @return number of pixels in the image
+         */
+        public long getPixels() {
+            return numPixels;
+        }
+
+        /**
+         * @param type ray type
+         * @return number of rays of the given type traced so far
+         */
+        public long getRays(RayType type) {
+            return rays[type.ordinal()];
+        }
+
+        /**
+         * @param type ray type
+         * @return average number of rays of the given type traced per second
+         */
+        public double getRaysPerSecond(RayType type) {
+            return elapsedTime > 0 ? rays[type.ordinal()] / getElapsedTime() : 0;
+        }
+
+        /**
+         * @return number of primitive intersection tests
+         */
+        public long getIntersectionTests() {
+            return intersectionTests;
+        }
+
+        /**
+         * @return number of acceleration structure nodes visited by all rays
+         */
+        public long getNodeVisits() {
+            return nodeVisits;
+        }
+
+        /**
+         * @return fraction of shading cache lookups which found a result
+         */
+        public double getShadingCacheHitRate() {
+            return cacheHits + cacheMisses > 0 ? (double) cacheHits / (cacheHits + cacheMisses) : 0;
+        }
+
+        /**
+         * @return number of global illumination cache lookups
+         */
+        public long getGICacheLookups() {
+            return giCacheHits + giCacheMisses;
+        }
+
+        /**
+         * @return fraction of global illumination cache lookups which could
+         *         be interpolated from cached samples
+         */
+        public double getGICacheHitRate() {
+            return giCacheHits + giCacheMisses > 0 ? (double) giCacheHits / (giCacheHits + giCacheMisses) : 0;
+        }
+
+        /**
+         * @return number of buckets rendered so far
+         */
+        public long getBuckets() {
+            return buckets;
+        }
+
+        /**
+         * @return average render time of a bucket in seconds
+         */
+        public double getAverageBucketTime() {
+            return buckets > 0 ? bucketTime * 1e-9 / buckets : 0;
+        }
+
+        /**
+         * @return render time of the slowest bucket in seconds
+         */
+        public double getMaxBucketTime() {
+            return maxBucketTime * 1e-9;
+        }
+
+        /**
+         * Get the histogram of bucket render times, see
+         * {@link Statistics#NUM_BUCKET_TIME_BINS} for the bin sizes.
+         *
+         * @return number of buckets in each bin
+         */
+        public long[] getBucketTimeHistogram() {
+            return bucketTimeBins.clone();
+        }
+
+        /**
+         * @return bytes currently used on the Java heap
+         */
+        public long getMemoryUsed() {
+            return memoryUsed;
+        }
+
+        /**
+         * @return maximum size of the Java heap in bytes
+         */
+        public long getMemoryMax() {
+            return memoryMax;
+        }
+
+        /**
+         * Format the snapshot as a JSON object.
+         *
+         * @return JSON text
+         */
+        public String toJSON() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\n");
+            sb.append(String.format(Locale.US, "  \"finished\": %b,\n", finished));
+            sb.append(String.format(Locale.US, "  \"elapsedSeconds\": %.3f,\n", getElapsedTime()));
+            sb.append(String.format(Locale.US, "  \"pixels\": %d,\n", numPixels));
+            sb.append("  \"rays\": {");
+            for (RayType type : RayType.values())
+                sb.append(String.format(Locale.US, "%s\"%s\": %d", type.ordinal() == 0 ? "" : ", ", type.name().toLowerCase(Locale.US), getRays(type)));
+            sb.append("},\n");
+            sb.append("  \"raysPerSecond\": {");
+            for (RayType type : RayType.values())
+                sb.append(String.format(Locale.US, "%s\"%s\": %.1f", type.ordinal() == 0 ? "" : ", ", type.name().toLowerCase(Locale.US), getRaysPerSecond(type)));
+            sb.append("},\n");
+            sb.append(String.format(Locale.US, "  \"intersectionTests\": %d,\n", intersectionTests));
+            sb.append(String.format(Locale.US, "  \"nodeVisits\": %d,\n", nodeVisits));
+            sb.append(String.format(Locale.US, "  \"shadingCache\": {\"hits\": %d, \"misses\": %d, \"hitRate\": %.4f},\n", cacheHits, cacheMisses, getShadingCacheHitRate()));
+            sb.append(String.format(Locale.US, "  \"giCache\": {\"hits\": %d, \"misses\": %d, \"hitRate\": %.4f},\n", giCacheHits, giCacheMisses, getGICacheHitRate()));
+            sb.append(String.format(Locale.US, "  \"buckets\": {\"count\": %d, \"averageSeconds\": %.6f, \"maxSeconds\": %.6f, \"histogramMillis\": [", buckets, getAverageBucketTime(), getMaxBucketTime()));
+            for (int i = 0; i < bucketTimeBins.length; i++)
+                sb.append(i == 0 ? "" : ", ").append(bucketTimeBins[i]);
+            sb.append("]},\n");
+            sb.append(String.format(Locale.US, "  \"memory\": {\"used\": %d, \"max\": %d}\n", memoryUsed, memoryMax));
+            sb.append("}\n");
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f s, %d rays (%.0f per second), %d buckets, %.1f MB used", getElapsedTime(), getRays(RayType.TOTAL), getRaysPerSecond(RayType.TOTAL), buckets, memoryUsed / 1048576.0);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package org.sunflow.core;
+
+/**
+ * Receives the render statistics of a scene while it is being rendered.
+ * Listeners are called from the render threads, so implementations should
+ * return quickly and must be thread safe.
+ */
+public interface StatisticsListener {
+    /**
+     * Called periodically during rendering, as set by the
+     * <code>stats.interval</code> option in milliseconds, and once more when
+     * the render is complete.
+     *
+     * @param snapshot current statistics
+     */
+    public void statisticsUpdated(Statistics.Snapshot snapshot);
+}
\ No newline at end of file
@@ -16,17 +16,23 @@ import org.sunflow.system.UI;
 import org.sunflow.system.UI.Module;
 
 /**
- * Represents a 2D texture, typically used by {@link Shader shaders}.
+ * Represents a 2D texture, typically used by {@link Shader shaders}. The
+ * bitmap is converted once into a mip-map pyramid of float color planes and
+ * then released. Lookups through a {@link ShadingState} use its buffers and
+ * don't allocate. Lookups with a texture space footprint, e.g. from
+ * {@link ShadingState#getTextureFootprint()}, blend the two pyramid levels
+ * closest to the footprint size, which avoids aliasing of distant textured
+ * surfaces.
  */
 public class Texture {
     private String filename;
     private boolean isLinear;
-    private Bitmap bitmap;
+    private MipLevel[] levels;
     private int loaded;
 
     /**
      * Creates a new texture from the specfied file.
-     * 
+     *
      * @param filename image file to load
      * @param isLinear is the texture gamma corrected already?
      */
@@ -40,6 +46,7 @@ public class Texture {
         if (loaded != 0)
             return;
         String extension = FileUtils.getExtension(filename);
+        Bitmap bitmap = null;
         try {
             UI.printInfo(Module.TEX, "Reading texture bitmap from: \"%s\" ...", filename);
             BitmapReader reader = PluginRegistry.bitmapReaderPlugins.createObject(extension);
@@ -58,13 +65,61 @@ public class Texture {
         } catch (BitmapFormatException e) {
             UI.printError(Module.TEX, "%s format error: %s", extension, e.getMessage());
         }
+        if (bitmap == null)
+            bitmap = new BitmapBlack();
+        levels = MipLevel.createPyramid(bitmap);
+        UI.printDetailed(Module.TEX, "Texture mip-map created: %d levels", levels.length);
         loaded = 1;
+        TextureCache.textureLoaded(this);
     }
 
-    public Bitmap getBitmap() {
+    String getFilename() {
+        return filename;
+    }
+
+    boolean isLinear() {
+        return isLinear;
+    }
+
+    /**
+     * Estimates the memory held by this texture once it is loaded.
+     *
+     * @return approximate size of the mip-map in bytes
+     */
+    long getMemoryUsage() {
+        if (loaded == 0)
+            return 0;
+        long bytes = 0;
+        for (MipLevel level : levels)
+            bytes += 12L * level.width * level.height;
+        return bytes;
+    }
+
+    /**
+     * @return width of the texture in pixels
+     */
+    public int getWidth() {
+        return getLevels()[0].width;
+    }
+
+    /**
+     * @return height of the texture in pixels
+     */
+    public int getHeight() {
+        return getLevels()[0].height;
+    }
+
+    private MipLevel[] getLevels() {
         if (loaded == 0)
             load();
-        return bitmap;
+        return levels;
+    }
+
+    /**
+     * @return number of levels of the mip-map pyramid
+     */
+    public int getLevelCount() {
+        return getLevels().length;
     }
 
     /**
@@ -72,52 +127,248 @@ public class Texture {
      * using the fractional component of the coordinates, treating the texture
      * as a unit square tiled in both directions. Bicubic filtering is performed
      * on the four nearest pixels to the lookup point.
-     * 
+     *
      * @param x x coordinate into the texture
      * @param y y coordinate into the texture
      * @return filtered color at location (x,y)
      */
     public Color getPixel(float x, float y) {
-        Bitmap bitmap = getBitmap();
+        return getPixel(x, y, 0, new float[3], new Color());
+    }
+
+    /**
+     * Gets the color at location (x,y) averaged over a square footprint of
+     * the given size without allocating. The two mip-map levels closest to
+     * the footprint are sampled and blended.
+     *
+     * @param x x coordinate into the texture
+     * @param y y coordinate into the texture
+     * @param footprint width of the lookup area in texture space, where 1 is
+     *            the whole texture; 0 samples the full resolution
+     * @param texel buffer of at least 3 floats for intermediate texel values
+     * @param dest color to store the result in
+     * @return <code>dest</code> for convenience
+     */
+    public Color getPixel(float x, float y, float footprint, float[] texel, Color dest) {
+        MipLevel[] levels = getLevels();
+        float lod = getLod(levels, footprint);
+        int l0 = (int) lod;
+        float t = lod - l0;
         x = MathUtils.frac(x);
         y = MathUtils.frac(y);
-        float dx = x * (bitmap.getWidth() - 1);
-        float dy = y * (bitmap.getHeight() - 1);
-        int ix0 = (int) dx;
-        int iy0 = (int) dy;
-        int ix1 = (ix0 + 1) % bitmap.getWidth();
-        int iy1 = (iy0 + 1) % bitmap.getHeight();
-        float u = dx - ix0;
-        float v = dy - iy0;
-        u = u * u * (3.0f - (2.0f * u));
-        v = v * v * (3.0f - (2.0f * v));
-        float k00 = (1.0f - u) * (1.0f - v);
-        Color c00 = bitmap.readColor(ix0, iy0);
-        float k01 = (1.0f - u) * v;
-        Color c01 = bitmap.readColor(ix0, iy1);
-        float k10 = u * (1.0f - v);
-        Color c10 = bitmap.readColor(ix1, iy0);
-        float k11 = u * v;
-        Color c11 = bitmap.readColor(ix1, iy1);
-        Color c = Color.mul(k00, c00);
-        c.madd(k01, c01);
-        c.madd(k10, c10);
-        c.madd(k11, c11);
-        return c;
+        levels[l0].sample(x, y, texel);
+        float r = texel[0], g = texel[1], b = texel[2];
+        if (t > 0 && l0 + 1 < levels.length) {
+            levels[l0 + 1].sample(x, y, texel);
+            r += t * (texel[0] - r);
+            g += t * (texel[1] - g);
+            b += t * (texel[2] - b);
+        }
+        return dest.set(r, g, b);
+    }
+
+    /**
+     * Gets the texture color at the shading point's texture coordinates,
+     * filtered according to the shading point's footprint. Shaders usually
+     * pass {@link ShadingState#getTextureColor()} as destination.
+     *
+     * @param state current shading state
+     * @param dest color to store the result in
+     * @return <code>dest</code> for convenience
+     */
+    public Color getPixel(ShadingState state, Color dest) {
+        return getPixel(state.getUV().x, state.getUV().y, state.getTextureFootprint(), state.getTexelBuffer(), dest);
     }
 
     public Vector3 getNormal(float x, float y, OrthoNormalBasis basis) {
-        float[] rgb = getPixel(x, y).getRGB();
-        return basis.transform(new Vector3(2 * rgb[0] - 1, 2 * rgb[1] - 1, 2 * rgb[2] - 1)).normalize();
+        return getNormal(x, y, 0, basis, new float[3], new Vector3());
+    }
+
+    /**
+     * Reads a tangent space normal from the texture and transforms it with
+     * the given basis without allocating.
+     *
+     * @param x x coordinate into the texture
+     * @param y y coordinate into the texture
+     * @param footprint width of the lookup area in texture space
+     * @param basis tangent space basis
+     * @param texel buffer of at least 3 floats for intermediate texel values
+     * @param dest vector to store the normalized world space normal in
+     * @return <code>dest</code> for convenience
+     */
+    public Vector3 getNormal(float x, float y, float footprint, OrthoNormalBasis basis, float[] texel, Vector3 dest) {
+        MipLevel[] levels = getLevels();
+        int level = Math.round(getLod(levels, footprint));
+        float[] rgb = levels[level].sample(MathUtils.frac(x), MathUtils.frac(y), texel);
+        float nx = 2 * rgb[0] - 1;
+        float ny = 2 * rgb[1] - 1;
+        float nz = 2 * rgb[2] - 1;
+        dest.set(nx, ny, nz);
+        return basis.transform(dest).normalize();
+    }
+
+    /**
+     * Reads the normal at the shading point's texture coordinates with the
+     * shading point's footprint and basis.
+     *
+     * @param state current shading state
+     * @param dest vector to store the normalized world space normal in
+     * @return <code>dest</code> for convenience
+     */
+    public Vector3 getNormal(ShadingState state, Vector3 dest) {
+        return getNormal(state.getUV().x, state.getUV().y, state.getTextureFootprint(), state.getBasis(), state.getTexelBuffer(), dest);
     }
 
     public Vector3 getBump(float x, float y, OrthoNormalBasis basis, float scale) {
-        Bitmap bitmap = getBitmap();
-        float dx = 1.0f / bitmap.getWidth();
-        float dy = 1.0f / bitmap.getHeight();
-        float b0 = getPixel(x, y).getLuminance();
-        float bx = getPixel(x + dx, y).getLuminance();
-        float by = getPixel(x, y + dy).getLuminance();
-        return basis.transform(new Vector3(scale * (b0 - bx), scale * (b0 - by), 1)).normalize();
+        return getBump(x, y, 0, basis, scale, new float[3], new Vector3());
+    }
+
+    /**
+     * Computes a bumped normal from luminance differences of neighbouring
+     * texels. At coarser mip-map levels the differences are taken over the
+     * coarser texel size and scaled to full resolution, so the bump strength
+     * doesn't depend on the distance.
+     *
+     * @param x x coordinate into the texture
+     * @param y y coordinate into the texture
+     * @param footprint width of the lookup area in texture space
+     * @param basis tangent space basis
+     * @param scale bump height scale
+     * @param texel buffer of at least 3 floats for intermediate texel values
+     * @param dest vector to store the normalized world space normal in
+     * @return <code>dest</code> for convenience
+     */
+    public Vector3 getBump(float x, float y, float footprint, OrthoNormalBasis basis, float scale, float[] texel, Vector3 dest) {
+        MipLevel[] levels = getLevels();
+        MipLevel level = levels[Math.round(getLod(levels, footprint))];
+        float dx = 1.0f / level.width;
+        float dy = 1.0f / level.height;
+        float sx = scale * level.width / levels[0].width;
+        float sy = scale * level.height / levels[0].height;
+        float b0 = level.luminance(MathUtils.frac(x), MathUtils.frac(y), texel);
+        float bx = level.luminance(MathUtils.frac(x + dx), MathUtils.frac(y), texel);
+        float by = level.luminance(MathUtils.frac(x), MathUtils.frac(y + dy), texel);
+        dest.set(sx * (b0 - bx), sy * (b0 - by), 1);
+        return basis.transform(dest).normalize();
+    }
+
+    /**
+     * Computes the bumped normal at the shading point's texture coordinates
+     * with the shading point's footprint and basis.
+     *
+     * @param state current shading state
+     * @param scale bump height scale
+     * @param dest vector to store the normalized world space normal in
+     * @return <code>dest</code> for convenience
+     */
+    public Vector3 getBump(ShadingState state, float scale, Vector3 dest) {
+        return getBump(state.getUV().x, state.getUV().y, state.getTextureFootprint(), state.getBasis(), scale, state.getTexelBuffer(), dest);
+    }
+
+    /**
+     * @return continuous mip-map level for a footprint in texture space
+     */
+    private static float getLod(MipLevel[] levels, float footprint) {
+        float texels = footprint * Math.max(levels[0].width, levels[0].height);
+        if (!(texels > 1))
+            return 0;
+        float lod = (float) (Math.log(texels) / Math.log(2));
+        return Math.min(lod, levels.length - 1);
+    }
+
+    /**
+     * One level of the mip-map pyramid with red, green and blue stored in
+     * separate float arrays.
+     */
+    private static final class MipLevel {
+        final int width, height;
+        final float[] r, g, b;
+
+        private MipLevel(int width, int height) {
+            this.width = width;
+            this.height = height;
+            r = new float[width * height];
+            g = new float[width * height];
+            b = new float[width * height];
+        }
+
+        static MipLevel[] createPyramid(Bitmap bitmap) {
+            int w = bitmap.getWidth();
+            int h = bitmap.getHeight();
+            int count = 1;
+            for (int s = Math.max(w, h); s > 1; s = (s + 1) >> 1)
+                count++;
+            MipLevel[] levels = new MipLevel[count];
+            levels[0] = new MipLevel(w, h);
+            for (int y = 0, i = 0; y < h; y++) {
+                for (int x = 0; x < w; x++, i++) {
+                    float[] rgb = bitmap.readColor(x, y).getRGB();
+                    levels[0].r[i] = rgb[0];
+                    levels[0].g[i] = rgb[1];
+                    levels[0].b[i] = rgb[2];
+                }
+            }
+            for (int l = 1; l < count; l++)
+                levels[l] = levels[l - 1].downsample();
+            return levels;
+        }
+
+        /**
+         * @return next coarser level, each texel the average of a 2x2 block;
+         *         odd sizes wrap around like the tiled texture
+         */
+        private MipLevel downsample() {
+            MipLevel next = new MipLevel(Math.max(1, (width + 1) >> 1), Math.max(1, (height + 1) >> 1));
+            for (int y = 0, i = 0; y < next.height; y++) {
+                int y0 = (2 * y) % height;
+                int y1 = (2 * y + 1) % height;
+                for (int x = 0; x < next.width; x++, i++) {
+                    int x0 = (2 * x) % width;
+                    int x1 = (2 * x + 1) % width;
+                    int i00 = y0 * width + x0, i01 = y0 * width + x1;
+                    int i10 = y1 * width + x0, i11 = y1 * width + x1;
+                    next.r[i] = 0.25f * (r[i00] + r[i01] + r[i10] + r[i11]);
+                    next.g[i] = 0.25f * (g[i00] + g[i01] + g[i10] + g[i11]);
+                    next.b[i] = 0.25f * (b[i00] + b[i01] + b[i10] + b[i11]);
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Smooth interpolation of the four texels around (x,y).
+         *
+         * @param x x coordinate in [0,1]
+         * @param y y coordinate in [0,1]
+         * @param rgb array to store red, green and blue in
+         * @return <code>rgb</code> for convenience
+         */
+        float[] sample(float x, float y, float[] rgb) {
+            float dx = x * (width - 1);
+            float dy = y * (height - 1);
+            int ix0 = (int) dx;
+            int iy0 = (int) dy;
+            int ix1 = (ix0 + 1) % width;
+            int iy1 = (iy0 + 1) % height;
+            float u = dx - ix0;
+            float v = dy - iy0;
+            u = u * u * (3.0f - (2.0f * u));
+            v = v * v * (3.0f - (2.0f * v));
+            float k00 = (1.0f - u) * (1.0f - v);
+            float k01 = (1.0f - u) * v;
+            float k10 = u * (1.0f - v);
+            float k11 = u * v;
+            int i00 = iy0 * width + ix0, i01 = iy1 * width + ix0;
+            int i10 = iy0 * width + ix1, i11 = iy1 * width + ix1;
+            rgb[0] = k00 * r[i00] + k01 * r[i01] + k10 * r[i10] + k11 * r[i11];
+            rgb[1] = k00 * g[i00] + k01 * g[i01] + k10 * g[i10] + k11 * g[i11];
+            rgb[2] = k00 * b[i00] + k01 * b[i01] + k10 * b[i10] + k11 * b[i11];
+            return rgb;
+        }
+
+        float luminance(float x, float y, float[] rgb) {
+            sample(x, y, rgb);
+            return (0.2989f * rgb[0]) + (0.5866f * rgb[1]) + (0.1145f * rgb[2]);
+        }
     }
 }
\ No newline at end of file
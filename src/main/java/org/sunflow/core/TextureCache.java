@@ -1,16 +1,31 @@
 package org.sunflow.core;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.sunflow.system.UI;
 import org.sunflow.system.UI.Module;
 
 /**
  * Maintains a cache of all loaded texture maps. This is usefull if the same
- * texture might be used more than once in your scene.
+ * texture might be used more than once in your scene. Lookups don't block each
+ * other and every texture is loaded only once, no matter how many threads
+ * request it at the same time. The memory of loaded textures is bounded: when
+ * it exceeds the limit, the least recently requested textures are dropped from
+ * the cache. Shaders still holding a dropped texture can keep using it, it is
+ * just not shared with later scenes anymore.
  */
 public final class TextureCache {
-    private static HashMap<String, Texture> textures = new HashMap<String, Texture>();
+    private static final long DEFAULT_MAX_MEMORY = 512L << 20;
+
+    private static final ConcurrentHashMap<String, Entry> textures = new ConcurrentHashMap<String, Entry>();
+    private static final AtomicLong clock = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong bytesResident = new AtomicLong();
+    private static volatile long maxMemory = DEFAULT_MAX_MEMORY;
 
     private TextureCache() {
     }
@@ -19,29 +34,189 @@ public final class TextureCache {
      * Gets a reference to the texture specified by the given filename. If the
      * texture has already been loaded the previous reference is returned,
      * otherwise, a new texture is created.
-     * 
+     *
      * @param filename image file to load
      * @param isLinear is the texture gamma corrected?
      * @return texture object
      * @see Texture
      */
-    public synchronized static Texture getTexture(String filename, boolean isLinear) {
-        if (textures.containsKey(filename)) {
+    public static Texture getTexture(String filename, boolean isLinear) {
+        String key = getKey(filename, isLinear);
+        Entry e = textures.get(key);
+        if (e != null) {
             UI.printInfo(Module.TEX, "Using cached copy for file \"%s\" ...", filename);
-            return textures.get(filename);
+            hits.incrementAndGet();
+        } else {
+            Entry created = new Entry(new Texture(filename, isLinear));
+            e = textures.putIfAbsent(key, created);
+            if (e == null) {
+                UI.printInfo(Module.TEX, "Using file \"%s\" ...", filename);
+                misses.incrementAndGet();
+                e = created;
+            } else
+                hits.incrementAndGet();
         }
-        UI.printInfo(Module.TEX, "Using file \"%s\" ...", filename);
-        Texture t = new Texture(filename, isLinear);
-        textures.put(filename, t);
-        return t;
+        e.lastAccess = clock.incrementAndGet();
+        return e.texture;
     }
 
     /**
      * Flush all textures from the cache, this will cause them to be reloaded
      * anew the next time they are accessed.
      */
-    public synchronized static void flush() {
+    public static void flush() {
         UI.printInfo(Module.TEX, "Flushing texture cache");
-        textures.clear();
+        for (String key : textures.keySet())
+            remove(key);
+    }
+
+    /**
+     * Sets the memory limit of the cache. Textures exceeding it are dropped
+     * from the cache, least recently used first.
+     *
+     * @param bytes memory limit in bytes
+     */
+    public static void setMaxMemory(long bytes) {
+        maxMemory = bytes;
+        evict(null);
+    }
+
+    public static long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * @return current counters of the cache
+     */
+    public static Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), textures.size(), bytesResident.get());
+    }
+
+    /**
+     * Called by a texture once it has been loaded, to account for its memory.
+     *
+     * @param texture texture which was loaded
+     */
+    static void textureLoaded(Texture texture) {
+        Entry e = textures.get(getKey(texture.getFilename(), texture.isLinear()));
+        if (e == null || e.texture != texture)
+            return; // dropped before it was loaded
+        synchronized (e) {
+            if (e.bytes != 0)
+                return;
+            e.bytes = texture.getMemoryUsage();
+            bytesResident.addAndGet(e.bytes);
+        }
+        evict(e);
+    }
+
+    /**
+     * Drops least recently used textures until the cache fits into its memory
+     * limit.
+     *
+     * @param keep entry which is never dropped, may be <code>null</code>
+     */
+    private static synchronized void evict(Entry keep) {
+        while (bytesResident.get() > maxMemory) {
+            String oldestKey = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> me : textures.entrySet()) {
+                Entry e = me.getValue();
+                if (e != keep && e.bytes != 0 && e.lastAccess < oldest) {
+                    oldest = e.lastAccess;
+                    oldestKey = me.getKey();
+                }
+            }
+            if (oldestKey == null)
+                return;
+            UI.printDetailed(Module.TEX, "Dropping texture \"%s\" from cache", textures.get(oldestKey).texture.getFilename());
+            if (remove(oldestKey))
+                evictions.incrementAndGet();
+        }
+    }
+
+    private static boolean remove(String key) {
+        Entry e = textures.remove(key);
+        if (e == null)
+            return false;
+        synchronized (e) {
+            bytesResident.addAndGet(-e.bytes);
+            // mark as accounted for, in case it is being loaded right now
+            e.bytes = -1;
+        }
+        return true;
+    }
+
+    private static String getKey(String filename, boolean isLinear) {
+        return (isLinear ? "linear:" : "srgb:") + filename;
+    }
+
+    private static final class Entry {
+        private final Texture texture;
+        private volatile long lastAccess;
+        private volatile long bytes;
+
+        Entry(Texture texture) {
+            this.texture = texture;
+        }
+    }
+
+    /**
+     * Snapshot of the texture cache counters.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int textures;
+        private final long bytesResident;
+
+        private Stats(long hits, long misses, long evictions, int textures, long bytesResident) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.textures = textures;
+            this.bytesResident = bytesResident;
+        }
+
+        /**
+         * @return number of requests answered with an already cached texture
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return number of requests which created a new texture
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return number of textures dropped because of the memory limit
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return number of textures currently in the cache
+         */
+        public int getTextureCount() {
+            return textures;
+        }
+
+        /**
+         * @return approximate memory used by the loaded textures in the cache
+         */
+        public long getBytesResident() {
+            return bytesResident;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d textures, %.1f MB, %d hits, %d misses, %d evictions", textures, bytesResident / 1048576.0, hits, misses, evictions);
+        }
     }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import org.sunflow.core.AccelerationStructure;
 import org.sunflow.core.IntersectionState;
 import org.sunflow.core.PrimitiveList;
 import org.sunflow.core.Ray;
+import org.sunflow.core.RayPacket;
 import org.sunflow.math.BoundingBox;
 import org.sunflow.system.Memory;
 import org.sunflow.system.Timer;
@@ -475,6 +476,7 @@ public class BoundingIntervalHierarchy implements AccelerationStructure {
 	                return;
                 }
 
+                state.countNodeVisits(1);
                 int tn = tree[node];
                 int axis = tn & (7 << 29);
                 int offset = tn & ~(7 << 29);
@@ -571,6 +573,7 @@ public class BoundingIntervalHierarchy implements AccelerationStructure {
                     case 3 << 30: {
                         // leaf - test some objects
                         int n = tree[node + 1];
+                        state.countIntersectionTests(n);
                         while (n > 0) {
                             primitives.intersectPrimitive(r, objects[offset], state);
                             n--;
@@ -628,4 +631,155 @@ public class BoundingIntervalHierarchy implements AccelerationStructure {
             } while (true);
         }
     }
+
+    public void intersect(RayPacket packet, IntersectionState state) {
+        int signs = packet.getDirectionSigns();
+        if (signs < 0) {
+            // the rays disagree on the traversal order
+            packet.intersectEach(this, state);
+            return;
+        }
+        int mask = packet.clip(bounds.getMinimum().x, bounds.getMinimum().y, bounds.getMinimum().z, bounds.getMaximum().x, bounds.getMaximum().y, bounds.getMaximum().z);
+        if (mask == 0)
+            return;
+
+        // compute custom offsets from the common direction signs
+        int offsetXFront = signs & 1;
+        int offsetYFront = (signs >>> 1) & 1;
+        int offsetZFront = signs >>> 2;
+
+        float[] near = packet.near;
+        float[] far = packet.far;
+        RayPacket.StackNode[] stack = packet.getStack();
+        int stackPos = 0;
+        int node = 0;
+
+        while (true) {
+            state.countNodeVisits(Integer.bitCount(mask));
+            int tn = tree[node];
+            int axis = tn & (7 << 29);
+            int offset = tn & ~(7 << 29);
+            float[] org, invDir;
+            int front;
+            switch (axis) {
+                case 0:
+                case 1 << 29:
+                    org = packet.ox;
+                    invDir = packet.invDx;
+                    front = offsetXFront;
+                    break;
+                case 1 << 30:
+                case 3 << 29:
+                    org = packet.oy;
+                    invDir = packet.invDy;
+                    front = offsetYFront;
+                    break;
+                case 2 << 30:
+                case 5 << 29:
+                    org = packet.oz;
+                    invDir = packet.invDz;
+                    front = offsetZFront;
+                    break;
+                case 3 << 30:
+                    org = invDir = null;
+                    front = 0;
+                    break;
+                default:
+                    return; // should not happen
+            }
+            if (axis == 3 << 30) {
+                // leaf - test some objects
+                int n = tree[node + 1];
+                state.countIntersectionTests(n * Integer.bitCount(mask));
+                for (int i = 0; i < n; i++)
+                    packet.intersectPrimitive(primitives, objects[offset + i], mask, state);
+            } else if ((axis & (1 << 29)) != 0) {
+                // bounding box node
+                float tfPlane = Float.intBitsToFloat(tree[node + 1 + front]);
+                float tbPlane = Float.intBitsToFloat(tree[node + 2 - front]);
+                int boxMask = 0;
+                for (int m = mask; m != 0; m &= m - 1) {
+                    int i = Integer.numberOfTrailingZeros(m);
+                    float tf = (tfPlane - org[i]) * invDir[i];
+                    float tb = (tbPlane - org[i]) * invDir[i];
+                    near[i] = (tf >= near[i]) ? tf : near[i];
+                    far[i] = (tb <= far[i]) ? tb : far[i];
+                    if (near[i] <= far[i])
+                        boxMask |= 1 << i;
+                }
+                if (boxMask != 0) {
+                    node = offset;
+                    mask = boxMask;
+                    continue;
+                }
+            } else {
+                if (stackPos == stack.length)
+                    return;
+                float tfPlane = Float.intBitsToFloat(tree[node + 1 + front]);
+                float tbPlane = Float.intBitsToFloat(tree[node + 2 - front]);
+                // the back intervals go straight onto the stack, in case both
+                // children are needed
+                RayPacket.StackNode back = stack[stackPos];
+                int frontMask = 0;
+                int backMask = 0;
+                for (int m = mask; m != 0; m &= m - 1) {
+                    int i = Integer.numberOfTrailingZeros(m);
+                    float tf = (tfPlane - org[i]) * invDir[i];
+                    float tb = (tbPlane - org[i]) * invDir[i];
+                    float backNear = (tb >= near[i]) ? tb : near[i];
+                    float frontFar = (tf <= far[i]) ? tf : far[i];
+                    back.near[i] = backNear;
+                    back.far[i] = far[i];
+                    if (backNear <= far[i])
+                        backMask |= 1 << i;
+                    if (near[i] <= frontFar)
+                        frontMask |= 1 << i;
+                    far[i] = frontFar;
+                }
+                int frontNode = offset + 3 * front;
+                int backNode = offset + 3 * (front ^ 1);
+                if (frontMask != 0) {
+                    if (backMask != 0) {
+                        // push back node
+                        back.node = backNode;
+                        back.mask = backMask;
+                        stackPos++;
+                    }
+                    node = frontNode;
+                    mask = frontMask;
+                    continue;
+                }
+                if (backMask != 0) {
+                    // all rays pass through the back node only
+                    for (int m = backMask; m != 0; m &= m - 1) {
+                        int i = Integer.numberOfTrailingZeros(m);
+                        near[i] = back.near[i];
+                        far[i] = back.far[i];
+                    }
+                    node = backNode;
+                    mask = backMask;
+                    continue;
+                }
+            }
+            do {
+                // stack is empty?
+                if (stackPos == 0)
+                    return;
+                // move back up the stack, dropping rays which hit something
+                // in front of the node
+                stackPos--;
+                RayPacket.StackNode entry = stack[stackPos];
+                mask = 0;
+                for (int m = entry.mask; m != 0; m &= m - 1) {
+                    int i = Integer.numberOfTrailingZeros(m);
+                    if (packet.getRay(i).getMax() < entry.near[i])
+                        continue;
+                    near[i] = entry.near[i];
+                    far[i] = entry.far[i];
+                    mask |= 1 << i;
+                }
+                node = entry.node;
+            } while (mask == 0);
+        }
+    }
 }
\ No newline at end of file
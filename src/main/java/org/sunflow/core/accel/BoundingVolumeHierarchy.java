@@ -0,0 +1,593 @@
+package org.sunflow.core.accel;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sunflow.core.AccelerationStructure;
+import org.sunflow.core.IntersectionState;
+import org.sunflow.core.PrimitiveList;
+import org.sunflow.core.Ray;
+import org.sunflow.core.RayPacket;
+import org.sunflow.system.Memory;
+import org.sunflow.system.Timer;
+import org.sunflow.system.UI;
+import org.sunflow.system.UI.Module;
+
+/**
+ * Bounding volume hierarchy built with the surface area heuristic evaluated on
+ * a fixed number of bins per axis. Nodes are stored in one flat int array, 8
+ * ints (32 bytes) per node: the node's bounding box as float bits ordered
+ * min/max per axis, followed by either the index of the first of two
+ * consecutive children and the negated split axis, or the offset into the
+ * object list and the object count of a leaf. Large lists are built on
+ * multiple threads.
+ */
+public class BoundingVolumeHierarchy implements AccelerationStructure {
+    private static final int NODE_SIZE = 8;
+    private static final int NUM_BINS = 16;
+    private static final int MIN_LEAF_SIZE = 2;
+    private static final int MAX_LEAF_SIZE = 16;
+    private static final float TRAVERSAL_COST = 2.0f;
+    // stay below the size of the traversal stack
+    private static final int MAX_DEPTH = 60;
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private int[] tree;
+    private int[] objects;
+    private PrimitiveList primitives;
+    private boolean parallel;
+    private boolean packets;
+
+    public BoundingVolumeHierarchy() {
+        parallel = true;
+        packets = false;
+    }
+
+    /**
+     * Enables building large hierarchies on multiple threads, which is the
+     * default.
+     *
+     * @param parallel <code>true</code> to allow a parallel build
+     */
+    public void setParallelBuild(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Enables traversing the hierarchy with whole ray packets. This is
+     * disabled by default, as the overlapping boxes of the hierarchy split
+     * packets early and tracing their rays one by one is usually faster.
+     *
+     * @param packets <code>true</code> to traverse packets as a whole
+     */
+    public void setPacketTraversal(boolean packets) {
+        this.packets = packets;
+    }
+
+    public void build(PrimitiveList primitives) {
+        this.primitives = primitives;
+        int n = primitives.getNumPrimitives();
+        Timer t = new Timer();
+        t.start();
+        UI.printDetailed(Module.ACCEL, "Getting primitive bounds ...");
+        float[] bounds = new float[6 * n];
+        float[] centers = new float[3 * n];
+        objects = new int[n];
+        for (int i = 0; i < n; i++) {
+            objects[i] = i;
+            for (int j = 0; j < 6; j++)
+                bounds[6 * i + j] = primitives.getPrimitiveBound(i, j);
+            for (int axis = 0; axis < 3; axis++)
+                centers[3 * i + axis] = 0.5f * (bounds[6 * i + 2 * axis] + bounds[6 * i + 2 * axis + 1]);
+        }
+        UI.printDetailed(Module.ACCEL, "Creating tree ...");
+        Builder builder = new Builder(bounds, centers, objects, Math.max(1, 2 * n - 1));
+        if (n == 0)
+            builder.createLeaf(0, 0, 0);
+        else if (parallel && n >= PARALLEL_THRESHOLD)
+            ForkJoinPool.commonPool().invoke(builder.new SubdivideTask(0, 0, n, 0));
+        else
+            builder.subdivide(0, 0, n, 0);
+        UI.printDetailed(Module.ACCEL, "Trimming tree ...");
+        int numNodes = builder.nextNode.get();
+        if (numNodes * NODE_SIZE < builder.tree.length) {
+            tree = new int[numNodes * NODE_SIZE];
+            System.arraycopy(builder.tree, 0, tree, 0, tree.length);
+        } else
+            tree = builder.tree;
+        t.end();
+        // display stats
+        printStats(numNodes);
+        UI.printDetailed(Module.ACCEL, "  * Creation time:  %s", t);
+        UI.printDetailed(Module.ACCEL, "  * Tree memory:    %s", Memory.sizeof(tree));
+        UI.printDetailed(Module.ACCEL, "  * Indices memory: %s", Memory.sizeof(objects));
+    }
+
+    /**
+     * Walks the finished tree to collect statistics, including the expected
+     * traversal cost according to the surface area heuristic.
+     */
+    private void printStats(int numNodes) {
+        int numLeaves = 0, sumObjects = 0, maxObjects = 0;
+        int sumDepth = 0, maxDepth = 0;
+        double cost = 0;
+        float rootArea = area(0);
+        int[] stack = new int[4 * (MAX_DEPTH + 2)];
+        int stackPos = 0;
+        stack[stackPos++] = 0;
+        stack[stackPos++] = 0;
+        while (stackPos > 0) {
+            int depth = stack[--stackPos];
+            int node = stack[--stackPos];
+            int offset = node * NODE_SIZE;
+            float relativeArea = rootArea > 0 ? area(node) / rootArea : 1;
+            int count = tree[offset + 7];
+            if (count >= 0) {
+                numLeaves++;
+                sumObjects += count;
+                maxObjects = Math.max(maxObjects, count);
+                sumDepth += depth;
+                maxDepth = Math.max(maxDepth, depth);
+                cost += relativeArea * count;
+            } else {
+                cost += relativeArea * TRAVERSAL_COST;
+                stack[stackPos++] = tree[offset + 6];
+                stack[stackPos++] = depth + 1;
+                stack[stackPos++] = tree[offset + 6] + 1;
+                stack[stackPos++] = depth + 1;
+            }
+        }
+        UI.printDetailed(Module.ACCEL, "Tree stats:");
+        UI.printDetailed(Module.ACCEL, "  * Nodes:          %d", numNodes);
+        UI.printDetailed(Module.ACCEL, "  * Leaves:         %d", numLeaves);
+        UI.printDetailed(Module.ACCEL, "  * Objects: avg    %.2f", (float) sumObjects / numLeaves);
+        UI.printDetailed(Module.ACCEL, "             max    %d", maxObjects);
+        UI.printDetailed(Module.ACCEL, "  * Depth:   avg    %.2f", (float) sumDepth / numLeaves);
+        UI.printDetailed(Module.ACCEL, "             max    %d", maxDepth);
+        UI.printDetailed(Module.ACCEL, "  * SAH cost:       %.2f", cost);
+    }
+
+    private float area(int node) {
+        int offset = node * NODE_SIZE;
+        float dx = Float.intBitsToFloat(tree[offset + 1]) - Float.intBitsToFloat(tree[offset + 0]);
+        float dy = Float.intBitsToFloat(tree[offset + 3]) - Float.intBitsToFloat(tree[offset + 2]);
+        float dz = Float.intBitsToFloat(tree[offset + 5]) - Float.intBitsToFloat(tree[offset + 4]);
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    /**
+     * Holds the temporary build data. Nodes are appended concurrently in
+     * pairs of siblings, every node owns a disjoint range of the object list.
+     */
+    private static final class Builder {
+        private final float[] bounds;
+        private final float[] centers;
+        private final int[] objects;
+        private final int[] tree;
+        private final AtomicInteger nextNode;
+
+        Builder(float[] bounds, float[] centers, int[] objects, int maxNodes) {
+            this.bounds = bounds;
+            this.centers = centers;
+            this.objects = objects;
+            tree = new int[maxNodes * NODE_SIZE];
+            nextNode = new AtomicInteger(1);
+        }
+
+        private final class SubdivideTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final int node, left, right, depth;
+
+            SubdivideTask(int node, int left, int right, int depth) {
+                this.node = node;
+                this.left = left;
+                this.right = right;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                if (right - left < PARALLEL_THRESHOLD) {
+                    subdivide(node, left, right, depth);
+                    return;
+                }
+                int children = split(node, left, right, depth);
+                if (children == -1)
+                    return;
+                int mid = tree[children * NODE_SIZE + 7];
+                invokeAll(new SubdivideTask(children, left, mid, depth + 1), new SubdivideTask(children + 1, mid, right, depth + 1));
+            }
+        }
+
+        void subdivide(int node, int left, int right, int depth) {
+            int children = split(node, left, right, depth);
+            if (children == -1)
+                return;
+            int mid = tree[children * NODE_SIZE + 7];
+            subdivide(children, left, mid, depth + 1);
+            subdivide(children + 1, mid, right, depth + 1);
+        }
+
+        void createLeaf(int node, int left, int right) {
+            tree[node * NODE_SIZE + 6] = left;
+            tree[node * NODE_SIZE + 7] = right - left;
+        }
+
+        /**
+         * Computes the bounds of a node and either turns it into a leaf or
+         * partitions its objects and creates its two children.
+         *
+         * @return index of the first child, whose count entry temporarily
+         *         holds the split position, or -1 for a leaf
+         */
+        private int split(int node, int left, int right, int depth) {
+            int offset = node * NODE_SIZE;
+            float[] box = { Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                    Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                    Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+            float[] centerBox = box.clone();
+            for (int i = left; i < right; i++) {
+                int obj = objects[i];
+                include(box, bounds, 6 * obj);
+                for (int axis = 0; axis < 3; axis++) {
+                    float c = centers[3 * obj + axis];
+                    centerBox[2 * axis] = Math.min(centerBox[2 * axis], c);
+                    centerBox[2 * axis + 1] = Math.max(centerBox[2 * axis + 1], c);
+                }
+            }
+            for (int i = 0; i < 6; i++)
+                tree[offset + i] = Float.floatToRawIntBits(box[i]);
+            int n = right - left;
+            if (n <= MIN_LEAF_SIZE || depth >= MAX_DEPTH) {
+                createLeaf(node, left, right);
+                return -1;
+            }
+
+            // find the cheapest split plane between bins on all axes
+            int bestAxis = -1, bestBin = -1;
+            float bestCost = Float.POSITIVE_INFINITY;
+            int[] binCount = new int[NUM_BINS];
+            float[] binBox = new float[6 * NUM_BINS];
+            float[] rightArea = new float[NUM_BINS];
+            float[] sweep = new float[6];
+            for (int axis = 0; axis < 3; axis++) {
+                float min = centerBox[2 * axis];
+                float extent = centerBox[2 * axis + 1] - min;
+                if (!(extent > 0))
+                    continue;
+                float scale = NUM_BINS / extent;
+                Arrays.fill(binCount, 0);
+                for (int b = 0; b < NUM_BINS; b++)
+                    resetBox(binBox, 6 * b);
+                for (int i = left; i < right; i++) {
+                    int obj = objects[i];
+                    int b = bin(centers[3 * obj + axis], min, scale);
+                    binCount[b]++;
+                    include(binBox, 6 * b, bounds, 6 * obj);
+                }
+                // sweep from the right to get the areas right of each plane
+                resetBox(sweep, 0);
+                for (int b = NUM_BINS - 1; b > 0; b--) {
+                    include(sweep, 0, binBox, 6 * b);
+                    rightArea[b] = area(sweep);
+                }
+                // sweep from the left and evaluate each plane
+                resetBox(sweep, 0);
+                int countLeft = 0;
+                for (int b = 0; b < NUM_BINS - 1; b++) {
+                    include(sweep, 0, binBox, 6 * b);
+                    countLeft += binCount[b];
+                    int countRight = n - countLeft;
+                    if (countLeft == 0 || countRight == 0)
+                        continue;
+                    float cost = countLeft * area(sweep) + countRight * rightArea[b + 1];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+
+            int mid;
+            if (bestAxis == -1) {
+                // all centers coincide, split in the middle if too many
+                if (n <= MAX_LEAF_SIZE) {
+                    createLeaf(node, left, right);
+                    return -1;
+                }
+                mid = (left + right) >>> 1;
+            } else {
+                float nodeArea = area(box);
+                float splitCost = nodeArea > 0 ? TRAVERSAL_COST + bestCost / nodeArea : Float.POSITIVE_INFINITY;
+                if (splitCost >= n && n <= MAX_LEAF_SIZE) {
+                    createLeaf(node, left, right);
+                    return -1;
+                }
+                // partition objects by the chosen plane
+                float min = centerBox[2 * bestAxis];
+                float scale = NUM_BINS / (centerBox[2 * bestAxis + 1] - min);
+                int i = left, j = right - 1;
+                while (i <= j) {
+                    if (bin(centers[3 * objects[i] + bestAxis], min, scale) <= bestBin)
+                        i++;
+                    else {
+                        int tmp = objects[i];
+                        objects[i] = objects[j];
+                        objects[j] = tmp;
+                        j--;
+                    }
+                }
+                mid = i;
+                if (mid == left || mid == right)
+                    mid = (left + right) >>> 1;
+            }
+            int children = nextNode.getAndAdd(2);
+            tree[offset + 6] = children;
+            tree[offset + 7] = -(bestAxis == -1 ? 1 : bestAxis + 1);
+            tree[children * NODE_SIZE + 7] = mid;
+            return children;
+        }
+
+        private static int bin(float center, float min, float scale) {
+            int b = (int) ((center - min) * scale);
+            return b < 0 ? 0 : b >= NUM_BINS ? NUM_BINS - 1 : b;
+        }
+
+        private static void resetBox(float[] box, int offset) {
+            for (int axis = 0; axis < 3; axis++) {
+                box[offset + 2 * axis] = Float.POSITIVE_INFINITY;
+                box[offset + 2 * axis + 1] = Float.NEGATIVE_INFINITY;
+            }
+        }
+
+        private static void include(float[] box, float[] src, int srcOffset) {
+            include(box, 0, src, srcOffset);
+        }
+
+        private static void include(float[] box, int offset, float[] src, int srcOffset) {
+            for (int axis = 0; axis < 3; axis++) {
+                box[offset + 2 * axis] = Math.min(box[offset + 2 * axis], src[srcOffset + 2 * axis]);
+                box[offset + 2 * axis + 1] = Math.max(box[offset + 2 * axis + 1], src[srcOffset + 2 * axis + 1]);
+            }
+        }
+
+        private static float area(float[] box) {
+            float dx = box[1] - box[0];
+            float dy = box[3] - box[2];
+            float dz = box[5] - box[4];
+            return dx * dy + dy * dz + dz * dx;
+        }
+    }
+
+    public void intersect(Ray r, IntersectionState state) {
+        float orgX = r.ox, invDirX = 1 / r.dx;
+        float orgY = r.oy, invDirY = 1 / r.dy;
+        float orgZ = r.oz, invDirZ = 1 / r.dz;
+        // offsets of the near and far planes from the direction sign bits
+        int nearX = Float.floatToRawIntBits(r.dx) >>> 31;
+        int nearY = 2 + (Float.floatToRawIntBits(r.dy) >>> 31);
+        int nearZ = 4 + (Float.floatToRawIntBits(r.dz) >>> 31);
+        int farX = nearX ^ 1;
+        int farY = nearY ^ 1;
+        int farZ = nearZ ^ 1;
+
+        IntersectionState.StackNode[] stack = state.getStack();
+        int stackPos = 0;
+        int node = 0;
+        if (intersectBox(0, orgX, orgY, orgZ, invDirX, invDirY, invDirZ, nearX, nearY, nearZ, farX, farY, farZ, r.getMin(), r.getMax()) == Float.POSITIVE_INFINITY)
+            return;
+        while (true) {
+            state.countNodeVisits(1);
+            int offset = node * NODE_SIZE;
+            int count = tree[offset + 7];
+            if (count < 0) {
+                int left = tree[offset + 6];
+                float tMin = r.getMin();
+                float tMax = r.getMax();
+                float tl = intersectBox(left, orgX, orgY, orgZ, invDirX, invDirY, invDirZ, nearX, nearY, nearZ, farX, farY, farZ, tMin, tMax);
+                float tr = intersectBox(left + 1, orgX, orgY, orgZ, invDirX, invDirY, invDirZ, nearX, nearY, nearZ, farX, farY, farZ, tMin, tMax);
+                if (tl != Float.POSITIVE_INFINITY) {
+                    if (tr != Float.POSITIVE_INFINITY) {
+                        // visit the nearer child first
+                        boolean leftFirst = tl <= tr;
+                        stack[stackPos].node = leftFirst ? left + 1 : left;
+                        stack[stackPos].near = leftFirst ? tr : tl;
+                        stackPos++;
+                        node = leftFirst ? left : left + 1;
+                    } else
+                        node = left;
+                    continue;
+                } else if (tr != Float.POSITIVE_INFINITY) {
+                    node = left + 1;
+                    continue;
+                }
+            } else {
+                // leaf - test some objects
+                int first = tree[offset + 6];
+                for (int i = first; i < first + count; i++)
+                    primitives.intersectPrimitive(r, objects[i], state);
+                state.countIntersectionTests(count);
+            }
+            do {
+                // stack is empty?
+                if (stackPos == 0)
+                    return;
+                // move back up the stack, skipping nodes behind the hit
+                stackPos--;
+                node = stack[stackPos].node;
+            } while (stack[stackPos].near > r.getMax());
+        }
+    }
+
+    /**
+     * @return distance at which the ray enters the node's box, or positive
+     *         infinity if it misses the box within [tMin,tMax]
+     */
+    private float intersectBox(int node, float orgX, float orgY, float orgZ, float invDirX, float invDirY, float invDirZ, int nearX, int nearY, int nearZ, int farX, int farY, int farZ, float tMin, float tMax) {
+        int offset = node * NODE_SIZE;
+        float t;
+        // comparisons are arranged such that NaNs from 0 * inf are ignored
+        t = (Float.intBitsToFloat(tree[offset + nearX]) - orgX) * invDirX;
+        if (t > tMin)
+            tMin = t;
+        t = (Float.intBitsToFloat(tree[offset + farX]) - orgX) * invDirX;
+        if (t < tMax)
+            tMax = t;
+        t = (Float.intBitsToFloat(tree[offset + nearY]) - orgY) * invDirY;
+        if (t > tMin)
+            tMin = t;
+        t = (Float.intBitsToFloat(tree[offset + farY]) - orgY) * invDirY;
+        if (t < tMax)
+            tMax = t;
+        t = (Float.intBitsToFloat(tree[offset + nearZ]) - orgZ) * invDirZ;
+        if (t > tMin)
+            tMin = t;
+        t = (Float.intBitsToFloat(tree[offset + farZ]) - orgZ) * invDirZ;
+        if (t < tMax)
+            tMax = t;
+        return tMin <= tMax ? tMin : Float.POSITIVE_INFINITY;
+    }
+
+    public void intersect(RayPacket packet, IntersectionState state) {
+        int signs = packet.getDirectionSigns();
+        if (!packets || signs < 0) {
+            // traced ray by ray, or the rays disagree on the traversal order
+            packet.intersectEach(this, state);
+            return;
+        }
+        int nearX = signs & 1;
+        int nearY = 2 + ((signs >>> 1) & 1);
+        int nearZ = 4 + (signs >>> 2);
+        int farX = nearX ^ 1;
+        int farY = nearY ^ 1;
+        int farZ = nearZ ^ 1;
+
+        float[] entryLeft = packet.near;
+        RayPacket.StackNode[] stack = packet.getStack();
+        int stackPos = 0;
+        int node = 0;
+        int mask = intersectBox(packet, packet.getMask(), 0, nearX, nearY, nearZ, farX, farY, farZ, entryLeft);
+        if (mask == 0)
+            return;
+        while (true) {
+            state.countNodeVisits(Integer.bitCount(mask));
+            int offset = node * NODE_SIZE;
+            int count = tree[offset + 7];
+            if (count < 0) {
+                int left = tree[offset + 6];
+                // entry distances of the right child go straight onto the
+                // stack, in case both children are needed
+                RayPacket.StackNode entry = stack[stackPos];
+                int leftMask = intersectBox(packet, mask, left, nearX, nearY, nearZ, farX, farY, farZ, entryLeft);
+                int rightMask = intersectBox(packet, mask, left + 1, nearX, nearY, nearZ, farX, farY, farZ, entry.near);
+                if (leftMask != 0) {
+                    if (rightMask != 0) {
+                        // visit the child the packet enters first
+                        if (minimum(entryLeft, leftMask) <= minimum(entry.near, rightMask)) {
+                            entry.node = left + 1;
+                            entry.mask = rightMask;
+                        } else {
+                            for (int m = leftMask; m != 0; m &= m - 1) {
+                                int i = Integer.numberOfTrailingZeros(m);
+                                entry.near[i] = entryLeft[i];
+                            }
+                            entry.node = left;
+                            entry.mask = leftMask;
+                            left++;
+                            leftMask = rightMask;
+                        }
+                        stackPos++;
+                    }
+                    node = left;
+                    mask = leftMask;
+                    continue;
+                } else if (rightMask != 0) {
+                    node = left + 1;
+                    mask = rightMask;
+                    continue;
+                }
+            } else {
+                // leaf - test some objects
+                int first = tree[offset + 6];
+                for (int i = first; i < first + count; i++)
+                    packet.intersectPrimitive(primitives, objects[i], mask, state);
+                state.countIntersectionTests(count * Integer.bitCount(mask));
+            }
+            do {
+                // stack is empty?
+                if (stackPos == 0)
+                    return;
+                // move back up the stack, dropping rays which hit something
+                // in front of the node
+                stackPos--;
+                RayPacket.StackNode entry = stack[stackPos];
+                mask = 0;
+                for (int m = entry.mask; m != 0; m &= m - 1) {
+                    int i = Integer.numberOfTrailingZeros(m);
+                    if (entry.near[i] <= packet.getRay(i).getMax())
+                        mask |= 1 << i;
+                }
+                node = entry.node;
+            } while (mask == 0);
+        }
+    }
+
+    /**
+     * Intersects some rays of a packet with the box of a node.
+     *
+     * @param entry receives the distance at which each ray enters the box
+     * @return mask of the rays which hit the box
+     */
+    private int intersectBox(RayPacket packet, int mask, int node, int nearX, int nearY, int nearZ, int farX, int farY, int farZ, float[] entry) {
+        int offset = node * NODE_SIZE;
+        float minX = Float.intBitsToFloat(tree[offset + nearX]);
+        float maxX = Float.intBitsToFloat(tree[offset + farX]);
+        float minY = Float.intBitsToFloat(tree[offset + nearY]);
+        float maxY = Float.intBitsToFloat(tree[offset + farY]);
+        float minZ = Float.intBitsToFloat(tree[offset + nearZ]);
+        float maxZ = Float.intBitsToFloat(tree[offset + farZ]);
+        int hits = 0;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            Ray r = packet.getRay(i);
+            float tMin = r.getMin();
+            float tMax = r.getMax();
+            float t;
+            // comparisons are arranged such that NaNs from 0 * inf are ignored
+            t = (minX - packet.ox[i]) * packet.invDx[i];
+            if (t > tMin)
+                tMin = t;
+            t = (maxX - packet.ox[i]) * packet.invDx[i];
+            if (t < tMax)
+                tMax = t;
+            t = (minY - packet.oy[i]) * packet.invDy[i];
+            if (t > tMin)
+                tMin = t;
+            t = (maxY - packet.oy[i]) * packet.invDy[i];
+            if (t < tMax)
+                tMax = t;
+            t = (minZ - packet.oz[i]) * packet.invDz[i];
+            if (t > tMin)
+                tMin = t;
+            t = (maxZ - packet.oz[i]) * packet.invDz[i];
+            if (t < tMax)
+                tMax = t;
+            entry[i] = tMin;
+            if (tMin <= tMax)
+                hits |= 1 << i;
+        }
+        return hits;
+    }
+
+    private static float minimum(float[] values, int mask) {
+        float min = Float.POSITIVE_INFINITY;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+}
\ No newline at end of file
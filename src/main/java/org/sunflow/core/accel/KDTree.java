@@ -7,6 +7,7 @@ import org.sunflow.core.AccelerationStructure;
 import org.sunflow.core.IntersectionState;
 import org.sunflow.core.PrimitiveList;
 import org.sunflow.core.Ray;
+import org.sunflow.core.RayPacket;
 import org.sunflow.image.Color;
 import org.sunflow.math.BoundingBox;
 import org.sunflow.math.Point3;
@@ -710,6 +711,7 @@ public class KDTree implements AccelerationStructure {
         int node = 0;
 
         while (true) {
+            state.countNodeVisits(1);
             int tn = tree[node];
             int axis = tn & (3 << 30);
             int offset = tn & ~(3 << 30);
@@ -773,6 +775,7 @@ public class KDTree implements AccelerationStructure {
                 default: {
                     // leaf - test some objects
                     int n = tree[node + 1];
+                    state.countIntersectionTests(n);
                     while (n > 0) {
                         primitiveList.intersectPrimitive(r, primitives[offset], state);
                         n--;
@@ -797,4 +800,123 @@ public class KDTree implements AccelerationStructure {
             } // switch
         } // traversal loop
     }
+
+    public void intersect(RayPacket packet, IntersectionState state) {
+        int signs = packet.getDirectionSigns();
+        if (signs < 0) {
+            // the rays disagree on the traversal order
+            packet.intersectEach(this, state);
+            return;
+        }
+        int mask = packet.clip(bounds.getMinimum().x, bounds.getMinimum().y, bounds.getMinimum().z, bounds.getMaximum().x, bounds.getMaximum().y, bounds.getMaximum().z);
+        if (mask == 0)
+            return;
+
+        // compute custom offsets from the common direction signs
+        int offsetXFront = (signs & 1) << 1;
+        int offsetYFront = signs & 2;
+        int offsetZFront = (signs & 4) >>> 1;
+
+        float[] near = packet.near;
+        float[] far = packet.far;
+        RayPacket.StackNode[] stack = packet.getStack();
+        int stackPos = 0;
+        int node = 0;
+
+        while (true) {
+            state.countNodeVisits(Integer.bitCount(mask));
+            int tn = tree[node];
+            int axis = tn & (3 << 30);
+            int offset = tn & ~(3 << 30);
+            if (axis != 3 << 30) {
+                float[] org, invDir;
+                int front;
+                switch (axis) {
+                    case 0:
+                        org = packet.ox;
+                        invDir = packet.invDx;
+                        front = offsetXFront;
+                        break;
+                    case 1 << 30:
+                        org = packet.oy;
+                        invDir = packet.invDy;
+                        front = offsetYFront;
+                        break;
+                    default:
+                        org = packet.oz;
+                        invDir = packet.invDz;
+                        front = offsetZFront;
+                        break;
+                }
+                float split = Float.intBitsToFloat(tree[node + 1]);
+                // the back intervals go straight onto the stack, in case both
+                // children are needed
+                RayPacket.StackNode back = stack[stackPos];
+                int frontMask = 0;
+                int backMask = 0;
+                for (int m = mask; m != 0; m &= m - 1) {
+                    int i = Integer.numberOfTrailingZeros(m);
+                    float d = (split - org[i]) * invDir[i];
+                    float backNear = (d >= near[i]) ? d : near[i];
+                    float frontFar = (d <= far[i]) ? d : far[i];
+                    back.near[i] = backNear;
+                    back.far[i] = far[i];
+                    if (backNear <= far[i])
+                        backMask |= 1 << i;
+                    if (near[i] <= frontFar)
+                        frontMask |= 1 << i;
+                    far[i] = frontFar;
+                }
+                int frontNode = offset + front;
+                int backNode = offset + (front ^ 2);
+                if (frontMask != 0) {
+                    if (backMask != 0) {
+                        // push back node
+                        back.node = backNode;
+                        back.mask = backMask;
+                        stackPos++;
+                    }
+                    node = frontNode;
+                    mask = frontMask;
+                    continue;
+                }
+                if (backMask != 0) {
+                    // all rays pass through the back node only
+                    for (int m = backMask; m != 0; m &= m - 1) {
+                        int i = Integer.numberOfTrailingZeros(m);
+                        near[i] = back.near[i];
+                        far[i] = back.far[i];
+                    }
+                    node = backNode;
+                    mask = backMask;
+                    continue;
+                }
+            } else {
+                // leaf - test some objects
+                int n = tree[node + 1];
+                state.countIntersectionTests(n * Integer.bitCount(mask));
+                for (int i = 0; i < n; i++)
+                    packet.intersectPrimitive(primitiveList, primitives[offset + i], mask, state);
+            }
+            do {
+                // stack is empty?
+                if (stackPos == 0)
+                    return;
+                // move back up the stack, dropping rays which hit something
+                // in front of the node
+                stackPos--;
+                RayPacket.StackNode entry = stack[stackPos];
+                mask = 0;
+                for (int m = entry.mask; m != 0; m &= m - 1) {
+                    int i = Integer.numberOfTrailingZeros(m);
+                    if (packet.getRay(i).getMax() < entry.near[i])
+                        continue;
+                    near[i] = entry.near[i];
+                    far[i] = entry.far[i];
+                    mask |= 1 << i;
+                }
+                node = entry.node;
+            } while (mask == 0);
+        }
+    }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import org.sunflow.core.AccelerationStructure;
 import org.sunflow.core.IntersectionState;
 import org.sunflow.core.PrimitiveList;
 import org.sunflow.core.Ray;
+import org.sunflow.core.RayPacket;
 
 public class NullAccelerator implements AccelerationStructure {
     private PrimitiveList primitives;
@@ -23,4 +24,10 @@ public class NullAccelerator implements AccelerationStructure {
         for (int i = 0; i < n; i++)
             primitives.intersectPrimitive(r, i, state);
     }
+
+    public void intersect(RayPacket packet, IntersectionState state) {
+        int mask = packet.getMask();
+        for (int i = 0; i < n; i++)
+            packet.intersectPrimitive(primitives, i, mask, state);
+    }
 }
\ No newline at end of file
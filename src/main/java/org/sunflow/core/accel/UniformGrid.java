@@ -4,6 +4,7 @@ import org.sunflow.core.AccelerationStructure;
 import org.sunflow.core.IntersectionState;
 import org.sunflow.core.PrimitiveList;
 import org.sunflow.core.Ray;
+import org.sunflow.core.RayPacket;
 import org.sunflow.math.BoundingBox;
 import org.sunflow.math.MathUtils;
 import org.sunflow.math.Vector3;
@@ -237,6 +238,7 @@ public final class UniformGrid implements AccelerationStructure {
         int cell = indxX + indxY * nx + indxZ * ny * nx;
         // trace through the grid
         for (;;) {
+            state.countNodeVisits(1);
             if (tnextX < tnextY && tnextX < tnextZ) {
                 if (cells[cell] != null) {
                     for (int i : cells[cell])
@@ -286,6 +288,10 @@ public final class UniformGrid implements AccelerationStructure {
         }
     }
 
+    public void intersect(RayPacket packet, IntersectionState state) {
+        packet.intersectEach(this, state);
+    }
+
     private void getGridIndex(float x, float y, float z, int[] i) {
         i[0] = MathUtils.clamp((int) ((x - bounds.getMinimum().x) * invVoxelwx), 0, nx - 1);
         i[1] = MathUtils.clamp((int) ((y - bounds.getMinimum().y) * invVoxelwy), 0, ny - 1);
@@ -31,7 +31,7 @@ public class AmbientOcclusionGIEngine implements GIEngine {
     public Color getIrradiance(ShadingState state, Color diffuseReflectance) {
         OrthoNormalBasis onb = state.getBasis();
         Vector3 w = new Vector3();
-        Color result = Color.black();
+        Ray[] rays = new Ray[samples];
         for (int i = 0; i < samples; i++) {
             float xi = (float) state.getRandom(i, 0, samples);
             float xj = (float) state.getRandom(i, 1, samples);
@@ -44,10 +44,9 @@ public class AmbientOcclusionGIEngine implements GIEngine {
             w.y = sinPhi * sinTheta;
             w.z = cosTheta;
             onb.transform(w);
-            Ray r = new Ray(state.getPoint(), w);
-            r.setMax(maxDist);
-            result.add(Color.blend(bright, dark, state.traceShadow(r)));
+            rays[i] = new Ray(state.getPoint(), w);
+            rays[i].setMax(maxDist);
         }
-        return result.mul((float) Math.PI / samples);
+        return Color.blend(bright, dark, (float) state.traceShadows(rays, samples) / samples).mul((float) Math.PI);
     }
 }
\ No newline at end of file
@@ -1,11 +1,22 @@
 package org.sunflow.core.gi;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.sunflow.PluginRegistry;
-import org.sunflow.core.GIEngine;
 import org.sunflow.core.GlobalPhotonMapInterface;
 import org.sunflow.core.Options;
+import org.sunflow.core.PersistentGIEngine;
+import org.sunflow.core.PersistentPhotonStore;
 import org.sunflow.core.Ray;
 import org.sunflow.core.Scene;
 import org.sunflow.core.ShadingState;
@@ -14,10 +25,14 @@ import org.sunflow.math.MathUtils;
 import org.sunflow.math.OrthoNormalBasis;
 import org.sunflow.math.Point3;
 import org.sunflow.math.Vector3;
+import org.sunflow.system.Timer;
 import org.sunflow.system.UI;
 import org.sunflow.system.UI.Module;
 
-public class IrradianceCacheGIEngine implements GIEngine {
+public class IrradianceCacheGIEngine implements PersistentGIEngine {
+    private static final int CACHE_FILE_MAGIC = 0x53464943; // "SFIC"
+    private static final int CACHE_FILE_VERSION = 1;
+
     private int samples;
     private float tolerance;
     private float invTolerance;
@@ -26,6 +41,9 @@ public class IrradianceCacheGIEngine implements GIEngine {
     private Node root;
     private ReentrantReadWriteLock rwl;
     private GlobalPhotonMapInterface globalPhotonMap;
+    private String cacheFile;
+    private long cacheKey;
+    private boolean cacheModified;
 
     public boolean init(Options options, Scene scene) {
         // get settings
@@ -36,7 +54,9 @@ public class IrradianceCacheGIEngine implements GIEngine {
         maxSpacing = options.getFloat("gi.irr-cache.max_spacing", 5.00f);
         root = null;
         rwl = new ReentrantReadWriteLock();
-        globalPhotonMap = PluginRegistry.globalPhotonMapPlugins.createObject(options.getString("gi.irr-cache.gmap", null));
+        String gmap = options.getString("gi.irr-cache.gmap", null);
+        globalPhotonMap = PluginRegistry.globalPhotonMapPlugins.createObject(gmap);
+        cacheFile = options.getString("gi.irr-cache.file", null);
         // check settings
         samples = Math.max(0, samples);
         minSpacing = Math.max(0.001f, minSpacing);
@@ -49,13 +69,128 @@ public class IrradianceCacheGIEngine implements GIEngine {
         else
             UI.printInfo(Module.LIGHT, "  * Tolerance: %.3f", tolerance);
         UI.printInfo(Module.LIGHT, "  * Spacing: %.3f to %.3f", minSpacing, maxSpacing);
+        UI.printInfo(Module.LIGHT, "  * Cache file: %s", cacheFile == null ? "none" : cacheFile);
         // prepare root node
         Vector3 ext = scene.getBounds().getExtents();
         root = new Node(scene.getBounds().getCenter(), 1.0001f * MathUtils.max(ext.x, ext.y, ext.z));
+        cacheModified = false;
+        if (cacheFile != null) {
+            // everything that influences stored samples or photons is part
+            // of the key, the camera and image resolution are not
+            cacheKey = scene.getCacheKey();
+            cacheKey = 31 * cacheKey + samples;
+            cacheKey = 31 * cacheKey + Float.floatToIntBits(tolerance);
+            cacheKey = 31 * cacheKey + Float.floatToIntBits(minSpacing);
+            cacheKey = 31 * cacheKey + Float.floatToIntBits(maxSpacing);
+            cacheKey = 31 * cacheKey + (gmap == null ? 0 : gmap.hashCode());
+            cacheKey = 31 * cacheKey + options.getInt("gi.irr-cache.gmap.emit", 100000);
+            cacheKey = 31 * cacheKey + options.getInt("gi.irr-cache.gmap.gather", 50);
+            cacheKey = 31 * cacheKey + Float.floatToIntBits(options.getFloat("gi.irr-cache.gmap.radius", 0.5f));
+            cacheKey = 31 * cacheKey + options.getInt("depths.diffuse", 1);
+            if (loadCache())
+                return true;
+            cacheModified = true;
+        }
         // init global photon map
         return (globalPhotonMap != null) ? scene.calculatePhotons(globalPhotonMap, "global", 0, options) : true;
     }
 
+    /**
+     * Restore irradiance samples and, if possible, the global photon map from
+     * the cache file. The file is only used, if it was written for the same
+     * scene and settings.
+     *
+     * @return <code>true</code> if the photon map doesn't need to be traced
+     */
+    private boolean loadCache() {
+        File file = new File(cacheFile);
+        if (!file.exists())
+            return false;
+        Timer t = new Timer();
+        t.start();
+        try {
+            FileInputStream stream = new FileInputStream(file);
+            MappedByteBuffer buffer;
+            try {
+                buffer = stream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                stream.close();
+            }
+            if (buffer.getInt() != CACHE_FILE_MAGIC || buffer.getInt() != CACHE_FILE_VERSION) {
+                UI.printWarning(Module.LIGHT, "Ignoring irradiance cache file \"%s\" - unknown format", cacheFile);
+                return false;
+            }
+            if (buffer.getLong() != cacheKey) {
+                UI.printInfo(Module.LIGHT, "Irradiance cache file \"%s\" was created for a different scene", cacheFile);
+                return false;
+            }
+            boolean hasPhotons = buffer.get() != 0;
+            if (hasPhotons != (globalPhotonMap instanceof PersistentPhotonStore))
+                return false;
+            if (hasPhotons && !((PersistentPhotonStore) globalPhotonMap).read(buffer))
+                return false;
+            int n = buffer.getInt();
+            Point3 p = new Point3();
+            Vector3 nrm = new Vector3();
+            for (int i = 0; i < n; i++) {
+                p.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                nrm.set(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                float r0 = buffer.getFloat();
+                Color irr = new Color(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                insert(p, nrm, r0, irr);
+            }
+            t.end();
+            UI.printInfo(Module.LIGHT, "Irradiance cache restored from \"%s\":", cacheFile);
+            UI.printInfo(Module.LIGHT, "  * Samples: %d", n);
+            UI.printInfo(Module.LIGHT, "  * Loading time: %s", t.toString());
+            return hasPhotons || globalPhotonMap == null;
+        } catch (IOException e) {
+            UI.printWarning(Module.LIGHT, "Unable to read irradiance cache file \"%s\" - %s", cacheFile, e.getMessage());
+        } catch (RuntimeException e) {
+            // truncated or otherwise damaged file
+            UI.printWarning(Module.LIGHT, "Unable to read irradiance cache file \"%s\" - file is corrupt", cacheFile);
+        }
+        root = new Node(root.center, root.sideLength);
+        return false;
+    }
+
+    public void saveCache() {
+        if (cacheFile == null || !cacheModified)
+            return;
+        rwl.readLock().lock();
+        File file = new File(cacheFile).getAbsoluteFile();
+        File tempFile = null;
+        try {
+            // the old file may still be mapped by loadCache(), so it is
+            // replaced by a complete new file instead of being overwritten
+            tempFile = File.createTempFile("." + file.getName() + ".", ".tmp", file.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(CACHE_FILE_MAGIC);
+                out.writeInt(CACHE_FILE_VERSION);
+                out.writeLong(cacheKey);
+                boolean hasPhotons = globalPhotonMap instanceof PersistentPhotonStore;
+                out.writeBoolean(hasPhotons);
+                if (hasPhotons)
+                    ((PersistentPhotonStore) globalPhotonMap).write(out);
+                out.writeInt(root.count());
+                root.write(out);
+            } finally {
+                out.close();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tempFile = null;
+            cacheModified = false;
+            UI.printInfo(Module.LIGHT, "Irradiance cache written to \"%s\"", cacheFile);
+        } catch (IOException e) {
+            UI.printError(Module.LIGHT, "Unable to write irradiance cache file \"%s\" - %s", cacheFile, e.getMessage());
+        } finally {
+            if (tempFile != null)
+                tempFile.delete();
+            rwl.readLock().unlock();
+        }
+    }
+
     public Color getGlobalRadiance(ShadingState state) {
         if (globalPhotonMap == null) {
             if (state.getShader() != null)
@@ -91,6 +226,7 @@ public class IrradianceCacheGIEngine implements GIEngine {
         rwl.readLock().lock();
         Color irr = getIrradiance(state.getPoint(), state.getNormal());
         rwl.readLock().unlock();
+        state.countGICacheLookup(irr != null);
         if (irr == null) {
             // compute new sample
             irr = Color.black();
@@ -123,6 +259,7 @@ public class IrradianceCacheGIEngine implements GIEngine {
             invR = samples / invR;
             rwl.writeLock().lock();
             insert(state.getPoint(), state.getNormal(), invR, irr);
+            cacheModified = true;
             rwl.writeLock().unlock();
             // view irr-cache points
             // irr = Color.YELLOW.copy().mul(1e6f);
@@ -183,6 +320,35 @@ public class IrradianceCacheGIEngine implements GIEngine {
             first = null;
         }
 
+        final int count() {
+            int n = 0;
+            for (Sample s = first; s != null; s = s.next)
+                n++;
+            for (int i = 0; i < 8; i++)
+                if (children[i] != null)
+                    n += children[i].count();
+            return n;
+        }
+
+        final void write(DataOutputStream out) throws IOException {
+            for (Sample s = first; s != null; s = s.next) {
+                out.writeFloat(s.pix);
+                out.writeFloat(s.piy);
+                out.writeFloat(s.piz);
+                out.writeFloat(s.nix);
+                out.writeFloat(s.niy);
+                out.writeFloat(s.niz);
+                out.writeFloat(1.0f / s.invR0);
+                float[] rgb = s.irr.getRGB();
+                out.writeFloat(rgb[0]);
+                out.writeFloat(rgb[1]);
+                out.writeFloat(rgb[2]);
+            }
+            for (int i = 0; i < 8; i++)
+                if (children[i] != null)
+                    children[i].write(out);
+        }
+
         final boolean isInside(Point3 p) {
             return (Math.abs(p.x - center.x) < halfSideLength) && (Math.abs(p.y - center.y) < halfSideLength) && (Math.abs(p.z - center.z) < halfSideLength);
         }
@@ -5,7 +5,6 @@ import org.sunflow.core.Instance;
 import org.sunflow.core.LightSample;
 import org.sunflow.core.LightSource;
 import org.sunflow.core.ParameterList;
-import org.sunflow.core.Ray;
 import org.sunflow.core.ShadingState;
 import org.sunflow.image.Color;
 import org.sunflow.math.OrthoNormalBasis;
@@ -64,8 +63,8 @@ public class DirectionalSpotlight implements LightSource {
                     p.x = src.x + x;
                     p.y = src.y + y;
                     p.z = src.z + z;
-                    LightSample dest = new LightSample();
-                    dest.setShadowRay(new Ray(state.getPoint(), p));
+                    LightSample dest = state.createLightSample();
+                    dest.setShadowRay(state.getPoint(), p);
                     dest.setRadiance(radiance, radiance);
                     dest.traceShadow(state);
                     state.addSample(dest);
@@ -12,8 +12,8 @@ import org.sunflow.core.Shader;
 import org.sunflow.core.ShadingState;
 import org.sunflow.core.Texture;
 import org.sunflow.core.TextureCache;
-import org.sunflow.image.Bitmap;
 import org.sunflow.image.Color;
+import org.sunflow.math.AliasTable;
 import org.sunflow.math.BoundingBox;
 import org.sunflow.math.Matrix4;
 import org.sunflow.math.OrthoNormalBasis;
@@ -27,8 +27,8 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
     private int numSamples;
     private int numLowSamples;
     private float jacobian;
-    private float[] colHistogram;
-    private float[][] imageHistogram;
+    private AliasTable texelTable;
+    private int width, height;
     private Vector3[] samples;
     private Vector3[] lowSamples;
     private Color[] colors;
@@ -60,34 +60,24 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
         // no texture provided
         if (texture == null)
             return false;
-        Bitmap b = texture.getBitmap();
-        if (b == null)
-            return false;
 
-        // rebuild histograms if this is a new texture
+        // rebuild sampling table if this is a new texture
         if (filename != null) {
-            imageHistogram = new float[b.getWidth()][b.getHeight()];
-            colHistogram = new float[b.getWidth()];
-            float du = 1.0f / b.getWidth();
-            float dv = 1.0f / b.getHeight();
-            for (int x = 0; x < b.getWidth(); x++) {
-                for (int y = 0; y < b.getHeight(); y++) {
-                    float u = (x + 0.5f) * du;
-                    float v = (y + 0.5f) * dv;
-                    Color c = texture.getPixel(u, v);
-                    imageHistogram[x][y] = c.getLuminance() * (float) Math.sin(Math.PI * v);
-                    if (y > 0)
-                        imageHistogram[x][y] += imageHistogram[x][y - 1];
-                }
-                colHistogram[x] = imageHistogram[x][b.getHeight() - 1];
-                if (x > 0)
-                    colHistogram[x] += colHistogram[x - 1];
-                for (int y = 0; y < b.getHeight(); y++)
-                    imageHistogram[x][y] /= imageHistogram[x][b.getHeight() - 1];
+            width = texture.getWidth();
+            height = texture.getHeight();
+            float[] weights = new float[width * height];
+            float du = 1.0f / width;
+            float dv = 1.0f / height;
+            Color c = new Color();
+            float[] texelBuffer = new float[3];
+            for (int y = 0, i = 0; y < height; y++) {
+                float v = (y + 0.5f) * dv;
+                float sinTheta = (float) Math.sin(Math.PI * v);
+                for (int x = 0; x < width; x++, i++)
+                    weights[i] = texture.getPixel((x + 0.5f) * du, v, 0, texelBuffer, c).getLuminance() * sinTheta;
             }
-            for (int x = 0; x < b.getWidth(); x++)
-                colHistogram[x] /= colHistogram[b.getWidth() - 1];
-            jacobian = (float) (2 * Math.PI * Math.PI) / (b.getWidth() * b.getHeight());
+            texelTable = new AliasTable(weights);
+            jacobian = (float) (2 * Math.PI * Math.PI) / (width * height);
         }
         // take fixed samples
         if (pl.getBoolean("fixed", samples != null)) {
@@ -111,25 +101,14 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
         for (int i = 0; i < samples.length; i++) {
             double randX = (double) i / (double) samples.length;
             double randY = QMC.halton(0, i);
-            int x = 0;
-            while (randX >= colHistogram[x] && x < colHistogram.length - 1)
-                x++;
-            float[] rowHistogram = imageHistogram[x];
-            int y = 0;
-            while (randY >= rowHistogram[y] && y < rowHistogram.length - 1)
-                y++;
-            // sample from (x, y)
-            float u = (float) ((x == 0) ? (randX / colHistogram[0]) : ((randX - colHistogram[x - 1]) / (colHistogram[x] - colHistogram[x - 1])));
-            float v = (float) ((y == 0) ? (randY / rowHistogram[0]) : ((randY - rowHistogram[y - 1]) / (rowHistogram[y] - rowHistogram[y - 1])));
-
-            float px = ((x == 0) ? colHistogram[0] : (colHistogram[x] - colHistogram[x - 1]));
-            float py = ((y == 0) ? rowHistogram[0] : (rowHistogram[y] - rowHistogram[y - 1]));
-
-            float su = (x + u) / colHistogram.length;
-            float sv = (y + v) / rowHistogram.length;
-
-            float invP = (float) Math.sin(sv * Math.PI) * jacobian / (numSamples * px * py);
-            samples[i] = getDirection(su, sv);
+            // sample from a texel, using the remapped random number for the
+            // position within the texel
+            int texel = texelTable.sample(randX);
+            float su = (float) ((texel % width + texelTable.remap(randX)) / width);
+            float sv = (float) ((texel / width + randY) / height);
+
+            float invP = (float) Math.sin(sv * Math.PI) * jacobian / (numSamples * texelTable.getProbability(texel));
+            samples[i] = getDirection(su, sv, new Vector3());
             basis.transform(samples[i]);
             colors[i] = texture.getPixel(su, sv).mul(invP);
         }
@@ -168,38 +147,26 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
     public void getSamples(ShadingState state) {
         if (samples == null) {
             int n = state.getDiffuseDepth() > 0 ? 1 : numSamples;
+            Vector3 dir = new Vector3();
+            Color radiance = new Color();
+            float[] texelBuffer = new float[3];
             for (int i = 0; i < n; i++) {
                 // random offset on unit square, we use the infinite version of
                 // getRandom because the light sampling is adaptive
                 double randX = state.getRandom(i, 0, n);
                 double randY = state.getRandom(i, 1, n);
-                int x = 0;
-                while (randX >= colHistogram[x] && x < colHistogram.length - 1)
-                    x++;
-                float[] rowHistogram = imageHistogram[x];
-                int y = 0;
-                while (randY >= rowHistogram[y] && y < rowHistogram.length - 1)
-                    y++;
-                // sample from (x, y)
-                float u = (float) ((x == 0) ? (randX / colHistogram[0]) : ((randX - colHistogram[x - 1]) / (colHistogram[x] - colHistogram[x - 1])));
-                float v = (float) ((y == 0) ? (randY / rowHistogram[0]) : ((randY - rowHistogram[y - 1]) / (rowHistogram[y] - rowHistogram[y - 1])));
-
-                float px = ((x == 0) ? colHistogram[0] : (colHistogram[x] - colHistogram[x - 1]));
-                float py = ((y == 0) ? rowHistogram[0] : (rowHistogram[y] - rowHistogram[y - 1]));
-
-                float su = (x + u) / colHistogram.length;
-                float sv = (y + v) / rowHistogram.length;
-                float invP = (float) Math.sin(sv * Math.PI) * jacobian / (n * px * py);
-                Vector3 dir = getDirection(su, sv);
+                int texel = texelTable.sample(randX);
+                float su = (float) ((texel % width + texelTable.remap(randX)) / width);
+                float sv = (float) ((texel / width + randY) / height);
+                float invP = (float) Math.sin(sv * Math.PI) * jacobian / (n * texelTable.getProbability(texel));
+                getDirection(su, sv, dir);
                 basis.transform(dir);
                 if (Vector3.dot(dir, state.getGeoNormal()) > 0) {
-                    LightSample dest = new LightSample();
-                    dest.setShadowRay(new Ray(state.getPoint(), dir));
+                    LightSample dest = state.createLightSample();
+                    dest.setShadowRay(state.getPoint(), dir);
                     dest.getShadowRay().setMax(Float.MAX_VALUE);
-                    Color radiance = texture.getPixel(su, sv);
+                    texture.getPixel(su, sv, 0, texelBuffer, radiance).mul(invP);
                     dest.setRadiance(radiance, radiance);
-                    dest.getDiffuseRadiance().mul(invP);
-                    dest.getSpecularRadiance().mul(invP);
                     dest.traceShadow(state);
                     state.addSample(dest);
                 }
@@ -208,8 +175,8 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
             if (state.getDiffuseDepth() > 0) {
                 for (int i = 0; i < numLowSamples; i++) {
                     if (Vector3.dot(lowSamples[i], state.getGeoNormal()) > 0 && Vector3.dot(lowSamples[i], state.getNormal()) > 0) {
-                        LightSample dest = new LightSample();
-                        dest.setShadowRay(new Ray(state.getPoint(), lowSamples[i]));
+                        LightSample dest = state.createLightSample();
+                        dest.setShadowRay(state.getPoint(), lowSamples[i]);
                         dest.getShadowRay().setMax(Float.MAX_VALUE);
                         dest.setRadiance(lowColors[i], lowColors[i]);
                         dest.traceShadow(state);
@@ -219,8 +186,8 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
             } else {
                 for (int i = 0; i < numSamples; i++) {
                     if (Vector3.dot(samples[i], state.getGeoNormal()) > 0 && Vector3.dot(samples[i], state.getNormal()) > 0) {
-                        LightSample dest = new LightSample();
-                        dest.setShadowRay(new Ray(state.getPoint(), samples[i]));
+                        LightSample dest = state.createLightSample();
+                        dest.setShadowRay(state.getPoint(), samples[i]);
                         dest.getShadowRay().setMax(Float.MAX_VALUE);
                         dest.setRadiance(colors[i], colors[i]);
                         dest.traceShadow(state);
@@ -250,8 +217,7 @@ public class ImageBasedLight implements PrimitiveList, LightSource, Shader {
         return texture.getPixel(u, v);
     }
 
-    private Vector3 getDirection(float u, float v) {
-        Vector3 dest = new Vector3();
+    private Vector3 getDirection(float u, float v, Vector3 dest) {
         double phi = 0, theta = 0;
         theta = u * 2 * Math.PI;
         phi = v * Math.PI;
@@ -5,7 +5,6 @@ import org.sunflow.core.Instance;
 import org.sunflow.core.LightSample;
 import org.sunflow.core.LightSource;
 import org.sunflow.core.ParameterList;
-import org.sunflow.core.Ray;
 import org.sunflow.core.ShadingState;
 import org.sunflow.image.Color;
 import org.sunflow.math.Point3;
@@ -33,9 +32,9 @@ public class PointLight implements LightSource {
     public void getSamples(ShadingState state) {
         Vector3 d = Point3.sub(lightPoint, state.getPoint(), new Vector3());
         if (Vector3.dot(d, state.getNormal()) > 0 && Vector3.dot(d, state.getGeoNormal()) > 0) {
-            LightSample dest = new LightSample();
+            LightSample dest = state.createLightSample();
             // prepare shadow ray
-            dest.setShadowRay(new Ray(state.getPoint(), lightPoint));
+            dest.setShadowRay(state.getPoint(), lightPoint);
             float scale = 1.0f / (float) (4 * Math.PI * lightPoint.distanceToSquared(state.getPoint()));
             dest.setRadiance(power, power);
             dest.getDiffuseRadiance().mul(scale);
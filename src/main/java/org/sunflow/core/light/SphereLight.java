@@ -5,7 +5,6 @@ import org.sunflow.core.Instance;
 import org.sunflow.core.LightSample;
 import org.sunflow.core.LightSource;
 import org.sunflow.core.ParameterList;
-import org.sunflow.core.Ray;
 import org.sunflow.core.Shader;
 import org.sunflow.core.ShadingState;
 import org.sunflow.core.primitive.Sphere;
@@ -96,9 +95,9 @@ public class SphereLight implements LightSource, Shader {
             double[] t = Solvers.solveQuadric(qa, qb, qc);
             if (t == null)
                 continue;
-            LightSample dest = new LightSample();
+            LightSample dest = state.createLightSample();
             // compute shadow ray to the sampled point
-            dest.setShadowRay(new Ray(state.getPoint(), dir));
+            dest.setShadowRay(state.getPoint(), dir);
             // FIXME: arbitrary bias, should handle as in other places
             dest.getShadowRay().setMax((float) t[0] - 1e-3f);
             // prepare sample
@@ -18,6 +18,7 @@ import org.sunflow.image.RGBSpace;
 import org.sunflow.image.RegularSpectralCurve;
 import org.sunflow.image.SpectralCurve;
 import org.sunflow.image.XYZColor;
+import org.sunflow.math.AliasTable;
 import org.sunflow.math.BoundingBox;
 import org.sunflow.math.MathUtils;
 import org.sunflow.math.Matrix4;
@@ -45,8 +46,8 @@ public class SunSkyLight implements LightSource, PrimitiveList, Shader {
     private final double[] perezx = new double[5];
     private final double[] perezy = new double[5];
     private float jacobian;
-    private float[] colHistogram;
-    private float[][] imageHistogram;
+    private AliasTable skyTable;
+    private static final int SKY_TABLE_SIZE = 32;
     // constant data
     private static final float[] solAmplitudes = { 165.5f, 162.3f, 211.2f,
             258.8f, 258.2f, 242.3f, 267.6f, 296.6f, 305.4f, 300.6f, 306.6f,
@@ -166,28 +167,19 @@ public class SunSkyLight implements LightSource, PrimitiveList, Shader {
         perezy[3] = -0.04405 * T - 1.65369;
         perezy[4] = -0.01092 * T + 0.05291;
 
-        final int w = 32, h = 32;
-        imageHistogram = new float[w][h];
-        colHistogram = new float[w];
+        final int w = SKY_TABLE_SIZE, h = SKY_TABLE_SIZE;
+        float[] weights = new float[w * h];
         float du = 1.0f / w;
         float dv = 1.0f / h;
-        for (int x = 0; x < w; x++) {
-            for (int y = 0; y < h; y++) {
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
                 float u = (x + 0.5f) * du;
                 float v = (y + 0.5f) * dv;
                 Color c = getSkyRGB(getDirection(u, v));
-                imageHistogram[x][y] = c.getLuminance() * (float) Math.sin(Math.PI * v);
-                if (y > 0)
-                    imageHistogram[x][y] += imageHistogram[x][y - 1];
+                weights[i] = c.getLuminance() * (float) Math.sin(Math.PI * v);
             }
-            colHistogram[x] = imageHistogram[x][h - 1];
-            if (x > 0)
-                colHistogram[x] += colHistogram[x - 1];
-            for (int y = 0; y < h; y++)
-                imageHistogram[x][y] /= imageHistogram[x][h - 1];
         }
-        for (int x = 0; x < w; x++)
-            colHistogram[x] /= colHistogram[w - 1];
+        skyTable = new AliasTable(weights);
         jacobian = (float) (2 * Math.PI * Math.PI) / (w * h);
     }
 
@@ -241,8 +233,8 @@ public class SunSkyLight implements LightSource, PrimitiveList, Shader {
 
     public void getSamples(ShadingState state) {
         if (Vector3.dot(sunDirWorld, state.getGeoNormal()) > 0 && Vector3.dot(sunDirWorld, state.getNormal()) > 0) {
-            LightSample dest = new LightSample();
-            dest.setShadowRay(new Ray(state.getPoint(), sunDirWorld));
+            LightSample dest = state.createLightSample();
+            dest.setShadowRay(state.getPoint(), sunDirWorld);
             dest.getShadowRay().setMax(Float.MAX_VALUE);
             dest.setRadiance(sunColor, sunColor);
             dest.traceShadow(state);
@@ -255,28 +247,17 @@ public class SunSkyLight implements LightSource, PrimitiveList, Shader {
             double randX = state.getRandom(i, 0, n);
             double randY = state.getRandom(i, 1, n);
 
-            int x = 0;
-            while (randX >= colHistogram[x] && x < colHistogram.length - 1)
-                x++;
-            float[] rowHistogram = imageHistogram[x];
-            int y = 0;
-            while (randY >= rowHistogram[y] && y < rowHistogram.length - 1)
-                y++;
-            // sample from (x, y)
-            float u = (float) ((x == 0) ? (randX / colHistogram[0]) : ((randX - colHistogram[x - 1]) / (colHistogram[x] - colHistogram[x - 1])));
-            float v = (float) ((y == 0) ? (randY / rowHistogram[0]) : ((randY - rowHistogram[y - 1]) / (rowHistogram[y] - rowHistogram[y - 1])));
-
-            float px = ((x == 0) ? colHistogram[0] : (colHistogram[x] - colHistogram[x - 1]));
-            float py = ((y == 0) ? rowHistogram[0] : (rowHistogram[y] - rowHistogram[y - 1]));
-
-            float su = (x + u) / colHistogram.length;
-            float sv = (y + v) / rowHistogram.length;
-            float invP = (float) Math.sin(sv * Math.PI) * jacobian / (n * px * py);
+            // sample from a cell, using the remapped random number for the
+            // position within the cell
+            int cell = skyTable.sample(randX);
+            float su = (float) ((cell % SKY_TABLE_SIZE + skyTable.remap(randX)) / SKY_TABLE_SIZE);
+            float sv = (float) ((cell / SKY_TABLE_SIZE + randY) / SKY_TABLE_SIZE);
+            float invP = (float) Math.sin(sv * Math.PI) * jacobian / (n * skyTable.getProbability(cell));
             Vector3 localDir = getDirection(su, sv);
             Vector3 dir = basis.transform(localDir, new Vector3());
             if (Vector3.dot(dir, state.getGeoNormal()) > 0 && Vector3.dot(dir, state.getNormal()) > 0) {
-                LightSample dest = new LightSample();
-                dest.setShadowRay(new Ray(state.getPoint(), dir));
+                LightSample dest = state.createLightSample();
+                dest.setShadowRay(state.getPoint(), dir);
                 dest.getShadowRay().setMax(Float.MAX_VALUE);
                 Color radiance = getSkyRGB(localDir);
                 dest.setRadiance(radiance, radiance);
@@ -259,7 +259,7 @@ public class TriangleMeshLight extends TriangleMesh implements Shader, LightSour
                     Ray shadowRay = new Ray(state.getPoint(), result);
                     if (!intersectTriangleKensler(tri3, shadowRay))
                         continue;
-                    LightSample dest = new LightSample();
+                    LightSample dest = state.createLightSample();
                     dest.setShadowRay(shadowRay);
                     // prepare sample
                     dest.setRadiance(c, c);
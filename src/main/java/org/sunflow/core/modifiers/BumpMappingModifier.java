@@ -27,7 +27,7 @@ public class BumpMappingModifier implements Modifier {
 
     public void modify(ShadingState state) {
         // apply bump
-        state.getNormal().set(bumpTexture.getBump(state.getUV().x, state.getUV().y, state.getBasis(), scale));
+        bumpTexture.getBump(state, scale, state.getNormal());
         state.setBasis(OrthoNormalBasis.makeFromW(state.getNormal()));
     }
 }
\ No newline at end of file
@@ -1,9 +1,13 @@
 package org.sunflow.core.photonmap;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import org.sunflow.core.GlobalPhotonMapInterface;
 import org.sunflow.core.Options;
+import org.sunflow.core.PersistentPhotonStore;
 import org.sunflow.core.ShadingState;
 import org.sunflow.image.Color;
 import org.sunflow.math.BoundingBox;
@@ -13,7 +17,7 @@ import org.sunflow.system.Timer;
 import org.sunflow.system.UI;
 import org.sunflow.system.UI.Module;
 
-public final class GlobalPhotonMap implements GlobalPhotonMapInterface {
+public final class GlobalPhotonMap implements GlobalPhotonMapInterface, PersistentPhotonStore {
     private ArrayList<Photon> photonList;
     private Photon[] photons;
     private int storedPhotons;
@@ -207,6 +211,9 @@ public final class GlobalPhotonMap implements GlobalPhotonMapInterface {
         static final int SPLIT_Z = 2;
         static final int SPLIT_MASK = 3;
 
+        Photon() {
+        }
+
         Photon(Point3 p, Vector3 n, Vector3 dir, Color power, Color diffuse) {
             x = p.x;
             y = p.y;
@@ -342,6 +349,59 @@ public final class GlobalPhotonMap implements GlobalPhotonMapInterface {
         hasRadiance = true;
     }
 
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(numEmit);
+        out.writeInt(numGather);
+        out.writeFloat(gatherRadius);
+        out.writeFloat(maxPower);
+        out.writeFloat(maxRadius);
+        out.writeBoolean(hasRadiance);
+        out.writeInt(photons == null ? 0 : storedPhotons);
+        if (photons == null)
+            return;
+        for (int i = 1; i <= storedPhotons; i++) {
+            Photon p = photons[i];
+            out.writeFloat(p.x);
+            out.writeFloat(p.y);
+            out.writeFloat(p.z);
+            out.writeShort(p.dir);
+            out.writeShort(p.normal);
+            out.writeInt(p.data);
+            out.writeInt(p.power);
+            out.writeInt(p.flags);
+        }
+    }
+
+    public boolean read(ByteBuffer buffer) {
+        numEmit = buffer.getInt();
+        numGather = buffer.getInt();
+        gatherRadius = buffer.getFloat();
+        maxPower = buffer.getFloat();
+        maxRadius = buffer.getFloat();
+        hasRadiance = buffer.get() != 0;
+        storedPhotons = buffer.getInt();
+        photonList = null;
+        photons = new Photon[storedPhotons + 1];
+        for (int i = 1; i <= storedPhotons; i++) {
+            Photon p = new Photon();
+            p.x = buffer.getFloat();
+            p.y = buffer.getFloat();
+            p.z = buffer.getFloat();
+            p.dir = buffer.getShort();
+            p.normal = buffer.getShort();
+            p.data = buffer.getInt();
+            p.power = buffer.getInt();
+            p.flags = buffer.getInt();
+            photons[i] = p;
+        }
+        halfStoredPhotons = storedPhotons / 2;
+        log2n = storedPhotons == 0 ? 0 : (int) Math.ceil(Math.log(storedPhotons) / Math.log(2.0));
+        UI.printInfo(Module.LIGHT, "Global photon map:");
+        UI.printInfo(Module.LIGHT, "  * Photons restored: %d", storedPhotons);
+        UI.printInfo(Module.LIGHT, "  * Search radius:    %.3f", gatherRadius);
+        return true;
+    }
+
     public Color getRadiance(Point3 p, Vector3 n) {
         if (!hasRadiance || (storedPhotons == 0))
             return Color.BLACK;
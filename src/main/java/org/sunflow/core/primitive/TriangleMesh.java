@@ -7,9 +7,11 @@ import java.util.Locale;
 import org.sunflow.SunflowAPI;
 import org.sunflow.core.Instance;
 import org.sunflow.core.IntersectionState;
+import org.sunflow.core.PacketPrimitiveList;
 import org.sunflow.core.ParameterList;
 import org.sunflow.core.PrimitiveList;
 import org.sunflow.core.Ray;
+import org.sunflow.core.RayPacket;
 import org.sunflow.core.ShadingState;
 import org.sunflow.core.ParameterList.FloatParameter;
 import org.sunflow.core.ParameterList.InterpolationType;
@@ -22,7 +24,7 @@ import org.sunflow.math.Vector3;
 import org.sunflow.system.UI;
 import org.sunflow.system.UI.Module;
 
-public class TriangleMesh implements PrimitiveList {
+public class TriangleMesh implements PacketPrimitiveList {
     private static boolean smallTriangles = false;
     protected float[] points;
     protected int[] triangles;
@@ -188,6 +190,50 @@ public class TriangleMesh implements PrimitiveList {
         state.setIntersection(primID, beta, gamma);
     }
 
+    private final void intersectTriangleKensler(RayPacket packet, int primID, int mask) {
+        int tri = 3 * primID;
+        int a = 3 * triangles[tri + 0];
+        int b = 3 * triangles[tri + 1];
+        int c = 3 * triangles[tri + 2];
+        float edge0x = points[b + 0] - points[a + 0];
+        float edge0y = points[b + 1] - points[a + 1];
+        float edge0z = points[b + 2] - points[a + 2];
+        float edge1x = points[a + 0] - points[c + 0];
+        float edge1y = points[a + 1] - points[c + 1];
+        float edge1z = points[a + 2] - points[c + 2];
+        float nx = edge0y * edge1z - edge0z * edge1y;
+        float ny = edge0z * edge1x - edge0x * edge1z;
+        float nz = edge0x * edge1y - edge0y * edge1x;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int i = Integer.numberOfTrailingZeros(m);
+            Ray r = packet.getRay(i);
+            float v = r.dot(nx, ny, nz);
+            float iv = 1 / v;
+            float edge2x = points[a + 0] - r.ox;
+            float edge2y = points[a + 1] - r.oy;
+            float edge2z = points[a + 2] - r.oz;
+            float va = nx * edge2x + ny * edge2y + nz * edge2z;
+            float t = iv * va;
+            if (!r.isInside(t))
+                continue;
+            float ix = edge2y * r.dz - edge2z * r.dy;
+            float iy = edge2z * r.dx - edge2x * r.dz;
+            float iz = edge2x * r.dy - edge2y * r.dx;
+            float v1 = ix * edge1x + iy * edge1y + iz * edge1z;
+            float beta = iv * v1;
+            if (beta < 0)
+                continue;
+            float v2 = ix * edge0x + iy * edge0y + iz * edge0z;
+            if ((v1 + v2) * v > v * v)
+                continue;
+            float gamma = iv * v2;
+            if (gamma < 0)
+                continue;
+            r.setMax(t);
+            packet.setIntersection(i, primID, beta, gamma);
+        }
+    }
+
     public void intersectPrimitive(Ray r, int primID, IntersectionState state) {
         // alternative test -- disabled for now
         // intersectPrimitiveRobust(r, primID, state);
@@ -200,6 +246,13 @@ public class TriangleMesh implements PrimitiveList {
         intersectTriangleKensler(r, primID, state);
     }
 
+    public void intersectPrimitive(RayPacket packet, int primID, int mask, IntersectionState state) {
+        if (triaccel != null)
+            triaccel[primID].intersect(packet, primID, mask);
+        else
+            intersectTriangleKensler(packet, primID, mask);
+    }
+
     public int getNumPrimitives() {
         return triangles.length / 3;
     }
@@ -311,6 +364,10 @@ public class TriangleMesh implements PrimitiveList {
                 dpdv = state.transformVectorObjectToWorld(dpdv);
                 // create basis in world space
                 state.setBasis(OrthoNormalBasis.makeFromWV(state.getNormal(), dpdv));
+                // texture space length per world space length, used for mip-map level selection
+                float area = Vector3.cross(state.transformVectorObjectToWorld(dp1), state.transformVectorObjectToWorld(dp2), dp1).length();
+                if (area > 0)
+                    state.setUVScale((float) Math.sqrt(Math.abs(determinant) / area));
             }
         } else
             state.setBasis(OrthoNormalBasis.makeFromW(state.getNormal()));
@@ -476,6 +533,70 @@ public class TriangleMesh implements PrimitiveList {
                 }
             }
         }
+
+        void intersect(RayPacket packet, int primID, int mask) {
+            // same test as for a single ray, with the triangle data loaded
+            // once for all rays
+            switch (k) {
+                case 0: {
+                    for (int m = mask; m != 0; m &= m - 1) {
+                        int i = Integer.numberOfTrailingZeros(m);
+                        Ray r = packet.getRay(i);
+                        float det = 1.0f / (r.dx + nu * r.dy + nv * r.dz);
+                        float t = (nd - r.ox - nu * r.oy - nv * r.oz) * det;
+                        if (!r.isInside(t))
+                            continue;
+                        float hu = r.oy + t * r.dy;
+                        float hv = r.oz + t * r.dz;
+                        float u = hu * bnu + hv * bnv + bnd;
+                        float v = hu * cnu + hv * cnv + cnd;
+                        if (u < 0.0f || v < 0.0f || u + v > 1.0f)
+                            continue;
+                        r.setMax(t);
+                        packet.setIntersection(i, primID, u, v);
+                    }
+                    return;
+                }
+                case 1: {
+                    for (int m = mask; m != 0; m &= m - 1) {
+                        int i = Integer.numberOfTrailingZeros(m);
+                        Ray r = packet.getRay(i);
+                        float det = 1.0f / (r.dy + nu * r.dz + nv * r.dx);
+                        float t = (nd - r.oy - nu * r.oz - nv * r.ox) * det;
+                        if (!r.isInside(t))
+                            continue;
+                        float hu = r.oz + t * r.dz;
+                        float hv = r.ox + t * r.dx;
+                        float u = hu * bnu + hv * bnv + bnd;
+                        float v = hu * cnu + hv * cnv + cnd;
+                        if (u < 0.0f || v < 0.0f || u + v > 1.0f)
+                            continue;
+                        r.setMax(t);
+                        packet.setIntersection(i, primID, u, v);
+                    }
+                    return;
+                }
+                case 2: {
+                    for (int m = mask; m != 0; m &= m - 1) {
+                        int i = Integer.numberOfTrailingZeros(m);
+                        Ray r = packet.getRay(i);
+                        float det = 1.0f / (r.dz + nu * r.dx + nv * r.dy);
+                        float t = (nd - r.oz - nu * r.ox - nv * r.oy) * det;
+                        if (!r.isInside(t))
+                            continue;
+                        float hu = r.ox + t * r.dx;
+                        float hv = r.oy + t * r.dy;
+                        float u = hu * bnu + hv * bnv + bnd;
+                        float v = hu * cnu + hv * cnv + cnd;
+                        if (u < 0.0f || v < 0.0f || u + v > 1.0f)
+                            continue;
+                        r.setMax(t);
+                        packet.setIntersection(i, primID, u, v);
+                    }
+                    return;
+                }
+            }
+        }
     }
 
     public PrimitiveList getBakingPrimitives() {
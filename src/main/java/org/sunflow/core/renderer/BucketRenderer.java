@@ -175,10 +175,12 @@ public class BucketRenderer implements ImageSampler {
     private class BucketThread extends Thread {
         private final int threadID;
         private final IntersectionState istate;
+        private final SubPixelBuffers buffers;
 
         BucketThread(int threadID) {
             this.threadID = threadID;
             istate = new IntersectionState();
+            buffers = new SubPixelBuffers();
         }
 
         @Override
@@ -193,7 +195,9 @@ public class BucketRenderer implements ImageSampler {
                     by = bucketCoords[bucketCounter + 1];
                     bucketCounter += 2;
                 }
-                renderBucket(display, bx, by, threadID, istate);
+                long start = System.nanoTime();
+                renderBucket(display, bx, by, threadID, istate, buffers);
+                scene.accumulateBucketStats(istate, null, System.nanoTime() - start);
                 if (UI.taskCanceled())
                     return;
                 if (display.imageCancelled())
@@ -206,7 +210,7 @@ public class BucketRenderer implements ImageSampler {
         }
     }
 
-    private void renderBucket(Display display, int bx, int by, int threadID, IntersectionState istate) {
+    private void renderBucket(Display display, int bx, int by, int threadID, IntersectionState istate, SubPixelBuffers buffers) {
         // pixel sized extents
         int x0 = bx * bucketSize;
         int y0 = by * bucketSize;
@@ -252,9 +256,18 @@ public class BucketRenderer implements ImageSampler {
                 samples[index] = new ImageSample(rx, ry, i);
             }
         }
+        // compute the initial grid in blocks of neighbouring samples, so their
+        // primary rays can be traced together
+        ImageSample[] grid = new ImageSample[((sbw + maxStepSize - 1) / maxStepSize) * ((sbh + maxStepSize - 1) / maxStepSize)];
+        int numGrid = 0;
+        for (int y = 0; y < sbh; y += 2 * maxStepSize)
+            for (int x = 0; x < sbw; x += maxStepSize)
+                for (int gy = y; gy < sbh && gy <= y + maxStepSize; gy += maxStepSize)
+                    grid[numGrid++] = samples[x + gy * sbw];
+        computeSubPixels(grid, numGrid, istate, buffers);
         for (int x = 0; x < sbw - 1; x += maxStepSize)
             for (int y = 0; y < sbh - 1; y += maxStepSize)
-                refineSamples(samples, sbw, x, y, maxStepSize, thresh, istate);
+                refineSamples(samples, sbw, x, y, maxStepSize, thresh, istate, buffers);
         if (dumpBuckets) {
             UI.printInfo(Module.BCKT, "Dumping bucket [%d, %d] to file ...", bx, by);
             GenericBitmap bitmap = new GenericBitmap(sbw, sbh);
@@ -339,7 +352,50 @@ public class BucketRenderer implements ImageSampler {
         }
     }
 
-    private void refineSamples(ImageSample[] samples, int sbw, int x, int y, int stepSize, float thresh, IntersectionState istate) {
+    private void computeSubPixels(ImageSample[] list, int n, IntersectionState istate, SubPixelBuffers buffers) {
+        buffers.ensureCapacity(n);
+        float[] rx = buffers.rx;
+        float[] ry = buffers.ry;
+        double[] lensU = buffers.lensU;
+        double[] lensV = buffers.lensV;
+        double[] time = buffers.time;
+        int[] instance = buffers.instance;
+        ShadingState[] results = buffers.results;
+        for (int k = 0; k < n; k++) {
+            rx[k] = list[k].rx;
+            ry[k] = list[k].ry;
+        }
+        for (int i = 0; i < superSampling; i++) {
+            for (int k = 0; k < n; k++) {
+                ImageSample sample = list[k];
+                double q0 = QMC.halton(1, sample.i);
+                double q1 = QMC.halton(2, sample.i);
+                double q2 = QMC.halton(3, sample.i);
+                if (i == 0) {
+                    time[k] = q0;
+                    lensU[k] = q1;
+                    lensV[k] = q2;
+                } else {
+                    time[k] = QMC.mod1(q0 + i * invSuperSampling);
+                    lensU[k] = QMC.mod1(q1 + QMC.halton(0, i));
+                    lensV[k] = QMC.mod1(q2 + QMC.halton(1, i));
+                }
+                instance[k] = sample.i + i;
+            }
+            scene.getRadiance(istate, n, rx, ry, lensU, lensV, time, instance, 4, null, results);
+            for (int k = 0; k < n; k++) {
+                if (superSampling > 1)
+                    list[k].add(results[k]);
+                else
+                    list[k].set(results[k]);
+            }
+        }
+        if (superSampling > 1)
+            for (int k = 0; k < n; k++)
+                list[k].scale((float) invSuperSampling);
+    }
+
+    private void refineSamples(ImageSample[] samples, int sbw, int x, int y, int stepSize, float thresh, IntersectionState istate, SubPixelBuffers buffers) {
         int dx = stepSize;
         int dy = stepSize * sbw;
         int i00 = x + y * sbw;
@@ -359,10 +415,19 @@ public class BucketRenderer implements ImageSampler {
             if (s00.isDifferent(s01, thresh) || s00.isDifferent(s10, thresh) || s00.isDifferent(s11, thresh) || s01.isDifferent(s11, thresh) || s10.isDifferent(s11, thresh) || s01.isDifferent(s10, thresh)) {
                 stepSize >>= 1;
                 thresh *= 2;
-                refineSamples(samples, sbw, x, y, stepSize, thresh, istate);
-                refineSamples(samples, sbw, x + stepSize, y, stepSize, thresh, istate);
-                refineSamples(samples, sbw, x, y + stepSize, stepSize, thresh, istate);
-                refineSamples(samples, sbw, x + stepSize, y + stepSize, stepSize, thresh, istate);
+                // compute the new samples of the finer level together, the
+                // buffers are free again before recursing
+                ImageSample[] refined = buffers.refined;
+                int numRefined = 0;
+                for (int j = 0; j <= 2; j++)
+                    for (int i = 0; i <= 2; i++)
+                        if (!samples[x + i * stepSize + (y + j * stepSize) * sbw].sampled())
+                            refined[numRefined++] = samples[x + i * stepSize + (y + j * stepSize) * sbw];
+                computeSubPixels(refined, numRefined, istate, buffers);
+                refineSamples(samples, sbw, x, y, stepSize, thresh, istate, buffers);
+                refineSamples(samples, sbw, x + stepSize, y, stepSize, thresh, istate, buffers);
+                refineSamples(samples, sbw, x, y + stepSize, stepSize, thresh, istate, buffers);
+                refineSamples(samples, sbw, x + stepSize, y + stepSize, stepSize, thresh, istate, buffers);
                 return;
             }
         }
@@ -375,6 +440,34 @@ public class BucketRenderer implements ImageSampler {
                     ImageSample.bilerp(samples[x + i + (y + j) * sbw], s00, s01, s10, s11, i * ds, j * ds);
     }
 
+    /**
+     * Per thread scratch arrays of {@link #computeSubPixels}, grown to the
+     * largest batch seen so far instead of being allocated on every call.
+     */
+    private static final class SubPixelBuffers {
+        float[] rx, ry;
+        double[] lensU, lensV, time;
+        int[] instance;
+        ShadingState[] results;
+        final ImageSample[] refined = new ImageSample[5];
+
+        SubPixelBuffers() {
+            ensureCapacity(refined.length);
+        }
+
+        void ensureCapacity(int n) {
+            if (rx != null && rx.length >= n)
+                return;
+            rx = new float[n];
+            ry = new float[n];
+            lensU = new double[n];
+            lensV = new double[n];
+            time = new double[n];
+            instance = new int[n];
+            results = new ShadingState[n];
+        }
+    }
+
     private static final class ImageSample {
         float rx, ry;
         int i, n;
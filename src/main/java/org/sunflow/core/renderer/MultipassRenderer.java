@@ -124,7 +124,9 @@ public class MultipassRenderer implements ImageSampler {
                     by = bucketCoords[bucketCounter + 1];
                     bucketCounter += 2;
                 }
+                long start = System.nanoTime();
                 renderBucket(display, bx, by, threadID, istate, cache);
+                scene.accumulateBucketStats(istate, cache, System.nanoTime() - start);
                 if (display.imageCancelled())
                     return;
             }
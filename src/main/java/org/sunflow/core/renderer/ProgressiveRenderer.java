@@ -74,7 +74,10 @@ public class ProgressiveRenderer implements ImageSampler {
         @Override
         public void run() {
             while (true) {
+                long start = System.nanoTime();
                 int n = progressiveRenderNext(istate);
+                if (n > 0)
+                    scene.accumulateBucketStats(istate, null, System.nanoTime() - start);
                 synchronized (ProgressiveRenderer.this) {
                     if (counter >= counterMax)
                         return;
@@ -69,7 +69,9 @@ public class SimpleRenderer implements ImageSampler {
                     bx = bucketCounter % numBucketsX;
                     bucketCounter++;
                 }
+                long start = System.nanoTime();
                 renderBucket(bx, by, istate);
+                scene.accumulateBucketStats(istate, null, System.nanoTime() - start);
                 if (display.imageCancelled())
                     return;
             }
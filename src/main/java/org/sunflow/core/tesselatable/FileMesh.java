@@ -1,13 +1,11 @@
 package org.sunflow.core.tesselatable;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
@@ -31,6 +29,8 @@ import org.sunflow.util.FloatArray;
 import org.sunflow.util.IntArray;
 
 public class FileMesh implements Tesselatable {
+    private static final int OBJ_MIN_CHUNK_SIZE = 1 << 20;
+
     private String filename = null;
     private boolean smoothNormals = false;
 
@@ -44,9 +44,7 @@ public class FileMesh implements Tesselatable {
         if (filename.endsWith(".ra3")) {
             try {
                 UI.printInfo(Module.GEOM, "RA3 - Reading geometry: \"%s\" ...", filename);
-                File file = new File(filename);
-                FileInputStream stream = new FileInputStream(filename);
-                MappedByteBuffer map = stream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                MappedByteBuffer map = mapFile(filename);
                 map.order(ByteOrder.LITTLE_ENDIAN);
                 IntBuffer ints = map.asIntBuffer();
                 FloatBuffer buffer = map.asFloatBuffer();
@@ -54,13 +52,12 @@ public class FileMesh implements Tesselatable {
                 int numTris = ints.get(1);
                 UI.printInfo(Module.GEOM, "RA3 -   * Reading %d vertices ...", numVerts);
                 float[] verts = new float[3 * numVerts];
-                for (int i = 0; i < verts.length; i++)
-                    verts[i] = buffer.get(2 + i);
+                buffer.position(2);
+                buffer.get(verts);
                 UI.printInfo(Module.GEOM, "RA3 -   * Reading %d triangles ...", numTris);
                 int[] tris = new int[3 * numTris];
-                for (int i = 0; i < tris.length; i++)
-                    tris[i] = ints.get(2 + verts.length + i);
-                stream.close();
+                ints.position(2 + verts.length);
+                ints.get(tris);
                 UI.printInfo(Module.GEOM, "RA3 -   * Creating mesh ...");
                 return generate(tris, verts, smoothNormals);
             } catch (FileNotFoundException e) {
@@ -69,50 +66,72 @@ public class FileMesh implements Tesselatable {
             } catch (IOException e) {
                 e.printStackTrace();
                 UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - I/O error occured", filename);
+            } catch (BufferUnderflowException e) {
+                e.printStackTrace();
+                UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - file is truncated", filename);
             }
         } else if (filename.endsWith(".obj")) {
-            int lineNumber = 1;
             try {
                 UI.printInfo(Module.GEOM, "OBJ - Reading geometry: \"%s\" ...", filename);
-                FloatArray verts = new FloatArray();
-                IntArray tris = new IntArray();
-                FileReader file = new FileReader(filename);
-                BufferedReader bf = new BufferedReader(file);
-                String line;
-                while ((line = bf.readLine()) != null) {
-                    if (line.startsWith("v")) {
-                        String[] v = line.split("\\s+");
-                        verts.add(Float.parseFloat(v[1]));
-                        verts.add(Float.parseFloat(v[2]));
-                        verts.add(Float.parseFloat(v[3]));
-                    } else if (line.startsWith("f")) {
-                        String[] f = line.split("\\s+");
-                        if (f.length == 5) {
-                            tris.add(Integer.parseInt(f[1]) - 1);
-                            tris.add(Integer.parseInt(f[2]) - 1);
-                            tris.add(Integer.parseInt(f[3]) - 1);
-                            tris.add(Integer.parseInt(f[1]) - 1);
-                            tris.add(Integer.parseInt(f[3]) - 1);
-                            tris.add(Integer.parseInt(f[4]) - 1);
-                        } else if (f.length == 4) {
-                            tris.add(Integer.parseInt(f[1]) - 1);
-                            tris.add(Integer.parseInt(f[2]) - 1);
-                            tris.add(Integer.parseInt(f[3]) - 1);
-                        }
+                MappedByteBuffer map = mapFile(filename);
+                // split the file into line aligned chunks, which are parsed
+                // concurrently, vertex and face records are concatenated in
+                // file order afterwards
+                int numChunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), map.limit() / OBJ_MIN_CHUNK_SIZE));
+                final OBJChunk[] chunks = new OBJChunk[numChunks];
+                int start = 0;
+                for (int i = 0; i < numChunks; i++) {
+                    int end = (i == numChunks - 1) ? map.limit() : nextLine(map, (int) ((long) map.limit() * (i + 1) / numChunks));
+                    chunks[i] = new OBJChunk(map.duplicate(), start, Math.max(start, end));
+                    start = Math.max(start, end);
+                }
+                Thread[] threads = new Thread[numChunks - 1];
+                for (int i = 0; i < threads.length; i++) {
+                    threads[i] = new Thread(chunks[i + 1]);
+                    threads[i].start();
+                }
+                chunks[0].run();
+                for (Thread t : threads) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException e) {
+                        UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - parser thread was interrupted", filename);
+                        return null;
+                    }
+                }
+                int numVerts = 0;
+                int numIndices = 0;
+                for (OBJChunk c : chunks) {
+                    if (c.error != null) {
+                        UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - %s", filename, c.error);
+                        return null;
                     }
-                    if (lineNumber % 100000 == 0)
-                        UI.printInfo(Module.GEOM, "OBJ -   * Parsed %7d lines ...", lineNumber);
-                    lineNumber++;
+                    numVerts += c.verts.getSize();
+                    numIndices += c.tris.getSize();
                 }
-                file.close();
+                float[] verts = new float[numVerts];
+                int[] tris = new int[numIndices];
+                numVerts = numIndices = 0;
+                for (OBJChunk c : chunks) {
+                    // relative indices were resolved against the vertices of
+                    // their own chunk only, shift them by all previous ones
+                    for (int i = 0; i < c.relativeIndices.getSize(); i++)
+                        c.tris.set(c.relativeIndices.get(i), c.tris.get(c.relativeIndices.get(i)) + numVerts / 3);
+                    numVerts += c.verts.copyTo(verts, numVerts);
+                    numIndices += c.tris.copyTo(tris, numIndices);
+                }
+                for (int i = 0; i < tris.length; i++) {
+                    if (tris[i] < 0 || tris[i] >= numVerts / 3) {
+                        UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - face refers to an undefined vertex", filename);
+                        return null;
+                    }
+                }
+                UI.printInfo(Module.GEOM, "OBJ -   * Parsed %d vertices and %d triangles", verts.length / 3, tris.length / 3);
                 UI.printInfo(Module.GEOM, "OBJ -   * Creating mesh ...");
-                return generate(tris.trim(), verts.trim(), smoothNormals);
+                return generate(tris, verts, smoothNormals);
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
                 UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - file not found", filename);
-            } catch (NumberFormatException e) {
-                e.printStackTrace();
-                UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - syntax error at line %d", lineNumber);
             } catch (IOException e) {
                 e.printStackTrace();
                 UI.printError(Module.GEOM, "Unable to read mesh file \"%s\" - I/O error occured", filename);
@@ -120,35 +139,26 @@ public class FileMesh implements Tesselatable {
         } else if (filename.endsWith(".stl")) {
             try {
                 UI.printInfo(Module.GEOM, "STL - Reading geometry: \"%s\" ...", filename);
-                FileInputStream file = new FileInputStream(filename);
-                DataInputStream stream = new DataInputStream(new BufferedInputStream(file));
-                file.skip(80);
-                int numTris = getLittleEndianInt(stream.readInt());
+                MappedByteBuffer map = mapFile(filename);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                int numTris = map.getInt(80);
                 UI.printInfo(Module.GEOM, "STL -   * Reading %d triangles ...", numTris);
-                long filesize = new File(filename).length();
-                if (filesize != (84 + 50 * numTris)) {
-                    UI.printWarning(Module.GEOM, "STL - Size of file mismatch (expecting %s, found %s)", Memory.bytesToString(84 + 14 * numTris), Memory.bytesToString(filesize));
+                long filesize = map.limit();
+                if (filesize != (84 + 50L * numTris)) {
+                    UI.printWarning(Module.GEOM, "STL - Size of file mismatch (expecting %s, found %s)", Memory.bytesToString(84 + 50L * numTris), Memory.bytesToString(filesize));
                     return null;
                 }
                 int[] tris = new int[3 * numTris];
                 float[] verts = new float[9 * numTris];
-                for (int i = 0, i3 = 0, index = 0; i < numTris; i++, i3 += 3) {
-                    // skip normal
-                    stream.readInt();
-                    stream.readInt();
-                    stream.readInt();
-                    for (int j = 0; j < 3; j++, index += 3) {
-                        tris[i3 + j] = i3 + j;
-                        // get xyz
-                        verts[index + 0] = getLittleEndianFloat(stream.readInt());
-                        verts[index + 1] = getLittleEndianFloat(stream.readInt());
-                        verts[index + 2] = getLittleEndianFloat(stream.readInt());
+                // each 50 byte record holds a normal, three vertices and a
+                // two byte attribute
+                for (int i = 0, index = 0, offset = 84; i < numTris; i++, offset += 50) {
+                    for (int j = 0, pos = offset + 12; j < 9; j++, index++, pos += 4) {
+                        verts[index] = map.getFloat(pos);
                     }
-                    stream.readShort();
-                    if ((i + 1) % 100000 == 0)
-                        UI.printInfo(Module.GEOM, "STL -   * Parsed %7d triangles ...", i + 1);
                 }
-                file.close();
+                for (int i = 0; i < tris.length; i++)
+                    tris[i] = i;
                 // create geometry
                 UI.printInfo(Module.GEOM, "STL -   * Creating mesh ...");
                 if (smoothNormals)
@@ -166,6 +176,199 @@ public class FileMesh implements Tesselatable {
         return null;
     }
 
+    private static MappedByteBuffer mapFile(String filename) throws IOException {
+        File file = new File(filename);
+        if (file.length() > Integer.MAX_VALUE)
+            throw new IOException("files larger than 2GB are not supported");
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            // the mapping stays valid after the channel has been closed
+            return stream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static int nextLine(ByteBuffer buffer, int pos) {
+        while (pos < buffer.limit() && buffer.get(pos) != '\n')
+            pos++;
+        return Math.min(pos + 1, buffer.limit());
+    }
+
+    /**
+     * Parses the vertex and face records of a range of lines of an OBJ file.
+     * Numbers are read directly from the mapped bytes, no strings are created.
+     * Texture coordinates, normals and all other records are skipped. Face
+     * vertices may be given as v, v/vt, v//vn or v/vt/vn and polygons with
+     * more than three vertices are split into a triangle fan. Negative vertex
+     * indices count backwards from the last vertex defined so far; as the
+     * vertices of previous chunks are not known yet, they are stored relative
+     * to the start of this chunk and shifted after all chunks were parsed.
+     */
+    private static final class OBJChunk implements Runnable {
+        private final ByteBuffer buffer;
+        private final int end;
+        private int pos;
+        private int lineStart;
+        private int[] face;
+        private boolean[] faceRelative;
+        final FloatArray verts;
+        final IntArray tris;
+        final IntArray relativeIndices;
+        String error;
+
+        OBJChunk(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.end = end;
+            pos = start;
+            face = new int[16];
+            faceRelative = new boolean[16];
+            // rough guess, about 30 bytes per record
+            verts = new FloatArray(Math.max(10, (end - start) / 20));
+            tris = new IntArray(Math.max(10, (end - start) / 20));
+            relativeIndices = new IntArray();
+        }
+
+        public void run() {
+            try {
+                while (pos < end) {
+                    lineStart = pos;
+                    skipBlanks();
+                    if (pos < end) {
+                        byte c = buffer.get(pos);
+                        if (c == 'v' && isBlank(pos + 1)) {
+                            pos++;
+                            verts.add(parseFloat());
+                            verts.add(parseFloat());
+                            verts.add(parseFloat());
+                        } else if (c == 'f' && isBlank(pos + 1)) {
+                            pos++;
+                            parseFace();
+                        }
+                    }
+                    // skip to end of line
+                    while (pos < end && buffer.get(pos++) != '\n') {
+                    }
+                }
+            } catch (NumberFormatException e) {
+                error = String.format("syntax error in line starting at byte %d", lineStart);
+            }
+        }
+
+        private void parseFace() {
+            int n = 0;
+            while (true) {
+                skipBlanks();
+                if (pos >= end || !(isDigit(buffer.get(pos)) || buffer.get(pos) == '-'))
+                    break;
+                if (n == face.length) {
+                    int[] old = face;
+                    face = new int[2 * n];
+                    System.arraycopy(old, 0, face, 0, n);
+                    boolean[] oldRelative = faceRelative;
+                    faceRelative = new boolean[2 * n];
+                    System.arraycopy(oldRelative, 0, faceRelative, 0, n);
+                }
+                faceRelative[n] = buffer.get(pos) == '-';
+                if (faceRelative[n]) {
+                    pos++;
+                    int v = parseInt();
+                    if (v == 0)
+                        throw new NumberFormatException();
+                    face[n] = verts.getSize() / 3 - v;
+                } else
+                    face[n] = parseInt() - 1;
+                n++;
+                // skip texture and normal indices
+                while (pos < end && !isBlank(pos))
+                    pos++;
+            }
+            if (n < 3)
+                throw new NumberFormatException();
+            for (int i = 2; i < n; i++) {
+                addIndex(0);
+                addIndex(i - 1);
+                addIndex(i);
+            }
+        }
+
+        private void addIndex(int i) {
+            if (faceRelative[i])
+                relativeIndices.add(tris.getSize());
+            tris.add(face[i]);
+        }
+
+        private int parseInt() {
+            int v = 0;
+            int start = pos;
+            while (pos < end && isDigit(buffer.get(pos)))
+                v = 10 * v + (buffer.get(pos++) - '0');
+            if (pos == start)
+                throw new NumberFormatException();
+            return v;
+        }
+
+        private float parseFloat() {
+            skipBlanks();
+            boolean negative = false;
+            if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+                negative = buffer.get(pos++) == '-';
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            byte c;
+            while (pos < end && isDigit(c = buffer.get(pos))) {
+                if (mantissa < 100000000000000000L)
+                    mantissa = 10 * mantissa + (c - '0');
+                else
+                    exponent++;
+                digits++;
+                pos++;
+            }
+            if (pos < end && buffer.get(pos) == '.') {
+                pos++;
+                while (pos < end && isDigit(c = buffer.get(pos))) {
+                    if (mantissa < 100000000000000000L) {
+                        mantissa = 10 * mantissa + (c - '0');
+                        exponent--;
+                    }
+                    digits++;
+                    pos++;
+                }
+            }
+            if (digits == 0)
+                throw new NumberFormatException();
+            if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+                pos++;
+                boolean negativeExponent = false;
+                if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+                    negativeExponent = buffer.get(pos++) == '-';
+                int e = parseInt();
+                exponent += negativeExponent ? -e : e;
+            }
+            double v = mantissa;
+            if (exponent != 0)
+                v = (exponent > 0) ? v * Math.pow(10, exponent) : v / Math.pow(10, -exponent);
+            return (float) (negative ? -v : v);
+        }
+
+        private void skipBlanks() {
+            while (pos < end && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t'))
+                pos++;
+        }
+
+        private boolean isBlank(int i) {
+            if (i >= end)
+                return true;
+            byte c = buffer.get(i);
+            return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+        }
+
+        private static boolean isDigit(byte c) {
+            return c >= '0' && c <= '9';
+        }
+    }
+
     private TriangleMesh generate(int[] tris, float[] verts, boolean smoothNormals) {
         ParameterList pl = new ParameterList();
         pl.addIntegerArray("triangles", tris);
@@ -222,16 +425,4 @@ public class FileMesh implements Tesselatable {
         smoothNormals = pl.getBoolean("smooth_normals", smoothNormals);
         return filename != null;
     }
-
-    private int getLittleEndianInt(int i) {
-        // input integer has its bytes in big endian byte order
-        // swap them around
-        return (i >>> 24) | ((i >>> 8) & 0xFF00) | ((i << 8) & 0xFF0000) | (i << 24);
-    }
-
-    private float getLittleEndianFloat(int i) {
-        // input integer has its bytes in big endian byte order
-        // swap them around and interpret data as floating point
-        return Float.intBitsToFloat(getLittleEndianInt(i));
-    }
 }
\ No newline at end of file
@@ -136,6 +136,18 @@ public final class Color {
         return new float[] { r, g, b };
     }
 
+    /**
+     * Copy the red, green and blue components into the first three entries of
+     * the given array, which avoids creating a new array for every pixel.
+     *
+     * @param rgb array of at least three floats
+     */
+    public final void getRGB(float[] rgb) {
+        rgb[0] = r;
+        rgb[1] = g;
+        rgb[2] = b;
+    }
+
     public final int toRGB() {
         int ir = (int) (r * 255 + 0.5);
         int ig = (int) (g * 255 + 0.5);
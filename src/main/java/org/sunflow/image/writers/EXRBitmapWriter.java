@@ -35,8 +35,7 @@ public class EXRBitmapWriter implements BitmapWriter {
     private int compression;
     private byte channelType;
     private int channelSize;
-    private byte[] tmpbuf;
-    private byte[] comprbuf;
+    private ThreadLocal<TileBuffer> tileBuffers;
 
     public EXRBitmapWriter() {
         // default settings
@@ -86,7 +85,7 @@ public class EXRBitmapWriter implements BitmapWriter {
     public void writeTile(int x, int y, int w, int h, Color[] color, float[] alpha) throws IOException {
         int tx = x / tileSize;
         int ty = y / tileSize;
-        writeEXRTile(tx, ty, w, h, color, alpha);
+        writeEXRTile(tx, ty, w, h, color, alpha, tileBuffers.get());
     }
 
     public void closeFile() throws IOException {
@@ -187,12 +186,16 @@ public class EXRBitmapWriter implements BitmapWriter {
         tilesY = ((h + tileSize - 1) / tileSize);
 
         /*
-         * twice the space for the compressing buffer, as for ex. the compressor
-         * can actually increase the size of the data :) If that happens though,
-         * it is not saved into the file, but discarded
+         * each render thread converts and compresses its tiles in its own
+         * buffers, only writing them to the file is serialized
          */
-        tmpbuf = new byte[tileSize * tileSize * channelSize * 4];
-        comprbuf = new byte[tileSize * tileSize * channelSize * 4 * 2];
+        final int tileBytes = tileSize * tileSize * channelSize * 4;
+        tileBuffers = new ThreadLocal<TileBuffer>() {
+            @Override
+            protected TileBuffer initialValue() {
+                return new TileBuffer(tileBytes);
+            }
+        };
 
         tileOffsets = new long[tilesX][tilesY];
 
@@ -224,8 +227,9 @@ public class EXRBitmapWriter implements BitmapWriter {
                 file.write(ByteUtil.get8Bytes(tileOffsets[tx][ty]));
     }
 
-    private synchronized void writeEXRTile(int tileX, int tileY, int w, int h, Color[] tile, float[] alpha) throws IOException {
-        byte[] rgb;
+    private void writeEXRTile(int tileX, int tileY, int w, int h, Color[] tile, float[] alpha, TileBuffer buffer) throws IOException {
+        byte[] tmpbuf = buffer.pixels;
+        float[] rgbf = buffer.rgb;
 
         // setting comprSize to max integer so without compression things
         // don't go awry
@@ -241,45 +245,15 @@ public class EXRBitmapWriter implements BitmapWriter {
         if ((tileSize != tileRangeY) && (tileY == 0))
             System.out.print(" bad Y alignment ");
 
-        tileOffsets[tileX][tileY] = file.getFilePointer();
-
-        // the tile header: tile's x&y coordinate, levels x&y coordinate and
-        // tilesize
-        file.write(ByteUtil.get4Bytes(tileX));
-        file.write(ByteUtil.get4Bytes(tileY));
-        file.write(ByteUtil.get4Bytes(0));
-        file.write(ByteUtil.get4Bytes(0));
-
         // just in case
         Arrays.fill(tmpbuf, (byte) 0);
 
         for (int ty = 0; ty < tileRangeY; ty++) {
             for (int tx = 0; tx < tileRangeX; tx++) {
-                float[] rgbf = tile[tx + ty * tileRangeX].getRGB();
-                if (channelType == FLOAT) {
-                    rgb = ByteUtil.get4Bytes(Float.floatToRawIntBits(alpha[tx + ty * tileRangeX]));
-                    tmpbuf[pixptr + 0] = rgb[0];
-                    tmpbuf[pixptr + 1] = rgb[1];
-                    tmpbuf[pixptr + 2] = rgb[2];
-                    tmpbuf[pixptr + 3] = rgb[3];
-                } else if (channelType == HALF) {
-                    rgb = ByteUtil.get2Bytes(ByteUtil.floatToHalf(alpha[tx + ty * tileRangeX]));
-                    tmpbuf[pixptr + 0] = rgb[0];
-                    tmpbuf[pixptr + 1] = rgb[1];
-                }
-                for (int component = 1; component <= 3; component++) {
-                    if (channelType == FLOAT) {
-                        rgb = ByteUtil.get4Bytes(Float.floatToRawIntBits(rgbf[3 - component]));
-                        tmpbuf[(channelBase * component) + pixptr + 0] = rgb[0];
-                        tmpbuf[(channelBase * component) + pixptr + 1] = rgb[1];
-                        tmpbuf[(channelBase * component) + pixptr + 2] = rgb[2];
-                        tmpbuf[(channelBase * component) + pixptr + 3] = rgb[3];
-                    } else if (channelType == HALF) {
-                        rgb = ByteUtil.get2Bytes(ByteUtil.floatToHalf(rgbf[3 - component]));
-                        tmpbuf[(channelBase * component) + pixptr + 0] = rgb[0];
-                        tmpbuf[(channelBase * component) + pixptr + 1] = rgb[1];
-                    }
-                }
+                tile[tx + ty * tileRangeX].getRGB(rgbf);
+                putChannel(tmpbuf, pixptr, alpha[tx + ty * tileRangeX]);
+                for (int component = 1; component <= 3; component++)
+                    putChannel(tmpbuf, (channelBase * component) + pixptr, rgbf[3 - component]);
                 pixptr += channelSize;
             }
             pixptr += (tileRangeX * channelSize * 3);
@@ -288,26 +262,52 @@ public class EXRBitmapWriter implements BitmapWriter {
         writeSize = tileRangeX * tileRangeY * channelSize * 4;
 
         if (compression != NO_COMPRESSION)
-            comprSize = compress(compression, tmpbuf, writeSize, comprbuf);
-
-        // lastly, write the size of the tile and the tile itself
-        // (compressed or not)
-        if (comprSize < writeSize) {
-            file.write(ByteUtil.get4Bytes(comprSize));
-            file.write(comprbuf, 0, comprSize);
-        } else {
-            file.write(ByteUtil.get4Bytes(writeSize));
-            file.write(tmpbuf, 0, writeSize);
+            comprSize = compress(compression, tmpbuf, writeSize, buffer);
+
+        synchronized (this) {
+            tileOffsets[tileX][tileY] = file.getFilePointer();
+
+            // the tile header: tile's x&y coordinate, levels x&y coordinate
+            // and tilesize
+            file.write(ByteUtil.get4Bytes(tileX));
+            file.write(ByteUtil.get4Bytes(tileY));
+            file.write(ByteUtil.get4Bytes(0));
+            file.write(ByteUtil.get4Bytes(0));
+
+            // lastly, write the size of the tile and the tile itself
+            // (compressed or not)
+            if (comprSize < writeSize) {
+                file.write(ByteUtil.get4Bytes(comprSize));
+                file.write(buffer.compressed, 0, comprSize);
+            } else {
+                file.write(ByteUtil.get4Bytes(writeSize));
+                file.write(tmpbuf, 0, writeSize);
+            }
         }
     }
 
-    private static final int compress(int tp, byte[] in, int inSize, byte[] out) {
+    private void putChannel(byte[] buf, int pos, float value) {
+        if (channelType == FLOAT) {
+            int bits = Float.floatToRawIntBits(value);
+            buf[pos + 0] = (byte) bits;
+            buf[pos + 1] = (byte) (bits >> 8);
+            buf[pos + 2] = (byte) (bits >> 16);
+            buf[pos + 3] = (byte) (bits >> 24);
+        } else if (channelType == HALF) {
+            int half = ByteUtil.floatToHalf(value);
+            buf[pos + 0] = (byte) half;
+            buf[pos + 1] = (byte) (half >> 8);
+        }
+    }
+
+    private static final int compress(int tp, byte[] in, int inSize, TileBuffer buffer) {
         if (inSize == 0)
             return 0;
 
         int t1 = 0, t2 = (inSize + 1) / 2;
         int inPtr = 0, ret;
-        byte[] tmp = new byte[inSize];
+        byte[] tmp = buffer.reordered;
+        byte[] out = buffer.compressed;
 
         // zip and rle treat the data first, in the same way so I'm not
         // repeating the code
@@ -344,6 +344,7 @@ public class EXRBitmapWriter implements BitmapWriter {
                 def.setInput(tmp, 0, inSize);
                 def.finish();
                 ret = def.deflate(out);
+                def.end();
                 return ret;
             case RLE_COMPRESSION:
                 return rleCompress(tmp, inSize, out);
@@ -374,4 +375,23 @@ public class EXRBitmapWriter implements BitmapWriter {
         }
         return outWrite;
     }
+
+    /**
+     * Per thread buffers for converting and compressing a tile. The
+     * compression buffer has twice the space, as the compressor can actually
+     * increase the size of the data. If that happens though, it is not saved
+     * into the file, but discarded.
+     */
+    private static final class TileBuffer {
+        final byte[] pixels;
+        final byte[] reordered;
+        final byte[] compressed;
+        final float[] rgb = new float[3];
+
+        TileBuffer(int size) {
+            pixels = new byte[size];
+            reordered = new byte[size];
+            compressed = new byte[size * 2];
+        }
+    }
 }
\ No newline at end of file
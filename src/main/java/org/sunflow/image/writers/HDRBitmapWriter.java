@@ -7,12 +7,11 @@ import java.io.OutputStream;
 
 import org.sunflow.image.BitmapWriter;
 import org.sunflow.image.Color;
-import org.sunflow.image.ColorEncoder;
 
 public class HDRBitmapWriter implements BitmapWriter {
     private String filename;
     private int width, height;
-    private int[] data;
+    private byte[] data; // RGBE bytes in file order
 
     public void configure(String option, String value) {
     }
@@ -24,14 +23,19 @@ public class HDRBitmapWriter implements BitmapWriter {
     public void writeHeader(int width, int height, int tileSize) throws IOException, UnsupportedOperationException {
         this.width = width;
         this.height = height;
-        data = new int[width * height];
+        data = new byte[4 * width * height];
     }
 
     public void writeTile(int x, int y, int w, int h, Color[] color, float[] alpha) throws IOException {
-        int[] tileData = ColorEncoder.encodeRGBE(color);
-        for (int j = 0, index = 0, pixel = x + y * width; j < h; j++, pixel += width - w)
-            for (int i = 0; i < w; i++, index++, pixel++)
-                data[pixel] = tileData[index];
+        for (int j = 0, index = 0, pixel = 4 * (x + y * width); j < h; j++, pixel += 4 * (width - w)) {
+            for (int i = 0; i < w; i++, index++, pixel += 4) {
+                int rgbe = color[index].toRGBE();
+                data[pixel + 0] = (byte) (rgbe >> 24);
+                data[pixel + 1] = (byte) (rgbe >> 16);
+                data[pixel + 2] = (byte) (rgbe >> 8);
+                data[pixel + 3] = (byte) rgbe;
+            }
+        }
     }
 
     public void closeFile() throws IOException {
@@ -39,13 +43,7 @@ public class HDRBitmapWriter implements BitmapWriter {
         f.write("#?RGBE\n".getBytes());
         f.write("FORMAT=32-bit_rle_rgbe\n\n".getBytes());
         f.write(("-Y " + height + " +X " + width + "\n").getBytes());
-        for (int i = 0; i < data.length; i++) {
-            int rgbe = data[i];
-            f.write(rgbe >> 24);
-            f.write(rgbe >> 16);
-            f.write(rgbe >> 8);
-            f.write(rgbe);
-        }
+        f.write(data);
         f.close();
     }
 }
\ No newline at end of file
@@ -1,17 +1,34 @@
 package org.sunflow.image.writers;
 
-import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import org.sunflow.image.BitmapWriter;
 import org.sunflow.image.Color;
 
+/**
+ * Writes 8-bit RGBA PNG files. Tiles are packed into an int framebuffer as
+ * they arrive. On close, the image is filtered and deflated in horizontal
+ * stripes on all cores. Each stripe ends on a byte boundary through a sync
+ * flush, so the stripes simply concatenate into one zlib stream, whose
+ * checksum is combined from the stripe checksums.
+ */
 public class PNGBitmapWriter implements BitmapWriter {
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int STRIPE_HEIGHT = 64;
+    private static final int ADLER_BASE = 65521;
+    private static final int COMPRESSION_LEVEL = 4; // same as ImageIO
+
     private String filename;
-    private BufferedImage image;
+    private int width, height;
+    private int[] data; // unpremultiplied, gamma corrected ARGB
 
     public void configure(String option, String value) {
     }
@@ -21,16 +38,198 @@ public class PNGBitmapWriter implements BitmapWriter {
     }
 
     public void writeHeader(int width, int height, int tileSize) throws IOException, UnsupportedOperationException {
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.width = width;
+        this.height = height;
+        data = new int[width * height];
     }
 
     public void writeTile(int x, int y, int w, int h, Color[] color, float[] alpha) throws IOException {
-        for (int j = 0, index = 0; j < h; j++)
-            for (int i = 0; i < w; i++, index++)
-                image.setRGB(x + i, y + j, color[index].copy().mul(1.0f / alpha[index]).toNonLinear().toRGBA(alpha[index]));
+        Color c = new Color();
+        for (int j = 0, index = 0, pixel = x + y * width; j < h; j++, pixel += width - w)
+            for (int i = 0; i < w; i++, index++, pixel++)
+                data[pixel] = c.set(color[index]).mul(1.0f / alpha[index]).toNonLinear().toRGBA(alpha[index]);
     }
 
     public void closeFile() throws IOException {
-        ImageIO.write(image, "png", new File(filename));
+        int numStripes = (height + STRIPE_HEIGHT - 1) / STRIPE_HEIGHT;
+        byte[][] stripes = new byte[numStripes][];
+        int[] checksums = new int[numStripes];
+        IntStream.range(0, numStripes).parallel().forEach(s -> {
+            int y0 = s * STRIPE_HEIGHT;
+            int y1 = Math.min(y0 + STRIPE_HEIGHT, height);
+            byte[] raw = filterRows(y0, y1);
+            Adler32 adler = new Adler32();
+            adler.update(raw, 0, raw.length);
+            checksums[s] = (int) adler.getValue();
+            stripes[s] = deflate(raw, s == numStripes - 1);
+        });
+        int checksum = 1;
+        for (int s = 0; s < numStripes; s++)
+            checksum = combineAdler32(checksum, checksums[s], (long) Math.min(STRIPE_HEIGHT, height - s * STRIPE_HEIGHT) * (1 + 4 * width));
+
+        DataOutputStream f = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        try {
+            f.write(SIGNATURE);
+            ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+            DataOutputStream h = new DataOutputStream(header);
+            h.writeInt(width);
+            h.writeInt(height);
+            h.writeByte(8); // bit depth
+            h.writeByte(6); // truecolor with alpha
+            h.writeByte(0); // deflate
+            h.writeByte(0); // adaptive filtering
+            h.writeByte(0); // no interlace
+            writeChunk(f, "IHDR", header.toByteArray(), null, null);
+            // zlib header for a 32K window and fast compression, then one
+            // IDAT chunk per stripe, the last one followed by the checksum
+            byte[] zlibHeader = { 0x78, 0x5E };
+            byte[] zlibTrailer = { (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum };
+            for (int s = 0; s < numStripes; s++)
+                writeChunk(f, "IDAT", s == 0 ? zlibHeader : null, stripes[s], s == numStripes - 1 ? zlibTrailer : null);
+            writeChunk(f, "IEND", null, null, null);
+        } finally {
+            f.close();
+        }
+        data = null;
+    }
+
+    /**
+     * Convert the rows y0 to y1 into PNG scanlines, each preceded by the
+     * filter type which gives the smallest sum of absolute filtered values.
+     */
+    private byte[] filterRows(int y0, int y1) {
+        int lineSize = 4 * width;
+        byte[] raw = new byte[(y1 - y0) * (1 + lineSize)];
+        byte[] prev = new byte[lineSize];
+        byte[] cur = new byte[lineSize];
+        byte[][] filtered = new byte[5][lineSize];
+        if (y0 > 0)
+            unpackRow(y0 - 1, prev);
+        for (int y = y0, pos = 0; y < y1; y++, pos += 1 + lineSize) {
+            unpackRow(y, cur);
+            int best = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = 0; type < 5; type++) {
+                long sum = filterRow(type, cur, prev, filtered[type]);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = type;
+                }
+            }
+            raw[pos] = (byte) best;
+            System.arraycopy(filtered[best], 0, raw, pos + 1, lineSize);
+            byte[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return raw;
+    }
+
+    private void unpackRow(int y, byte[] row) {
+        for (int i = 0, pixel = y * width; i < row.length; i += 4, pixel++) {
+            int argb = data[pixel];
+            row[i + 0] = (byte) (argb >> 16);
+            row[i + 1] = (byte) (argb >> 8);
+            row[i + 2] = (byte) argb;
+            row[i + 3] = (byte) (argb >> 24);
+        }
+    }
+
+    private static long filterRow(int type, byte[] cur, byte[] prev, byte[] out) {
+        long sum = 0;
+        switch (type) {
+            case 0:
+                for (int i = 0; i < cur.length; i++)
+                    sum += Math.abs(out[i] = cur[i]);
+                break;
+            case 1:
+                for (int i = 0; i < cur.length; i++)
+                    sum += Math.abs(out[i] = (byte) (cur[i] - (i >= 4 ? cur[i - 4] : 0)));
+                break;
+            case 2:
+                for (int i = 0; i < cur.length; i++)
+                    sum += Math.abs(out[i] = (byte) (cur[i] - prev[i]));
+                break;
+            case 3:
+                for (int i = 0; i < cur.length; i++)
+                    sum += Math.abs(out[i] = (byte) (cur[i] - (((i >= 4 ? cur[i - 4] & 0xFF : 0) + (prev[i] & 0xFF)) >> 1)));
+                break;
+            default:
+                for (int i = 0; i < cur.length; i++) {
+                    int a = i >= 4 ? cur[i - 4] & 0xFF : 0;
+                    int b = prev[i] & 0xFF;
+                    int c = i >= 4 ? prev[i - 4] & 0xFF : 0;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    int predictor = (pa <= pb && pa <= pc) ? a : pb <= pc ? b : c;
+                    sum += Math.abs(out[i] = (byte) (cur[i] - predictor));
+                }
+                break;
+        }
+        return sum;
+    }
+
+    private static byte[] deflate(byte[] raw, boolean last) {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+        try {
+            deflater.setInput(raw);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buf = new byte[1 << 16];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished())
+                    out.write(buf, 0, deflater.deflate(buf));
+            } else {
+                // a sync flush ends the stripe on a byte boundary without
+                // marking the final block
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two consecutive blocks of data, as in
+     * zlib's adler32_combine().
+     */
+    static int combineAdler32(int adler1, int adler2, long len2) {
+        long rem = len2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1))
+            sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE)
+            sum2 -= ADLER_BASE;
+        return (int) ((sum2 << 16) | sum1);
+    }
+
+    private static void writeChunk(DataOutputStream f, String type, byte[] prefix, byte[] data, byte[] suffix) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        int length = (prefix == null ? 0 : prefix.length) + (data == null ? 0 : data.length) + (suffix == null ? 0 : suffix.length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        f.writeInt(length);
+        f.write(typeBytes);
+        for (byte[] b : new byte[][] { prefix, data, suffix }) {
+            if (b != null) {
+                crc.update(b);
+                f.write(b);
+            }
+        }
+        f.writeInt((int) crc.getValue());
     }
 }
\ No newline at end of file
@@ -7,7 +7,6 @@ import java.io.OutputStream;
 
 import org.sunflow.image.BitmapWriter;
 import org.sunflow.image.Color;
-import org.sunflow.image.ColorEncoder;
 
 public class TGABitmapWriter implements BitmapWriter {
     private String filename;
@@ -28,16 +27,16 @@ public class TGABitmapWriter implements BitmapWriter {
     }
 
     public void writeTile(int x, int y, int w, int h, Color[] color, float[] alpha) throws IOException {
-        color = ColorEncoder.unlinearize(color); // gamma correction
-        byte[] tileData = ColorEncoder.quantizeRGBA8(color, alpha);
+        Color c = new Color();
         for (int j = 0, index = 0; j < h; j++) {
             int imageIndex = 4 * (x + (height - 1 - (y + j)) * width);
-            for (int i = 0; i < w; i++, index += 4, imageIndex += 4) {
-                // swap bytes around so buffer is in native BGRA order
-                data[imageIndex + 0] = tileData[index + 2];
-                data[imageIndex + 1] = tileData[index + 1];
-                data[imageIndex + 2] = tileData[index + 0];
-                data[imageIndex + 3] = tileData[index + 3];
+            for (int i = 0; i < w; i++, index++, imageIndex += 4) {
+                // gamma correct and store in native BGRA order
+                int argb = c.set(color[index]).toNonLinear().toRGBA(alpha[index]);
+                data[imageIndex + 0] = (byte) argb;
+                data[imageIndex + 1] = (byte) (argb >> 8);
+                data[imageIndex + 2] = (byte) (argb >> 16);
+                data[imageIndex + 3] = (byte) (argb >> 24);
             }
         }
     }
@@ -0,0 +1,118 @@
+package org.sunflow.math;
+
+/**
+ * Samples a discrete distribution in constant time with Walker's alias method.
+ * Each of the n slots holds the probability of keeping its own index and an
+ * alias index taken otherwise, so a sample needs a single table lookup instead
+ * of a search through a cumulative histogram.
+ */
+public final class AliasTable {
+    private final float[] probability;
+    private final int[] alias;
+    private final float[] pdf;
+
+    /**
+     * Builds the table for the given weights. Negative weights count as 0. If
+     * all weights are 0, all indices are equally likely.
+     *
+     * @param weights non-normalized weights, one per index
+     */
+    public AliasTable(float[] weights) {
+        int n = weights.length;
+        probability = new float[n];
+        alias = new int[n];
+        pdf = new float[n];
+        double sum = 0;
+        for (float w : weights)
+            sum += Math.max(w, 0);
+        for (int i = 0; i < n; i++)
+            pdf[i] = sum > 0 ? (float) (Math.max(weights[i], 0) / sum) : 1.0f / n;
+
+        // split into slots below and above the average, then fill each small
+        // slot with the remainder of a large one
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0, numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (double) pdf[i] * n;
+            if (scaled[i] < 1)
+                small[numSmall++] = i;
+            else
+                large[numLarge++] = i;
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            probability[s] = (float) scaled[s];
+            alias[s] = l;
+            scaled[l] -= 1 - scaled[s];
+            if (scaled[l] < 1)
+                small[numSmall++] = l;
+            else
+                large[numLarge++] = l;
+        }
+        // whatever is left is 1 up to rounding errors
+        int fallback = 0;
+        for (int i = 1; i < n; i++)
+            if (pdf[i] > pdf[fallback])
+                fallback = i;
+        while (numLarge > 0) {
+            int l = large[--numLarge];
+            probability[l] = 1;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            // never let rounding make an index with zero weight selectable
+            probability[s] = pdf[s] > 0 ? 1 : 0;
+            alias[s] = pdf[s] > 0 ? s : fallback;
+        }
+    }
+
+    /**
+     * @return number of indices in the distribution
+     */
+    public int size() {
+        return probability.length;
+    }
+
+    /**
+     * Get the probability of an index being chosen.
+     *
+     * @param i index
+     * @return normalized probability of <code>i</code>
+     */
+    public float getProbability(int i) {
+        return pdf[i];
+    }
+
+    /**
+     * Chooses an index according to the distribution.
+     *
+     * @param rand uniform random number in [0,1)
+     * @return chosen index
+     */
+    public int sample(double rand) {
+        double x = rand * probability.length;
+        int i = Math.min((int) x, probability.length - 1);
+        return x - i < probability[i] ? i : alias[i];
+    }
+
+    /**
+     * Recovers a fresh uniform random number from the one used by
+     * {@link #sample(double)}, which is independent of the chosen index. This
+     * is useful to place the sample within the chosen bin.
+     *
+     * @param rand the random number passed to {@link #sample(double)}
+     * @return uniform random number in [0,1)
+     */
+    public double remap(double rand) {
+        double x = rand * probability.length;
+        int i = Math.min((int) x, probability.length - 1);
+        double f = x - i;
+        float p = probability[i];
+        double r = f < p ? f / p : (f - p) / (1 - p);
+        return Math.min(r, 0.99999999);
+    }
+}
\ No newline at end of file
@@ -73,4 +73,16 @@ public final class FloatArray {
         }
         return array;
     }
+
+    /**
+     * Copy the contents of this array into a larger array.
+     * 
+     * @param dest destination array
+     * @param offset index of the first element to write in the destination
+     * @return number of elements copied
+     */
+    public final int copyTo(float[] dest, int offset) {
+        System.arraycopy(array, 0, dest, offset, size);
+        return size;
+    }
 }
\ No newline at end of file
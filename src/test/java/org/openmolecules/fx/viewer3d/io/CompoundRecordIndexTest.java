@@ -0,0 +1,152 @@
+package org.openmolecules.fx.viewer3d.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompoundRecordIndexTest {
+	private static final String MOLFILE_BODY = "\n  -OCL-\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END\n";
+
+	@TempDir
+	File mDir;
+
+	private File mCacheDir;
+
+	@BeforeEach
+	public void setUp() {
+		mCacheDir = new File(mDir, "cache");
+		System.setProperty(CompoundRecordIndex.DIRECTORY_PROPERTY, mCacheDir.getPath());
+		System.setProperty(CompoundRecordIndex.MIN_FILE_SIZE_PROPERTY, "0");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		System.clearProperty(CompoundRecordIndex.DIRECTORY_PROPERTY);
+		System.clearProperty(CompoundRecordIndex.MIN_FILE_SIZE_PROPERTY);
+	}
+
+	@Test
+	public void testSDFileSidecarRoundTrip() throws IOException {
+		File file = writeFile("lib.sdf", sdfRecord("aspirin") + sdfRecord("caffeine") + sdfRecord("  ibuprofen "));
+		CompoundRecordIndex created = CompoundRecordIndex.open(file);
+		assertNotNull(getSidecar());
+		assertFalse(new File(file.getPath() + ".idx").exists());
+
+		CompoundRecordIndex mapped = CompoundRecordIndex.open(file);
+		assertEquals(3, mapped.getRecordCount());
+		assertIndexEquals(created, mapped);
+		assertEquals(0, mapped.getRecordOffset(0));
+		assertEquals("caffeine", mapped.getRecordName(1));
+		assertEquals(2, mapped.findRecord("ibuprofen"));
+		assertEquals(0, mapped.findRecord(" aspirin"));
+		assertEquals(-1, mapped.findRecord("paracetamol"));
+	}
+
+	@Test
+	public void testSDFileWithCRLFAndWithoutFinalDelimiter() throws IOException {
+		String records = (sdfRecord("first") + sdfRecord("second")).replace("\n", "\r\n") + "third" + MOLFILE_BODY;
+		File file = writeFile("crlf.sdf", records);
+		CompoundRecordIndex index = CompoundRecordIndex.open(file);
+		assertEquals(3, index.getRecordCount());
+		assertEquals("second", index.getRecordName(1));
+		assertEquals(2, index.findRecord("third"));
+		assertIndexEquals(index, CompoundRecordIndex.open(file));
+	}
+
+	@Test
+	public void testDWARFileSidecarRoundTrip() throws IOException {
+		String dwar = "<datawarrior-fileinfo>\n<version=\"3.3\">\n</datawarrior-fileinfo>\n"
+				+ "Structure\tName\tIC50\n"
+				+ "idcode1\tmol A\t1.5\n"
+				+ "idcode2\tmol B\t2.5\n"
+				+ "<datawarrior properties>\n<columnWidth_Name=\"80\">\n</datawarrior properties>\n";
+		File file = writeFile("lib.dwar", dwar);
+		CompoundRecordIndex created = CompoundRecordIndex.open(file);
+		CompoundRecordIndex mapped = CompoundRecordIndex.open(file);
+		assertEquals(2, mapped.getRecordCount());
+		assertIndexEquals(created, mapped);
+		assertEquals(dwar.indexOf("idcode1"), mapped.getRecordOffset(0));
+		assertEquals("mol B", mapped.getRecordName(1));
+		assertEquals(1, mapped.findRecord("mol B"));
+	}
+
+	@Test
+	public void testChangedFileRebuildsSidecar() throws IOException {
+		File file = writeFile("changed.sdf", sdfRecord("one"));
+		assertEquals(1, CompoundRecordIndex.open(file).getRecordCount());
+
+		writeFile("changed.sdf", sdfRecord("one") + sdfRecord("two"));
+		CompoundRecordIndex index = CompoundRecordIndex.open(file);
+		assertEquals(2, index.getRecordCount());
+		assertEquals(1, index.findRecord("two"));
+		assertIndexEquals(index, CompoundRecordIndex.create(file));
+	}
+
+	@Test
+	public void testInvalidSidecarIsIgnored() throws IOException {
+		File file = writeFile("broken.sdf", sdfRecord("one") + sdfRecord("two"));
+		CompoundRecordIndex.open(file);
+		Files.write(getSidecar().toPath(), new byte[16]);
+		CompoundRecordIndex index = CompoundRecordIndex.open(file);
+		assertEquals(2, index.getRecordCount());
+		assertIndexEquals(index, CompoundRecordIndex.open(file));
+	}
+
+	@Test
+	public void testLongNames() throws IOException {
+		String longName = "x".repeat(300);
+		String umlautName = "\u00e4".repeat(200);	// 400 bytes in UTF-8, truncated within a character
+		File file = writeFile("long.sdf", sdfRecord("short") + sdfRecord(longName) + sdfRecord(umlautName));
+		CompoundRecordIndex index = CompoundRecordIndex.open(file);
+		assertEquals(1, index.findRecord(longName));
+		assertEquals(2, index.findRecord(umlautName));
+		assertEquals(-1, index.findRecord("x".repeat(299)));
+		assertEquals(1, CompoundRecordIndex.create(file).findRecord(longName));
+	}
+
+	@Test
+	public void testSmallFileHasNoSidecar() throws IOException {
+		System.clearProperty(CompoundRecordIndex.MIN_FILE_SIZE_PROPERTY);
+		File file = writeFile("small.sdf", sdfRecord("one") + sdfRecord("two"));
+		assertFalse(CompoundRecordIndex.isLargeFile(file));
+		assertEquals(2, CompoundRecordIndex.open(file).getRecordCount());
+		assertFalse(mCacheDir.exists());
+	}
+
+	private File getSidecar() {
+		File[] files = mCacheDir.listFiles((dir, name) -> name.endsWith(".idx"));
+		assertNotNull(files);
+		assertEquals(1, files.length);
+		return files[0];
+	}
+
+	private File writeFile(String name, String content) throws IOException {
+		File file = new File(mDir, name);
+		long lastModified = file.exists() ? file.lastModified() : 0;
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		// make sure the modification is noticed even with coarse file time resolution
+		if (lastModified != 0)
+			file.setLastModified(lastModified + 2000);
+		return file;
+	}
+
+	private static String sdfRecord(String name) {
+		return name + MOLFILE_BODY + "$$$$\n";
+	}
+
+	private static void assertIndexEquals(CompoundRecordIndex expected, CompoundRecordIndex actual) throws IOException {
+		assertEquals(expected.getRecordCount(), actual.getRecordCount());
+		for (int i=0; i<=expected.getRecordCount(); i++)
+			assertEquals(expected.getRecordOffset(i), actual.getRecordOffset(i));
+		for (int i=0; i<expected.getRecordCount(); i++)
+			assertEquals(expected.getRecordName(i), actual.getRecordName(i));
+	}
+}
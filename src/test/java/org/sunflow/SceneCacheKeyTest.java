@@ -0,0 +1,107 @@
+package org.sunflow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sunflow.core.Camera;
+import org.sunflow.core.ParameterList;
+import org.sunflow.core.ParameterList.InterpolationType;
+import org.sunflow.core.Scene;
+import org.sunflow.core.camera.PinholeLens;
+import org.sunflow.core.light.PointLight;
+import org.sunflow.core.shader.DiffuseShader;
+import org.sunflow.image.Color;
+
+public class SceneCacheKeyTest {
+    private SunflowAPI api;
+    private RenderObjectMap objects;
+    private Scene scene;
+
+    @BeforeEach
+    public void setUp() {
+        api = new SunflowAPI();
+        objects = new RenderObjectMap();
+        scene = new Scene();
+        objects.put("light", new PointLight());
+        objects.update("light", lightParameters(1, 2, 3, Color.WHITE), api);
+        objects.put("shader", new DiffuseShader());
+        objects.update("shader", shaderParameters(Color.GRAY), api);
+        objects.put("camera", new Camera(new PinholeLens()));
+    }
+
+    private long getCacheKey() {
+        objects.updateScene(scene);
+        return scene.getCacheKey();
+    }
+
+    @Test
+    public void testUnchangedSceneKeepsKey() {
+        long key = getCacheKey();
+        assertEquals(key, getCacheKey());
+    }
+
+    @Test
+    public void testMovedLightChangesKey() {
+        long key = getCacheKey();
+        objects.update("light", lightParameters(1, 2, 4, Color.WHITE), api);
+        assertNotEquals(key, getCacheKey());
+    }
+
+    @Test
+    public void testRecoloredLightChangesKey() {
+        long key = getCacheKey();
+        objects.update("light", lightParameters(1, 2, 3, Color.RED), api);
+        assertNotEquals(key, getCacheKey());
+    }
+
+    @Test
+    public void testChangedShaderChangesKey() {
+        long key = getCacheKey();
+        objects.update("shader", shaderParameters(Color.BLUE), api);
+        assertNotEquals(key, getCacheKey());
+    }
+
+    @Test
+    public void testRemovedLightChangesKey() {
+        long key = getCacheKey();
+        objects.remove("light");
+        assertNotEquals(key, getCacheKey());
+    }
+
+    @Test
+    public void testCameraDoesNotChangeKey() {
+        long key = getCacheKey();
+        ParameterList pl = new ParameterList();
+        pl.addFloat("fov", 30);
+        objects.update("camera", pl, api);
+        assertEquals(key, getCacheKey());
+    }
+
+    @Test
+    public void testParameterOrderDoesNotChangeHash() {
+        ParameterList a = new ParameterList();
+        a.addPoints("center", InterpolationType.NONE, new float[] { 1, 2, 3 });
+        a.addColor("power", Color.WHITE);
+        ParameterList b = new ParameterList();
+        b.addColor("power", Color.WHITE);
+        b.addPoints("center", InterpolationType.NONE, new float[] { 1, 2, 3 });
+        assertEquals(a.getHash(), b.getHash());
+        b.addFloat("radius", 1);
+        assertNotEquals(a.getHash(), b.getHash());
+    }
+
+    private static ParameterList lightParameters(float x, float y, float z, Color power) {
+        ParameterList pl = new ParameterList();
+        pl.addPoints("center", InterpolationType.NONE, new float[] { x, y, z });
+        pl.addColor("power", power);
+        return pl;
+    }
+
+    private static ParameterList shaderParameters(Color diffuse) {
+        ParameterList pl = new ParameterList();
+        pl.addColor("diffuse", diffuse);
+        return pl;
+    }
+}
\ No newline at end of file
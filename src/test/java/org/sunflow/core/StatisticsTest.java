@@ -0,0 +1,216 @@
+package org.sunflow.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sunflow.core.Statistics.RayType;
+
+public class StatisticsTest {
+    @TempDir
+    File dir;
+
+    @Test
+    public void testJSONContainsCounters() {
+        Statistics stats = createStatistics(null);
+        Map<String, Object> json = parse(stats.getSnapshot(true).toJSON());
+
+        assertEquals(Boolean.TRUE, json.get("finished"));
+        assertEquals(64.0 * 48.0, json.get("pixels"));
+        Map<String, Object> rays = map(json.get("rays"));
+        assertEquals(RayType.values().length, rays.size());
+        assertEquals(100.0, rays.get("eye"));
+        assertEquals(250.0, rays.get("shadow"));
+        assertEquals(30.0, rays.get("other"));
+        assertEquals(400.0, rays.get("total"));
+        assertEquals(RayType.values().length, map(json.get("raysPerSecond")).size());
+        assertEquals(5000.0, json.get("intersectionTests"));
+        assertEquals(8000.0, json.get("nodeVisits"));
+        Map<String, Object> giCache = map(json.get("giCache"));
+        assertEquals(3.0, giCache.get("hits"));
+        assertEquals(1.0, giCache.get("misses"));
+        assertEquals(0.75, (Double) giCache.get("hitRate"), 1e-4);
+        Map<String, Object> shadingCache = map(json.get("shadingCache"));
+        assertEquals(0.0, shadingCache.get("hitRate"));
+
+        Map<String, Object> buckets = map(json.get("buckets"));
+        assertEquals(3.0, buckets.get("count"));
+        assertEquals(0.003, (Double) buckets.get("averageSeconds"), 1e-6);
+        assertEquals(0.0075, (Double) buckets.get("maxSeconds"), 1e-6);
+        List<Object> histogram = list(buckets.get("histogramMillis"));
+        assertEquals(Statistics.NUM_BUCKET_TIME_BINS, histogram.size());
+        // 0.5 ms, 1 ms and 7.5 ms
+        assertEquals(1.0, histogram.get(0));
+        assertEquals(1.0, histogram.get(1));
+        assertEquals(1.0, histogram.get(3));
+        assertTrue((Double) map(json.get("memory")).get("max") > 0);
+    }
+
+    @Test
+    public void testJSONIgnoresDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            Map<String, Object> json = parse(createStatistics(null).getSnapshot(false).toJSON());
+            assertEquals(Boolean.FALSE, json.get("finished"));
+            assertEquals(0.75, (Double) map(json.get("giCache")).get("hitRate"), 1e-4);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testEmptyStatisticsAreValidJSON() {
+        Statistics stats = new Statistics();
+        Map<String, Object> json = parse(stats.getSnapshot(false).toJSON());
+        assertEquals(0.0, map(json.get("rays")).get("total"));
+        assertEquals(0.0, map(json.get("giCache")).get("hitRate"));
+        assertEquals(0.0, map(json.get("buckets")).get("averageSeconds"));
+    }
+
+    @Test
+    public void testFinishWritesFileAndNotifiesListeners() throws IOException {
+        File file = new File(dir, "stats.json");
+        Statistics stats = createStatistics(file.getPath());
+        List<Statistics.Snapshot> received = new ArrayList<Statistics.Snapshot>();
+        stats.addListener(received::add);
+        stats.finish();
+
+        assertEquals(1, received.size());
+        assertTrue(received.get(0).isFinished());
+        assertEquals(400, received.get(0).getRays(RayType.TOTAL));
+        Map<String, Object> json = parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(400.0, map(json.get("rays")).get("total"));
+    }
+
+    private static Statistics createStatistics(String file) {
+        Statistics stats = new Statistics();
+        Options options = new Options();
+        options.addInteger("stats.interval", 0);
+        if (file != null)
+            options.addString("stats.file", file);
+        stats.init(options);
+        stats.setResolution(64, 48);
+        IntersectionState state = new IntersectionState();
+        state.numEyeRays = 100;
+        state.numShadowRays = 250;
+        state.numReflectionRays = 20;
+        state.numRays = 400;
+        state.numIntersectionTests = 5000;
+        state.numNodeVisits = 8000;
+        state.numGICacheHits = 3;
+        state.numGICacheMisses = 1;
+        stats.accumulate(state);
+        assertEquals(0, state.numRays);
+        stats.accumulateBucket(500000);
+        stats.accumulateBucket(1000000);
+        stats.accumulateBucket(7500000);
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object o) {
+        return (Map<String, Object>) o;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object o) {
+        return (List<Object>) o;
+    }
+
+    /**
+     * Parses JSON strictly enough to reject malformed output. Numbers are
+     * returned as doubles.
+     */
+    private static Map<String, Object> parse(String text) {
+        JSONParser parser = new JSONParser(text);
+        Object value = parser.parseValue();
+        parser.skipWhitespace();
+        assertEquals(text.length(), parser.pos, "trailing characters");
+        return map(value);
+    }
+
+    private static final class JSONParser {
+        private final String text;
+        private int pos;
+
+        JSONParser(String text) {
+            this.text = text;
+        }
+
+        Object parseValue() {
+            skipWhitespace();
+            char c = text.charAt(pos);
+            if (c == '{') {
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                pos++;
+                skipWhitespace();
+                if (text.charAt(pos) == '}') {
+                    pos++;
+                    return map;
+                }
+                do {
+                    skipWhitespace();
+                    String key = parseString();
+                    skipWhitespace();
+                    expect(':');
+                    map.put(key, parseValue());
+                    skipWhitespace();
+                } while (text.charAt(pos++) == ',');
+                assertEquals('}', text.charAt(pos - 1), "at " + pos);
+                return map;
+            } else if (c == '[') {
+                List<Object> list = new ArrayList<Object>();
+                pos++;
+                do {
+                    list.add(parseValue());
+                    skipWhitespace();
+                } while (text.charAt(pos++) == ',');
+                assertEquals(']', text.charAt(pos - 1), "at " + pos);
+                return list;
+            } else if (c == '"')
+                return parseString();
+            else if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+                pos++;
+            assertTrue(pos > start, "unexpected character at " + pos);
+            return Double.parseDouble(text.substring(start, pos));
+        }
+
+        String parseString() {
+            expect('"');
+            int end = text.indexOf('"', pos);
+            String s = text.substring(pos, end);
+            pos = end + 1;
+            return s;
+        }
+
+        void expect(char c) {
+            assertEquals(c, text.charAt(pos), "at " + pos);
+            pos++;
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+        }
+    }
+}
\ No newline at end of file
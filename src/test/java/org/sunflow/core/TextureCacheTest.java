@@ -0,0 +1,118 @@
+package org.sunflow.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TextureCacheTest {
+    // memory of a 64x64 mip-map pyramid with 3 floats per texel
+    private static final long TEXTURE_BYTES = 12L * (64 * 64 + 32 * 32 + 16 * 16 + 8 * 8 + 4 * 4 + 2 * 2 + 1);
+
+    @TempDir
+    File dir;
+
+    private long defaultMaxMemory;
+
+    @BeforeEach
+    public void setUp() {
+        defaultMaxMemory = TextureCache.getMaxMemory();
+        TextureCache.flush();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TextureCache.setMaxMemory(defaultMaxMemory);
+        TextureCache.flush();
+    }
+
+    @Test
+    public void testRequestsShareTexture() throws IOException {
+        String a = writeImage("a.png");
+        TextureCache.Stats before = TextureCache.getStats();
+        Texture t = TextureCache.getTexture(a, false);
+        assertSame(t, TextureCache.getTexture(a, false));
+        assertNotSame(t, TextureCache.getTexture(a, true));
+        TextureCache.Stats after = TextureCache.getStats();
+        assertEquals(1, after.getHits() - before.getHits());
+        assertEquals(2, after.getMisses() - before.getMisses());
+        assertEquals(2, after.getTextureCount());
+    }
+
+    @Test
+    public void testLoadedTexturesAreAccounted() throws IOException {
+        Texture t = TextureCache.getTexture(writeImage("a.png"), false);
+        assertEquals(0, TextureCache.getStats().getBytesResident());
+        assertEquals(64, t.getWidth());
+        assertEquals(TEXTURE_BYTES, TextureCache.getStats().getBytesResident());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        String a = writeImage("a.png");
+        String b = writeImage("b.png");
+        String c = writeImage("c.png");
+        TextureCache.setMaxMemory(2 * TEXTURE_BYTES);
+        Texture ta = load(a);
+        Texture tb = load(b);
+        // use a again, so b becomes the least recently used texture
+        assertSame(ta, load(a));
+        long evictions = TextureCache.getStats().getEvictions();
+        Texture tc = load(c);
+
+        TextureCache.Stats stats = TextureCache.getStats();
+        assertEquals(1, stats.getEvictions() - evictions);
+        assertEquals(2, stats.getTextureCount());
+        assertEquals(2 * TEXTURE_BYTES, stats.getBytesResident());
+        assertSame(ta, TextureCache.getTexture(a, false));
+        assertSame(tc, TextureCache.getTexture(c, false));
+        // a dropped texture stays usable, but a new request loads it again
+        assertEquals(64, tb.getHeight());
+        assertNotSame(tb, TextureCache.getTexture(b, false));
+    }
+
+    @Test
+    public void testLoweringLimitEvicts() throws IOException {
+        load(writeImage("a.png"));
+        load(writeImage("b.png"));
+        TextureCache.setMaxMemory(TEXTURE_BYTES);
+        TextureCache.Stats stats = TextureCache.getStats();
+        assertEquals(1, stats.getTextureCount());
+        assertTrue(stats.getBytesResident() <= TEXTURE_BYTES);
+    }
+
+    @Test
+    public void testFlushEmptiesCache() throws IOException {
+        load(writeImage("a.png"));
+        TextureCache.flush();
+        assertEquals(0, TextureCache.getStats().getTextureCount());
+        assertEquals(0, TextureCache.getStats().getBytesResident());
+    }
+
+    private static Texture load(String filename) {
+        Texture t = TextureCache.getTexture(filename, false);
+        t.getWidth();
+        return t;
+    }
+
+    private String writeImage(String name) throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 64; y++)
+            for (int x = 0; x < 64; x++)
+                image.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8 | name.hashCode() & 0xFF);
+        File file = new File(dir, name);
+        ImageIO.write(image, "png", file);
+        return file.getAbsolutePath();
+    }
+}
\ No newline at end of file
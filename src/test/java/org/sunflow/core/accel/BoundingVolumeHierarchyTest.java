@@ -0,0 +1,175 @@
+package org.sunflow.core.accel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.sunflow.SunflowAPI;
+import org.sunflow.core.AccelerationStructure;
+import org.sunflow.core.IntersectionState;
+import org.sunflow.core.ParameterList;
+import org.sunflow.core.PrimitiveList;
+import org.sunflow.core.Ray;
+import org.sunflow.core.ShadingState;
+import org.sunflow.math.BoundingBox;
+import org.sunflow.math.Matrix4;
+
+public class BoundingVolumeHierarchyTest {
+    private static final int NUM_RAYS = 20000;
+
+    @Test
+    public void testSerialBuildMatchesKDTree() {
+        compareWithKDTree(new Spheres(2000, 1), false);
+    }
+
+    @Test
+    public void testParallelBuildMatchesKDTree() {
+        // large enough to split the build across threads
+        compareWithKDTree(new Spheres(50000, 2), true);
+    }
+
+    @Test
+    public void testOverlappingPrimitives() {
+        Spheres spheres = new Spheres(500, 3);
+        // pile half of the spheres up in one place, so their boxes overlap
+        for (int i = 0; i < spheres.size(); i += 2) {
+            spheres.data[4 * i + 0] = 0.5f;
+            spheres.data[4 * i + 1] = 0.5f;
+            spheres.data[4 * i + 2] = 0.5f;
+        }
+        compareWithKDTree(spheres, false);
+    }
+
+    @Test
+    public void testSinglePrimitive() {
+        Spheres spheres = new Spheres(1, 4);
+        compareWithKDTree(spheres, false);
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy();
+        bvh.build(spheres);
+        float[] s = spheres.data;
+        Ray r = new Ray(s[0], s[1], s[2] - 10, 0, 0, 1);
+        assertEquals(0, intersect(bvh, spheres, r));
+        assertEquals(10 - s[3], r.getMax(), 1e-4f);
+    }
+
+    private static void compareWithKDTree(Spheres spheres, boolean parallel) {
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy();
+        bvh.setParallelBuild(parallel);
+        bvh.build(spheres);
+        KDTree kdtree = new KDTree();
+        kdtree.build(spheres);
+
+        Random random = new Random(42);
+        int hits = 0;
+        for (int i = 0; i < NUM_RAYS; i++) {
+            float ox = 2 * random.nextFloat() - 0.5f;
+            float oy = 2 * random.nextFloat() - 0.5f;
+            float oz = 2 * random.nextFloat() - 0.5f;
+            float dx = (float) random.nextGaussian();
+            float dy = (float) random.nextGaussian();
+            float dz = (float) random.nextGaussian();
+            Ray r1 = new Ray(ox, oy, oz, dx, dy, dz);
+            Ray r2 = new Ray(ox, oy, oz, dx, dy, dz);
+            Ray r3 = new Ray(ox, oy, oz, dx, dy, dz);
+            int expected = spheres.intersectAll(r1);
+            assertEquals(expected, intersect(kdtree, spheres, r2), "kd-tree, ray " + i);
+            assertEquals(expected, intersect(bvh, spheres, r3), "bvh, ray " + i);
+            assertEquals(r1.getMax(), r3.getMax(), 0, "bvh distance, ray " + i);
+            if (expected != -1)
+                hits++;
+        }
+        // make sure the comparison isn't made of misses only
+        assertTrue(hits > 0, "no ray hit");
+    }
+
+    private static int intersect(AccelerationStructure accel, Spheres spheres, Ray r) {
+        spheres.hit = -1;
+        accel.intersect(r, new IntersectionState());
+        return spheres.hit;
+    }
+
+    /**
+     * Random spheres within the unit cube, which remember the closest hit.
+     */
+    private static final class Spheres implements PrimitiveList {
+        private final float[] data;
+        private int hit;
+
+        Spheres(int n, long seed) {
+            Random random = new Random(seed);
+            data = new float[4 * n];
+            float maxRadius = 0.5f / (float) Math.cbrt(n);
+            for (int i = 0; i < n; i++) {
+                data[4 * i + 0] = random.nextFloat();
+                data[4 * i + 1] = random.nextFloat();
+                data[4 * i + 2] = random.nextFloat();
+                data[4 * i + 3] = maxRadius * (0.1f + 0.9f * random.nextFloat());
+            }
+        }
+
+        int size() {
+            return data.length / 4;
+        }
+
+        int intersectAll(Ray r) {
+            hit = -1;
+            IntersectionState state = new IntersectionState();
+            for (int i = 0; i < size(); i++)
+                intersectPrimitive(r, i, state);
+            return hit;
+        }
+
+        public BoundingBox getWorldBounds(Matrix4 o2w) {
+            BoundingBox bounds = new BoundingBox();
+            for (int i = 0; i < size(); i++) {
+                bounds.include(getPrimitiveBound(i, 0), getPrimitiveBound(i, 2), getPrimitiveBound(i, 4));
+                bounds.include(getPrimitiveBound(i, 1), getPrimitiveBound(i, 3), getPrimitiveBound(i, 5));
+            }
+            return bounds;
+        }
+
+        public int getNumPrimitives() {
+            return size();
+        }
+
+        public float getPrimitiveBound(int primID, int i) {
+            float c = data[4 * primID + (i >>> 1)];
+            float radius = data[4 * primID + 3];
+            return (i & 1) == 0 ? c - radius : c + radius;
+        }
+
+        public void intersectPrimitive(Ray r, int primID, IntersectionState state) {
+            float ocx = r.ox - data[4 * primID + 0];
+            float ocy = r.oy - data[4 * primID + 1];
+            float ocz = r.oz - data[4 * primID + 2];
+            float radius = data[4 * primID + 3];
+            float qa = r.dx * r.dx + r.dy * r.dy + r.dz * r.dz;
+            float qb = 2 * (r.dx * ocx + r.dy * ocy + r.dz * ocz);
+            float qc = ocx * ocx + ocy * ocy + ocz * ocz - radius * radius;
+            double det = (double) qb * qb - 4.0 * qa * qc;
+            if (det < 0)
+                return;
+            float sqrt = (float) Math.sqrt(det);
+            float t = (-qb - sqrt) / (2 * qa);
+            if (!r.isInside(t))
+                t = (-qb + sqrt) / (2 * qa);
+            if (r.isInside(t)) {
+                r.setMax(t);
+                hit = primID;
+            }
+        }
+
+        public void prepareShadingState(ShadingState state) {
+        }
+
+        public PrimitiveList getBakingPrimitives() {
+            return null;
+        }
+
+        public boolean update(ParameterList pl, SunflowAPI api) {
+            return true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,148 @@
+package org.sunflow.image.writers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sunflow.image.Color;
+
+public class PNGBitmapWriterTest {
+    private static final int TILE_SIZE = 32;
+
+    @TempDir
+    File dir;
+
+    @Test
+    public void testCombineAdler32() {
+        Random random = new Random(7);
+        for (int length : new int[] { 0, 1, 100, 5552, 65521, 65522, 200000 }) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            // sums close to the modulus are the corner cases
+            if (length == 65522)
+                Arrays.fill(data, (byte) 0xFF);
+            for (int split : new int[] { 0, length / 3, length / 2, length }) {
+                int adler1 = adler32(data, 0, split);
+                int adler2 = adler32(data, split, length - split);
+                assertEquals(adler32(data, 0, length), PNGBitmapWriter.combineAdler32(adler1, adler2, length - split), "length " + length + ", split " + split);
+            }
+        }
+    }
+
+    @Test
+    public void testStripesFormOneZlibStream() throws IOException, DataFormatException {
+        // 4 stripes, the last one partial
+        checkImage(37, 200, 4);
+    }
+
+    @Test
+    public void testSingleStripe() throws IOException, DataFormatException {
+        checkImage(1, 1, 1);
+        checkImage(70, 64, 1);
+    }
+
+    private void checkImage(int width, int height, int expectedStripes) throws IOException, DataFormatException {
+        Random random = new Random(width * 31 + height);
+        int[] expected = new int[width * height];
+        File file = new File(dir, width + "x" + height + ".png");
+        PNGBitmapWriter writer = new PNGBitmapWriter();
+        writer.openFile(file.getPath());
+        writer.writeHeader(width, height, TILE_SIZE);
+        for (int y = 0; y < height; y += TILE_SIZE) {
+            for (int x = 0; x < width; x += TILE_SIZE) {
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+                Color[] color = new Color[w * h];
+                float[] alpha = new float[w * h];
+                for (int j = 0, index = 0; j < h; j++) {
+                    for (int i = 0; i < w; i++, index++) {
+                        // smooth gradients with noise, so all filter types get chosen
+                        float a = (x + i) % 5 == 0 ? 0.1f + 0.9f * random.nextFloat() : 1;
+                        color[index] = new Color((x + i) / (float) width, (y + j) / (float) height, random.nextFloat()).mul(a);
+                        alpha[index] = a;
+                        expected[x + i + (y + j) * width] = new Color(color[index]).mul(1 / a).toNonLinear().toRGBA(a);
+                    }
+                }
+                writer.writeTile(x, y, w, h, color, alpha);
+            }
+        }
+        writer.closeFile();
+
+        BufferedImage image = ImageIO.read(file);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                assertEquals(expected[x + y * width], image.getRGB(x, y), "pixel " + x + ", " + y);
+
+        // inflating in zlib mode verifies the combined Adler-32 checksum
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        assertEquals(expectedStripes, readImageData(file, idat));
+        Inflater inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        byte[] raw = new byte[height * (1 + 4 * width) + 1];
+        int n = 0;
+        while (!inflater.finished() && n < raw.length)
+            n += inflater.inflate(raw, n, raw.length - n);
+        assertTrue(inflater.finished());
+        assertEquals(0, inflater.getRemaining());
+        inflater.end();
+        assertEquals(height * (1 + 4 * width), n);
+        for (int y = 0; y < height; y++)
+            assertTrue(raw[y * (1 + 4 * width)] <= 4, "filter type of row " + y);
+    }
+
+    /**
+     * Checks the chunk checksums and collects the content of all IDAT chunks.
+     *
+     * @return number of IDAT chunks
+     */
+    private static int readImageData(File file, ByteArrayOutputStream idat) throws IOException {
+        int count = 0;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.skipBytes(8);
+            while (true) {
+                int length = in.readInt();
+                byte[] type = new byte[4];
+                in.readFully(type);
+                byte[] data = new byte[length];
+                in.readFully(data);
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(data);
+                assertEquals((int) crc.getValue(), in.readInt(), "checksum of " + new String(type, "US-ASCII"));
+                String name = new String(type, "US-ASCII");
+                if (name.equals("IDAT")) {
+                    idat.write(data);
+                    count++;
+                } else if (name.equals("IEND"))
+                    return count;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int adler32(byte[] data, int offset, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(data, offset, length);
+        return (int) adler.getValue();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package org.sunflow.math;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class AliasTableTest {
+    // number of evenly spaced random numbers used to measure the distribution
+    private static final int STEPS = 1 << 20;
+
+    @Test
+    public void testProbabilitiesAreNormalized() {
+        AliasTable table = new AliasTable(new float[] { 1, 3, 0, 4 });
+        assertEquals(4, table.size());
+        assertEquals(0.125f, table.getProbability(0), 1e-6f);
+        assertEquals(0.375f, table.getProbability(1), 1e-6f);
+        assertEquals(0, table.getProbability(2), 0);
+        assertEquals(0.5f, table.getProbability(3), 1e-6f);
+    }
+
+    @Test
+    public void testSamplesFollowWeights() {
+        float[] weights = { 0.5f, 7, 1, 0, 2.5f, 10, 0.01f, 3 };
+        AliasTable table = new AliasTable(weights);
+        double[] frequency = measure(table);
+        for (int i = 0; i < weights.length; i++)
+            assertEquals(table.getProbability(i), frequency[i], 1e-4, "index " + i);
+    }
+
+    @Test
+    public void testZeroWeightIsNeverSampled() {
+        AliasTable table = new AliasTable(new float[] { 0, 1, 0, 1e-3f, -2, 5 });
+        double[] frequency = measure(table);
+        assertEquals(0, frequency[0], 0);
+        assertEquals(0, frequency[2], 0);
+        assertEquals(0, frequency[4], 0);
+        assertTrue(frequency[3] > 0);
+    }
+
+    @Test
+    public void testAllZeroWeightsAreUniform() {
+        AliasTable table = new AliasTable(new float[4]);
+        double[] frequency = measure(table);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0.25f, table.getProbability(i), 1e-6f);
+            assertEquals(0.25, frequency[i], 1e-4);
+        }
+    }
+
+    @Test
+    public void testSingleEntry() {
+        AliasTable table = new AliasTable(new float[] { 2 });
+        assertEquals(0, table.sample(0));
+        assertEquals(0, table.sample(0.99999));
+        assertEquals(0.5, table.remap(0.5), 1e-9);
+    }
+
+    @Test
+    public void testRemapIsUniformWithinIndex() {
+        float[] weights = { 1, 6, 2, 3 };
+        AliasTable table = new AliasTable(weights);
+        int bins = 8;
+        double[][] histogram = new double[weights.length][bins];
+        for (int k = 0; k < STEPS; k++) {
+            double rand = (k + 0.5) / STEPS;
+            double r = table.remap(rand);
+            assertTrue(r >= 0 && r < 1, "remapped value " + r);
+            histogram[table.sample(rand)][(int) (r * bins)]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            double total = 0;
+            for (double h : histogram[i])
+                total += h;
+            for (int j = 0; j < bins; j++)
+                assertEquals(1.0 / bins, histogram[i][j] / total, 1e-3, "index " + i + ", bin " + j);
+        }
+    }
+
+    private static double[] measure(AliasTable table) {
+        double[] frequency = new double[table.size()];
+        for (int k = 0; k < STEPS; k++)
+            frequency[table.sample((k + 0.5) / STEPS)] += 1.0 / STEPS;
+        return frequency;
+    }
+}
\ No newline at end of file